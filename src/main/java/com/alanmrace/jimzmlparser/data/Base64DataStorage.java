@@ -5,6 +5,8 @@ import org.apache.commons.codec.binary.Base64;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Description of location of data stored in Base64 encoding. This class allows
@@ -25,10 +27,53 @@ public class Base64DataStorage extends DataStorage {
         super(dataFile);
     }
 
+    /**
+     * Set up a file containing data in Base64 encoding, accessed using the 
+     * specified access mode.
+     *
+     * @param dataFile File containing Base64 encoded data
+     * @param accessMode Method used to access the data
+     * @throws IOException Error occurred opening the file
+     */
+    public Base64DataStorage(File dataFile, AccessMode accessMode) throws IOException {
+        super(dataFile, accessMode);
+    }
+
     @Override
     public byte[] getData(long offset, int length) throws IOException {
         byte[] buffer = super.getData(offset, length);
 
         return Base64.decodeBase64(buffer);
     }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>The data is decoded from Base64 before being placed in the buffer, so the 
+     * number of bytes returned will be less than the length requested.
+     */
+    @Override
+    public int getData(long offset, int length, byte[] buffer) throws IOException {
+        byte[] decoded = getData(offset, length);
+
+        System.arraycopy(decoded, 0, buffer, 0, decoded.length);
+
+        return decoded.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>Each piece of data must be decoded from Base64 separately, so the reads
+     * are not combined.
+     */
+    @Override
+    public List<byte[]> getData(List<DataLocation> locations) throws IOException {
+        List<byte[]> data = new ArrayList<byte[]>(locations.size());
+        
+        for(DataLocation location : locations)
+            data.add(location.getBytes());
+        
+        return data;
+    }
 }
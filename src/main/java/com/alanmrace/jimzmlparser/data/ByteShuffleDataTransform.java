@@ -0,0 +1,105 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.util.zip.DataFormatException;
+
+/**
+ * DataTransform which transposes (shuffles) the bytes of fixed size elements, so
+ * that the first byte of every element is stored first, followed by the second
+ * byte of every element and so on. This is intended to be applied before
+ * compression, as neighbouring values (such as m/z values of a spectrum) tend to
+ * share their most significant bytes, which after shuffling form long runs that
+ * compress far better. Any bytes after the last whole element are left in place.
+ *
+ * @author Alan Race
+ */
+public class ByteShuffleDataTransform implements LengthAwareDataTransform {
+
+    /**
+     * Serialisation version ID.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Size in bytes of each element.
+     */
+    private final int elementSize;
+
+    /**
+     * Create a byte shuffle DataTransform for elements of the specified size.
+     *
+     * @param elementSize Size in bytes of each element
+     */
+    public ByteShuffleDataTransform(int elementSize) {
+        if (elementSize < 1) {
+            throw new IllegalArgumentException("Invalid element size: " + elementSize);
+        }
+
+        this.elementSize = elementSize;
+    }
+
+    /**
+     * Create a byte shuffle DataTransform for elements of the specified data type.
+     *
+     * @param dataType Data type of each element
+     */
+    public ByteShuffleDataTransform(DataTypeTransform.DataType dataType) {
+        this(DataTypeTransform.getDataTypeInBytes(dataType));
+    }
+
+    /**
+     * Get the size of each element.
+     *
+     * @return Size in bytes
+     */
+    public int getElementSize() {
+        return elementSize;
+    }
+
+    @Override
+    public byte[] forwardTransform(byte[] data) throws DataFormatException {
+        int numElements = data.length / elementSize;
+        byte[] shuffled = new byte[data.length];
+
+        for (int i = 0; i < numElements; i++) {
+            int offset = i * elementSize;
+
+            for (int b = 0; b < elementSize; b++) {
+                shuffled[b * numElements + i] = data[offset + b];
+            }
+        }
+
+        int end = numElements * elementSize;
+        System.arraycopy(data, end, shuffled, end, data.length - end);
+
+        return shuffled;
+    }
+
+    @Override
+    public byte[] reverseTransform(byte[] data) throws DataFormatException {
+        return reverseTransform(data, data.length);
+    }
+
+    @Override
+    public byte[] reverseTransform(byte[] data, int length) throws DataFormatException {
+        int numElements = length / elementSize;
+        byte[] unshuffled = new byte[length];
+
+        for (int b = 0; b < elementSize; b++) {
+            int offset = b * numElements;
+
+            for (int i = 0; i < numElements; i++) {
+                unshuffled[i * elementSize + b] = data[offset + i];
+            }
+        }
+
+        int end = numElements * elementSize;
+        System.arraycopy(data, end, unshuffled, end, length - end);
+
+        return unshuffled;
+    }
+
+    @Override
+    public String toString() {
+        return "ByteShuffleDataTransform (" + elementSize + " bytes)";
+    }
+}
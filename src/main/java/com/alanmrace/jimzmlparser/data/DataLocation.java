@@ -2,6 +2,10 @@ package com.alanmrace.jimzmlparser.data;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.DataFormatException;
@@ -32,6 +36,30 @@ public class DataLocation implements Serializable {
      */
     public static final long EXTENDED_OFFSET = 4294967296L; // 2^32
     
+    /**
+     * The maximum size in bytes of the scratch buffer kept by each thread for 
+     * use by the decodeInto methods. Data larger than this is read
+     * into a newly allocated array which is not retained.
+     */
+    public static final int MAX_SCRATCH_BUFFER_SIZE = 64 * 1024 * 1024;
+    
+    /**
+     * Per-thread buffer for reading raw data into prior to decoding, so that 
+     * repeated calls to the decodeInto methods do not allocate.
+     */
+    private static final ThreadLocal<byte[]> SCRATCH_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[0];
+        }
+    };
+    
+    /**
+     * DataTransformation with no steps, used when no DataTransformation has been
+     * supplied and so the data is stored as double.
+     */
+    private static final DataTransformation NO_TRANSFORMATION = new DataTransformation();
+    
     /**
      * The location and storage type of the data.
      * @see DataStorage
@@ -57,7 +85,9 @@ public class DataLocation implements Serializable {
     
     /**
      * Construct a DataLocation at a specific offset, with a specific length within
-     * a DataStorage.
+     * a DataStorage. A negative offset is corrected as described in 
+     * {@link DataLocation#EXTENDED_OFFSET}, so that the offset never changes once
+     * the DataLocation has been created and can be read from multiple threads.
      * 
      * @param dataStorage DataStorage containing the data
      * @param offset offset in bytes of the data within the dataStorage
@@ -66,7 +96,7 @@ public class DataLocation implements Serializable {
      */
     public DataLocation(DataStorage dataStorage, long offset, int length) {
         this.dataStorage = dataStorage;
-        this.offset = offset;
+        this.offset = fixOffsetOverflow(dataStorage, offset);
         this.length = length;
     }
     
@@ -109,13 +139,46 @@ public class DataLocation implements Serializable {
 
             return new byte[0];
         }
+        
+        return dataStorage.getData(offset, length);
+    }
+    
+    /**
+     * Correct an offset if a 32-bit signed integer overflow has occurred.
+     * 
+     * @param dataStorage DataStorage containing the data, for logging
+     * @param offset offset in bytes of the data within the dataStorage
+     * @return Corrected offset in bytes
+     * @see DataLocation#EXTENDED_OFFSET
+     */
+    private static long fixOffsetOverflow(DataStorage dataStorage, long offset) {
         if(offset < 0) {
             LOGGER.log(Level.SEVERE, "Offset is {0} for {1}. Attempting to fix integer overflow.", new Object[] {offset, dataStorage});
 
-            offset += EXTENDED_OFFSET; // By default is 2^32
+            return offset + EXTENDED_OFFSET; // By default is 2^32
         }
         
-        return dataStorage.getData(offset, length);
+        return offset;
+    }
+    
+    /**
+     * Get a scratch buffer of at least the specified size for the current thread.
+     * 
+     * @param size Minimum size of the buffer in bytes
+     * @return Buffer of at least size bytes
+     */
+    private static byte[] getScratchBuffer(int size) {
+        byte[] buffer = SCRATCH_BUFFER.get();
+        
+        if(buffer.length < size) {
+            if(size > MAX_SCRATCH_BUFFER_SIZE)
+                return new byte[size];
+            
+            buffer = new byte[Math.min(MAX_SCRATCH_BUFFER_SIZE, size + (size >> 1))];
+            SCRATCH_BUFFER.set(buffer);
+        }
+        
+        return buffer;
     }
 
     /**
@@ -142,6 +205,207 @@ public class DataLocation implements Serializable {
         return dataTransformation.performReverseTransform(data);
     }
     
+    /**
+     * Read the data from the DataStorage and apply the {@link DataLocation#dataTransformation}
+     * as described in {@link DataLocation#getData()}, placing the result into the
+     * supplied DoubleBuffer starting at its current position rather than allocating
+     * a new double[]. The raw data is read into a buffer which is reused by the
+     * calling thread. Uncompressed data, and data compressed by a single zlib or xz
+     * step, is then decoded without any further arrays the size of the data. Other
+     * compression (and filters) produce the output of each step as a new array.
+     *
+     * @param dest DoubleBuffer to place the decoded data into
+     * @return Number of values written to dest
+     * @throws DataFormatException Issue with converting the data
+     * @throws IOException Issue reading the raw data
+     */
+    public int decodeInto(DoubleBuffer dest) throws DataFormatException, IOException {
+        byte[] buffer = getScratchBuffer(length);
+        
+        return getTransformation().performReverseTransform(buffer, readInto(buffer), dest);
+    }
+    
+    /**
+     * Read the data from the DataStorage and apply the {@link DataLocation#dataTransformation}
+     * as described in {@link DataLocation#decodeInto(DoubleBuffer)}, placing the result
+     * into the supplied double[] starting at destOffset.
+     * 
+     * @param dest Array to place the decoded data into
+     * @param destOffset Index within dest to place the first value
+     * @return Number of values written to dest
+     * @throws DataFormatException Issue with converting the data
+     * @throws IOException Issue reading the raw data
+     */
+    public int decodeInto(double[] dest, int destOffset) throws DataFormatException, IOException {
+        return decodeInto(DoubleBuffer.wrap(dest, destOffset, dest.length - destOffset));
+    }
+    
+    /**
+     * Gets the raw data from the DataStorage and applies the {@link DataLocation#dataTransformation}
+     * to convert the byte[] to a float[], without first converting to double[].
+     * This preserves the stored precision when the data was stored as 32-bit
+     * floating point; data stored as any other type is converted using a Java 
+     * primitive conversion.
+     * 
+     * @return Converted and decompressed data as float[]
+     * @throws DataFormatException Issue with converting the data
+     * @throws IOException Issue reading the raw data
+     * @see DataTransformation#getStoredDataType()
+     */
+    public float[] getDataAsFloat() throws DataFormatException, IOException {
+        DataTransformation transformation = getTransformation();
+        
+        return DataTypeTransform.convertDataToFloat(transformation.performReverseTransformToStoredType(getBytes()), transformation.getStoredDataType());
+    }
+    
+    /**
+     * Gets the raw data from the DataStorage and applies the {@link DataLocation#dataTransformation}
+     * to convert the byte[] to an int[], as described in {@link DataLocation#getDataAsFloat()}.
+     * 
+     * @return Converted and decompressed data as int[]
+     * @throws DataFormatException Issue with converting the data
+     * @throws IOException Issue reading the raw data
+     */
+    public int[] getDataAsInt() throws DataFormatException, IOException {
+        DataTransformation transformation = getTransformation();
+        
+        return DataTypeTransform.convertDataToInt(transformation.performReverseTransformToStoredType(getBytes()), transformation.getStoredDataType());
+    }
+    
+    /**
+     * Gets the raw data from the DataStorage and applies the {@link DataLocation#dataTransformation}
+     * to convert the byte[] to a long[], as described in {@link DataLocation#getDataAsFloat()}.
+     * 
+     * @return Converted and decompressed data as long[]
+     * @throws DataFormatException Issue with converting the data
+     * @throws IOException Issue reading the raw data
+     */
+    public long[] getDataAsLong() throws DataFormatException, IOException {
+        DataTransformation transformation = getTransformation();
+        
+        return DataTypeTransform.convertDataToLong(transformation.performReverseTransformToStoredType(getBytes()), transformation.getStoredDataType());
+    }
+    
+    /**
+     * Read the data from the DataStorage and decode it into the supplied FloatBuffer,
+     * as described in {@link DataLocation#decodeInto(DoubleBuffer)} and 
+     * {@link DataLocation#getDataAsFloat()}.
+     * 
+     * @param dest FloatBuffer to place the decoded data into
+     * @return Number of values written to dest
+     * @throws DataFormatException Issue with converting the data
+     * @throws IOException Issue reading the raw data
+     */
+    public int decodeInto(FloatBuffer dest) throws DataFormatException, IOException {
+        byte[] buffer = getScratchBuffer(length);
+        
+        return getTransformation().performReverseTransform(buffer, readInto(buffer), dest);
+    }
+    
+    /**
+     * Read the data from the DataStorage and decode it into the supplied float[]
+     * starting at destOffset, as described in {@link DataLocation#decodeInto(FloatBuffer)}.
+     * 
+     * @param dest Array to place the decoded data into
+     * @param destOffset Index within dest to place the first value
+     * @return Number of values written to dest
+     * @throws DataFormatException Issue with converting the data
+     * @throws IOException Issue reading the raw data
+     */
+    public int decodeInto(float[] dest, int destOffset) throws DataFormatException, IOException {
+        return decodeInto(FloatBuffer.wrap(dest, destOffset, dest.length - destOffset));
+    }
+    
+    /**
+     * Read the data from the DataStorage and decode it into the supplied IntBuffer,
+     * as described in {@link DataLocation#decodeInto(DoubleBuffer)} and 
+     * {@link DataLocation#getDataAsInt()}.
+     * 
+     * @param dest IntBuffer to place the decoded data into
+     * @return Number of values written to dest
+     * @throws DataFormatException Issue with converting the data
+     * @throws IOException Issue reading the raw data
+     */
+    public int decodeInto(IntBuffer dest) throws DataFormatException, IOException {
+        byte[] buffer = getScratchBuffer(length);
+        
+        return getTransformation().performReverseTransform(buffer, readInto(buffer), dest);
+    }
+    
+    /**
+     * Read the data from the DataStorage and decode it into the supplied int[]
+     * starting at destOffset, as described in {@link DataLocation#decodeInto(IntBuffer)}.
+     * 
+     * @param dest Array to place the decoded data into
+     * @param destOffset Index within dest to place the first value
+     * @return Number of values written to dest
+     * @throws DataFormatException Issue with converting the data
+     * @throws IOException Issue reading the raw data
+     */
+    public int decodeInto(int[] dest, int destOffset) throws DataFormatException, IOException {
+        return decodeInto(IntBuffer.wrap(dest, destOffset, dest.length - destOffset));
+    }
+    
+    /**
+     * Read the data from the DataStorage and decode it into the supplied LongBuffer,
+     * as described in {@link DataLocation#decodeInto(DoubleBuffer)} and 
+     * {@link DataLocation#getDataAsLong()}.
+     * 
+     * @param dest LongBuffer to place the decoded data into
+     * @return Number of values written to dest
+     * @throws DataFormatException Issue with converting the data
+     * @throws IOException Issue reading the raw data
+     */
+    public int decodeInto(LongBuffer dest) throws DataFormatException, IOException {
+        byte[] buffer = getScratchBuffer(length);
+        
+        return getTransformation().performReverseTransform(buffer, readInto(buffer), dest);
+    }
+    
+    /**
+     * Read the data from the DataStorage and decode it into the supplied long[]
+     * starting at destOffset, as described in {@link DataLocation#decodeInto(LongBuffer)}.
+     * 
+     * @param dest Array to place the decoded data into
+     * @param destOffset Index within dest to place the first value
+     * @return Number of values written to dest
+     * @throws DataFormatException Issue with converting the data
+     * @throws IOException Issue reading the raw data
+     */
+    public int decodeInto(long[] dest, int destOffset) throws DataFormatException, IOException {
+        return decodeInto(LongBuffer.wrap(dest, destOffset, dest.length - destOffset));
+    }
+    
+    /**
+     * Read the raw data from the DataStorage into the start of the supplied buffer.
+     * 
+     * @param buffer Buffer of at least length bytes to read the data into
+     * @return Number of bytes of data placed in the buffer
+     * @throws IOException can be thrown by dataStorage if the data storage is on disk
+     */
+    private int readInto(byte[] buffer) throws IOException {
+        if(length <= 0) {
+            LOGGER.log(Level.FINER, "Data is of size {0} for {1}", new Object[] {length, dataStorage});
+
+            return 0;
+        }
+        
+        return dataStorage.getData(offset, length, buffer);
+    }
+    
+    /**
+     * Get the DataTransformation to apply to the raw data, which is an empty
+     * DataTransformation if none has been supplied.
+     * 
+     * @return DataTransformation to apply
+     */
+    private DataTransformation getTransformation() {
+        if(dataTransformation == null)
+            return NO_TRANSFORMATION;
+        
+        return dataTransformation;
+    }
+    
     /**
      * Set the data transformation which describes how the data was originally 
      * converted from a byte[] representation of double[] to how it was stored in
@@ -153,6 +417,16 @@ public class DataLocation implements Serializable {
     public void setDataTransformation(DataTransformation transformation) {
         this.dataTransformation = transformation;
     }
+
+    /**
+     * Get the DataTransformation applied to generate the data in the DataLocation.
+     * 
+     * @return DataTransformation, or null if none has been supplied (and so the 
+     * data is stored as double)
+     */
+    public DataTransformation getDataTransformation() {
+        return dataTransformation;
+    }
     
     @Override
     public String toString() {
@@ -4,6 +4,19 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -15,12 +28,81 @@ import java.util.logging.Logger;
  * @see Base64DataStorage
  * @see BinaryDataStorage
  * @see MzMLSpectrumDataStorage
+ * @see MappedDataStorage
  */
 public abstract class DataStorage {
     
     /** Class logger. */
     private static final Logger LOGGER = Logger.getLogger(DataStorage.class.getName());
     
+    /**
+     * Size in bytes of each memory mapped segment of the file. A single mapping is
+     * limited to Integer.MAX_VALUE bytes, so larger files are mapped as a series of
+     * segments of this size.
+     */
+    public static final long MAPPED_SEGMENT_SIZE = 1L << 30;
+    
+    /**
+     * Maximum gap in bytes between two pieces of data for them to be read in a 
+     * single read by {@link #getData(List)}. The data in the gap is read and discarded.
+     */
+    public static final int MAX_COALESCE_GAP = 4096;
+    
+    /**
+     * Maximum size in bytes of a single read performed by {@link #getData(List)}
+     * when combining the reads of multiple pieces of data.
+     */
+    public static final int MAX_COALESCED_READ_SIZE = 16 * 1024 * 1024;
+    
+    /**
+     * Suggested size in bytes of the readahead window, for use with 
+     * {@link #setReadaheadSize(int)}.
+     */
+    public static final int DEFAULT_READAHEAD_SIZE = 4 * 1024 * 1024;
+    
+    /**
+     * Number of consecutive forward sequential reads required before readahead 
+     * is started.
+     */
+    public static final int SEQUENTIAL_READS_BEFORE_READAHEAD = 2;
+    
+    /**
+     * Size in bytes of the reads performed when prefetching data.
+     */
+    private static final int PREFETCH_BUFFER_SIZE = 64 * 1024;
+    
+    /**
+     * Size in bytes of a page of a memory mapped file, used to touch each page 
+     * when prefetching.
+     */
+    private static final int PAGE_SIZE = 4096;
+    
+    /**
+     * Possible methods of accessing the data within the file.
+     */
+    public enum AccessMode {
+        
+        /**
+         * Seek and read using a single RandomAccessFile. Reads are synchronized 
+         * on the file.
+         */
+        RANDOM_ACCESS_FILE,
+        
+        /**
+         * Map the file into memory (in segments of {@link DataStorage#MAPPED_SEGMENT_SIZE})
+         * and copy the data directly out of the mapping. Reads do not require a lock.
+         * Only available when the file is opened for reading only.
+         */
+        MEMORY_MAPPED,
+        
+        /**
+         * Read using positional reads on the FileChannel of the file, which do not
+         * modify the file pointer and so do not require a lock. Note that interrupting
+         * a thread while it is reading will close the channel.
+         */
+        POSITIONAL_READ
+    }
+    
     /** File containing the data. */
     private File dataFile;
     
@@ -28,7 +110,31 @@ public abstract class DataStorage {
     private final RandomAccessFile randomAccessFile;
     
     /** Boolean to determine whether the RandomAccessFile is open or not. */
-    private boolean fileStreamOpen;
+    private volatile boolean fileStreamOpen;
+    
+    /** Method used to access the data within the file. */
+    private final AccessMode accessMode;
+    
+    /** Memory mapped segments of the file, null unless the access mode is MEMORY_MAPPED. */
+    private MappedByteBuffer[] mappedSegments;
+    
+    /** Lock guarding the readahead state and the prefetch executor. */
+    private final Object readaheadLock = new Object();
+    
+    /** Size in bytes of the readahead window, 0 if readahead is disabled. */
+    private volatile int readaheadSize;
+    
+    /** Offset of the end of the previous read, used to detect sequential access. */
+    private long lastReadEnd = -1;
+    
+    /** Number of consecutive forward sequential reads. */
+    private int sequentialReads;
+    
+    /** Offset of the end of the data which has been (or is being) read ahead. */
+    private long readaheadEnd;
+    
+    /** Background thread on which readahead and prefetching is performed, created when first required. */
+    private ExecutorService prefetchExecutor;
     
     /**
      * Define a data storage by specifying the File containing the data.
@@ -51,6 +157,7 @@ public abstract class DataStorage {
      */
     public DataStorage(File dataFile, boolean openForWriting) throws FileNotFoundException {
         this.dataFile = dataFile;
+        this.accessMode = AccessMode.RANDOM_ACCESS_FILE;
         
         if(openForWriting)
             randomAccessFile = new RandomAccessFile(dataFile, "rw");
@@ -62,6 +169,69 @@ public abstract class DataStorage {
         fileStreamOpen = true;
     }
     
+    /**
+     * Define a read only data storage by specifying the File containing the data and
+     * the method by which the data should be accessed.
+     * 
+     * @param dataFile File where the data is stored
+     * @param accessMode Method used to access the data
+     * @throws FileNotFoundException Could not find the file specified
+     * @throws IOException Exception thrown when trying to map the file into memory
+     */
+    public DataStorage(File dataFile, AccessMode accessMode) throws IOException {
+        this.dataFile = dataFile;
+        this.accessMode = accessMode;
+        
+        randomAccessFile = new RandomAccessFile(dataFile, "r");
+        
+        LOGGER.log(Level.FINER, "[Opened] {0} ({1}, {2})", new Object[] {dataFile, randomAccessFile, accessMode});
+        
+        fileStreamOpen = true;
+        
+        if(accessMode == AccessMode.MEMORY_MAPPED) {
+            try {
+                mapSegments();
+            } catch (IOException ex) {
+                close();
+                
+                throw ex;
+            }
+        }
+    }
+    
+    /**
+     * Map the entire file into memory as a series of read only segments, each of which
+     * (apart from the last) is {@link DataStorage#MAPPED_SEGMENT_SIZE} bytes.
+     * 
+     * @throws IOException Exception thrown when trying to map the file
+     */
+    private void mapSegments() throws IOException {
+        FileChannel channel = randomAccessFile.getChannel();
+        long fileSize = channel.size();
+        int numSegments = (int) ((fileSize + MAPPED_SEGMENT_SIZE - 1) / MAPPED_SEGMENT_SIZE);
+        
+        MappedByteBuffer[] segments = new MappedByteBuffer[numSegments];
+        
+        for(int i = 0; i < numSegments; i++) {
+            long position = i * MAPPED_SEGMENT_SIZE;
+            
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAPPED_SEGMENT_SIZE, fileSize - position));
+        }
+        
+        LOGGER.log(Level.FINER, "[Mapped] {0} ({1} bytes in {2} segments)", new Object[] {dataFile, fileSize, numSegments});
+        
+        mappedSegments = segments;
+    }
+    
+    /**
+     * Get the method used to access the data within the file.
+     * 
+     * @return Access mode
+     */
+    public AccessMode getAccessMode() {
+        return accessMode;
+    }
+    
     /**
      * Get the File where the data is stored.
      * 
@@ -73,7 +243,9 @@ public abstract class DataStorage {
     
     /**
      * Get the data from the dataStorage at the specified offset with the specified length.
-     * Reading of data is synchronized to the file to allow multithreaded access.
+     * Reading of data is synchronized to the file to allow multithreaded access, unless
+     * the file is memory mapped (in which case the data is copied from the mapping) or 
+     * accessed with positional reads, neither of which require locking.
      * 
      * <p>If the randomAccessFile has not been opened successfully (in the constructor) then
      * this will return an empty byte array.
@@ -91,27 +263,441 @@ public abstract class DataStorage {
         }
 
         byte[] buffer = new byte[length];
-
-        synchronized(randomAccessFile) {
-            randomAccessFile.seek(offset);
-            randomAccessFile.read(buffer);
-        }
+        
+        readData(offset, buffer, length);
 	
 	    return buffer;
     }
     
     /**
-     * Close the randomAccessFile if it is open.
+     * Get the data from the dataStorage at the specified offset with the specified length,
+     * placing it at the start of the supplied buffer rather than allocating a new array.
+     * The buffer must be at least length bytes long.
+     * 
+     * <p>If the randomAccessFile has not been opened successfully (in the constructor) then
+     * no data will be read and 0 is returned.
+     * 
+     * @param offset Offset in bytes within the dataStorage
+     * @param length Length of the data in bytes
+     * @param buffer Buffer to place the data in
+     * @return Number of bytes of data placed in the buffer
+     * @throws IOException Exception thrown when trying to read data
+     */
+    public int getData(long offset, int length, byte[] buffer) throws IOException {
+        if(!fileStreamOpen) {
+            LOGGER.log(Level.SEVERE, "Trying to access data from a closed stream ({0})", randomAccessFile);
+
+            return 0;
+        }
+        
+        readData(offset, buffer, length);
+        
+        return length;
+    }
+    
+    /**
+     * Get the data for each of the supplied DataLocations from the dataStorage. The 
+     * DataLocations are sorted by offset and those which are adjacent, or separated by
+     * at most {@link #MAX_COALESCE_GAP} bytes, are read together in a single sequential
+     * read, before being separated back out. This reduces the number of reads required 
+     * when, for example, the m/z and intensity arrays of each spectrum are stored 
+     * one after the other.
+     * 
+     * <p>DataLocations which are not stored in this dataStorage are read individually 
+     * using {@link DataLocation#getBytes()}.
+     * 
+     * @param locations DataLocations to read the data of
+     * @return Data for each DataLocation, in the same order as locations
+     * @throws IOException Exception thrown when trying to read data
+     */
+    public List<byte[]> getData(List<DataLocation> locations) throws IOException {
+        final DataLocation[] sortedLocations = locations.toArray(new DataLocation[locations.size()]);
+        Integer[] order = new Integer[sortedLocations.length];
+        byte[][] data = new byte[sortedLocations.length][];
+        
+        for(int i = 0; i < order.length; i++) {
+            DataLocation location = sortedLocations[i];
+            
+            if(location.getDataStorage() != this || location.getLength() <= 0 || !fileStreamOpen) {
+                data[i] = location.getBytes();
+            }
+            
+            order[i] = i;
+        }
+        
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer index1, Integer index2) {
+                long offset1 = sortedLocations[index1].getOffset();
+                long offset2 = sortedLocations[index2].getOffset();
+                
+                return (offset1 < offset2) ? -1 : ((offset1 == offset2) ? 0 : 1);
+            }
+        });
+        
+        int groupStart = 0;
+        
+        while(groupStart < order.length) {
+            if(data[order[groupStart]] != null) {
+                groupStart++;
+                continue;
+            }
+            
+            long startOffset = sortedLocations[order[groupStart]].getOffset();
+            long endOffset = startOffset + sortedLocations[order[groupStart]].getLength();
+            int groupEnd = groupStart + 1;
+            
+            // Extend the read to cover all following data which is close enough
+            while(groupEnd < order.length) {
+                DataLocation location = sortedLocations[order[groupEnd]];
+                
+                if(data[order[groupEnd]] == null) {
+                    long locationEnd = location.getOffset() + location.getLength();
+                    
+                    if(location.getOffset() > endOffset + MAX_COALESCE_GAP || Math.max(endOffset, locationEnd) - startOffset > MAX_COALESCED_READ_SIZE)
+                        break;
+                    
+                    endOffset = Math.max(endOffset, locationEnd);
+                }
+                
+                groupEnd++;
+            }
+            
+            if(groupEnd - groupStart == 1) {
+                DataLocation location = sortedLocations[order[groupStart]];
+                
+                data[order[groupStart]] = getData(location.getOffset(), location.getLength());
+            } else {
+                byte[] buffer = new byte[(int) (endOffset - startOffset)];
+                readData(startOffset, buffer, buffer.length);
+                
+                for(int i = groupStart; i < groupEnd; i++) {
+                    if(data[order[i]] == null) {
+                        DataLocation location = sortedLocations[order[i]];
+                        int start = (int) (location.getOffset() - startOffset);
+                        
+                        data[order[i]] = Arrays.copyOfRange(buffer, start, start + location.getLength());
+                    }
+                }
+            }
+            
+            groupStart = groupEnd;
+        }
+        
+        return Arrays.asList(data);
+    }
+    
+    /**
+     * Read the data at the specified offset with the specified length into the start 
+     * of the buffer, using the method described by the access mode. If the end of the
+     * file is reached, the remainder of the buffer is left untouched.
+     * 
+     * @param offset Offset in bytes within the dataStorage
+     * @param buffer Buffer to read the data into
+     * @param length Length of the data in bytes
+     * @throws IOException Exception thrown when trying to read data
+     */
+    private void readData(long offset, byte[] buffer, int length) throws IOException {
+        if(readaheadSize > 0)
+            checkReadahead(offset, length);
+        
+        MappedByteBuffer[] segments = mappedSegments;
+        
+        if(segments != null) {
+            readMappedData(segments, offset, buffer, length);
+        } else if(accessMode == AccessMode.POSITIONAL_READ) {
+            readPositionalData(offset, buffer, length);
+        } else {
+            synchronized(randomAccessFile) {
+                randomAccessFile.seek(offset);
+
+                int totalRead = 0;
+
+                // A single read may return fewer bytes than requested
+                while(totalRead < length) {
+                    int read = randomAccessFile.read(buffer, totalRead, length - totalRead);
+
+                    if(read < 0)
+                        break;
+
+                    totalRead += read;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Read the data at the specified offset with the specified length using positional
+     * reads on the FileChannel. Positional reads do not alter the position of the channel,
+     * so concurrent reads do not need to be synchronized.
+     * 
+     * @param offset Offset in bytes within the dataStorage
+     * @param buffer Buffer to read the data into
+     * @param length Length of the data in bytes
+     * @throws IOException Exception thrown when trying to read data
+     */
+    private void readPositionalData(long offset, byte[] buffer, int length) throws IOException {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, length);
+        FileChannel channel = randomAccessFile.getChannel();
+        
+        // A single read may return fewer bytes than requested
+        while(byteBuffer.hasRemaining()) {
+            int read = channel.read(byteBuffer, offset + byteBuffer.position());
+            
+            if(read < 0)
+                break;
+        }
+    }
+    
+    /**
+     * Copy the data at the specified offset with the specified length out of the 
+     * memory mapped segments, spanning segment boundaries where necessary. Each read
+     * uses its own view of the mapping, so no synchronization is required.
+     * 
+     * @param segments Memory mapped segments of the file
+     * @param offset Offset in bytes within the dataStorage
+     * @param buffer Buffer to copy the data into
+     * @param length Length of the data in bytes
+     */
+    private void readMappedData(MappedByteBuffer[] segments, long offset, byte[] buffer, int length) {
+        int copied = 0;
+        
+        while(copied < length) {
+            long position = offset + copied;
+            int segmentIndex = (int) (position / MAPPED_SEGMENT_SIZE);
+            
+            if(segmentIndex >= segments.length)
+                break;
+            
+            ByteBuffer segment = segments[segmentIndex].duplicate();
+            int segmentOffset = (int) (position - segmentIndex * MAPPED_SEGMENT_SIZE);
+            int toCopy = Math.min(length - copied, segment.limit() - segmentOffset);
+            
+            if(toCopy <= 0)
+                break;
+            
+            segment.position(segmentOffset);
+            segment.get(buffer, copied, toCopy);
+            
+            copied += toCopy;
+        }
+    }
+    
+    /**
+     * Set the size of the readahead window. When enabled, forward sequential reads
+     * (such as iterating through all spectra in the order they are stored) are detected
+     * and the data following the most recent read is read on a background thread,
+     * so that it is already held in the operating system cache when it is requested.
+     * 
+     * @param readaheadSize Size in bytes of the readahead window, or 0 to disable readahead
+     * @see #DEFAULT_READAHEAD_SIZE
+     */
+    public void setReadaheadSize(int readaheadSize) {
+        synchronized(readaheadLock) {
+            this.readaheadSize = Math.max(0, readaheadSize);
+            
+            sequentialReads = 0;
+            readaheadEnd = 0;
+        }
+    }
+    
+    /**
+     * Get the size of the readahead window.
+     * 
+     * @return Size in bytes of the readahead window, 0 if readahead is disabled
+     */
+    public int getReadaheadSize() {
+        return readaheadSize;
+    }
+    
+    /**
+     * Hint that the data for the supplied DataLocations will be required soon. 
+     * The data is read, in order of offset, on a background thread so that it is 
+     * already held in the operating system cache when it is requested. This method
+     * returns immediately. DataLocations which are not stored in this dataStorage are
+     * ignored.
+     * 
+     * @param locations DataLocations that will be read
+     */
+    public void prefetch(Collection<DataLocation> locations) {
+        final List<DataLocation> sortedLocations = new ArrayList<DataLocation>(locations.size());
+        
+        for(DataLocation location : locations) {
+            if(location.getDataStorage() == this && location.getLength() > 0) {
+                sortedLocations.add(location);
+            }
+        }
+        
+        if(sortedLocations.isEmpty())
+            return;
+        
+        Collections.sort(sortedLocations, new Comparator<DataLocation>() {
+            @Override
+            public int compare(DataLocation location1, DataLocation location2) {
+                long offset1 = location1.getOffset();
+                long offset2 = location2.getOffset();
+                
+                return (offset1 < offset2) ? -1 : ((offset1 == offset2) ? 0 : 1);
+            }
+        });
+        
+        submitPrefetch(new Runnable() {
+            @Override
+            public void run() {
+                for(DataLocation location : sortedLocations) {
+                    if(!prefetchData(location.getOffset(), location.getLength()))
+                        break;
+                }
+            }
+        });
+    }
+    
+    /**
+     * Update the record of sequential access with the read at the specified offset,
+     * and if sufficient sequential reads have occurred, read ahead the data following 
+     * the read on a background thread.
+     * 
+     * @param offset Offset in bytes of the read
+     * @param length Length in bytes of the read
+     */
+    private void checkReadahead(long offset, int length) {
+        synchronized(readaheadLock) {
+            if(offset >= lastReadEnd && offset - lastReadEnd <= MAX_COALESCE_GAP)
+                sequentialReads++;
+            else
+                sequentialReads = 0;
+            
+            lastReadEnd = offset + length;
+            
+            // Start the next window once half of the current window has been consumed
+            if(sequentialReads >= SEQUENTIAL_READS_BEFORE_READAHEAD && lastReadEnd + readaheadSize / 2 > readaheadEnd) {
+                final long start = Math.max(lastReadEnd, readaheadEnd);
+                final long end = lastReadEnd + readaheadSize;
+                
+                readaheadEnd = end;
+                
+                submitPrefetch(new Runnable() {
+                    @Override
+                    public void run() {
+                        prefetchData(start, (int) (end - start));
+                    }
+                });
+            }
+        }
+    }
+    
+    /**
+     * Run the task on the background prefetch thread, creating the thread if necessary.
+     * 
+     * @param task Prefetch task
+     */
+    private void submitPrefetch(Runnable task) {
+        synchronized(readaheadLock) {
+            if(!fileStreamOpen)
+                return;
+            
+            if(prefetchExecutor == null) {
+                prefetchExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "DataStorage prefetch (" + dataFile.getName() + ")");
+                        thread.setDaemon(true);
+                        
+                        return thread;
+                    }
+                });
+            }
+            
+            try {
+                prefetchExecutor.execute(task);
+            } catch (RejectedExecutionException ex) {
+                LOGGER.log(Level.FINE, "Prefetch rejected for " + dataFile, ex);
+            }
+        }
+    }
+    
+    /**
+     * Read the data at the specified offset with the specified length and discard it,
+     * so that it is held in the operating system cache for subsequent reads. Memory
+     * mapped files are prefetched by touching each page of the mapping.
+     * 
+     * @param offset Offset in bytes within the dataStorage
+     * @param length Length of the data in bytes
+     * @return true if the data was prefetched, false if the dataStorage is closed or could not be read
+     */
+    private boolean prefetchData(long offset, int length) {
+        if(!fileStreamOpen)
+            return false;
+        
+        MappedByteBuffer[] segments = mappedSegments;
+        
+        if(segments != null) {
+            for(long position = offset; position < offset + length; position += PAGE_SIZE) {
+                int segmentIndex = (int) (position / MAPPED_SEGMENT_SIZE);
+                
+                if(segmentIndex >= segments.length)
+                    break;
+                
+                int segmentOffset = (int) (position - segmentIndex * MAPPED_SEGMENT_SIZE);
+                
+                if(segmentOffset < segments[segmentIndex].limit())
+                    segments[segmentIndex].get(segmentOffset);
+            }
+            
+            return true;
+        }
+        
+        ByteBuffer buffer = ByteBuffer.allocate(Math.min(length, PREFETCH_BUFFER_SIZE));
+        FileChannel channel = randomAccessFile.getChannel();
+        long position = offset;
+        long end = offset + length;
+        
+        try {
+            while(position < end && fileStreamOpen) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                
+                int read = channel.read(buffer, position);
+                
+                if(read < 0)
+                    break;
+                
+                position += read;
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.FINE, "Failed to prefetch data from " + dataFile, ex);
+            
+            return false;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Close the randomAccessFile if it is open, and remove any data decoded from
+     * this DataStorage from every {@link DecodedDataCache}.
      * 
      * @throws IOException Exception thrown when trying to close randomAccessFile
      */
     public void close() throws IOException {
-        if(fileStreamOpen) {
-            randomAccessFile.close();
-	    
-	    LOGGER.log(Level.FINER, "[Closed] {0} ({1})", new Object[] {dataFile, randomAccessFile});
+        DecodedDataCache.removeFromAll(this);
+        
+        synchronized(readaheadLock) {
+            // Any outstanding prefetching stops once the file is closed
+            if(prefetchExecutor != null) {
+                prefetchExecutor.shutdown();
+                prefetchExecutor = null;
+            }
             
-            fileStreamOpen = false;
+            if(fileStreamOpen) {
+                fileStreamOpen = false;
+                
+                // The mappings are released once they are garbage collected
+                mappedSegments = null;
+                randomAccessFile.close();
+
+                LOGGER.log(Level.FINER, "[Closed] {0} ({1})", new Object[] {dataFile, randomAccessFile});
+            }
         }
     }
     
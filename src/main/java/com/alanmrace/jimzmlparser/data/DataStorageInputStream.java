@@ -0,0 +1,141 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * InputStream reading a region of a DataStorage, in blocks so that only a small
+ * part of the region is held in memory at once. This allows a part of a file, such
+ * as a single tag, to be parsed without reading the file from the start.
+ *
+ * @author Alan Race
+ */
+public class DataStorageInputStream extends InputStream {
+
+    /**
+     * Default size in bytes of each block read from the DataStorage.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * DataStorage to read from.
+     */
+    private final DataStorage dataStorage;
+
+    /**
+     * Offset within the DataStorage of the end of the region.
+     */
+    private final long end;
+
+    /**
+     * Block of data read from the DataStorage.
+     */
+    private final byte[] block;
+
+    /**
+     * Offset within the DataStorage of the next block to read.
+     */
+    private long position;
+
+    /**
+     * Number of bytes in the current block.
+     */
+    private int blockLength;
+
+    /**
+     * Index of the next byte to return within the current block.
+     */
+    private int blockPosition;
+
+    /**
+     * Create an InputStream reading length bytes from the DataStorage, starting
+     * at offset.
+     *
+     * @param dataStorage DataStorage to read from
+     * @param offset Offset of the first byte to read
+     * @param length Number of bytes to read
+     */
+    public DataStorageInputStream(DataStorage dataStorage, long offset, long length) {
+        this(dataStorage, offset, length, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Create an InputStream reading length bytes from the DataStorage, starting
+     * at offset.
+     *
+     * @param dataStorage DataStorage to read from
+     * @param offset Offset of the first byte to read
+     * @param length Number of bytes to read
+     * @param blockSize Size in bytes of each block read from the DataStorage
+     */
+    public DataStorageInputStream(DataStorage dataStorage, long offset, long length, int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Invalid block size: " + blockSize);
+        }
+
+        this.dataStorage = dataStorage;
+        this.position = offset;
+        this.end = offset + length;
+        this.block = new byte[(int) Math.min(blockSize, Math.max(1, length))];
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fillBlock()) {
+            return -1;
+        }
+
+        return block[blockPosition++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+
+        if (!fillBlock()) {
+            return -1;
+        }
+
+        int toCopy = Math.min(length, blockLength - blockPosition);
+        System.arraycopy(block, blockPosition, buffer, offset, toCopy);
+        blockPosition += toCopy;
+
+        return toCopy;
+    }
+
+    @Override
+    public int available() {
+        return blockLength - blockPosition;
+    }
+
+    /**
+     * Read the next block from the DataStorage if the current block has been
+     * used.
+     *
+     * @return false if the end of the region has been reached
+     * @throws IOException Issue reading from the DataStorage
+     */
+    private boolean fillBlock() throws IOException {
+        if (blockPosition < blockLength) {
+            return true;
+        }
+
+        if (position >= end) {
+            return false;
+        }
+
+        int toRead = (int) Math.min(block.length, end - position);
+        blockLength = dataStorage.getData(position, toRead, block);
+        blockPosition = 0;
+
+        if (blockLength <= 0) {
+            throw new IOException("Failed to read from " + dataStorage + " at offset " + position);
+        }
+
+        position += blockLength;
+
+        return true;
+    }
+}
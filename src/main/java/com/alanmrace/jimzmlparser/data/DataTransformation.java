@@ -1,10 +1,20 @@
 package com.alanmrace.jimzmlparser.data;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
+import java.nio.Buffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.zip.DataFormatException;
 
 /**
@@ -19,6 +29,27 @@ public class DataTransformation implements Serializable {
      * Serialisation version ID.
      */
     private static final long serialVersionUID = 1L;
+    
+    /**
+     * Logger for the class.
+     */
+    private static final Logger LOGGER = Logger.getLogger(DataTransformation.class.getName());
+    
+    /**
+     * Size in bytes of the chunks in which the output of a {@link StreamingDataTransform} 
+     * is converted to the final data type.
+     */
+    private static final int STREAM_CHUNK_SIZE = 64 * 1024;
+    
+    /**
+     * Per-thread buffer used to hold each chunk of the output of a {@link StreamingDataTransform}.
+     */
+    private static final ThreadLocal<byte[]> STREAM_CHUNK = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[STREAM_CHUNK_SIZE];
+        }
+    };
 
     /**
      * The set of DataTransform instances that make up the DataTransformation.
@@ -47,13 +78,26 @@ public class DataTransformation implements Serializable {
     /**
      * Perform all steps of the DataTransformation sequentially to the supplied 
      * data, after first converting the double[] to a byte[] using 
-     * {@link DataTypeTransform#convertDoublesToBytes(double[])}. 
+     * {@link DataTypeTransform#convertDoublesToBytes(double[])}. If the first step
+     * is a {@link MSNumpressDataTransform} then the double[] is encoded directly.
      *  
      * @param data Data to perform the DataTransformation on
      * @return Transformed data
      * @throws DataFormatException Issue with the transformation
      */
     public byte[] performForwardTransform(double[] data) throws DataFormatException {
+        MSNumpressDataTransform numpressTransform = getNumpressTransform();
+        
+        if(numpressTransform != null) {
+            byte[] encodedData = numpressTransform.encode(data);
+            
+            dataSizeAtEachStage = new int[transformation.size() + 1];
+            dataSizeAtEachStage[0] = data.length * 8;
+            dataSizeAtEachStage[1] = encodedData.length;
+            
+            return performForwardTransform(encodedData, 1);
+        }
+        
         byte[] byteData = DataTypeTransform.convertDoublesToBytes(data);
         
         return performForwardTransform(byteData);
@@ -71,17 +115,71 @@ public class DataTransformation implements Serializable {
         if(transformation == null)
             return data;
         
+        dataSizeAtEachStage = new int[transformation.size() + 1];
+        dataSizeAtEachStage[0] = data.length;
+        
+        return performForwardTransform(data, 0);
+    }
+    
+    /**
+     * Perform the steps of the DataTransformation sequentially, starting from the 
+     * step at index firstIndex, recording the size of the data after each step.
+     * 
+     * @param data Data to perform the DataTransformation on
+     * @param firstIndex Index of the first step to perform
+     * @return Transformed data
+     * @throws DataFormatException Issue with the transformation
+     */
+    private byte[] performForwardTransform(byte[] data, int firstIndex) throws DataFormatException {
         byte[] transformedData = data;
         
-        dataSizeAtEachStage = new int[transformation.size() + 1];
-        int i = 0;
-        dataSizeAtEachStage[i++] = transformedData.length;
+        for(int i = firstIndex; i < transformation.size(); i++) {
+            transformedData = transformation.get(i).forwardTransform(transformedData);
+            dataSizeAtEachStage[i + 1] = transformedData.length;
+        }
+        
+        return transformedData;
+    }
+    
+    /**
+     * Perform the steps of the DataTransformation sequentially to the supplied 
+     * data, stopping before the first step of the specified type. This gives the 
+     * data as it is input to that step, for example to train a compression 
+     * dictionary on.
+     * 
+     * @param data Data to perform the DataTransformation on
+     * @param transformType Type of the step to stop before
+     * @return Data input to the first step of the specified type, or null if there is no such step
+     * @throws DataFormatException Issue with the transformation
+     */
+    public byte[] performForwardTransformBefore(double[] data, Class<? extends DataTransform> transformType) throws DataFormatException {
+        if(transformation == null)
+            return null;
+        
+        int lastIndex = -1;
         
-        for(DataTransform transform : transformation) {
-            transformedData = transform.forwardTransform(transformedData);
-            dataSizeAtEachStage[i++] = transformedData.length;
+        for(int i = 0; i < transformation.size() && lastIndex < 0; i++) {
+            if(transformType.isInstance(transformation.get(i)))
+                lastIndex = i;
         }
         
+        if(lastIndex < 0)
+            return null;
+        
+        MSNumpressDataTransform numpressTransform = getNumpressTransform();
+        byte[] transformedData;
+        int firstIndex = 0;
+        
+        if(numpressTransform != null && lastIndex > 0) {
+            transformedData = numpressTransform.encode(data);
+            firstIndex = 1;
+        } else {
+            transformedData = DataTypeTransform.convertDoublesToBytes(data);
+        }
+        
+        for(int i = firstIndex; i < lastIndex; i++)
+            transformedData = transformation.get(i).forwardTransform(transformedData);
+        
         return transformedData;
     }
     
@@ -90,23 +188,413 @@ public class DataTransformation implements Serializable {
      * data, and then convert the resulting byte[] to a double[] using 
      * {@link DataTypeTransform#convertDataToDouble(byte[], com.alanmrace.jimzmlparser.data.DataTypeTransform.DataType)}.
      * 
+     * <p>If the only step other than data type conversion is a {@link StreamingDataTransform}
+     * which knows the size of its output, then the output is converted to double in 
+     * chunks as it is produced, directly into the returned double[]. If the first 
+     * step is a {@link MSNumpressDataTransform} then the values are decoded directly
+     * into the returned double[].
+     * 
      * @param data Data to perform the reverse of the DataTransformation on
      * @return Transformed data 
      * @throws DataFormatException Issue with the transformation
      */
     public double[] performReverseTransform(byte[] data) throws DataFormatException {
+        MSNumpressDataTransform numpressTransform = getNumpressTransform();
+        
+        if(numpressTransform != null) {
+            byte[] encodedData = performReverseTransform(data, 1);
+            
+            return numpressTransform.decode(encodedData, encodedData.length);
+        }
+        
+        int typeTransformIndex = getTypeTransformIndex();
+        DataTypeTransform.DataType dataType = getStoredDataType(typeTransformIndex);
+        StreamingDataTransform streamingTransform = getStreamingTransform(typeTransformIndex);
+        
+        if(streamingTransform != null && streamingTransform.getReverseTransformSizeHint() > 0) {
+            double[] convertedData = new double[streamingTransform.getReverseTransformSizeHint() / DataTypeTransform.getDataTypeInBytes(dataType)];
+            DoubleBuffer buffer = DoubleBuffer.wrap(convertedData);
+            
+            if(convertStream(streamingTransform.reverseTransformStream(data, data.length), dataType, buffer)) {
+                if(buffer.position() != convertedData.length)
+                    return Arrays.copyOf(convertedData, buffer.position());
+                
+                return convertedData;
+            }
+            
+            // The size hint was too small, so reverse the full data instead
+        }
+        
+        byte[] transformedData = performReverseTransform(data, typeTransformIndex + 1);
+        
+        return DataTypeTransform.convertDataToDouble(transformedData, dataType);
+    }
+    
+    /**
+     * Perform all steps of the DataTransformation in reverse to the first length
+     * bytes of the supplied data, placing the resulting values into the supplied 
+     * DoubleBuffer starting at its current position. When the data is only 
+     * converted between data types (no compression) the values are decoded directly
+     * from the supplied data. When the only other step is a {@link StreamingDataTransform}
+     * the output of the step is converted in chunks as it is produced. In either case
+     * no intermediate arrays the size of the entire data are created.
+     * 
+     * @param data Data to perform the reverse of the DataTransformation on
+     * @param length Number of bytes of data to use
+     * @param dest DoubleBuffer to place the transformed data into
+     * @return Number of values written to dest
+     * @throws DataFormatException Issue with the transformation
+     */
+    public int performReverseTransform(byte[] data, int length, DoubleBuffer dest) throws DataFormatException {
+        MSNumpressDataTransform numpressTransform = getNumpressTransform();
+        
+        if(numpressTransform != null) {
+            byte[] encodedData = performReverseTransform(data, length, 1);
+            int encodedLength = (encodedData == data) ? length : encodedData.length;
+            
+            return numpressTransform.decode(encodedData, encodedLength, dest);
+        }
+        
+        return performReverseTransform(data, length, (Buffer) dest);
+    }
+    
+    /**
+     * Perform all steps of the DataTransformation in reverse to the first length
+     * bytes of the supplied data, placing the resulting values into the supplied 
+     * FloatBuffer as described in {@link #performReverseTransform(byte[], int, DoubleBuffer)}.
+     * 
+     * @param data Data to perform the reverse of the DataTransformation on
+     * @param length Number of bytes of data to use
+     * @param dest FloatBuffer to place the transformed data into
+     * @return Number of values written to dest
+     * @throws DataFormatException Issue with the transformation
+     */
+    public int performReverseTransform(byte[] data, int length, FloatBuffer dest) throws DataFormatException {
+        return performReverseTransform(data, length, (Buffer) dest);
+    }
+    
+    /**
+     * Perform all steps of the DataTransformation in reverse to the first length
+     * bytes of the supplied data, placing the resulting values into the supplied 
+     * IntBuffer as described in {@link #performReverseTransform(byte[], int, DoubleBuffer)}.
+     * 
+     * @param data Data to perform the reverse of the DataTransformation on
+     * @param length Number of bytes of data to use
+     * @param dest IntBuffer to place the transformed data into
+     * @return Number of values written to dest
+     * @throws DataFormatException Issue with the transformation
+     */
+    public int performReverseTransform(byte[] data, int length, IntBuffer dest) throws DataFormatException {
+        return performReverseTransform(data, length, (Buffer) dest);
+    }
+    
+    /**
+     * Perform all steps of the DataTransformation in reverse to the first length
+     * bytes of the supplied data, placing the resulting values into the supplied 
+     * LongBuffer as described in {@link #performReverseTransform(byte[], int, DoubleBuffer)}.
+     * 
+     * @param data Data to perform the reverse of the DataTransformation on
+     * @param length Number of bytes of data to use
+     * @param dest LongBuffer to place the transformed data into
+     * @return Number of values written to dest
+     * @throws DataFormatException Issue with the transformation
+     */
+    public int performReverseTransform(byte[] data, int length, LongBuffer dest) throws DataFormatException {
+        return performReverseTransform(data, length, (Buffer) dest);
+    }
+    
+    /**
+     * Perform all steps of the DataTransformation in reverse to the first length
+     * bytes of the supplied data, placing the resulting values into the supplied
+     * DoubleBuffer, FloatBuffer, IntBuffer or LongBuffer.
+     * 
+     * @param data Data to perform the reverse of the DataTransformation on
+     * @param length Number of bytes of data to use
+     * @param dest Buffer to place the transformed data into
+     * @return Number of values written to dest
+     * @throws DataFormatException Issue with the transformation
+     */
+    private int performReverseTransform(byte[] data, int length, Buffer dest) throws DataFormatException {
+        int typeTransformIndex = getTypeTransformIndex();
+        DataTypeTransform.DataType dataType = getStoredDataType(typeTransformIndex);
+        StreamingDataTransform streamingTransform = getStreamingTransform(typeTransformIndex);
+        
+        if(streamingTransform != null) {
+            int startPosition = dest.position();
+            
+            convertStream(streamingTransform.reverseTransformStream(data, length), dataType, dest);
+            
+            return dest.position() - startPosition;
+        }
+        
+        byte[] transformedData = performReverseTransform(data, length, typeTransformIndex + 1);
+        int transformedLength = (transformedData == data) ? length : transformedData.length;
+        
+        return convertData(transformedData, transformedLength, dataType, dest);
+    }
+    
+    /**
+     * Read the stream in chunks, converting each chunk from the specified data type
+     * into dest, until either the stream ends or dest is full.
+     * 
+     * @param stream Stream to read
+     * @param dataType DataType of the data in the stream
+     * @param dest DoubleBuffer, FloatBuffer, IntBuffer or LongBuffer to place the converted data into
+     * @return true if the entire stream was converted, false if dest was filled before the end of the stream
+     * @throws DataFormatException Issue reading the stream
+     */
+    private static boolean convertStream(InputStream stream, DataTypeTransform.DataType dataType, Buffer dest) throws DataFormatException {
+        byte[] chunk = STREAM_CHUNK.get();
+        int valueSize = DataTypeTransform.getDataTypeInBytes(dataType);
+        int buffered = 0;
+        
+        try {
+            while(true) {
+                int read = stream.read(chunk, buffered, chunk.length - buffered);
+                
+                if(read < 0)
+                    return true;
+                
+                buffered += read;
+                
+                // Only convert whole values, keeping any remaining bytes for the next chunk
+                int usable = buffered - (buffered % valueSize);
+                int converted = convertData(chunk, usable, dataType, dest);
+                
+                if(converted * valueSize < usable)
+                    return false;
+                
+                System.arraycopy(chunk, usable, chunk, 0, buffered - usable);
+                buffered -= usable;
+                
+                if(!dest.hasRemaining())
+                    return buffered == 0 && stream.read() < 0;
+            }
+        } catch (IOException ex) {
+            DataFormatException exception = new DataFormatException(ex.getMessage());
+            exception.initCause(ex);
+            
+            throw exception;
+        } finally {
+            try {
+                stream.close();
+            } catch (IOException ex) {
+                LOGGER.log(Level.FINE, "Failed to close stream", ex);
+            }
+        }
+    }
+    
+    /**
+     * Convert the first length bytes of data from the specified data type into dest.
+     * 
+     * @param data Data to convert
+     * @param length Number of bytes of data to use
+     * @param dataType DataType of the data
+     * @param dest DoubleBuffer, FloatBuffer, IntBuffer or LongBuffer to place the converted data into
+     * @return Number of values written to dest
+     */
+    private static int convertData(byte[] data, int length, DataTypeTransform.DataType dataType, Buffer dest) {
+        if(dest instanceof DoubleBuffer)
+            return DataTypeTransform.convertDataToDouble(data, 0, length, dataType, (DoubleBuffer) dest);
+        if(dest instanceof FloatBuffer)
+            return DataTypeTransform.convertDataToFloat(data, 0, length, dataType, (FloatBuffer) dest);
+        if(dest instanceof IntBuffer)
+            return DataTypeTransform.convertDataToInt(data, 0, length, dataType, (IntBuffer) dest);
+        if(dest instanceof LongBuffer)
+            return DataTypeTransform.convertDataToLong(data, 0, length, dataType, (LongBuffer) dest);
+        
+        throw new IllegalArgumentException("Unsupported buffer type: " + dest.getClass());
+    }
+    
+    /**
+     * Get the StreamingDataTransform if it is the only step of the DataTransformation
+     * other than the initial conversion from double.
+     * 
+     * @param typeTransformIndex Index returned by {@link #getTypeTransformIndex()}
+     * @return StreamingDataTransform, or null if the DataTransformation cannot be streamed
+     */
+    private StreamingDataTransform getStreamingTransform(int typeTransformIndex) {
+        if(transformation == null || transformation.size() != typeTransformIndex + 2)
+            return null;
+        
+        DataTransform transform = transformation.get(typeTransformIndex + 1);
+        
+        if(transform instanceof StreamingDataTransform)
+            return (StreamingDataTransform) transform;
+        
+        return null;
+    }
+    
+    /**
+     * Get the MSNumpressDataTransform if it is the first step of the DataTransformation,
+     * in which case it converts directly from double.
+     * 
+     * @return MSNumpressDataTransform, or null if the first step is not MS-Numpress
+     */
+    private MSNumpressDataTransform getNumpressTransform() {
+        if(transformation == null || transformation.isEmpty())
+            return null;
+        
+        DataTransform transform = transformation.get(0);
+        
+        if(transform instanceof MSNumpressDataTransform)
+            return (MSNumpressDataTransform) transform;
+        
+        return null;
+    }
+    
+    /**
+     * Perform all steps of the DataTransformation in reverse to the supplied data,
+     * except for the initial conversion from double, so that the returned data is 
+     * in the data type given by {@link #getStoredDataType()}.
+     * 
+     * @param data Data to perform the reverse of the DataTransformation on
+     * @return Transformed data in the stored data type
+     * @throws DataFormatException Issue with the transformation
+     */
+    public byte[] performReverseTransformToStoredType(byte[] data) throws DataFormatException {
+        return performReverseTransform(data, getTypeTransformIndex() + 1);
+    }
+    
+    /**
+     * Get the data type in which the data was stored, prior to any compression. 
+     * This is the data type that the initial conversion from double converted to, 
+     * or double if there is no such conversion.
+     * 
+     * @return DataType the data was stored as
+     */
+    public DataTypeTransform.DataType getStoredDataType() {
+        return getStoredDataType(getTypeTransformIndex());
+    }
+    
+    /**
+     * Perform the steps of the DataTransformation in reverse, down to and including 
+     * the step at index lastIndex, to the first length bytes of the supplied data. 
+     * Only the first step reversed uses length, as each step returns an array of 
+     * the exact size of its output. If there are no steps to reverse then data is
+     * returned unchanged.
+     * 
+     * @param data Data to perform the reverse of the DataTransformation on
+     * @param length Number of bytes of data to use
+     * @param lastIndex Index of the last step to reverse
+     * @return Transformed data
+     * @throws DataFormatException Issue with the transformation
+     */
+    private byte[] performReverseTransform(byte[] data, int length, int lastIndex) throws DataFormatException {
         byte[] transformedData = data;
         
         if(transformation != null) {
             ListIterator<DataTransform> listIterator = transformation.listIterator(transformation.size());
 
-            while(listIterator.hasPrevious()) {
+            if(listIterator.previousIndex() >= lastIndex)
+                transformedData = reverseTransform(listIterator.previous(), transformedData, length);
+
+            while(listIterator.previousIndex() >= lastIndex) {
                 DataTransform transform = listIterator.previous();
                 transformedData = transform.reverseTransform(transformedData);
             }
         }
         
-        return DataTypeTransform.convertDataToDouble(transformedData, DataTypeTransform.DataType.DOUBLE);
+        return transformedData;
+    }
+    
+    /**
+     * Reverse a single step on the first length bytes of data. Only a 
+     * {@link LengthAwareDataTransform} can use data longer than length, so any
+     * other DataTransform is given a copy of the data of the exact length.
+     * 
+     * @param transform Step to reverse
+     * @param data Data to reverse the step on
+     * @param length Number of bytes of data to use
+     * @return Transformed data
+     * @throws DataFormatException Issue with the transformation
+     */
+    private static byte[] reverseTransform(DataTransform transform, byte[] data, int length) throws DataFormatException {
+        if(transform instanceof LengthAwareDataTransform)
+            return ((LengthAwareDataTransform) transform).reverseTransform(data, length);
+        
+        if(length != data.length)
+            return transform.reverseTransform(Arrays.copyOf(data, length));
+        
+        return transform.reverseTransform(data);
+    }
+    
+    /**
+     * Perform the steps of the DataTransformation in reverse, down to and including 
+     * the step at index lastIndex.
+     * 
+     * @param data Data to perform the reverse of the DataTransformation on
+     * @param lastIndex Index of the last step to reverse
+     * @return Transformed data
+     * @throws DataFormatException Issue with the transformation
+     */
+    private byte[] performReverseTransform(byte[] data, int lastIndex) throws DataFormatException {
+        return performReverseTransform(data, data.length, lastIndex);
+    }
+    
+    /**
+     * Get the index of the DataTypeTransform converting from double which is 
+     * applied as the first step of the DataTransformation. Reversing this step 
+     * is merged with the final conversion to double, rather than being performed 
+     * separately.
+     * 
+     * @return 0 if the first step is a conversion from double, -1 otherwise
+     */
+    private int getTypeTransformIndex() {
+        if(transformation == null || transformation.isEmpty())
+            return -1;
+        
+        DataTransform transform = transformation.get(0);
+        
+        if(transform instanceof DataTypeTransform && ((DataTypeTransform) transform).from == DataTypeTransform.DataType.DOUBLE)
+            return 0;
+        
+        return -1;
+    }
+    
+    /**
+     * Get the data type that the data is in once all steps after the 
+     * DataTypeTransform have been reversed.
+     * 
+     * @param typeTransformIndex Index returned by {@link #getTypeTransformIndex()}
+     * @return DataType of the data
+     */
+    private DataTypeTransform.DataType getStoredDataType(int typeTransformIndex) {
+        if(typeTransformIndex < 0)
+            return DataTypeTransform.DataType.DOUBLE;
+        
+        return ((DataTypeTransform) transformation.get(typeTransformIndex)).to;
+    }
+    
+    /**
+     * Check whether data produced by this DataTransformation is encoded in the 
+     * same way as data produced by another, and so can be copied without being
+     * decoded and encoded again. Each step must be of the same class and have 
+     * the same description; steps without a description of their parameters
+     * must be the same instance.
+     * 
+     * @param other DataTransformation to compare to
+     * @return true if the data is encoded in the same way
+     */
+    public boolean hasSameEncoding(DataTransformation other) {
+        if(other == null)
+            return false;
+        
+        List<DataTransform> steps = (transformation == null) ? Collections.<DataTransform>emptyList() : transformation;
+        List<DataTransform> otherSteps = (other.transformation == null) ? Collections.<DataTransform>emptyList() : other.transformation;
+        
+        if(steps.size() != otherSteps.size())
+            return false;
+        
+        for(int i = 0; i < steps.size(); i++) {
+            DataTransform step = steps.get(i);
+            DataTransform otherStep = otherSteps.get(i);
+            
+            if(step != otherStep && (step.getClass() != otherStep.getClass() || !step.toString().equals(otherStep.toString())))
+                return false;
+        }
+        
+        return true;
     }
     
     public int[] getDataSizeAtEachStage() {
@@ -3,13 +3,14 @@ package com.alanmrace.jimzmlparser.data;
 import com.alanmrace.jimzmlparser.mzml.BinaryDataArray;
 import com.alanmrace.jimzmlparser.obo.OBO;
 import com.alanmrace.jimzmlparser.obo.OBOTerm;
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
 import java.util.zip.DataFormatException;
 
 /**
@@ -20,13 +21,8 @@ import java.util.zip.DataFormatException;
  * 
  * @author Alan Race
  */
-public class DataTypeTransform implements DataTransform {
+public class DataTypeTransform implements LengthAwareDataTransform {
     
-    /**
-     * Logger for the class.
-     */
-    private static final Logger LOGGER = Logger.getLogger(DataTypeTransform.class.getName());
-
     /**
      * Possible binary data types used to store data.
      */
@@ -140,23 +136,12 @@ public class DataTypeTransform implements DataTransform {
      * @return byte[] representation of the double[]
      */
     public static byte[] convertDoublesToBytes(double[] data) {
-        byte[] convertedData = new byte[data.length*8];
-        int j = 0;
-
-        for (double aData : data) {
-            long doubleVal = Double.doubleToLongBits(aData);
-
-            convertedData[j++] = (byte) (doubleVal);
-            convertedData[j++] = (byte) (doubleVal >>> 8);
-            convertedData[j++] = (byte) (doubleVal >>> 16);
-            convertedData[j++] = (byte) (doubleVal >>> 24);
-            convertedData[j++] = (byte) (doubleVal >>> 32);
-            convertedData[j++] = (byte) (doubleVal >>> 40);
-            convertedData[j++] = (byte) (doubleVal >>> 48);
-            convertedData[j++] = (byte) (doubleVal >>> 56);
-        }
-        
-        return convertedData;
+        ByteBuffer buffer = ByteBuffer.allocate(data.length * 8);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.asDoubleBuffer().put(data);
+
+        return buffer.array();
     }
     
     /**
@@ -168,136 +153,685 @@ public class DataTypeTransform implements DataTransform {
      * @return Data as double[]
      */
     public static double[] convertDataToDouble(byte[] data, DataType dataType) {
-        double[] convertedData = new double[0];
+        if (data == null) {
+            return new double[0];
+        }
+
+        double[] convertedData = new double[data.length / getDataTypeInBytes(dataType)];
 
+        readAsDouble(littleEndian(data, 0, data.length), dataType, convertedData.length, convertedData, 0);
+
+        return convertedData;
+    }
+    
+    /**
+     * Convert data from uncompressed byte[] with the data type defined by the
+     * dataType to double, placing the result into the supplied DoubleBuffer 
+     * starting at its current position. The position of the DoubleBuffer is 
+     * advanced by the number of values written. 
+     * 
+     * <p>If the DoubleBuffer does not have enough space remaining for all of the 
+     * data then only as many values as will fit are written.
+     *
+     * @param data Data as byte[]
+     * @param offset Offset in bytes within data to start converting from
+     * @param length Length in bytes of the data to convert
+     * @param dataType DataType of the byte[]
+     * @param dest DoubleBuffer to place the converted data into
+     * @return Number of values written to dest
+     */
+    public static int convertDataToDouble(byte[] data, int offset, int length, DataType dataType, DoubleBuffer dest) {
         if (data == null) {
-            return convertedData;
+            return 0;
         }
 
-        ByteBuffer buffer = ByteBuffer.wrap(data);
-        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        int numValues = Math.min(length / getDataTypeInBytes(dataType), dest.remaining());
+
+        if (dest.hasArray()) {
+            readAsDouble(littleEndian(data, offset, length), dataType, numValues, dest.array(), dest.arrayOffset() + dest.position());
+            dest.position(dest.position() + numValues);
+        } else {
+            double[] values = new double[numValues];
+
+            readAsDouble(littleEndian(data, offset, length), dataType, numValues, values, 0);
+            dest.put(values);
+        }
+
+        return numValues;
+    }
+    
+    /**
+     * Convert data from uncompressed byte[] with the data type defined by the
+     * dataType to a float[]. Values stored in a different data type are converted 
+     * using a Java primitive conversion.
+     *
+     * @param data Data as byte[]
+     * @param dataType DataType of the byte[]
+     * @return Data as float[]
+     */
+    public static float[] convertDataToFloat(byte[] data, DataType dataType) {
+        if (data == null) {
+            return new float[0];
+        }
+
+        float[] convertedData = new float[data.length / getDataTypeInBytes(dataType)];
+
+        readAsFloat(littleEndian(data, 0, data.length), dataType, convertedData.length, convertedData, 0);
+
+        return convertedData;
+    }
+    
+    /**
+     * Convert data from uncompressed byte[] with the data type defined by the
+     * dataType to float, placing the result into the supplied FloatBuffer starting at 
+     * its current position, as described in 
+     * {@link #convertDataToDouble(byte[], int, int, DataType, DoubleBuffer)}.
+     *
+     * @param data Data as byte[]
+     * @param offset Offset in bytes within data to start converting from
+     * @param length Length in bytes of the data to convert
+     * @param dataType DataType of the byte[]
+     * @param dest FloatBuffer to place the converted data into
+     * @return Number of values written to dest
+     */
+    public static int convertDataToFloat(byte[] data, int offset, int length, DataType dataType, FloatBuffer dest) {
+        if (data == null) {
+            return 0;
+        }
+
+        int numValues = Math.min(length / getDataTypeInBytes(dataType), dest.remaining());
+
+        if (dest.hasArray()) {
+            readAsFloat(littleEndian(data, offset, length), dataType, numValues, dest.array(), dest.arrayOffset() + dest.position());
+            dest.position(dest.position() + numValues);
+        } else {
+            float[] values = new float[numValues];
+
+            readAsFloat(littleEndian(data, offset, length), dataType, numValues, values, 0);
+            dest.put(values);
+        }
+
+        return numValues;
+    }
+    
+    /**
+     * Convert data from uncompressed byte[] with the data type defined by the
+     * dataType to a int[]. Values stored in a different data type are converted 
+     * using a Java primitive conversion.
+     *
+     * @param data Data as byte[]
+     * @param dataType DataType of the byte[]
+     * @return Data as int[]
+     */
+    public static int[] convertDataToInt(byte[] data, DataType dataType) {
+        if (data == null) {
+            return new int[0];
+        }
+
+        int[] convertedData = new int[data.length / getDataTypeInBytes(dataType)];
+
+        readAsInt(littleEndian(data, 0, data.length), dataType, convertedData.length, convertedData, 0);
+
+        return convertedData;
+    }
+    
+    /**
+     * Convert data from uncompressed byte[] with the data type defined by the
+     * dataType to int, placing the result into the supplied IntBuffer starting at 
+     * its current position, as described in 
+     * {@link #convertDataToDouble(byte[], int, int, DataType, DoubleBuffer)}.
+     *
+     * @param data Data as byte[]
+     * @param offset Offset in bytes within data to start converting from
+     * @param length Length in bytes of the data to convert
+     * @param dataType DataType of the byte[]
+     * @param dest IntBuffer to place the converted data into
+     * @return Number of values written to dest
+     */
+    public static int convertDataToInt(byte[] data, int offset, int length, DataType dataType, IntBuffer dest) {
+        if (data == null) {
+            return 0;
+        }
+
+        int numValues = Math.min(length / getDataTypeInBytes(dataType), dest.remaining());
+
+        if (dest.hasArray()) {
+            readAsInt(littleEndian(data, offset, length), dataType, numValues, dest.array(), dest.arrayOffset() + dest.position());
+            dest.position(dest.position() + numValues);
+        } else {
+            int[] values = new int[numValues];
+
+            readAsInt(littleEndian(data, offset, length), dataType, numValues, values, 0);
+            dest.put(values);
+        }
+
+        return numValues;
+    }
+    
+    /**
+     * Convert data from uncompressed byte[] with the data type defined by the
+     * dataType to a long[]. Values stored in a different data type are converted 
+     * using a Java primitive conversion.
+     *
+     * @param data Data as byte[]
+     * @param dataType DataType of the byte[]
+     * @return Data as long[]
+     */
+    public static long[] convertDataToLong(byte[] data, DataType dataType) {
+        if (data == null) {
+            return new long[0];
+        }
+
+        long[] convertedData = new long[data.length / getDataTypeInBytes(dataType)];
+
+        readAsLong(littleEndian(data, 0, data.length), dataType, convertedData.length, convertedData, 0);
+
+        return convertedData;
+    }
+    
+    /**
+     * Convert data from uncompressed byte[] with the data type defined by the
+     * dataType to long, placing the result into the supplied LongBuffer starting at 
+     * its current position, as described in 
+     * {@link #convertDataToDouble(byte[], int, int, DataType, DoubleBuffer)}.
+     *
+     * @param data Data as byte[]
+     * @param offset Offset in bytes within data to start converting from
+     * @param length Length in bytes of the data to convert
+     * @param dataType DataType of the byte[]
+     * @param dest LongBuffer to place the converted data into
+     * @return Number of values written to dest
+     */
+    public static int convertDataToLong(byte[] data, int offset, int length, DataType dataType, LongBuffer dest) {
+        if (data == null) {
+            return 0;
+        }
+
+        int numValues = Math.min(length / getDataTypeInBytes(dataType), dest.remaining());
 
+        if (dest.hasArray()) {
+            readAsLong(littleEndian(data, offset, length), dataType, numValues, dest.array(), dest.arrayOffset() + dest.position());
+            dest.position(dest.position() + numValues);
+        } else {
+            long[] values = new long[numValues];
+
+            readAsLong(littleEndian(data, offset, length), dataType, numValues, values, 0);
+            dest.put(values);
+        }
+
+        return numValues;
+    }
+    
+    /**
+     * Get the number of bytes used to store a single value of the specified
+     * data type.
+     * 
+     * @param dataType DataType
+     * @return Number of bytes for a single value
+     */
+    public static int getDataTypeInBytes(DataType dataType) {
         switch (dataType) {
             case DOUBLE:
-                convertedData = new double[data.length / 8];
+            case INTEGER_64BIT:
+                return 8;
+            case FLOAT:
+            case INTEGER_32BIT:
+                return 4;
+            case INTEGER_16BIT:
+                return 2;
+            case INTEGER_8BIT:
+                return 1;
+            default:
+                throw new UnsupportedOperationException("Data type not supported: " + dataType);
+        }
+    }
 
-                for (int j = 0; j < convertedData.length; j++) {
-                    convertedData[j] = buffer.getDouble();
-                }
+    /**
+     * Convert data from uncompressed byte[] with the data type 'from' to the 
+     * data type 'to'.
+     *
+     * @param data Data as byte[] in data type 'from'
+     * @param from Data type of the input byte[]
+     * @param to Data type to convert the input data to
+     * @return Data as byte[] in the data type 'to'
+     */
+    public static byte[] convertData(byte[] data, DataType from, DataType to) {
+        return convertData(data, data.length, from, to);
+    }
+
+    /**
+     * Convert the first length bytes of data from the data type 'from' to the
+     * data type 'to'.
+     *
+     * @param data Data as byte[] in data type 'from'
+     * @param length Number of bytes of data to use
+     * @param from Data type of the input byte[]
+     * @param to Data type to convert the input data to
+     * @return Data as byte[] in the data type 'to'
+     */
+    private static byte[] convertData(byte[] data, int length, DataType from, DataType to) {
+        if (from.equals(to)) {
+            return (length == data.length) ? data : Arrays.copyOf(data, length);
+        }
+
+        ByteBuffer source = littleEndian(data, 0, length);
+        int numValues = length / getDataTypeInBytes(from);
+
+        ByteBuffer convertedData = ByteBuffer.allocate(numValues * getDataTypeInBytes(to));
+        convertedData.order(ByteOrder.LITTLE_ENDIAN);
+
+        switch (to) {
+            case DOUBLE:
+                double[] doubleValues = new double[numValues];
+                readAsDouble(source, from, numValues, doubleValues, 0);
+                convertedData.asDoubleBuffer().put(doubleValues);
 
                 break;
             case FLOAT:
-                convertedData = new double[data.length / 4];
+                float[] floatValues = new float[numValues];
+                readAsFloat(source, from, numValues, floatValues, 0);
+                convertedData.asFloatBuffer().put(floatValues);
+
+                break;
+            case INTEGER_64BIT:
+                long[] longValues = new long[numValues];
+                readAsLong(source, from, numValues, longValues, 0);
+                convertedData.asLongBuffer().put(longValues);
+
+                break;
+            case INTEGER_32BIT:
+                int[] intValues = new int[numValues];
+                readAsInt(source, from, numValues, intValues, 0);
+                convertedData.asIntBuffer().put(intValues);
+
+                break;
+            case INTEGER_16BIT:
+                short[] shortValues = new short[numValues];
+                readAsShort(source, from, numValues, shortValues, 0);
+                convertedData.asShortBuffer().put(shortValues);
+
+                break;
+            case INTEGER_8BIT:
+                readAsByte(source, from, numValues, convertedData.array(), 0);
+
+                break;
+            default:
+                throw new UnsupportedOperationException("Data type not supported: " + to);
+        }
+
+        return convertedData.array();
+    }
+
+    /**
+     * Wrap the specified region of the byte[] in a little endian ByteBuffer
+     * starting at index 0.
+     *
+     * @param data Data to wrap
+     * @param offset Offset in bytes within data of the region
+     * @param length Length in bytes of the region
+     * @return Little endian ByteBuffer
+     */
+    private static ByteBuffer littleEndian(byte[] data, int offset, int length) {
+        ByteBuffer buffer = ByteBuffer.wrap(data, offset, length).slice();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        return buffer;
+    }
+
+    /**
+     * Read numValues values of the specified data type from the little endian 
+     * buffer (starting at index 0) into the double[], converting each value to double.
+     *
+     * @param buffer Little endian buffer containing the data
+     * @param dataType DataType of the data in the buffer
+     * @param numValues Number of values to read
+     * @param values Array to place the values into
+     * @param offset Index within values to place the first value
+     */
+    private static void readAsDouble(ByteBuffer buffer, DataType dataType, int numValues, double[] values, int offset) {
+        switch (dataType) {
+            case DOUBLE:
+                buffer.asDoubleBuffer().get(values, offset, numValues);
 
-                for (int j = 0; j < convertedData.length; j++) {
-                    convertedData[j] = buffer.getFloat();
+                break;
+            case FLOAT:
+                FloatBuffer floatValues = buffer.asFloatBuffer();
+
+                for (int i = 0; i < numValues; i++) {
+                    values[offset + i] = floatValues.get(i);
                 }
 
                 break;
             case INTEGER_64BIT:
-                convertedData = new double[data.length / 8];
+                LongBuffer longValues = buffer.asLongBuffer();
 
-                for (int j = 0; j < convertedData.length; j++) {
-                    convertedData[j] = buffer.getLong();
+                for (int i = 0; i < numValues; i++) {
+                    values[offset + i] = longValues.get(i);
                 }
 
                 break;
             case INTEGER_32BIT:
-                convertedData = new double[data.length / 4];
+                IntBuffer intValues = buffer.asIntBuffer();
 
-                for (int j = 0; j < convertedData.length; j++) {
-                    convertedData[j] = buffer.getInt();
+                for (int i = 0; i < numValues; i++) {
+                    values[offset + i] = intValues.get(i);
                 }
 
                 break;
             case INTEGER_16BIT:
-                convertedData = new double[data.length / 2];
+                ShortBuffer shortValues = buffer.asShortBuffer();
 
-                for (int j = 0; j < convertedData.length; j++) {
-                    convertedData[j] = buffer.getShort();
+                for (int i = 0; i < numValues; i++) {
+                    values[offset + i] = shortValues.get(i);
                 }
 
                 break;
             case INTEGER_8BIT:
-                convertedData = new double[data.length];
+                for (int i = 0; i < numValues; i++) {
+                    values[offset + i] = buffer.get(i);
+                }
+
+                break;
+            default:
+                throw new UnsupportedOperationException("Data type not supported: " + dataType);
+        }
+    }
+
+    /**
+     * Read numValues values of the specified data type from the little endian 
+     * buffer (starting at index 0) into the float[], converting each value to float.
+     *
+     * @param buffer Little endian buffer containing the data
+     * @param dataType DataType of the data in the buffer
+     * @param numValues Number of values to read
+     * @param values Array to place the values into
+     * @param offset Index within values to place the first value
+     */
+    private static void readAsFloat(ByteBuffer buffer, DataType dataType, int numValues, float[] values, int offset) {
+        switch (dataType) {
+            case DOUBLE:
+                DoubleBuffer doubleValues = buffer.asDoubleBuffer();
+
+                for (int i = 0; i < numValues; i++) {
+                    values[offset + i] = (float) doubleValues.get(i);
+                }
+
+                break;
+            case FLOAT:
+                buffer.asFloatBuffer().get(values, offset, numValues);
+
+                break;
+            case INTEGER_64BIT:
+                LongBuffer longValues = buffer.asLongBuffer();
 
-                for (int j = 0; j < convertedData.length; j++) {
-                    convertedData[j] = buffer.get();
+                for (int i = 0; i < numValues; i++) {
+                    values[offset + i] = longValues.get(i);
+                }
+
+                break;
+            case INTEGER_32BIT:
+                IntBuffer intValues = buffer.asIntBuffer();
+
+                for (int i = 0; i < numValues; i++) {
+                    values[offset + i] = intValues.get(i);
+                }
+
+                break;
+            case INTEGER_16BIT:
+                ShortBuffer shortValues = buffer.asShortBuffer();
+
+                for (int i = 0; i < numValues; i++) {
+                    values[offset + i] = shortValues.get(i);
+                }
+
+                break;
+            case INTEGER_8BIT:
+                for (int i = 0; i < numValues; i++) {
+                    values[offset + i] = buffer.get(i);
                 }
 
                 break;
             default:
                 throw new UnsupportedOperationException("Data type not supported: " + dataType);
         }
+    }
 
-        return convertedData;
+    /**
+     * Read numValues values of the specified data type from the little endian 
+     * buffer (starting at index 0) into the long[], converting each value to long.
+     *
+     * @param buffer Little endian buffer containing the data
+     * @param dataType DataType of the data in the buffer
+     * @param numValues Number of values to read
+     * @param values Array to place the values into
+     * @param offset Index within values to place the first value
+     */
+    private static void readAsLong(ByteBuffer buffer, DataType dataType, int numValues, long[] values, int offset) {
+        switch (dataType) {
+            case DOUBLE:
+                DoubleBuffer doubleValues = buffer.asDoubleBuffer();
+
+                for (int i = 0; i < numValues; i++) {
+                    values[offset + i] = (long) doubleValues.get(i);
+                }
+
+                break;
+            case FLOAT:
+                FloatBuffer floatValues = buffer.asFloatBuffer();
+
+                for (int i = 0; i < numValues; i++) {
+                    values[offset + i] = (long) floatValues.get(i);
+                }
+
+                break;
+            case INTEGER_64BIT:
+                buffer.asLongBuffer().get(values, offset, numValues);
+
+                break;
+            case INTEGER_32BIT:
+                IntBuffer intValues = buffer.asIntBuffer();
+
+                for (int i = 0; i < numValues; i++) {
+                    values[offset + i] = intValues.get(i);
+                }
+
+                break;
+            case INTEGER_16BIT:
+                ShortBuffer shortValues = buffer.asShortBuffer();
+
+                for (int i = 0; i < numValues; i++) {
+                    values[offset + i] = shortValues.get(i);
+                }
+
+                break;
+            case INTEGER_8BIT:
+                for (int i = 0; i < numValues; i++) {
+                    values[offset + i] = buffer.get(i);
+                }
+
+                break;
+            default:
+                throw new UnsupportedOperationException("Data type not supported: " + dataType);
+        }
     }
 
     /**
-     * Convert data from uncompressed byte[] with the data type 'from' to the 
-     * data type 'to'.
+     * Read numValues values of the specified data type from the little endian 
+     * buffer (starting at index 0) into the int[], converting each value to int.
      *
-     * @param data Data as byte[] in data type 'from'
-     * @param from Data type of the input byte[]
-     * @param to Data type to convert the input data to
-     * @return Data as byte[] in the data type 'to'
+     * @param buffer Little endian buffer containing the data
+     * @param dataType DataType of the data in the buffer
+     * @param numValues Number of values to read
+     * @param values Array to place the values into
+     * @param offset Index within values to place the first value
      */
-    public static byte[] convertData(byte[] data, DataType from, DataType to) {
-        if (from.equals(to)) {
-            return data;
+    private static void readAsInt(ByteBuffer buffer, DataType dataType, int numValues, int[] values, int offset) {
+        switch (dataType) {
+            case DOUBLE:
+                DoubleBuffer doubleValues = buffer.asDoubleBuffer();
+
+                for (int i = 0; i < numValues; i++) {
+                    values[offset + i] = (int) doubleValues.get(i);
+                }
+
+                break;
+            case FLOAT:
+                FloatBuffer floatValues = buffer.asFloatBuffer();
+
+                for (int i = 0; i < numValues; i++) {
+                    values[offset + i] = (int) floatValues.get(i);
+                }
+
+                break;
+            case INTEGER_64BIT:
+                LongBuffer longValues = buffer.asLongBuffer();
+
+                for (int i = 0; i < numValues; i++) {
+                    values[offset + i] = (int) longValues.get(i);
+                }
+
+                break;
+            case INTEGER_32BIT:
+                buffer.asIntBuffer().get(values, offset, numValues);
+
+                break;
+            case INTEGER_16BIT:
+                ShortBuffer shortValues = buffer.asShortBuffer();
+
+                for (int i = 0; i < numValues; i++) {
+                    values[offset + i] = shortValues.get(i);
+                }
+
+                break;
+            case INTEGER_8BIT:
+                for (int i = 0; i < numValues; i++) {
+                    values[offset + i] = buffer.get(i);
+                }
+
+                break;
+            default:
+                throw new UnsupportedOperationException("Data type not supported: " + dataType);
         }
+    }
+
+    /**
+     * Read numValues values of the specified data type from the little endian 
+     * buffer (starting at index 0) into the short[], converting each value to short.
+     *
+     * @param buffer Little endian buffer containing the data
+     * @param dataType DataType of the data in the buffer
+     * @param numValues Number of values to read
+     * @param values Array to place the values into
+     * @param offset Index within values to place the first value
+     */
+    private static void readAsShort(ByteBuffer buffer, DataType dataType, int numValues, short[] values, int offset) {
+        switch (dataType) {
+            case DOUBLE:
+                DoubleBuffer doubleValues = buffer.asDoubleBuffer();
 
-        double[] doubleData = convertDataToDouble(data, from);
+                for (int i = 0; i < numValues; i++) {
+                    values[offset + i] = (short) doubleValues.get(i);
+                }
 
-        ByteArrayOutputStream byteArrayStream = new ByteArrayOutputStream();
-        DataOutputStream byteStream = new DataOutputStream(byteArrayStream);
+                break;
+            case FLOAT:
+                FloatBuffer floatValues = buffer.asFloatBuffer();
 
-        try {
-            switch (to) {
-                case DOUBLE:
-                    for (double dataPoint : doubleData) {
-                        byteStream.writeLong(Long.reverseBytes(Double.doubleToLongBits(dataPoint)));
-                    }
+                for (int i = 0; i < numValues; i++) {
+                    values[offset + i] = (short) floatValues.get(i);
+                }
 
-                    break;
-                case FLOAT:
-                    for (double dataPoint : doubleData) {
-                        byteStream.writeInt(Integer.reverseBytes(Float.floatToIntBits((float) dataPoint)));
-                    }
+                break;
+            case INTEGER_64BIT:
+                LongBuffer longValues = buffer.asLongBuffer();
 
-                    break;
-                case INTEGER_64BIT:
-                    for (double dataPoint : doubleData) {
-                        byteStream.writeLong(Long.reverseBytes((long) dataPoint));
-                    }
+                for (int i = 0; i < numValues; i++) {
+                    values[offset + i] = (short) longValues.get(i);
+                }
 
-                    break;
-                case INTEGER_32BIT:
-                    for (double dataPoint : doubleData) {
-                        byteStream.writeInt(Integer.reverseBytes((int) dataPoint));
-                    }
+                break;
+            case INTEGER_32BIT:
+                IntBuffer intValues = buffer.asIntBuffer();
 
-                    break;
-                case INTEGER_16BIT:
-                    for (double dataPoint : doubleData) {
-                        byteStream.writeShort(Short.reverseBytes((short) dataPoint));
-                    }
+                for (int i = 0; i < numValues; i++) {
+                    values[offset + i] = (short) intValues.get(i);
+                }
 
-                    break;
-                case INTEGER_8BIT:
-                    for (double dataPoint : doubleData) {
-                        byteStream.writeByte((byte) dataPoint);
-                    }
+                break;
+            case INTEGER_16BIT:
+                buffer.asShortBuffer().get(values, offset, numValues);
 
-                    break;
-                default:
-                    throw new UnsupportedOperationException("Data type not supported: " + to);
-            }
-        } catch (IOException ex) {
-            LOGGER.log(Level.SEVERE, null, ex);
+                break;
+            case INTEGER_8BIT:
+                for (int i = 0; i < numValues; i++) {
+                    values[offset + i] = buffer.get(i);
+                }
+
+                break;
+            default:
+                throw new UnsupportedOperationException("Data type not supported: " + dataType);
         }
+    }
+
+    /**
+     * Read numValues values of the specified data type from the little endian 
+     * buffer (starting at index 0) into the byte[], converting each value to byte.
+     *
+     * @param buffer Little endian buffer containing the data
+     * @param dataType DataType of the data in the buffer
+     * @param numValues Number of values to read
+     * @param values Array to place the values into
+     * @param offset Index within values to place the first value
+     */
+    private static void readAsByte(ByteBuffer buffer, DataType dataType, int numValues, byte[] values, int offset) {
+        switch (dataType) {
+            case DOUBLE:
+                DoubleBuffer doubleValues = buffer.asDoubleBuffer();
+
+                for (int i = 0; i < numValues; i++) {
+                    values[offset + i] = (byte) doubleValues.get(i);
+                }
+
+                break;
+            case FLOAT:
+                FloatBuffer floatValues = buffer.asFloatBuffer();
+
+                for (int i = 0; i < numValues; i++) {
+                    values[offset + i] = (byte) floatValues.get(i);
+                }
+
+                break;
+            case INTEGER_64BIT:
+                LongBuffer longValues = buffer.asLongBuffer();
+
+                for (int i = 0; i < numValues; i++) {
+                    values[offset + i] = (byte) longValues.get(i);
+                }
+
+                break;
+            case INTEGER_32BIT:
+                IntBuffer intValues = buffer.asIntBuffer();
 
-        return byteArrayStream.toByteArray();
+                for (int i = 0; i < numValues; i++) {
+                    values[offset + i] = (byte) intValues.get(i);
+                }
+
+                break;
+            case INTEGER_16BIT:
+                ShortBuffer shortValues = buffer.asShortBuffer();
+
+                for (int i = 0; i < numValues; i++) {
+                    values[offset + i] = (byte) shortValues.get(i);
+                }
+
+                break;
+            case INTEGER_8BIT:
+                buffer.duplicate().get(values, offset, numValues);
+
+                break;
+            default:
+                throw new UnsupportedOperationException("Data type not supported: " + dataType);
+        }
     }
 
     @Override
@@ -310,6 +844,11 @@ public class DataTypeTransform implements DataTransform {
         return convertData(data, to, from);
     }
 
+    @Override
+    public byte[] reverseTransform(byte[] data, int length) throws DataFormatException {
+        return convertData(data, length, to, from);
+    }
+
     
     @Override
     public String toString() {
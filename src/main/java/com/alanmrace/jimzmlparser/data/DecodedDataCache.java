@@ -0,0 +1,393 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+
+/**
+ * Cache of decoded data, keyed by the {@link DataLocation} (storage, offset and
+ * length) that the data was decoded from. The cache is limited to a maximum number
+ * of bytes, evicting the least recently used data once this is exceeded.
+ *
+ * <p>To allow concurrent access the cache is split into a number of independently
+ * locked segments, each of which is given an equal share of the total byte budget.
+ *
+ * <p>Arrays returned by the cache are shared between all callers and so must not
+ * be modified.
+ *
+ * <p>The cache only holds weak references to the DataStorage of each entry, so 
+ * caching data does not keep a DataStorage alive. When a DataStorage is closed,
+ * all of its entries are removed from every cache.
+ *
+ * @author Alan Race
+ */
+public class DecodedDataCache {
+
+    /**
+     * Default number of independently locked segments in the cache.
+     */
+    public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    /**
+     * Estimated overhead in bytes of each cache entry (key, map entry and array
+     * header), in addition to the size of the data itself.
+     */
+    protected static final int ENTRY_OVERHEAD = 96;
+
+    /**
+     * All caches which have been created and not yet garbage collected, so that
+     * entries can be removed when a DataStorage is closed.
+     */
+    private static final Set<DecodedDataCache> CACHES = Collections.synchronizedSet(
+            Collections.newSetFromMap(new WeakHashMap<DecodedDataCache, Boolean>()));
+
+    /**
+     * Segments of the cache.
+     */
+    private final Segment[] segments;
+
+    /**
+     * Number of requests for which data was found in the cache.
+     */
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /**
+     * Number of requests for which data was not found in the cache.
+     */
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Number of entries removed from the cache to keep within the byte budget.
+     */
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Create a cache which can hold up to maxBytes of decoded data, using
+     * the default concurrency level.
+     *
+     * @param maxBytes Maximum size of the cache in bytes
+     */
+    public DecodedDataCache(long maxBytes) {
+        this(maxBytes, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * Create a cache which can hold up to maxBytes of decoded data, split into
+     * concurrencyLevel independently locked segments.
+     *
+     * @param maxBytes Maximum size of the cache in bytes
+     * @param concurrencyLevel Number of segments
+     */
+    public DecodedDataCache(long maxBytes, int concurrencyLevel) {
+        if(maxBytes < 0)
+            throw new IllegalArgumentException("Maximum size must not be negative: " + maxBytes);
+        if(concurrencyLevel <= 0)
+            throw new IllegalArgumentException("Concurrency level must be positive: " + concurrencyLevel);
+
+        segments = new Segment[concurrencyLevel];
+
+        for(int i = 0; i < concurrencyLevel; i++)
+            segments[i] = new Segment(maxBytes / concurrencyLevel);
+
+        CACHES.add(this);
+    }
+
+    /**
+     * Get the decoded data for the DataLocation, using the cached copy if there
+     * is one and otherwise decoding it with {@link DataLocation#getData()} and
+     * adding it to the cache.
+     *
+     * @param location DataLocation to get the data for
+     * @return Decoded data
+     * @throws DataFormatException Issue with converting the data
+     * @throws IOException Issue reading the raw data
+     */
+    public double[] getData(DataLocation location) throws DataFormatException, IOException {
+        double[] data = get(location);
+
+        if(data == null) {
+            data = location.getData();
+            put(location, data);
+        }
+
+        return data;
+    }
+
+    /**
+     * Get the cached decoded data for the DataLocation.
+     *
+     * @param location DataLocation to get the data for
+     * @return Decoded data, or null if it is not in the cache
+     */
+    public double[] get(DataLocation location) {
+        Key key = new Key(location);
+        double[] data = segmentFor(key).get(key);
+
+        if(data == null)
+            missCount.incrementAndGet();
+        else
+            hitCount.incrementAndGet();
+
+        return data;
+    }
+
+    /**
+     * Add decoded data for the DataLocation to the cache, evicting the least
+     * recently used data as necessary. Data which is larger than the share of
+     * the byte budget for a single segment is not cached.
+     *
+     * @param location DataLocation the data was decoded from
+     * @param data Decoded data
+     */
+    public void put(DataLocation location, double[] data) {
+        Key key = new Key(location);
+
+        evictionCount.addAndGet(segmentFor(key).put(key, data));
+    }
+
+    /**
+     * Remove all data decoded from the DataStorage from the cache, along with any
+     * data whose DataStorage has been garbage collected.
+     *
+     * @param dataStorage DataStorage to remove the data of
+     */
+    public void remove(DataStorage dataStorage) {
+        for(Segment segment : segments)
+            segment.remove(dataStorage);
+    }
+
+    /**
+     * Remove all data decoded from the DataStorage from every cache. This is 
+     * called when the DataStorage is closed.
+     *
+     * @param dataStorage DataStorage to remove the data of
+     */
+    static void removeFromAll(DataStorage dataStorage) {
+        DecodedDataCache[] caches;
+
+        synchronized(CACHES) {
+            caches = CACHES.toArray(new DecodedDataCache[CACHES.size()]);
+        }
+
+        for(DecodedDataCache cache : caches)
+            cache.remove(dataStorage);
+    }
+
+    /**
+     * Remove all data from the cache. The hit, miss and eviction counts are not reset.
+     */
+    public void clear() {
+        for(Segment segment : segments)
+            segment.clear();
+    }
+
+    /**
+     * Get the estimated number of bytes currently held in the cache.
+     *
+     * @return Size in bytes
+     */
+    public long getSize() {
+        long size = 0;
+
+        for(Segment segment : segments)
+            size += segment.getSize();
+
+        return size;
+    }
+
+    /**
+     * Get the number of entries currently held in the cache.
+     *
+     * @return Number of entries
+     */
+    public int getEntryCount() {
+        int count = 0;
+
+        for(Segment segment : segments)
+            count += segment.getEntryCount();
+
+        return count;
+    }
+
+    /**
+     * Get the number of requests for which data was found in the cache.
+     *
+     * @return Hit count
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Get the number of requests for which data was not found in the cache.
+     *
+     * @return Miss count
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Get the number of entries removed from the cache to keep within the byte budget.
+     *
+     * @return Eviction count
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Get the estimated number of bytes required to cache the data.
+     *
+     * @param data Decoded data
+     * @return Size in bytes
+     */
+    protected static long sizeOf(double[] data) {
+        return ENTRY_OVERHEAD + 8L * data.length;
+    }
+
+    private Segment segmentFor(Key key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+
+        return segments[(hash & Integer.MAX_VALUE) % segments.length];
+    }
+
+    @Override
+    public String toString() {
+        return "DecodedDataCache [size=" + getSize() + ", entries=" + getEntryCount() + ", hits=" + getHitCount()
+                + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount() + "]";
+    }
+
+    /**
+     * Independently locked portion of the cache, holding entries in least recently
+     * used order.
+     */
+    private static class Segment {
+
+        private final long maxBytes;
+
+        private final LinkedHashMap<Key, double[]> entries = new LinkedHashMap<Key, double[]>(16, 0.75f, true);
+
+        private long size;
+
+        Segment(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized double[] get(Key key) {
+            return entries.get(key);
+        }
+
+        synchronized int put(Key key, double[] data) {
+            long dataSize = sizeOf(data);
+
+            if(dataSize > maxBytes)
+                return 0;
+
+            double[] previous = entries.put(key, data);
+
+            if(previous != null)
+                size -= sizeOf(previous);
+
+            size += dataSize;
+
+            int evicted = 0;
+            Iterator<Map.Entry<Key, double[]>> iterator = entries.entrySet().iterator();
+
+            while(size > maxBytes && iterator.hasNext()) {
+                Map.Entry<Key, double[]> eldest = iterator.next();
+
+                size -= sizeOf(eldest.getValue());
+                iterator.remove();
+
+                evicted++;
+            }
+
+            return evicted;
+        }
+
+        synchronized void remove(DataStorage dataStorage) {
+            Iterator<Map.Entry<Key, double[]>> iterator = entries.entrySet().iterator();
+
+            while(iterator.hasNext()) {
+                Map.Entry<Key, double[]> entry = iterator.next();
+                DataStorage entryStorage = entry.getKey().dataStorage.get();
+
+                if(entryStorage == null || entryStorage == dataStorage) {
+                    size -= sizeOf(entry.getValue());
+                    iterator.remove();
+                }
+            }
+        }
+
+        synchronized void clear() {
+            entries.clear();
+            size = 0;
+        }
+
+        synchronized long getSize() {
+            return size;
+        }
+
+        synchronized int getEntryCount() {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Identity of the data described by a DataLocation. The DataStorage is only 
+     * weakly referenced, and once it has been garbage collected the key no longer
+     * equals any other key.
+     */
+    private static class Key {
+
+        private final WeakReference<DataStorage> dataStorage;
+
+        private final int storageHash;
+
+        private final long offset;
+
+        private final int length;
+
+        Key(DataLocation location) {
+            this.dataStorage = new WeakReference<DataStorage>(location.getDataStorage());
+            this.storageHash = System.identityHashCode(location.getDataStorage());
+            this.offset = location.getOffset();
+            this.length = location.getLength();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(this == obj)
+                return true;
+            if(!(obj instanceof Key))
+                return false;
+
+            Key other = (Key) obj;
+
+            if(offset != other.offset || length != other.length || storageHash != other.storageHash)
+                return false;
+
+            DataStorage storage = dataStorage.get();
+
+            return storage != null && storage == other.dataStorage.get();
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = storageHash;
+            hash = 31 * hash + (int) (offset ^ (offset >>> 32));
+            hash = 31 * hash + length;
+
+            return hash;
+        }
+    }
+}
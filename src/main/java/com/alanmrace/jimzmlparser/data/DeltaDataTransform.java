@@ -0,0 +1,173 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+
+/**
+ * DataTransform which replaces each little-endian element (other than the first)
+ * with the difference between it and the previous element. Elements are treated
+ * as integers of the element size, so that the transform is lossless for any data.
+ * For positive floating point data this is the difference between the bit patterns
+ * of the values, which for a sorted array (such as the m/z values of a spectrum)
+ * is small and similar throughout the array, and so compresses far better once
+ * the bytes are shuffled with {@link ByteShuffleDataTransform}. Any bytes after
+ * the last whole element are left in place.
+ *
+ * @author Alan Race
+ */
+public class DeltaDataTransform implements LengthAwareDataTransform {
+
+    /**
+     * Serialisation version ID.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Size in bytes of each element (1, 2, 4 or 8).
+     */
+    private final int elementSize;
+
+    /**
+     * Create a delta DataTransform for elements of the specified size.
+     *
+     * @param elementSize Size in bytes of each element (1, 2, 4 or 8)
+     */
+    public DeltaDataTransform(int elementSize) {
+        if (elementSize != 1 && elementSize != 2 && elementSize != 4 && elementSize != 8) {
+            throw new IllegalArgumentException("Invalid element size: " + elementSize);
+        }
+
+        this.elementSize = elementSize;
+    }
+
+    /**
+     * Create a delta DataTransform for elements of the specified data type.
+     *
+     * @param dataType Data type of each element
+     */
+    public DeltaDataTransform(DataTypeTransform.DataType dataType) {
+        this(DataTypeTransform.getDataTypeInBytes(dataType));
+    }
+
+    /**
+     * Get the size of each element.
+     *
+     * @return Size in bytes
+     */
+    public int getElementSize() {
+        return elementSize;
+    }
+
+    @Override
+    public byte[] forwardTransform(byte[] data) throws DataFormatException {
+        byte[] encoded = data.clone();
+        ByteBuffer source = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer dest = ByteBuffer.wrap(encoded).order(ByteOrder.LITTLE_ENDIAN);
+        int end = (data.length / elementSize) * elementSize;
+
+        switch (elementSize) {
+            case 8: {
+                long previous = 0;
+
+                for (int i = 0; i < end; i += 8) {
+                    long value = source.getLong(i);
+                    dest.putLong(i, value - previous);
+                    previous = value;
+                }
+                break;
+            }
+            case 4: {
+                int previous = 0;
+
+                for (int i = 0; i < end; i += 4) {
+                    int value = source.getInt(i);
+                    dest.putInt(i, value - previous);
+                    previous = value;
+                }
+                break;
+            }
+            case 2: {
+                short previous = 0;
+
+                for (int i = 0; i < end; i += 2) {
+                    short value = source.getShort(i);
+                    dest.putShort(i, (short) (value - previous));
+                    previous = value;
+                }
+                break;
+            }
+            default: {
+                byte previous = 0;
+
+                for (int i = 0; i < end; i++) {
+                    byte value = data[i];
+                    encoded[i] = (byte) (value - previous);
+                    previous = value;
+                }
+                break;
+            }
+        }
+
+        return encoded;
+    }
+
+    @Override
+    public byte[] reverseTransform(byte[] data) throws DataFormatException {
+        return reverseTransform(data, data.length);
+    }
+
+    @Override
+    public byte[] reverseTransform(byte[] data, int length) throws DataFormatException {
+        byte[] decoded = Arrays.copyOf(data, length);
+        ByteBuffer buffer = ByteBuffer.wrap(decoded).order(ByteOrder.LITTLE_ENDIAN);
+        int end = (length / elementSize) * elementSize;
+
+        switch (elementSize) {
+            case 8: {
+                long value = 0;
+
+                for (int i = 0; i < end; i += 8) {
+                    value += buffer.getLong(i);
+                    buffer.putLong(i, value);
+                }
+                break;
+            }
+            case 4: {
+                int value = 0;
+
+                for (int i = 0; i < end; i += 4) {
+                    value += buffer.getInt(i);
+                    buffer.putInt(i, value);
+                }
+                break;
+            }
+            case 2: {
+                short value = 0;
+
+                for (int i = 0; i < end; i += 2) {
+                    value += buffer.getShort(i);
+                    buffer.putShort(i, value);
+                }
+                break;
+            }
+            default: {
+                byte value = 0;
+
+                for (int i = 0; i < end; i++) {
+                    value += decoded[i];
+                    decoded[i] = value;
+                }
+                break;
+            }
+        }
+
+        return decoded;
+    }
+
+    @Override
+    public String toString() {
+        return "DeltaDataTransform (" + elementSize + " bytes)";
+    }
+}
@@ -0,0 +1,27 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * DataStorage where data is stored in binary and accessed using positional reads on 
+ * the FileChannel of the file. Unlike {@link BinaryDataStorage}, reads do not seek
+ * a shared file pointer and so multiple threads can read from the same file without
+ * contending on a lock. Unlike {@link MappedDataStorage}, the file is not mapped 
+ * into memory.
+ * 
+ * @author Alan Race
+ * @see DataStorage.AccessMode#POSITIONAL_READ
+ */
+public class FileChannelDataStorage extends DataStorage {
+
+    /**
+     * Set up a file containing binary data, accessed with positional reads.
+     * 
+     * @param dataFile File containing binary data
+     * @throws IOException Error occurred opening the file
+     */
+    public FileChannelDataStorage(File dataFile) throws IOException {
+        super(dataFile, AccessMode.POSITIONAL_READ);
+    }
+}
@@ -1,49 +1,394 @@
 package com.alanmrace.jimzmlparser.data;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.zip.DataFormatException;
 import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
 import net.jpountz.lz4.LZ4Factory;
 import net.jpountz.lz4.LZ4FastDecompressor;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+import net.jpountz.xxhash.XXHash32;
+import net.jpountz.xxhash.XXHashFactory;
 
 /**
+ * DataTransform describing the compression (forward) and decompression (reverse)
+ * of data using the LZ4 algorithm.
+ *
+ * <p>By default data is compressed into a raw LZ4 block, as written by earlier
+ * versions, which requires the size of the uncompressed data for efficient 
+ * decompression. Optionally, data can instead be compressed into a standard LZ4 
+ * frame which records the size of the uncompressed data, so no further 
+ * information is required for decompression. Frames are described by the same 
+ * CV term as raw blocks, so are only readable by this version onwards. Both 
+ * forms are always decompressed, using the supplied uncompressed size for raw 
+ * blocks if one is available.
  *
  * @author Alan Race
  */
-public class LZ4DataTransform implements DataTransform {
+public class LZ4DataTransform implements LengthAwareDataTransform {
+
+    /**
+     * Serialisation version ID.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Expected maximum ratio between the uncompressed and compressed size of a
+     * raw LZ4 block, used when decompressing a block of unknown size.
+     */
     public static final int MAX_COMPRESSION_FACTOR = 10;
-    
-    private final transient LZ4Factory factory = LZ4Factory.fastestInstance();
+
+    /**
+     * Magic number at the start of every LZ4 frame.
+     */
+    private static final int FRAME_MAGIC = 0x184D2204;
+
+    /**
+     * Frame version, block independence and content size flags.
+     */
+    private static final int FRAME_FLAGS = 0x68;
+
+    /**
+     * Frame block descriptor, for a maximum block size of 4 MB.
+     */
+    private static final int FRAME_BLOCK_DESCRIPTOR = 0x70;
+
+    /**
+     * Maximum size in bytes of each block of a frame.
+     */
+    private static final int FRAME_BLOCK_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Size in bytes of the frame header (magic number, descriptor, content size and checksum).
+     */
+    private static final int FRAME_HEADER_SIZE = 15;
+
+    /**
+     * Flag set in the size of a block which is stored uncompressed.
+     */
+    private static final int UNCOMPRESSED_BLOCK_FLAG = 0x80000000;
+
+    /**
+     * Maximum ratio between the uncompressed and compressed size of a raw LZ4 block.
+     */
+    private static final int LZ4_MAX_COMPRESSION_FACTOR = 255;
+
+    private static final LZ4Factory FACTORY = LZ4Factory.fastestInstance();
+
+    private static final XXHash32 XXHASH = XXHashFactory.fastestInstance().hash32();
+
+    /**
+     * Size in bytes of the uncompressed data, used when decompressing raw LZ4
+     * blocks, or 0 if unknown.
+     */
     private final int arrayLengthInBytes;
-    
+
+    /**
+     * Whether data is compressed into LZ4 frames rather than raw LZ4 blocks.
+     */
+    private final boolean frame;
+
+    /**
+     * Create an LZ4 DataTransform, which writes raw LZ4 blocks, where the size 
+     * of the uncompressed data is unknown.
+     */
+    public LZ4DataTransform() {
+        this(0);
+    }
+
+    /**
+     * Create an LZ4 DataTransform, which writes raw LZ4 blocks and decompresses
+     * them to the specified uncompressed size.
+     *
+     * @param arrayLengthInBytes Size in bytes of the uncompressed data, or 0 if unknown
+     */
     public LZ4DataTransform(int arrayLengthInBytes) {
-        this.arrayLengthInBytes = arrayLengthInBytes;
+        this(arrayLengthInBytes, false);
     }
-    
+
+    /**
+     * Create an LZ4 DataTransform, which writes either raw LZ4 blocks or 
+     * self-describing LZ4 frames.
+     *
+     * @param arrayLengthInBytes Size in bytes of the uncompressed data, used to decompress raw LZ4 blocks, or 0 if unknown
+     * @param frame true to write LZ4 frames, false to write raw LZ4 blocks
+     */
+    public LZ4DataTransform(int arrayLengthInBytes, boolean frame) {
+        this.arrayLengthInBytes = Math.max(0, arrayLengthInBytes);
+        this.frame = frame;
+    }
+
+    /**
+     * Get whether data is compressed into LZ4 frames rather than raw LZ4 blocks.
+     *
+     * @return true if LZ4 frames are written, false if raw LZ4 blocks are written
+     */
+    public boolean isFrame() {
+        return frame;
+    }
+
     @Override
     public byte[] forwardTransform(byte[] data) throws DataFormatException {
-        LZ4Compressor compressor = factory.fastCompressor();
-        
-        // For some reason the compression of m/z arrays using LZ4 results in larger data than the input
-        int maxCompressedLength = compressor.maxCompressedLength(data.length) * 2;
+        LZ4Compressor compressor = FACTORY.fastCompressor();
+
+        if (!frame) {
+            int maxCompressedLength = compressor.maxCompressedLength(data.length);
+            byte[] compressed = new byte[maxCompressedLength];
+
+            int compressedLength = compressor.compress(data, 0, data.length, compressed, 0, maxCompressedLength);
+
+            if (compressedLength != compressed.length) {
+                return Arrays.copyOf(compressed, compressedLength);
+            }
+
+            return compressed;
+        }
+
+        int numBlocks = Math.max(1, (data.length + FRAME_BLOCK_SIZE - 1) / FRAME_BLOCK_SIZE);
+        int maxCompressedLength = FRAME_HEADER_SIZE + 4 + numBlocks * (4 + compressor.maxCompressedLength(Math.min(data.length, FRAME_BLOCK_SIZE)));
+
         byte[] compressed = new byte[maxCompressedLength];
-        
-        int compressedLength = compressor.compress(data, 0, data.length, compressed, 0, maxCompressedLength);
-        
-        
-        if(compressedLength != compressed.length)
-            return Arrays.copyOf(compressed, compressedLength);
-        
+
+        writeInt(compressed, 0, FRAME_MAGIC);
+        compressed[4] = (byte) FRAME_FLAGS;
+        compressed[5] = (byte) FRAME_BLOCK_DESCRIPTOR;
+        writeInt(compressed, 6, data.length);
+        writeInt(compressed, 10, 0);
+        compressed[14] = (byte) ((XXHASH.hash(compressed, 4, 10, 0) >> 8) & 0xFF);
+
+        int position = FRAME_HEADER_SIZE;
+
+        for (int offset = 0; offset < data.length; offset += FRAME_BLOCK_SIZE) {
+            int blockLength = Math.min(FRAME_BLOCK_SIZE, data.length - offset);
+            int compressedLength = compressor.compress(data, offset, blockLength, compressed, position + 4, compressed.length - position - 4);
+
+            // Store incompressible blocks (such as many m/z arrays) as they are, rather than larger than the input
+            if (compressedLength >= blockLength) {
+                System.arraycopy(data, offset, compressed, position + 4, blockLength);
+                writeInt(compressed, position, blockLength | UNCOMPRESSED_BLOCK_FLAG);
+
+                position += 4 + blockLength;
+            } else {
+                writeInt(compressed, position, compressedLength);
+
+                position += 4 + compressedLength;
+            }
+        }
+
+        // End mark
+        writeInt(compressed, position, 0);
+        position += 4;
+
+        if (position != compressed.length) {
+            return Arrays.copyOf(compressed, position);
+        }
+
         return compressed;
     }
 
     @Override
     public byte[] reverseTransform(byte[] data) throws DataFormatException {
-        byte[] decompressed = new byte[arrayLengthInBytes];
-        
-        LZ4FastDecompressor decompressor = factory.fastDecompressor();
-        decompressor.decompress(data, 0, decompressed, 0, arrayLengthInBytes);
-        
+        return reverseTransform(data, data.length);
+    }
+
+    @Override
+    public byte[] reverseTransform(byte[] data, int length) throws DataFormatException {
+        if (length >= 4 && readInt(data, 0) == FRAME_MAGIC) {
+            return reverseTransformFrame(data, length);
+        }
+
+        try {
+            if (arrayLengthInBytes > 0) {
+                byte[] decompressed = new byte[arrayLengthInBytes];
+
+                LZ4FastDecompressor decompressor = FACTORY.fastDecompressor();
+                decompressor.decompress(data, 0, decompressed, 0, arrayLengthInBytes);
+
+                return decompressed;
+            }
+
+            return reverseTransformUnknownSize(data, length);
+        } catch (LZ4Exception ex) {
+            throw new DataFormatException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Decompress a raw LZ4 block without knowing the size of the uncompressed data.
+     *
+     * @param data Raw LZ4 block
+     * @param length Number of bytes of data to use
+     * @return Decompressed data
+     * @throws DataFormatException The data is not a valid LZ4 block
+     */
+    private byte[] reverseTransformUnknownSize(byte[] data, int length) throws DataFormatException {
+        LZ4SafeDecompressor decompressor = FACTORY.safeDecompressor();
+        long maxLength = (long) length * LZ4_MAX_COMPRESSION_FACTOR;
+        int bufferLength = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(64, (long) length * MAX_COMPRESSION_FACTOR));
+
+        while (true) {
+            byte[] decompressed = new byte[bufferLength];
+
+            try {
+                int decompressedLength = decompressor.decompress(data, 0, length, decompressed, 0);
+
+                return Arrays.copyOf(decompressed, decompressedLength);
+            } catch (LZ4Exception ex) {
+                if (bufferLength >= maxLength || bufferLength >= Integer.MAX_VALUE - 8) {
+                    throw new DataFormatException(ex.getMessage());
+                }
+
+                bufferLength = (int) Math.min(Integer.MAX_VALUE - 8, Math.min(maxLength, (long) bufferLength * 2));
+            }
+        }
+    }
+
+    /**
+     * Decompress an LZ4 frame. Frames which record the size of the content and
+     * consist of independent blocks (as written by this class) are decompressed
+     * directly into an array of the correct size.
+     *
+     * @param data LZ4 frame
+     * @param dataLength Number of bytes of data to use
+     * @return Decompressed data
+     * @throws DataFormatException The data is not a valid LZ4 frame
+     */
+    private byte[] reverseTransformFrame(byte[] data, int dataLength) throws DataFormatException {
+        if (dataLength < 7) {
+            throw new DataFormatException("Truncated LZ4 frame header");
+        }
+
+        int flags = data[4] & 0xFF;
+
+        boolean independentBlocks = (flags & 0x20) != 0;
+        boolean blockChecksum = (flags & 0x10) != 0;
+        boolean contentSize = (flags & 0x08) != 0;
+        boolean dictionaryID = (flags & 0x01) != 0;
+
+        if ((flags >> 6) != 1) {
+            throw new DataFormatException("Unsupported LZ4 frame version " + (flags >> 6));
+        }
+
+        if (!independentBlocks || !contentSize || dictionaryID) {
+            return reverseTransformFrameStream(data, dataLength);
+        }
+
+        if (dataLength < FRAME_HEADER_SIZE) {
+            throw new DataFormatException("Truncated LZ4 frame header");
+        }
+
+        if (((XXHASH.hash(data, 4, 10, 0) >> 8) & 0xFF) != (data[14] & 0xFF)) {
+            throw new DataFormatException("LZ4 frame header checksum mismatch");
+        }
+
+        long length = (readInt(data, 6) & 0xFFFFFFFFL) | ((long) readInt(data, 10) << 32);
+
+        if (length < 0 || length > Integer.MAX_VALUE - 8) {
+            throw new DataFormatException("LZ4 frame content too large: " + length);
+        }
+
+        byte[] decompressed = new byte[(int) length];
+        LZ4SafeDecompressor decompressor = FACTORY.safeDecompressor();
+
+        int position = FRAME_HEADER_SIZE;
+        int outputPosition = 0;
+
+        while (true) {
+            if (position + 4 > dataLength) {
+                throw new DataFormatException("Truncated LZ4 frame");
+            }
+
+            int blockSize = readInt(data, position);
+            position += 4;
+
+            if (blockSize == 0) {
+                break;
+            }
+
+            boolean uncompressed = (blockSize & UNCOMPRESSED_BLOCK_FLAG) != 0;
+            blockSize &= ~UNCOMPRESSED_BLOCK_FLAG;
+
+            if (position + blockSize > dataLength) {
+                throw new DataFormatException("Truncated LZ4 frame");
+            }
+
+            if (uncompressed) {
+                if (outputPosition + blockSize > decompressed.length) {
+                    throw new DataFormatException("LZ4 frame content larger than recorded size " + length);
+                }
+
+                System.arraycopy(data, position, decompressed, outputPosition, blockSize);
+                outputPosition += blockSize;
+            } else {
+                try {
+                    outputPosition += decompressor.decompress(data, position, blockSize, decompressed, outputPosition, decompressed.length - outputPosition);
+                } catch (LZ4Exception ex) {
+                    throw new DataFormatException(ex.getMessage());
+                }
+            }
+
+            position += blockSize;
+
+            if (blockChecksum) {
+                position += 4;
+            }
+        }
+
+        if (outputPosition != decompressed.length) {
+            throw new DataFormatException("LZ4 frame content smaller than recorded size " + length);
+        }
+
         return decompressed;
     }
+
+    /**
+     * Decompress an LZ4 frame of any form by reading it as a stream.
+     *
+     * @param data LZ4 frame
+     * @param length Number of bytes of data to use
+     * @return Decompressed data
+     * @throws DataFormatException The data is not a valid LZ4 frame
+     */
+    private byte[] reverseTransformFrameStream(byte[] data, int length) throws DataFormatException {
+        try {
+            LZ4FrameInputStream inputStream = new LZ4FrameInputStream(new ByteArrayInputStream(data, 0, length));
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(Math.max(64, arrayLengthInBytes));
+
+            try {
+                byte[] buffer = new byte[8192];
+                int read;
+
+                while ((read = inputStream.read(buffer, 0, buffer.length)) != -1) {
+                    outputStream.write(buffer, 0, read);
+                }
+            } finally {
+                inputStream.close();
+            }
+
+            return outputStream.toByteArray();
+        } catch (IOException ex) {
+            throw new DataFormatException(ex.getMessage());
+        }
+    }
+
+    @Override
+    public String toString() {
+        // The size only applies to reading raw blocks, so does not affect the data written
+        return frame ? "LZ4DataTransform (frame)" : "LZ4DataTransform (block)";
+    }
+
+    private static void writeInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) value;
+        data[offset + 1] = (byte) (value >> 8);
+        data[offset + 2] = (byte) (value >> 16);
+        data[offset + 3] = (byte) (value >> 24);
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8) | ((data[offset + 2] & 0xFF) << 16) | ((data[offset + 3] & 0xFF) << 24);
+    }
 }
@@ -0,0 +1,26 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.util.zip.DataFormatException;
+
+/**
+ * DataTransform which can reverse the transformation of only the first bytes of 
+ * an array. This allows data held in a reusable buffer, which is longer than the
+ * data, to be transformed without first copying it to an array of the exact size.
+ * DataTransforms which do not implement this are given a copy of the data instead.
+ * 
+ * @author Alan Race
+ * @see DataTransformation#performReverseTransform(byte[], int, java.nio.DoubleBuffer)
+ */
+public interface LengthAwareDataTransform extends DataTransform {
+
+    /**
+     * Perform the data transformation in reverse on the first length bytes of
+     * data, as described in {@link #reverseTransform(byte[])}.
+     *
+     * @param data Data to reverse the transformation on
+     * @param length Number of bytes of data to use
+     * @return Transformed data
+     * @throws DataFormatException Issue with the transformation
+     */
+    byte[] reverseTransform(byte[] data, int length) throws DataFormatException;
+}
@@ -1,79 +1,803 @@
-/*
- * To change this license header, choose License Headers in Project Properties.
- * To change this template file, choose Tools | Templates
- * and open the template in the editor.
- */
 package com.alanmrace.jimzmlparser.data;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
 import java.util.Arrays;
 import java.util.zip.DataFormatException;
-import ms.numpress.MSNumpress;
 
 /**
+ * DataTransform describing the compression (forward) and decompression (reverse)
+ * of double precision data using one of the MS-Numpress algorithms: linear
+ * prediction (for m/z), positive integer (for intensities) or short logged float
+ * (for intensities).
+ *
+ * <p>The encoding and decoding is performed directly on the double values, and
+ * is compatible with the reference implementation. Unless a fixed point is
+ * specified, the optimal fixed point for the algorithm is calculated for each
+ * array that is encoded. Data is always encoded into an array of exactly the
+ * required size, and decoded values can be placed directly into a DoubleBuffer
+ * (see {@link #decode(byte[], int, DoubleBuffer)}).
  *
- * @author Alan
+ * @author Alan Race
  */
-public class MSNumpressDataTransform implements DataTransform {
+public class MSNumpressDataTransform implements LengthAwareDataTransform {
 
+    /**
+     * Serialisation version ID.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * MS-Numpress algorithms.
+     */
     public enum NumpressAlgorithm {
+
+        /**
+         * Linear prediction, storing the fixed point difference from the value
+         * extrapolated from the previous two values.
+         */
         LINEAR,
+        /**
+         * Positive integer, storing each value rounded to the nearest integer.
+         */
         PIC,
+        /**
+         * Short logged float, storing log(value + 1) as a 16 bit fixed point value.
+         */
         SLOF
     }
-    
+
+    /**
+     * Number of bytes used to store the fixed point.
+     */
+    private static final int FIXED_POINT_SIZE = 8;
+
+    /**
+     * Mask of the most significant half byte of an int.
+     */
+    private static final int HALF_BYTE_MASK = 0xf0000000;
+
+    /**
+     * Maximum size in bytes of the buffer retained by each thread for encoding.
+     * Larger data is encoded into a buffer which is not retained.
+     */
+    private static final int MAX_ENCODE_BUFFER_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Buffer reused by each thread to encode into before copying to an array of
+     * the exact size.
+     */
+    private static final ThreadLocal<byte[]> ENCODE_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[1024];
+        }
+    };
+
+    /**
+     * Algorithm to use.
+     */
     private final NumpressAlgorithm algorithm;
-    private String accession;
-    private double mzError = 1e5;
-    
+
+    /**
+     * Fixed point to use when encoding, or 0 to calculate the optimal fixed point
+     * for each array.
+     */
+    private final double fixedPoint;
+
+    /**
+     * Create an MS-Numpress DataTransform using the specified algorithm, which
+     * calculates the optimal fixed point for each array.
+     *
+     * @param algorithm Algorithm to use
+     */
     public MSNumpressDataTransform(NumpressAlgorithm algorithm) {
-        switch(algorithm) {
-            case LINEAR:
-                accession = MSNumpress.ACC_NUMPRESS_LINEAR;
-                break;
-            case PIC:
-                accession = MSNumpress.ACC_NUMPRESS_PIC;
-                break;
-            case SLOF:
-                accession = MSNumpress.ACC_NUMPRESS_SLOF;
-                break;
+        this(algorithm, 0);
+    }
+
+    /**
+     * Create an MS-Numpress DataTransform using the specified algorithm and
+     * fixed point. The fixed point is ignored by {@link NumpressAlgorithm#PIC}.
+     *
+     * @param algorithm Algorithm to use
+     * @param fixedPoint Fixed point to use when encoding, or 0 to calculate the optimal fixed point for each array
+     */
+    public MSNumpressDataTransform(NumpressAlgorithm algorithm, double fixedPoint) {
+        if (algorithm == null) {
+            throw new IllegalArgumentException("No algorithm specified");
         }
-        
+
+        if (fixedPoint < 0 || Double.isNaN(fixedPoint) || Double.isInfinite(fixedPoint)) {
+            throw new IllegalArgumentException("Invalid fixed point: " + fixedPoint);
+        }
+
         this.algorithm = algorithm;
+        this.fixedPoint = fixedPoint;
+    }
+
+    /**
+     * Get the algorithm used.
+     *
+     * @return Algorithm
+     */
+    public NumpressAlgorithm getAlgorithm() {
+        return algorithm;
     }
-    
+
     @Override
     public byte[] forwardTransform(byte[] data) throws DataFormatException {
-        byte[] encoded = new byte[data.length];
-        double[] dataAsDouble = DataTypeTransform.convertDataToDouble(data, DataTypeTransform.DataType.DOUBLE);
-        int numBytes = -1;
-        
-        switch(algorithm) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        return encode(buffer.asDoubleBuffer());
+    }
+
+    @Override
+    public byte[] reverseTransform(byte[] data) throws DataFormatException {
+        return reverseTransform(data, data.length);
+    }
+
+    @Override
+    public byte[] reverseTransform(byte[] data, int length) throws DataFormatException {
+        ByteBuffer buffer = ByteBuffer.allocate(getDecodedLength(data, length) * 8);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        decode(data, length, buffer.asDoubleBuffer());
+
+        return buffer.array();
+    }
+
+    /**
+     * Encode the data using the algorithm, without first converting it to byte[].
+     *
+     * @param data Data to encode
+     * @return Encoded data
+     * @throws DataFormatException Data cannot be represented using the algorithm and fixed point
+     */
+    public byte[] encode(double[] data) throws DataFormatException {
+        return encode(DoubleBuffer.wrap(data));
+    }
+
+    /**
+     * Encode the remaining data in the DoubleBuffer using the algorithm. The
+     * position of the DoubleBuffer is not modified.
+     *
+     * @param data Data to encode
+     * @return Encoded data
+     * @throws DataFormatException Data cannot be represented using the algorithm and fixed point
+     */
+    private byte[] encode(DoubleBuffer data) throws DataFormatException {
+        DoubleBuffer values = data.slice();
+        int numValues = values.remaining();
+
+        if (algorithm == NumpressAlgorithm.SLOF) {
+            byte[] encoded = new byte[FIXED_POINT_SIZE + numValues * 2];
+            encodeSlof(values, numValues, encoded, (fixedPoint > 0) ? fixedPoint : optimalSlofFixedPoint(values, numValues));
+
+            return encoded;
+        }
+
+        // Worst case of 9 half bytes per value, plus the linear header
+        long maxEncodedLength = (numValues * 9L + 1) / 2 + FIXED_POINT_SIZE + 8;
+
+        if (maxEncodedLength > Integer.MAX_VALUE) {
+            throw new DataFormatException("Too much data to encode: " + numValues);
+        }
+
+        byte[] buffer = ENCODE_BUFFER.get();
+
+        if (buffer.length < maxEncodedLength) {
+            if (maxEncodedLength > MAX_ENCODE_BUFFER_SIZE) {
+                buffer = new byte[(int) maxEncodedLength];
+            } else {
+                buffer = new byte[(int) Math.min(MAX_ENCODE_BUFFER_SIZE, Math.max(maxEncodedLength, buffer.length * 3L / 2))];
+                ENCODE_BUFFER.set(buffer);
+            }
+        }
+
+        int encodedLength;
+
+        if (algorithm == NumpressAlgorithm.LINEAR) {
+            encodedLength = encodeLinear(values, numValues, buffer, (fixedPoint > 0) ? fixedPoint : optimalLinearFixedPoint(values, numValues));
+        } else {
+            encodedLength = encodePic(values, numValues, buffer);
+        }
+
+        return Arrays.copyOf(buffer, encodedLength);
+    }
+
+    /**
+     * Decode the first length bytes of data into a new double[] of exactly the
+     * number of encoded values.
+     *
+     * @param data Encoded data
+     * @param length Number of bytes of data to use
+     * @return Decoded data
+     * @throws DataFormatException Data is corrupt
+     */
+    public double[] decode(byte[] data, int length) throws DataFormatException {
+        double[] decoded = new double[getDecodedLength(data, length)];
+
+        decode(data, length, DoubleBuffer.wrap(decoded));
+
+        return decoded;
+    }
+
+    /**
+     * Decode the first length bytes of data, placing the values into dest starting
+     * at its current position, until either all values have been decoded or dest
+     * is full.
+     *
+     * @param data Encoded data
+     * @param length Number of bytes of data to use
+     * @param dest DoubleBuffer to place the decoded values into
+     * @return Number of values placed into dest
+     * @throws DataFormatException Data is corrupt
+     */
+    public int decode(byte[] data, int length, DoubleBuffer dest) throws DataFormatException {
+        switch (algorithm) {
             case LINEAR:
-                numBytes = MSNumpress.encodeLinear(dataAsDouble, dataAsDouble.length, encoded, mzError);
-                
-                break;
+                return decodeLinear(data, length, dest);
             case PIC:
-                numBytes = MSNumpress.encodePic(dataAsDouble, dataAsDouble.length, encoded);
-                
-                break;
+                return decodePic(data, length, dest);
             case SLOF:
-                double fixedPoint = MSNumpress.optimalSlofFixedPoint(dataAsDouble, dataAsDouble.length);
-                numBytes = MSNumpress.encodeSlof(dataAsDouble, dataAsDouble.length, encoded, fixedPoint);
-                
-                break;
+                return decodeSlof(data, length, dest);
+            default:
+                throw new UnsupportedOperationException("Algorithm not supported: " + algorithm);
+        }
+    }
+
+    /**
+     * Get the number of values encoded in the first length bytes of data, without
+     * decoding them.
+     *
+     * @param data Encoded data
+     * @param length Number of bytes of data to use
+     * @return Number of encoded values
+     * @throws DataFormatException Data is corrupt
+     */
+    public int getDecodedLength(byte[] data, int length) throws DataFormatException {
+        switch (algorithm) {
+            case LINEAR:
+                checkLinearHeader(length);
+
+                if (length <= FIXED_POINT_SIZE + 4) {
+                    return (length - FIXED_POINT_SIZE) / 4;
+                }
+
+                return 2 + countInts(data, FIXED_POINT_SIZE + 8, length);
+            case PIC:
+                return countInts(data, 0, length);
+            case SLOF:
+                checkSlofHeader(length);
+
+                return (length - FIXED_POINT_SIZE) / 2;
+            default:
+                throw new UnsupportedOperationException("Algorithm not supported: " + algorithm);
+        }
+    }
+
+    /**
+     * Calculate the fixed point which gives the greatest precision for linear
+     * prediction encoding without overflow.
+     *
+     * @param data Data to be encoded
+     * @param numValues Number of values to encode
+     * @return Optimal fixed point
+     */
+    private static double optimalLinearFixedPoint(DoubleBuffer data, int numValues) {
+        if (numValues == 0) {
+            return 0;
+        }
+
+        if (numValues == 1) {
+            return Math.floor(0xFFFFFFFFL / data.get(0));
+        }
+
+        double maxDouble = Math.max(data.get(0), data.get(1));
+
+        for (int i = 2; i < numValues; i++) {
+            double extrapolated = data.get(i - 1) + (data.get(i - 1) - data.get(i - 2));
+            double difference = data.get(i) - extrapolated;
+
+            maxDouble = Math.max(maxDouble, Math.ceil(Math.abs(difference) + 1));
+        }
+
+        return Math.floor(Integer.MAX_VALUE / maxDouble);
+    }
+
+    /**
+     * Calculate the fixed point which gives the greatest precision for short
+     * logged float encoding without overflow.
+     *
+     * @param data Data to be encoded
+     * @param numValues Number of values to encode
+     * @return Optimal fixed point
+     */
+    private static double optimalSlofFixedPoint(DoubleBuffer data, int numValues) {
+        if (numValues == 0) {
+            return 0;
+        }
+
+        double maxDouble = 1;
+
+        for (int i = 0; i < numValues; i++) {
+            maxDouble = Math.max(maxDouble, Math.log(data.get(i) + 1));
+        }
+
+        return Math.floor(0xFFFF / maxDouble);
+    }
+
+    /**
+     * Encode using linear prediction: the first two values are stored as 4 byte
+     * fixed point values and each subsequent value as the variable length
+     * difference from the value extrapolated from the previous two.
+     *
+     * @param data Data to encode
+     * @param numValues Number of values to encode
+     * @param result Array to encode into, large enough for the worst case
+     * @param fixedPoint Fixed point to use
+     * @return Number of bytes encoded
+     * @throws DataFormatException Value cannot be represented using the fixed point
+     */
+    private static int encodeLinear(DoubleBuffer data, int numValues, byte[] result, double fixedPoint) throws DataFormatException {
+        encodeFixedPoint(fixedPoint, result);
+
+        if (numValues == 0) {
+            return FIXED_POINT_SIZE;
+        }
+
+        long current = (long) (data.get(0) * fixedPoint + 0.5);
+        encodeFixedInt(current, result, FIXED_POINT_SIZE);
+
+        if (numValues == 1) {
+            return FIXED_POINT_SIZE + 4;
+        }
+
+        long next = (long) (data.get(1) * fixedPoint + 0.5);
+        encodeFixedInt(next, result, FIXED_POINT_SIZE + 4);
+
+        HalfByteWriter writer = new HalfByteWriter(result, FIXED_POINT_SIZE + 8);
+
+        for (int i = 2; i < numValues; i++) {
+            long previous = current;
+            current = next;
+            next = (long) (data.get(i) * fixedPoint + 0.5);
+
+            long difference = next - (current + (current - previous));
+
+            if (difference > Integer.MAX_VALUE || difference < Integer.MIN_VALUE) {
+                throw new DataFormatException("Linear prediction overflow at index " + i + " using fixed point " + fixedPoint);
+            }
+
+            writer.writeInt((int) difference);
+        }
+
+        return writer.finish();
+    }
+
+    /**
+     * Encode using positive integer compression: each value is rounded to the
+     * nearest integer and stored using a variable number of half bytes.
+     *
+     * @param data Data to encode
+     * @param numValues Number of values to encode
+     * @param result Array to encode into, large enough for the worst case
+     * @return Number of bytes encoded
+     * @throws DataFormatException Value is negative or too large to be represented
+     */
+    private static int encodePic(DoubleBuffer data, int numValues, byte[] result) throws DataFormatException {
+        HalfByteWriter writer = new HalfByteWriter(result, 0);
+
+        for (int i = 0; i < numValues; i++) {
+            long count = (long) (data.get(i) + 0.5);
+
+            if (count < 0 || count > 0xFFFFFFFFL) {
+                throw new DataFormatException("Value at index " + i + " cannot be stored as a positive integer: " + data.get(i));
+            }
+
+            writer.writeInt((int) count);
+        }
+
+        return writer.finish();
+    }
+
+    /**
+     * Encode using short logged float compression: each value is stored as the
+     * 2 byte fixed point representation of log(value + 1).
+     *
+     * @param data Data to encode
+     * @param numValues Number of values to encode
+     * @param result Array to encode into, of exactly the required size
+     * @param fixedPoint Fixed point to use
+     * @throws DataFormatException Value cannot be represented using the fixed point
+     */
+    private static void encodeSlof(DoubleBuffer data, int numValues, byte[] result, double fixedPoint) throws DataFormatException {
+        encodeFixedPoint(fixedPoint, result);
+
+        int resultIndex = FIXED_POINT_SIZE;
+
+        for (int i = 0; i < numValues; i++) {
+            int value = (int) (Math.log(data.get(i) + 1) * fixedPoint + 0.5);
+
+            if (value < 0 || value > 0xFFFF) {
+                throw new DataFormatException("Value at index " + i + " cannot be stored using fixed point " + fixedPoint + ": " + data.get(i));
+            }
+
+            result[resultIndex++] = (byte) value;
+            result[resultIndex++] = (byte) (value >>> 8);
+        }
+    }
+
+    /**
+     * Decode data encoded using linear prediction.
+     *
+     * @param data Encoded data
+     * @param length Number of bytes of data to use
+     * @param dest DoubleBuffer to place the decoded values into
+     * @return Number of values placed into dest
+     * @throws DataFormatException Data is corrupt
+     */
+    private static int decodeLinear(byte[] data, int length, DoubleBuffer dest) throws DataFormatException {
+        checkLinearHeader(length);
+
+        if (length == FIXED_POINT_SIZE || !dest.hasRemaining()) {
+            return 0;
+        }
+
+        double fixedPoint = decodeFixedPoint(data);
+
+        long current = decodeFixedInt(data, FIXED_POINT_SIZE);
+        dest.put(current / fixedPoint);
+
+        if (length == FIXED_POINT_SIZE + 4 || !dest.hasRemaining()) {
+            return 1;
+        }
+
+        long next = decodeFixedInt(data, FIXED_POINT_SIZE + 4);
+        dest.put(next / fixedPoint);
+
+        HalfByteReader reader = new HalfByteReader(data, FIXED_POINT_SIZE + 8, length);
+        int numValues = 2;
+
+        while (dest.hasRemaining() && reader.hasNext()) {
+            long previous = current;
+            current = next;
+            next = current + (current - previous) + reader.readInt();
+
+            dest.put(next / fixedPoint);
+            numValues++;
+        }
+
+        return numValues;
+    }
+
+    /**
+     * Decode data encoded using positive integer compression.
+     *
+     * @param data Encoded data
+     * @param length Number of bytes of data to use
+     * @param dest DoubleBuffer to place the decoded values into
+     * @return Number of values placed into dest
+     * @throws DataFormatException Data is corrupt
+     */
+    private static int decodePic(byte[] data, int length, DoubleBuffer dest) throws DataFormatException {
+        HalfByteReader reader = new HalfByteReader(data, 0, length);
+        int numValues = 0;
+
+        while (dest.hasRemaining() && reader.hasNext()) {
+            dest.put(reader.readInt() & 0xFFFFFFFFL);
+            numValues++;
+        }
+
+        return numValues;
+    }
+
+    /**
+     * Decode data encoded using short logged float compression.
+     *
+     * @param data Encoded data
+     * @param length Number of bytes of data to use
+     * @param dest DoubleBuffer to place the decoded values into
+     * @return Number of values placed into dest
+     * @throws DataFormatException Data is corrupt
+     */
+    private static int decodeSlof(byte[] data, int length, DoubleBuffer dest) throws DataFormatException {
+        checkSlofHeader(length);
+
+        double fixedPoint = decodeFixedPoint(data);
+        int numValues = Math.min((length - FIXED_POINT_SIZE) / 2, dest.remaining());
+
+        for (int i = 0, dataIndex = FIXED_POINT_SIZE; i < numValues; i++, dataIndex += 2) {
+            int value = (data[dataIndex] & 0xFF) | ((data[dataIndex + 1] & 0xFF) << 8);
+
+            dest.put(Math.exp(value / fixedPoint) - 1);
+        }
+
+        return numValues;
+    }
+
+    /**
+     * Check that the length of data encoded using linear prediction is consistent
+     * with the fixed point and the first two values.
+     *
+     * @param length Number of bytes of encoded data
+     * @throws DataFormatException Data is corrupt
+     */
+    private static void checkLinearHeader(int length) throws DataFormatException {
+        if (length < FIXED_POINT_SIZE) {
+            throw new DataFormatException("Corrupt MS-Numpress linear data, need at least " + FIXED_POINT_SIZE + " bytes for the fixed point");
+        }
+
+        if ((length > FIXED_POINT_SIZE && length < FIXED_POINT_SIZE + 4) || (length > FIXED_POINT_SIZE + 4 && length < FIXED_POINT_SIZE + 8)) {
+            throw new DataFormatException("Corrupt MS-Numpress linear data, incomplete initial values");
+        }
+    }
+
+    /**
+     * Check that the length of data encoded using short logged float compression
+     * is consistent with the fixed point and 2 bytes per value.
+     *
+     * @param length Number of bytes of encoded data
+     * @throws DataFormatException Data is corrupt
+     */
+    private static void checkSlofHeader(int length) throws DataFormatException {
+        if (length < FIXED_POINT_SIZE || (length - FIXED_POINT_SIZE) % 2 != 0) {
+            throw new DataFormatException("Corrupt MS-Numpress slof data of length " + length);
+        }
+    }
+
+    /**
+     * Count the number of variable length integers encoded in data, starting at
+     * the specified offset.
+     *
+     * @param data Encoded data
+     * @param offset Offset in bytes of the first integer
+     * @param length Number of bytes of data to use
+     * @return Number of integers
+     * @throws DataFormatException Data is corrupt
+     */
+    private static int countInts(byte[] data, int offset, int length) throws DataFormatException {
+        HalfByteReader reader = new HalfByteReader(data, offset, length);
+        int numInts = 0;
+
+        while (reader.hasNext()) {
+            reader.skipInt();
+            numInts++;
+        }
+
+        return numInts;
+    }
+
+    /**
+     * Store the fixed point in the first 8 bytes of result (most significant
+     * byte first).
+     *
+     * @param fixedPoint Fixed point
+     * @param result Array to store the fixed point in
+     */
+    private static void encodeFixedPoint(double fixedPoint, byte[] result) {
+        long bits = Double.doubleToLongBits(fixedPoint);
+
+        for (int i = 0; i < FIXED_POINT_SIZE; i++) {
+            result[FIXED_POINT_SIZE - 1 - i] = (byte) (bits >>> (8 * i));
+        }
+    }
+
+    /**
+     * Read the fixed point from the first 8 bytes of data.
+     *
+     * @param data Encoded data
+     * @return Fixed point
+     */
+    private static double decodeFixedPoint(byte[] data) {
+        long bits = 0;
+
+        for (int i = 0; i < FIXED_POINT_SIZE; i++) {
+            bits |= (data[FIXED_POINT_SIZE - 1 - i] & 0xFFL) << (8 * i);
+        }
+
+        return Double.longBitsToDouble(bits);
+    }
+
+    /**
+     * Store the value as a 4 byte unsigned integer (least significant byte first).
+     *
+     * @param value Value to store
+     * @param result Array to store the value in
+     * @param offset Offset in bytes within result
+     * @throws DataFormatException Value cannot be represented in 4 bytes
+     */
+    private static void encodeFixedInt(long value, byte[] result, int offset) throws DataFormatException {
+        if (value < 0 || value > 0xFFFFFFFFL) {
+            throw new DataFormatException("Initial value cannot be stored as a 4 byte fixed point value: " + value);
+        }
+
+        for (int i = 0; i < 4; i++) {
+            result[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    /**
+     * Read a 4 byte unsigned integer (least significant byte first).
+     *
+     * @param data Encoded data
+     * @param offset Offset in bytes within data
+     * @return Value
+     */
+    private static long decodeFixedInt(byte[] data, int offset) {
+        long value = 0;
+
+        for (int i = 0; i < 4; i++) {
+            value |= (data[offset + i] & 0xFFL) << (8 * i);
+        }
+
+        return value;
+    }
+
+    /**
+     * Writes integers as a sequence of half bytes. The first half byte describes
+     * the number of leading half bytes which are all 0 (0-8) or all 1 (9-15, 
+     * number + 8), and is followed by the remaining half bytes of the integer, 
+     * least significant first.
+     */
+    private static final class HalfByteWriter {
+
+        private final byte[] data;
+
+        private int position;
+
+        private boolean half;
+
+        HalfByteWriter(byte[] data, int position) {
+            this.data = data;
+            this.position = position;
+        }
+
+        void writeInt(int value) {
+            int leading;
+
+            if ((value & HALF_BYTE_MASK) == 0) {
+                leading = 8;
+
+                for (int i = 0; i < 8; i++) {
+                    if ((value & (HALF_BYTE_MASK >>> (4 * i))) != 0) {
+                        leading = i;
+                        break;
+                    }
+                }
+
+                write(leading);
+            } else if ((value & HALF_BYTE_MASK) == HALF_BYTE_MASK) {
+                leading = 7;
+
+                for (int i = 0; i < 8; i++) {
+                    int mask = HALF_BYTE_MASK >>> (4 * i);
+
+                    if ((value & mask) != mask) {
+                        leading = i;
+                        break;
+                    }
+                }
+
+                write(leading + 8);
+            } else {
+                leading = 0;
+
+                write(0);
+            }
+
+            for (int i = 0; i < 8 - leading; i++) {
+                write(value >>> (4 * i));
+            }
+        }
+
+        private void write(int halfByte) {
+            if (half) {
+                data[position++] |= (byte) (halfByte & 0xF);
+            } else {
+                data[position] = (byte) (halfByte << 4);
+            }
+
+            half = !half;
+        }
+
+        /**
+         * Get the position after the last byte written, including any final half
+         * byte (padded with 0).
+         *
+         * @return Number of bytes
+         */
+        int finish() {
+            return half ? position + 1 : position;
+        }
+    }
+
+    /**
+     * Reads integers written by {@link HalfByteWriter}.
+     */
+    private static final class HalfByteReader {
+
+        private final byte[] data;
+
+        private final int length;
+
+        private int position;
+
+        private boolean half;
+
+        HalfByteReader(byte[] data, int position, int length) {
+            this.data = data;
+            this.position = position;
+            this.length = length;
+        }
+
+        boolean hasNext() {
+            if (position >= length) {
+                return false;
+            }
+
+            // Padding of the final half byte
+            return !(half && position == length - 1 && (data[position] & 0xF) != 8);
+        }
+
+        int readInt() throws DataFormatException {
+            int head = read();
+            int leading = head;
+            int value = 0;
+
+            if (head > 8) {
+                leading = head - 8;
+
+                for (int i = 0; i < leading; i++) {
+                    value |= HALF_BYTE_MASK >>> (4 * i);
+                }
+            }
+
+            checkAvailable(8 - leading);
+
+            for (int i = 0; i < 8 - leading; i++) {
+                value |= read() << (4 * i);
+            }
+
+            return value;
+        }
+
+        void skipInt() throws DataFormatException {
+            int head = read();
+            int remaining = 8 - ((head > 8) ? head - 8 : head);
+
+            checkAvailable(remaining);
+
+            int halfBytes = remaining + (half ? 1 : 0);
+            position += halfBytes / 2;
+            half = (halfBytes % 2) != 0;
+        }
+
+        private void checkAvailable(int halfBytes) throws DataFormatException {
+            if (halfBytes > (length - position) * 2 - (half ? 1 : 0)) {
+                throw new DataFormatException("Corrupt MS-Numpress data, integer truncated at byte " + position);
+            }
+        }
+
+        private int read() {
+            int halfByte;
+
+            if (half) {
+                halfByte = data[position++] & 0xF;
+            } else {
+                halfByte = (data[position] >> 4) & 0xF;
+            }
+
+            half = !half;
+
+            return halfByte;
         }
-        
-        if(numBytes >= 0 && numBytes != encoded.length)
-            encoded = Arrays.copyOfRange(encoded, 0, numBytes);
-        
-        return encoded;
     }
 
     @Override
-    public byte[] reverseTransform(byte[] data) throws DataFormatException {
-        double[] result = MSNumpress.decode(accession, data, data.length);
-        
-        return DataTypeTransform.convertDoublesToBytes(result);
+    public String toString() {
+        return "MSNumpressDataTransform (" + algorithm + ")";
     }
-    
 }
@@ -0,0 +1,26 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * DataStorage where data is stored in binary and accessed through a read only memory
+ * mapping of the file. The file is mapped in segments, so files larger than 2 GB 
+ * (such as large IBD files) are supported. As reads are served directly from the 
+ * mapping, multiple threads can read from the same file without contending on a lock.
+ * 
+ * @author Alan Race
+ * @see DataStorage.AccessMode#MEMORY_MAPPED
+ */
+public class MappedDataStorage extends DataStorage {
+
+    /**
+     * Set up a memory mapped file containing binary data.
+     * 
+     * @param dataFile File containing binary data
+     * @throws IOException Error occurred opening or mapping the file
+     */
+    public MappedDataStorage(File dataFile) throws IOException {
+        super(dataFile, AccessMode.MEMORY_MAPPED);
+    }
+}
@@ -28,6 +28,20 @@ public class MzMLSpectrumDataStorage extends DataStorage {
 	base64DataStorage = new Base64DataStorage(dataFile);
     }
     
+    /**
+     * Create an MzMLSpectrumDataStorage from a mzML file, accessing both the 
+     * spectrum metadata and the Base64 data using the specified access mode.
+     * 
+     * @param dataFile mzML file
+     * @param accessMode Method used to access the data
+     * @throws IOException Error occurred opening the mzML file
+     */
+    public MzMLSpectrumDataStorage(File dataFile, AccessMode accessMode) throws IOException {
+        super(dataFile, accessMode);
+        
+        base64DataStorage = new Base64DataStorage(dataFile, accessMode);
+    }
+    
     /**
      * Returns the Base64DataStorage representation of the MzMLSpectrumDataStorage 
      * file.
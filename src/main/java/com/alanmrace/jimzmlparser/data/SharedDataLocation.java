@@ -0,0 +1,55 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+
+/**
+ * DataLocation shared by many arrays, such as the m/z array of every spectrum in
+ * continuous imzML data. The data is decoded once, the first time it is requested,
+ * and the same double[] is then returned to every caller, so it must not be modified.
+ *
+ * @author Alan Race
+ */
+public class SharedDataLocation extends DataLocation {
+
+    /**
+     * Serialisation version ID.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Decoded data, or null if not yet decoded.
+     */
+    private transient volatile double[] decodedData;
+
+    /**
+     * Construct a SharedDataLocation at a specific offset, with a specific length 
+     * within a DataStorage.
+     *
+     * @param dataStorage DataStorage containing the data
+     * @param offset offset in bytes of the data within the dataStorage
+     * @param length length in bytes of the data within the dataStorage
+     */
+    public SharedDataLocation(DataStorage dataStorage, long offset, int length) {
+        super(dataStorage, offset, length);
+    }
+
+    @Override
+    public double[] getData() throws DataFormatException, IOException {
+        double[] data = decodedData;
+
+        if (data == null) {
+            data = super.getData();
+            decodedData = data;
+        }
+
+        return data;
+    }
+
+    @Override
+    public void setDataTransformation(DataTransformation transformation) {
+        super.setDataTransformation(transformation);
+
+        decodedData = null;
+    }
+}
@@ -0,0 +1,36 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+
+/**
+ * DataTransform whose reverse transformation can be read incrementally as a stream, 
+ * rather than producing the full transformed byte[] at once. This allows the 
+ * reversed data to be converted directly to the final data type in small chunks, 
+ * without an intermediate array the size of the entire data.
+ * 
+ * @author Alan Race
+ * @see DataTransformation#performReverseTransform(byte[], int, java.nio.DoubleBuffer)
+ */
+public interface StreamingDataTransform extends DataTransform {
+    
+    /**
+     * Create a stream from which the reverse transformation of the first length
+     * bytes of data can be read. The stream should be closed once it is no 
+     * longer required, to release any resources it holds.
+     * 
+     * @param data Data to reverse the transformation on
+     * @param length Number of bytes of data to use
+     * @return Stream of the transformed data
+     * @throws DataFormatException Issue with the transformation
+     */
+    InputStream reverseTransformStream(byte[] data, int length) throws DataFormatException;
+    
+    /**
+     * Get the expected size in bytes of the data once the transformation has been
+     * reversed.
+     * 
+     * @return Expected size in bytes, or 0 if unknown
+     */
+    int getReverseTransformSizeHint();
+}
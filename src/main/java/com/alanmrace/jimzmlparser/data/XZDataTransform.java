@@ -8,6 +8,7 @@ package com.alanmrace.jimzmlparser.data;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
@@ -23,7 +24,7 @@ import org.tukaani.xz.XZOutputStream;
  * 
  * @author alan.race
  */
-public class XZDataTransform implements DataTransform {
+public class XZDataTransform implements StreamingDataTransform, LengthAwareDataTransform {
     
     
     @Override
@@ -61,11 +62,16 @@ public class XZDataTransform implements DataTransform {
 
     @Override
     public byte[] reverseTransform(byte[] data) throws DataFormatException {
+        return reverseTransform(data, data.length);
+    }
+
+    @Override
+    public byte[] reverseTransform(byte[] data, int length) throws DataFormatException {
         try {
             XZInputStream xzInputStream = new XZInputStream(
-                    new ByteArrayInputStream(data));
+                    new ByteArrayInputStream(data, 0, length));
             
-            List<Byte> uncompressedData = new ArrayList<Byte>(data.length);
+            List<Byte> uncompressedData = new ArrayList<Byte>(length);
             
             int uncompressed = 0;
             int firstByte;
@@ -101,4 +107,17 @@ public class XZDataTransform implements DataTransform {
         return new byte[0];
     }
 
+    @Override
+    public InputStream reverseTransformStream(byte[] data, int length) throws DataFormatException {
+        try {
+            return new XZInputStream(new ByteArrayInputStream(data, 0, length));
+        } catch (IOException ex) {
+            throw new DataFormatException(ex.getMessage());
+        }
+    }
+
+    @Override
+    public int getReverseTransformSizeHint() {
+        return 0;
+    }
 }
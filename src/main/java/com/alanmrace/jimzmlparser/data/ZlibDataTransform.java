@@ -1,7 +1,9 @@
 package com.alanmrace.jimzmlparser.data;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
@@ -9,72 +11,321 @@ import java.util.zip.Inflater;
 /**
  * DataTransform describing the compression (forward) and decompression (reverse)
  * of data using the zlib algorithm.
- * 
+ *
+ * <p>Each thread reuses a single Inflater and Deflater, rather than creating (and
+ * having to release the native memory of) a new one for every transform. These
+ * are only released once the thread has ended and they have been garbage 
+ * collected, so threads which are kept alive (such as those of a thread pool)
+ * can release them sooner with {@link #releaseThreadResources()}. Each stream 
+ * created by {@link #reverseTransformStream(byte[], int)} uses its own Inflater,
+ * which is released once the stream has been read or closed. If the size of the
+ * uncompressed data is known, this can be supplied so that the data is 
+ * decompressed directly into an array of the correct size.
+ *
  * @author Alan Race
  */
-public class ZlibDataTransform implements DataTransform {
-    
+public class ZlibDataTransform implements StreamingDataTransform, LengthAwareDataTransform {
+
+    /**
+     * Serialisation version ID.
+     */
+    private static final long serialVersionUID = 1L;
+
     /**
      * Byte buffer size to use for temporary storage for (de)compression.
+     *
+     * <p>BYTE_BUFFER_SIZE = 2^20.
+     */
+    protected static final int BYTE_BUFFER_SIZE = 1 << 20;
+
+    /**
+     * Minimum size of the buffer to decompress into when no size hint is available.
+     */
+    private static final int MIN_BUFFER_SIZE = 1024;
+
+    /**
+     * Inflater reused by each thread.
+     */
+    private static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+
+    /**
+     * Deflater reused by each thread.
+     */
+    private static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater();
+        }
+    };
+
+    /**
+     * Compression level used when none is specified.
+     */
+    private static volatile int defaultCompressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    /**
+     * Expected size in bytes of the uncompressed data, or 0 if unknown.
+     */
+    private final int uncompressedSizeHint;
+
+    /**
+     * Compression level (0-9, or Deflater.DEFAULT_COMPRESSION) used for compression.
+     */
+    private final int compressionLevel;
+
+    /**
+     * Create a zlib DataTransform with no uncompressed size hint, using the
+     * default compression level.
+     *
+     * @see #setDefaultCompressionLevel(int)
      */
-    protected static final int BYTE_BUFFER_SIZE = 2 ^ 20;
+    public ZlibDataTransform() {
+        this(0);
+    }
+
+    /**
+     * Create a zlib DataTransform with the expected size of the uncompressed data,
+     * using the default compression level.
+     *
+     * @param uncompressedSizeHint Expected size in bytes of the uncompressed data, or 0 if unknown
+     * @see #setDefaultCompressionLevel(int)
+     */
+    public ZlibDataTransform(int uncompressedSizeHint) {
+        this(uncompressedSizeHint, defaultCompressionLevel);
+    }
+
+    /**
+     * Create a zlib DataTransform with the expected size of the uncompressed data
+     * and the compression level to use.
+     *
+     * @param uncompressedSizeHint Expected size in bytes of the uncompressed data, or 0 if unknown
+     * @param compressionLevel Compression level (0-9, or Deflater.DEFAULT_COMPRESSION)
+     */
+    public ZlibDataTransform(int uncompressedSizeHint, int compressionLevel) {
+        if((compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) && compressionLevel != Deflater.DEFAULT_COMPRESSION)
+            throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+
+        this.uncompressedSizeHint = Math.max(0, uncompressedSizeHint);
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Set the compression level used by ZlibDataTransforms created without
+     * specifying one.
+     *
+     * @param compressionLevel Compression level (0-9, or Deflater.DEFAULT_COMPRESSION)
+     */
+    public static void setDefaultCompressionLevel(int compressionLevel) {
+        if((compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) && compressionLevel != Deflater.DEFAULT_COMPRESSION)
+            throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+
+        defaultCompressionLevel = compressionLevel;
+    }
+
+    /**
+     * Get the compression level used by ZlibDataTransforms created without
+     * specifying one.
+     *
+     * @return Compression level
+     */
+    public static int getDefaultCompressionLevel() {
+        return defaultCompressionLevel;
+    }
+
+    /**
+     * Get the compression level used for compression.
+     *
+     * @return Compression level
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Release the native memory of the Inflater and Deflater reused by the 
+     * calling thread. New ones are created if the thread transforms any further
+     * data.
+     */
+    public static void releaseThreadResources() {
+        INFLATER.get().end();
+        INFLATER.remove();
+
+        DEFLATER.get().end();
+        DEFLATER.remove();
+    }
 
     @Override
     public byte[] forwardTransform(byte[] data) throws DataFormatException {
-        Deflater compressor = new Deflater();
+        Deflater compressor = DEFLATER.get();
+        compressor.reset();
+        compressor.setLevel(compressionLevel);
         compressor.setInput(data);
         compressor.finish();
 
-        ArrayList<Byte> compressedData = new ArrayList<Byte>();
-        int compressed;
-
-        do {
-            byte[] temp = new byte[BYTE_BUFFER_SIZE]; // 2^20
-
-            compressed = compressor.deflate(temp);
+        // Upper bound on the size of zlib compressed data, so normally only one call is required
+        byte[] compressedData = new byte[data.length + (data.length >> 12) + (data.length >> 14) + (data.length >> 25) + 13];
+        int compressedLength = 0;
 
-            for (int i = 0; i < compressed; i++) {
-                compressedData.add(temp[i]);
+        while (!compressor.finished()) {
+            if (compressedLength == compressedData.length) {
+                compressedData = Arrays.copyOf(compressedData, compressedData.length + Math.max(MIN_BUFFER_SIZE, Math.min(compressedData.length, BYTE_BUFFER_SIZE)));
             }
-        } while (compressed != 0);
 
-        byte[] compressedBytes = new byte[compressedData.size()];
+            compressedLength += compressor.deflate(compressedData, compressedLength, compressedData.length - compressedLength);
+        }
+
+        compressor.reset();
 
-        for (int i = 0; i < compressedData.size(); i++) {
-            compressedBytes[i] = compressedData.get(i);
+        if (compressedLength != compressedData.length) {
+            return Arrays.copyOf(compressedData, compressedLength);
         }
 
-        return compressedBytes;
+        return compressedData;
     }
 
     @Override
     public byte[] reverseTransform(byte[] data) throws DataFormatException {
-        Inflater decompressor = new Inflater();
-        decompressor.setInput(data);
+        return reverseTransform(data, data.length);
+    }
 
-        List<Byte> uncompressedData = new ArrayList<Byte>(data.length);
-        int uncompressed;
+    @Override
+    public byte[] reverseTransform(byte[] data, int length) throws DataFormatException {
+        // Empty arrays may be stored without any data
+        if (length == 0) {
+            return new byte[0];
+        }
 
-        do {
-            byte[] temp = new byte[BYTE_BUFFER_SIZE]; // 2^20
+        Inflater decompressor = INFLATER.get();
+        decompressor.reset();
+        decompressor.setInput(data, 0, length);
 
-            uncompressed = decompressor.inflate(temp);
+        int bufferSize = uncompressedSizeHint;
 
-            for (int i = 0; i < uncompressed; i++) {
-                uncompressedData.add(temp[i]);
+        if (bufferSize <= 0) {
+            bufferSize = (int) Math.min(BYTE_BUFFER_SIZE, Math.max(MIN_BUFFER_SIZE, length * 4L));
+        }
+
+        byte[] uncompressedData = new byte[bufferSize];
+        int uncompressedLength = 0;
+
+        try {
+            while (!decompressor.finished()) {
+                if (uncompressedLength == uncompressedData.length) {
+                    uncompressedData = Arrays.copyOf(uncompressedData, uncompressedData.length + Math.max(MIN_BUFFER_SIZE, Math.min(uncompressedData.length, BYTE_BUFFER_SIZE)));
+                }
+
+                int uncompressed = decompressor.inflate(uncompressedData, uncompressedLength, uncompressedData.length - uncompressedLength);
+                uncompressedLength += uncompressed;
+
+                checkProgress(decompressor, uncompressed);
             }
+        } finally {
+            decompressor.reset();
+        }
+
+        if (uncompressedLength != uncompressedData.length) {
+            return Arrays.copyOf(uncompressedData, uncompressedLength);
+        }
 
-        } while (uncompressed != 0);
+        return uncompressedData;
+    }
 
-        byte[] uncompressedBytes = new byte[uncompressedData.size()];
+    /**
+     * Check that an Inflater which has not finished can produce further data, 
+     * as otherwise the compressed data is incomplete.
+     *
+     * @param decompressor Inflater which has just inflated data
+     * @param uncompressed Number of bytes just inflated
+     * @throws DataFormatException The compressed data is truncated or requires a dictionary
+     */
+    private static void checkProgress(Inflater decompressor, int uncompressed) throws DataFormatException {
+        if (uncompressed == 0 && !decompressor.finished()) {
+            if (decompressor.needsDictionary()) {
+                throw new DataFormatException("zlib data requires a preset dictionary");
+            }
 
-        for (int i = 0; i < uncompressedData.size(); i++) {
-            uncompressedBytes[i] = uncompressedData.get(i);
+            if (decompressor.needsInput()) {
+                throw new DataFormatException("Truncated zlib data");
+            }
         }
+    }
+
+    @Override
+    public InputStream reverseTransformStream(byte[] data, int length) throws DataFormatException {
+        // Empty arrays may be stored without any data
+        if (length == 0) {
+            return new ByteArrayInputStream(data, 0, 0);
+        }
+
+        // A separate Inflater, as the stream may still be open when other data is reversed on this thread
+        final Inflater decompressor = new Inflater();
+        decompressor.setInput(data, 0, length);
+
+        return new InputStream() {
+            private boolean ended;
+
+            @Override
+            public int read() throws IOException {
+                byte[] singleByte = new byte[1];
+
+                return (read(singleByte, 0, 1) == -1) ? -1 : (singleByte[0] & 0xFF);
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                if (ended) {
+                    return -1;
+                }
+
+                if (length == 0) {
+                    return 0;
+                }
+
+                try {
+                    int uncompressed;
 
-        decompressor.end();
+                    do {
+                        uncompressed = decompressor.inflate(buffer, offset, length);
 
-        return uncompressedBytes;
+                        if (uncompressed == 0 && decompressor.finished()) {
+                            close();
+
+                            return -1;
+                        }
+
+                        checkProgress(decompressor, uncompressed);
+                    } while (uncompressed == 0);
+
+                    return uncompressed;
+                } catch (DataFormatException ex) {
+                    close();
+
+                    throw new IOException(ex);
+                }
+            }
+
+            @Override
+            public void close() {
+                if (!ended) {
+                    ended = true;
+                    decompressor.end();
+                }
+            }
+        };
+    }
+
+    @Override
+    public int getReverseTransformSizeHint() {
+        return uncompressedSizeHint;
     }
 
+    @Override
+    public String toString() {
+        return "ZlibDataTransform (level " + compressionLevel + ")";
+    }
 }
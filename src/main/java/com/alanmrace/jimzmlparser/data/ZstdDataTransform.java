@@ -1,36 +1,196 @@
 package com.alanmrace.jimzmlparser.data;
 
 import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdException;
+import com.github.luben.zstd.ZstdInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.zip.DataFormatException;
 
 /**
+ * DataTransform describing the compression (forward) and decompression (reverse)
+ * of data using the Zstandard algorithm.
+ *
+ * <p>Frames compressed by this class record the size of the uncompressed data,
+ * so the size does not have to be supplied and a single instance can be shared 
+ * by all arrays compressed with the same level and dictionary. Frames written in
+ * streaming mode by other writers may not record their size, in which case the
+ * supplied size of the uncompressed data is used as the initial size of the 
+ * output, and the frame is decompressed as a stream.
  *
  * @author Alan Race
  */
-public class ZstdDataTransform implements DataTransform {
+public class ZstdDataTransform implements LengthAwareDataTransform {
+
+    /**
+     * Serialisation version ID.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Default compression level.
+     */
+    public static final int DEFAULT_COMPRESSION_LEVEL = 3;
 
+    /**
+     * Size in bytes of the uncompressed data, used when the compressed frame does
+     * not record its size, or 0 if unknown.
+     */
     protected int arrayLengthInBytes;
     protected int compressionLevel;
-    
-    
+
+    /**
+     * Dictionary used for (de)compression, or null if no dictionary is used.
+     */
+    protected ZstdDictionary dictionary;
+
+    /**
+     * Create a zstd DataTransform, using the default compression level and 
+     * relying on the uncompressed size recorded in each compressed frame.
+     */
+    public ZstdDataTransform() {
+        this(0);
+    }
+
     public ZstdDataTransform(int arrayLengthInBytes) {
-        this(arrayLengthInBytes, 3);
+        this(arrayLengthInBytes, DEFAULT_COMPRESSION_LEVEL);
     }
-    
+
     public ZstdDataTransform(int arrayLengthInBytes, int compressionLevel) {
-        this.arrayLengthInBytes = arrayLengthInBytes;
+        this(arrayLengthInBytes, compressionLevel, null);
+    }
+
+    /**
+     * Create a zstd DataTransform which compresses using the supplied dictionary.
+     * Data compressed with a dictionary can only be decompressed with the same
+     * dictionary.
+     *
+     * @param arrayLengthInBytes Size in bytes of the uncompressed data, used when the compressed frame does not record it, or 0 if unknown
+     * @param compressionLevel Compression level
+     * @param dictionary Dictionary to use, or null to compress without a dictionary
+     */
+    public ZstdDataTransform(int arrayLengthInBytes, int compressionLevel, ZstdDictionary dictionary) {
+        this.arrayLengthInBytes = Math.max(0, arrayLengthInBytes);
         this.compressionLevel = compressionLevel;
+        this.dictionary = dictionary;
     }
-    
+
+    /**
+     * Get the compression level.
+     *
+     * @return Compression level
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Get the dictionary used for (de)compression.
+     *
+     * @return Dictionary, or null if no dictionary is used
+     */
+    public ZstdDictionary getDictionary() {
+        return dictionary;
+    }
+
     @Override
     public byte[] forwardTransform(byte[] data) throws DataFormatException {
+        if (dictionary != null) {
+            return Zstd.compress(data, dictionary.getCompressDictionary(compressionLevel));
+        }
+
         return Zstd.compress(data, compressionLevel);
     }
 
     @Override
     public byte[] reverseTransform(byte[] data) throws DataFormatException {
-        return Zstd.decompress(data, arrayLengthInBytes);
+        return reverseTransform(data, data.length);
     }
-    
-}
 
+    @Override
+    public byte[] reverseTransform(byte[] data, int length) throws DataFormatException {
+        // 0 if the frame does not record its size
+        long decompressedLength = Zstd.decompressedSize(data, 0, length);
+
+        if (decompressedLength <= 0) {
+            return reverseTransformStream(data, length);
+        }
+
+        if (decompressedLength > Integer.MAX_VALUE - 8) {
+            throw new DataFormatException("Invalid zstd frame content size: " + decompressedLength);
+        }
+
+        byte[] decompressed = new byte[(int) decompressedLength];
+        long result;
+
+        try {
+            if (dictionary != null) {
+                result = Zstd.decompressFastDict(decompressed, 0, data, 0, length, dictionary.getDecompressDictionary());
+            } else {
+                result = Zstd.decompressByteArray(decompressed, 0, decompressed.length, data, 0, length);
+            }
+        } catch (ZstdException ex) {
+            throw new DataFormatException(ex.getMessage());
+        }
+
+        if (Zstd.isError(result)) {
+            throw new DataFormatException(Zstd.getErrorName(result));
+        }
+
+        if (result != decompressed.length) {
+            return Arrays.copyOf(decompressed, (int) result);
+        }
+
+        return decompressed;
+    }
+
+    /**
+     * Decompress a frame which does not record its size as a stream, starting 
+     * with an output of arrayLengthInBytes.
+     *
+     * @param data Data to decompress
+     * @param length Number of bytes of data to use
+     * @return Decompressed data
+     * @throws DataFormatException Issue with the decompression
+     */
+    private byte[] reverseTransformStream(byte[] data, int length) throws DataFormatException {
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream(Math.max(arrayLengthInBytes, 32));
+
+        try {
+            ZstdInputStream stream = new ZstdInputStream(new ByteArrayInputStream(data, 0, length));
+
+            try {
+                if (dictionary != null) {
+                    stream.setDict(dictionary.getDecompressDictionary());
+                }
+
+                byte[] buffer = new byte[8192];
+                int read;
+
+                while ((read = stream.read(buffer)) >= 0) {
+                    decompressed.write(buffer, 0, read);
+                }
+            } finally {
+                stream.close();
+            }
+        } catch (IOException ex) {
+            DataFormatException exception = new DataFormatException(ex.getMessage());
+            exception.initCause(ex);
+
+            throw exception;
+        }
+
+        return decompressed.toByteArray();
+    }
+
+    @Override
+    public String toString() {
+        if (dictionary != null) {
+            return "ZstdDataTransform (level " + compressionLevel + ", " + dictionary + ")";
+        }
+
+        return "ZstdDataTransform (level " + compressionLevel + ")";
+    }
+}
@@ -0,0 +1,239 @@
+package com.alanmrace.jimzmlparser.data;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+import com.github.luben.zstd.ZstdException;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Zstandard dictionary shared by all arrays of a dataset which are compressed
+ * with a {@link ZstdDataTransform}. Small arrays (such as centroided spectra)
+ * compress poorly on their own, as each starts with no history, so a dictionary
+ * is trained on a sample of the arrays and stored once, alongside the data.
+ *
+ * <p>The dictionary is digested once for decompression (and once for each
+ * compression level used), and the digested dictionaries are safe to share
+ * between threads.
+ *
+ * @author Alan Race
+ */
+public class ZstdDictionary implements Serializable {
+
+    /**
+     * Serialisation version ID.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Logger for the class.
+     */
+    private static final Logger LOGGER = Logger.getLogger(ZstdDictionary.class.getName());
+
+    /**
+     * Default size in bytes of a trained dictionary.
+     */
+    public static final int DEFAULT_DICTIONARY_SIZE = 112640;
+
+    /**
+     * Dictionaries loaded from each DataStorage, by offset within the storage.
+     */
+    private static final Map<DataStorage, Map<Long, ZstdDictionary>> LOADED_DICTIONARIES = new WeakHashMap<DataStorage, Map<Long, ZstdDictionary>>();
+
+    /**
+     * Dictionary content.
+     */
+    private final byte[] dictionary;
+
+    /**
+     * Dictionary digested for decompression, created when first required.
+     */
+    private transient ZstdDictDecompress decompressDictionary;
+
+    /**
+     * Dictionaries digested for compression at each compression level, created
+     * when first required.
+     */
+    private transient Map<Integer, ZstdDictCompress> compressDictionaries;
+
+    /**
+     * DataTransform using this dictionary, created when first required.
+     */
+    private transient ZstdDataTransform dataTransform;
+
+    /**
+     * Create a ZstdDictionary from existing dictionary content.
+     *
+     * @param dictionary Dictionary content
+     */
+    public ZstdDictionary(byte[] dictionary) {
+        if (dictionary == null || dictionary.length == 0) {
+            throw new IllegalArgumentException("Empty zstd dictionary");
+        }
+
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Train a dictionary of (at most) the specified size on the supplied samples.
+     * Training requires a reasonable number of samples (typically at least
+     * several hundred), with a total size many times larger than the dictionary.
+     *
+     * @param samples Samples to train the dictionary on
+     * @param dictionarySize Maximum size of the dictionary in bytes
+     * @return Trained dictionary, or null if a dictionary could not be trained on the samples
+     */
+    public static ZstdDictionary train(List<byte[]> samples, int dictionarySize) {
+        long totalSize = 0;
+
+        for (byte[] sample : samples) {
+            totalSize += sample.length;
+        }
+
+        if (samples.isEmpty() || totalSize == 0) {
+            return null;
+        }
+
+        ZstdDictTrainer trainer = new ZstdDictTrainer((int) Math.min(Integer.MAX_VALUE, totalSize), dictionarySize);
+
+        for (byte[] sample : samples) {
+            if (sample.length > 0) {
+                trainer.addSample(sample);
+            }
+        }
+
+        try {
+            return new ZstdDictionary(trainer.trainSamples());
+        } catch (ZstdException ex) {
+            LOGGER.log(Level.FINE, "Failed to train zstd dictionary on " + samples.size() + " samples", ex);
+
+            return null;
+        }
+    }
+
+    /**
+     * Load a dictionary stored within a DataStorage. Each dictionary is only
+     * read once from each DataStorage, after which the same instance is returned.
+     *
+     * @param storage DataStorage containing the dictionary
+     * @param offset Offset in bytes of the dictionary within the storage
+     * @param length Length in bytes of the dictionary
+     * @return Dictionary
+     * @throws IOException Issue reading the dictionary
+     */
+    public static ZstdDictionary load(DataStorage storage, long offset, int length) throws IOException {
+        synchronized (LOADED_DICTIONARIES) {
+            Map<Long, ZstdDictionary> storageDictionaries = LOADED_DICTIONARIES.get(storage);
+
+            if (storageDictionaries == null) {
+                storageDictionaries = new HashMap<Long, ZstdDictionary>();
+                LOADED_DICTIONARIES.put(storage, storageDictionaries);
+            }
+
+            ZstdDictionary dictionary = storageDictionaries.get(offset);
+
+            if (dictionary == null || dictionary.getSize() != length) {
+                byte[] content = storage.getData(offset, length);
+
+                if (content == null || content.length != length) {
+                    throw new IOException("Failed to read zstd dictionary of " + length + " bytes at offset " + offset);
+                }
+
+                dictionary = new ZstdDictionary(content);
+                storageDictionaries.put(offset, dictionary);
+            }
+
+            return dictionary;
+        }
+    }
+
+    /**
+     * Get the dictionary content, as to be stored.
+     *
+     * @return Dictionary content
+     */
+    public byte[] getBytes() {
+        return dictionary;
+    }
+
+    /**
+     * Get the size of the dictionary in bytes.
+     *
+     * @return Size in bytes
+     */
+    public int getSize() {
+        return dictionary.length;
+    }
+
+    /**
+     * Get the ID of the dictionary, which is recorded in each frame compressed
+     * with the dictionary.
+     *
+     * @return Dictionary ID, or 0 if the dictionary has no ID
+     */
+    public long getID() {
+        return Zstd.getDictIdFromDict(dictionary);
+    }
+
+    /**
+     * Get a ZstdDataTransform which uses this dictionary at the default compression
+     * level. The same instance is returned each time, and can be shared by all
+     * arrays using the dictionary.
+     *
+     * @return Shared DataTransform
+     */
+    public synchronized ZstdDataTransform getDataTransform() {
+        if (dataTransform == null) {
+            dataTransform = new ZstdDataTransform(0, ZstdDataTransform.DEFAULT_COMPRESSION_LEVEL, this);
+        }
+
+        return dataTransform;
+    }
+
+    /**
+     * Get the dictionary digested for compression at the specified level.
+     *
+     * @param compressionLevel Compression level
+     * @return Digested dictionary
+     */
+    synchronized ZstdDictCompress getCompressDictionary(int compressionLevel) {
+        if (compressDictionaries == null) {
+            compressDictionaries = new HashMap<Integer, ZstdDictCompress>();
+        }
+
+        ZstdDictCompress compressDictionary = compressDictionaries.get(compressionLevel);
+
+        if (compressDictionary == null) {
+            compressDictionary = new ZstdDictCompress(dictionary, compressionLevel);
+            compressDictionaries.put(compressionLevel, compressDictionary);
+        }
+
+        return compressDictionary;
+    }
+
+    /**
+     * Get the dictionary digested for decompression.
+     *
+     * @return Digested dictionary
+     */
+    synchronized ZstdDictDecompress getDecompressDictionary() {
+        if (decompressDictionary == null) {
+            decompressDictionary = new ZstdDictDecompress(dictionary);
+        }
+
+        return decompressDictionary;
+    }
+
+    @Override
+    public String toString() {
+        return "ZstdDictionary (ID " + getID() + ", " + dictionary.length + " bytes)";
+    }
+}
@@ -1,20 +1,29 @@
 package com.alanmrace.jimzmlparser.mzml;
 
+import com.alanmrace.jimzmlparser.data.ByteShuffleDataTransform;
 import com.alanmrace.jimzmlparser.data.DataLocation;
 import com.alanmrace.jimzmlparser.data.DataTransformation;
 import com.alanmrace.jimzmlparser.data.DataTypeTransform;
 import com.alanmrace.jimzmlparser.data.DataTypeTransform.DataType;
+import com.alanmrace.jimzmlparser.data.DecodedDataCache;
+import com.alanmrace.jimzmlparser.data.DeltaDataTransform;
 import com.alanmrace.jimzmlparser.data.LZ4DataTransform;
 import com.alanmrace.jimzmlparser.data.MSNumpressDataTransform;
 import com.alanmrace.jimzmlparser.data.MSNumpressDataTransform.NumpressAlgorithm;
 import com.alanmrace.jimzmlparser.data.XZDataTransform;
 import com.alanmrace.jimzmlparser.data.ZlibDataTransform;
 import com.alanmrace.jimzmlparser.data.ZstdDataTransform;
+import com.alanmrace.jimzmlparser.data.ZstdDictionary;
 import com.alanmrace.jimzmlparser.obo.OBO;
 import com.alanmrace.jimzmlparser.obo.OBOTerm;
 import com.alanmrace.jimzmlparser.util.XMLHelper;
 import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
 import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.DataFormatException;
@@ -100,7 +109,43 @@ public class BinaryDataArray extends MzMLContentWithParams {
                 
         MSNUMPRESS_POSITIVE_ZSTD,
         
-        MSNUMPRESS_SLOF_ZSTD;
+        MSNUMPRESS_SLOF_ZSTD,
+        
+        /**
+         * Byte shuffle followed by zlib compression. This is only readable by
+         * this library, see {@link BinaryDataArray#setFilteredCompressionAllowed(boolean)}.
+         */
+        BYTE_SHUFFLE_ZLIB,
+        
+        /**
+         * Byte shuffle followed by LZ4 compression. This is only readable by
+         * this library, see {@link BinaryDataArray#setFilteredCompressionAllowed(boolean)}.
+         */
+        BYTE_SHUFFLE_LZ4,
+        
+        /**
+         * Byte shuffle followed by ZStandard compression. This is only readable by
+         * this library, see {@link BinaryDataArray#setFilteredCompressionAllowed(boolean)}.
+         */
+        BYTE_SHUFFLE_ZSTD,
+        
+        /**
+         * Delta encoding and byte shuffle followed by zlib compression. This is only 
+         * readable by this library, see {@link BinaryDataArray#setFilteredCompressionAllowed(boolean)}.
+         */
+        DELTA_BYTE_SHUFFLE_ZLIB,
+        
+        /**
+         * Delta encoding and byte shuffle followed by LZ4 compression. This is only 
+         * readable by this library, see {@link BinaryDataArray#setFilteredCompressionAllowed(boolean)}.
+         */
+        DELTA_BYTE_SHUFFLE_LZ4,
+        
+        /**
+         * Delta encoding and byte shuffle followed by ZStandard compression. This is
+         * only readable by this library, see {@link BinaryDataArray#setFilteredCompressionAllowed(boolean)}.
+         */
+        DELTA_BYTE_SHUFFLE_ZSTD;
         
         /**
          * Convert CompressionType enum to OBOTerm, using ontology terms found in the 
@@ -110,51 +155,132 @@ public class BinaryDataArray extends MzMLContentWithParams {
          * @return Ontology term which describes the CompressionType, or null if no match
          */
         public static OBOTerm toOBOTerm(CompressionType compressionType) {
+            String id = toID(compressionType);
+            
+            if (id == null) {
+                return null;
+            }
+            
+            return OBO.getOBO().getTerm(id);
+        }
+        
+        /**
+         * Convert CompressionType enum to the accession of the ontology term which
+         * describes it.
+         * 
+         * @param compressionType CompressionType to convert
+         * @return Accession of the ontology term, or null if no match
+         */
+        public static String toID(CompressionType compressionType) {
             switch(compressionType) {
                 case NONE:
-                    return OBO.getOBO().getTerm(NO_COMPRESSION_ID);
+                    return NO_COMPRESSION_ID;
                 case ZLIB:
-                    return OBO.getOBO().getTerm(ZLIB_COMPRESSION_ID);
+                    return ZLIB_COMPRESSION_ID;
                 case XZ:
-                    return OBO.getOBO().getTerm(XZ_COMPRESSION_ID);
+                    return XZ_COMPRESSION_ID;
                 case LZ4:
-                    return OBO.getOBO().getTerm(LZ4_COMPRESSION_ID);
+                    return LZ4_COMPRESSION_ID;
                 case ZSTD:
-                    return OBO.getOBO().getTerm(ZSTD_COMPRESSION_ID);
+                    return ZSTD_COMPRESSION_ID;
                 case MSNUMPRESS_LINEAR:
-                    return OBO.getOBO().getTerm(MSNUMPRESS_LINEAR_ID);
+                    return MSNUMPRESS_LINEAR_ID;
                 case MSNUMPRESS_POSITIVE:
-                    return OBO.getOBO().getTerm(MSNUMPRESS_POSITIVE_ID);
+                    return MSNUMPRESS_POSITIVE_ID;
                 case MSNUMPRESS_SLOF:
-                    return OBO.getOBO().getTerm(MSNUMPRESS_SLOF_ID);
+                    return MSNUMPRESS_SLOF_ID;
                 case MSNUMPRESS_LINEAR_ZLIB:
-                    return OBO.getOBO().getTerm(MSNUMPRESS_LINEAR_ZLIB_ID);
+                    return MSNUMPRESS_LINEAR_ZLIB_ID;
                 case MSNUMPRESS_POSITIVE_ZLIB:
-                    return OBO.getOBO().getTerm(MSNUMPRESS_POSITIVE_ZLIB_ID);
+                    return MSNUMPRESS_POSITIVE_ZLIB_ID;
                 case MSNUMPRESS_SLOF_ZLIB:
-                    return OBO.getOBO().getTerm(MSNUMPRESS_SLOF_ZLIB_ID);
+                    return MSNUMPRESS_SLOF_ZLIB_ID;
                 case MSNUMPRESS_LINEAR_XZ:
-                    return OBO.getOBO().getTerm(MSNUMPRESS_LINEAR_XZ_ID);
+                    return MSNUMPRESS_LINEAR_XZ_ID;
                 case MSNUMPRESS_POSITIVE_XZ:
-                    return OBO.getOBO().getTerm(MSNUMPRESS_POSITIVE_XZ_ID);
+                    return MSNUMPRESS_POSITIVE_XZ_ID;
                 case MSNUMPRESS_SLOF_XZ:
-                    return OBO.getOBO().getTerm(MSNUMPRESS_SLOF_XZ_ID);
+                    return MSNUMPRESS_SLOF_XZ_ID;
                 case MSNUMPRESS_LINEAR_LZ4:
-                    return OBO.getOBO().getTerm(MSNUMPRESS_LINEAR_LZ4_ID);
+                    return MSNUMPRESS_LINEAR_LZ4_ID;
                 case MSNUMPRESS_POSITIVE_LZ4:
-                    return OBO.getOBO().getTerm(MSNUMPRESS_POSITIVE_LZ4_ID);
+                    return MSNUMPRESS_POSITIVE_LZ4_ID;
                 case MSNUMPRESS_SLOF_LZ4:
-                    return OBO.getOBO().getTerm(MSNUMPRESS_SLOF_LZ4_ID);
+                    return MSNUMPRESS_SLOF_LZ4_ID;
                 case MSNUMPRESS_LINEAR_ZSTD:
-                    return OBO.getOBO().getTerm(MSNUMPRESS_LINEAR_ZSTD_ID);
+                    return MSNUMPRESS_LINEAR_ZSTD_ID;
                 case MSNUMPRESS_POSITIVE_ZSTD:
-                    return OBO.getOBO().getTerm(MSNUMPRESS_POSITIVE_ZSTD_ID);
+                    return MSNUMPRESS_POSITIVE_ZSTD_ID;
                 case MSNUMPRESS_SLOF_ZSTD:
-                    return OBO.getOBO().getTerm(MSNUMPRESS_SLOF_ZSTD_ID);
+                    return MSNUMPRESS_SLOF_ZSTD_ID;
+                case BYTE_SHUFFLE_ZLIB:
+                case DELTA_BYTE_SHUFFLE_ZLIB:
+                    return ZLIB_COMPRESSION_ID;
+                case BYTE_SHUFFLE_LZ4:
+                case DELTA_BYTE_SHUFFLE_LZ4:
+                    return LZ4_COMPRESSION_ID;
+                case BYTE_SHUFFLE_ZSTD:
+                case DELTA_BYTE_SHUFFLE_ZSTD:
+                    return ZSTD_COMPRESSION_ID;
                 default:
                     return null;
             }
         }
+        
+        /**
+         * Get the filter applied to the data prior to compression, which is 
+         * described by the {@link #DATA_FILTER_NAME} UserParam as there are no 
+         * ontology terms for these filters.
+         * 
+         * @param compressionType CompressionType
+         * @return Filter ({@link #BYTE_SHUFFLE_FILTER} or {@link #DELTA_BYTE_SHUFFLE_FILTER}),
+         * or null if no filter is applied
+         */
+        public static String toFilter(CompressionType compressionType) {
+            switch(compressionType) {
+                case BYTE_SHUFFLE_ZLIB:
+                case BYTE_SHUFFLE_LZ4:
+                case BYTE_SHUFFLE_ZSTD:
+                    return BYTE_SHUFFLE_FILTER;
+                case DELTA_BYTE_SHUFFLE_ZLIB:
+                case DELTA_BYTE_SHUFFLE_LZ4:
+                case DELTA_BYTE_SHUFFLE_ZSTD:
+                    return DELTA_BYTE_SHUFFLE_FILTER;
+                default:
+                    return null;
+            }
+        }
+        
+        /**
+         * Convert the accession of an ontology term to the CompressionType which 
+         * it describes.
+         * 
+         * @param id Accession of the ontology term
+         * @return CompressionType, or null if no match
+         */
+        public static CompressionType fromID(String id) {
+            return fromID(id, null);
+        }
+        
+        /**
+         * Convert the accession of an ontology term, and the filter applied prior
+         * to compression, to the CompressionType which they describe.
+         * 
+         * @param id Accession of the ontology term
+         * @param filter Filter applied prior to compression, or null if none
+         * @return CompressionType, or null if no match
+         */
+        public static CompressionType fromID(String id, String filter) {
+            for (CompressionType compressionType : values()) {
+                String compressionFilter = toFilter(compressionType);
+                
+                if (toID(compressionType).equals(id) && (filter == null ? compressionFilter == null : filter.equals(compressionFilter))) {
+                    return compressionType;
+                }
+            }
+            
+            return null;
+        }
     }
 
     // <editor-fold defaultstate="collapsed" desc="Accessions">
@@ -372,6 +498,96 @@ public class BinaryDataArray extends MzMLContentWithParams {
      * Location of the binary data array.
      */
     protected DataLocation dataLocation;
+    
+    /**
+     * Cache of decoded data shared by all BinaryDataArray instances, or null
+     * if decoded data should not be cached.
+     */
+    private static volatile DecodedDataCache decodedDataCache;
+    
+    /**
+     * Name of the UserParam giving the offset of the zstd dictionary within the
+     * binary data file.
+     */
+    public static final String ZSTD_DICTIONARY_OFFSET_NAME = "zstd dictionary offset";
+    
+    /**
+     * Name of the UserParam giving the length in bytes of the zstd dictionary 
+     * within the binary data file.
+     */
+    public static final String ZSTD_DICTIONARY_LENGTH_NAME = "zstd dictionary length";
+
+    /**
+     * Name of the UserParam giving the size in bytes of raw LZ4 blocks written
+     * following MS-Numpress compression, which is not otherwise known before 
+     * decompression. LZ4 frames record their own size, so do not require this 
+     * UserParam.
+     */
+    public static final String LZ4_DECOMPRESSION_SIZE_NAME = "LZ4 decompression size";
+
+    /**
+     * Name of the UserParam giving the filter applied to the data prior to
+     * compression.
+     */
+    public static final String DATA_FILTER_NAME = "binary data filter";
+    
+    /**
+     * Whether compression types which apply a filter prior to compression can be
+     * set, see {@link #setFilteredCompressionAllowed(boolean)}.
+     */
+    private static volatile boolean filteredCompressionAllowed;
+
+    /**
+     * Filter which shuffles the bytes of each value, see {@link ByteShuffleDataTransform}.
+     */
+    public static final String BYTE_SHUFFLE_FILTER = "byte shuffle";
+
+    /**
+     * Filter which delta encodes each value and then shuffles the bytes, see
+     * {@link DeltaDataTransform} and {@link ByteShuffleDataTransform}.
+     */
+    public static final String DELTA_BYTE_SHUFFLE_FILTER = "delta byte shuffle";
+
+    /**
+     * LZ4 DataTransform writing raw blocks, shared by all arrays of unknown size.
+     */
+    private static final LZ4DataTransform LZ4_TRANSFORM = new LZ4DataTransform();
+
+    /**
+     * LZ4 DataTransform writing frames, shared by all arrays.
+     */
+    private static final LZ4DataTransform LZ4_FRAME_TRANSFORM = new LZ4DataTransform(0, true);
+
+    /**
+     * Zstd DataTransform shared by all arrays compressed without a dictionary.
+     */
+    private static final ZstdDataTransform ZSTD_TRANSFORM = new ZstdDataTransform();
+
+    /**
+     * XZ DataTransform shared by all arrays.
+     */
+    private static final XZDataTransform XZ_TRANSFORM = new XZDataTransform();
+
+    /**
+     * MS-Numpress linear DataTransform shared by all arrays.
+     */
+    private static final MSNumpressDataTransform NUMPRESS_LINEAR_TRANSFORM = new MSNumpressDataTransform(NumpressAlgorithm.LINEAR);
+
+    /**
+     * MS-Numpress positive integer DataTransform shared by all arrays.
+     */
+    private static final MSNumpressDataTransform NUMPRESS_PIC_TRANSFORM = new MSNumpressDataTransform(NumpressAlgorithm.PIC);
+
+    /**
+     * MS-Numpress short logged float DataTransform shared by all arrays.
+     */
+    private static final MSNumpressDataTransform NUMPRESS_SLOF_TRANSFORM = new MSNumpressDataTransform(NumpressAlgorithm.SLOF);
+
+    /**
+     * Dictionary used for zstd compression, or null if none has been set or 
+     * loaded from the binary data file.
+     */
+    private ZstdDictionary zstdDictionary;
 
     /**
      * Instantiates a new binaryDataArray tag.
@@ -396,6 +612,7 @@ public class BinaryDataArray extends MzMLContentWithParams {
         this.arrayLength = bda.arrayLength;
         this.encodedLength = bda.encodedLength;
         this.dataLocation = bda.dataLocation;
+        this.zstdDictionary = bda.zstdDictionary;
         
         this.ismzArray = bda.ismzArray;
         this.isIntensityArray = bda.isIntensityArray;
@@ -579,7 +796,14 @@ public class BinaryDataArray extends MzMLContentWithParams {
 
     /**
      * Get the data array as double[], convert and decompress as necessary,
-     * optionally keeping the data in memory.
+     * optionally keeping the data in memory. If the data is not kept in memory
+     * and a {@link DecodedDataCache} has been set using 
+     * {@link #setDecodedDataCache(DecodedDataCache)}, then the data is retrieved 
+     * from, or added to, the cache. Arrays returned from the cache are shared 
+     * and so must not be modified. The same applies to data kept in memory and 
+     * to data at a {@link com.alanmrace.jimzmlparser.data.SharedDataLocation}, 
+     * such as the m/z array of continuous imzML data, which is the same double[]
+     * for every spectrum.
      *
      * @param keepInMemory true if data should be kept in memory, false
      * otherwise
@@ -590,26 +814,20 @@ public class BinaryDataArray extends MzMLContentWithParams {
         if(data != null)
             return data;
 
-        // If there is no dataLocation stored for the BinaryDataArray then it is 
-        // likely that the data storage is MzMLDataStorage and so needs to be converted 
-        // to Base64Storage prior to being able to load any data
-        if (dataLocation == null && parent != null) {
-            MzMLTag grandParent = parent.getParent();
-
-            if (grandParent instanceof MzMLDataContainer) {
-                ((MzMLDataContainer) grandParent).convertMzMLDataStorageToBase64();
-            }
-        }
-         
-        // If there is still no dataLocation after the conversion, then no data to load
-        if (dataLocation == null) {
+        // If there is no dataLocation, even after conversion, then no data to load
+        if (!ensureDataLocation()) {
             return new double[0];
         }
 
         double[] loadedData = new double[0];
 
+        DecodedDataCache cache = decodedDataCache;
+
         try {
-            loadedData = dataLocation.getData();
+            if(!keepInMemory && cache != null)
+                loadedData = cache.getData(dataLocation);
+            else
+                loadedData = dataLocation.getData();
         } catch (DataFormatException ex) {
             Logger.getLogger(BinaryDataArray.class.getName()).log(Level.SEVERE, null, ex);
         }
@@ -621,6 +839,332 @@ public class BinaryDataArray extends MzMLContentWithParams {
         return loadedData;
     }
     
+    /**
+     * Set the cache of decoded data used by all BinaryDataArray instances 
+     * when data is not kept in memory.
+     * 
+     * @param cache Cache of decoded data, or null to disable caching
+     * @see #getDataAsDouble(boolean)
+     */
+    public static void setDecodedDataCache(DecodedDataCache cache) {
+        decodedDataCache = cache;
+    }
+    
+    /**
+     * Get the cache of decoded data used by all BinaryDataArray instances.
+     * 
+     * @return Cache of decoded data, or null if caching is disabled
+     */
+    public static DecodedDataCache getDecodedDataCache() {
+        return decodedDataCache;
+    }
+    
+    /**
+     * Decode the data array into the supplied double[] starting at destOffset, 
+     * converting and decompressing as necessary, without allocating a new array
+     * for the result. If the data is already held in memory it is copied into dest.
+     *
+     * @param dest Array to place the data into
+     * @param destOffset Index within dest to place the first value
+     * @return Number of values written to dest
+     * @throws IOException On failure to read from data location
+     */
+    public int decodeInto(double[] dest, int destOffset) throws IOException {
+        return decodeInto(DoubleBuffer.wrap(dest, destOffset, dest.length - destOffset));
+    }
+    
+    /**
+     * Decode the data array into the supplied DoubleBuffer starting at its current
+     * position, converting and decompressing as necessary, without allocating a 
+     * new array for the result. If the data is already held in memory it is copied 
+     * into dest.
+     *
+     * @param dest DoubleBuffer to place the data into
+     * @return Number of values written to dest
+     * @throws IOException On failure to read from data location
+     */
+    public int decodeInto(DoubleBuffer dest) throws IOException {
+        if(data != null) {
+            int numValues = Math.min(data.length, dest.remaining());
+            dest.put(data, 0, numValues);
+            
+            return numValues;
+        }
+        
+        if (!ensureDataLocation()) {
+            return 0;
+        }
+        
+        try {
+            return dataLocation.decodeInto(dest);
+        } catch (DataFormatException ex) {
+            LOGGER.log(Level.SEVERE, null, ex);
+        }
+        
+        return 0;
+    }
+    
+    /**
+     * Get the data array as float[], convert and decompress as necessary, without
+     * first converting to double[]. Data stored as single precision floating point,
+     * or as 8-bit or 16-bit integers, keeps its full precision.
+     * The data is not kept in memory.
+     *
+     * @return Uncompressed data as float[]
+     * @throws IOException On failure to read from data location
+     * @see #getDataType()
+     */
+    public float[] getDataAsFloat() throws IOException {
+        if(data != null) {
+            float[] convertedData = new float[data.length];
+            
+            for(int i = 0; i < data.length; i++)
+                convertedData[i] = (float) data[i];
+            
+            return convertedData;
+        }
+        
+        if (!ensureDataLocation()) {
+            return new float[0];
+        }
+        
+        try {
+            return dataLocation.getDataAsFloat();
+        } catch (DataFormatException ex) {
+            LOGGER.log(Level.SEVERE, null, ex);
+        }
+        
+        return new float[0];
+    }
+    
+    /**
+     * Decode the data array into the supplied float[] starting at destOffset, 
+     * as described in {@link #decodeInto(FloatBuffer)}.
+     *
+     * @param dest Array to place the data into
+     * @param destOffset Index within dest to place the first value
+     * @return Number of values written to dest
+     * @throws IOException On failure to read from data location
+     */
+    public int decodeInto(float[] dest, int destOffset) throws IOException {
+        return decodeInto(FloatBuffer.wrap(dest, destOffset, dest.length - destOffset));
+    }
+    
+    /**
+     * Decode the data array into the supplied FloatBuffer starting at its current
+     * position, converting and decompressing as necessary, without converting
+     * to double[] or allocating a new array for the result. If the data is 
+     * already held in memory it is converted into dest.
+     *
+     * @param dest FloatBuffer to place the data into
+     * @return Number of values written to dest
+     * @throws IOException On failure to read from data location
+     * @see #getDataAsFloat()
+     */
+    public int decodeInto(FloatBuffer dest) throws IOException {
+        if(data != null) {
+            int numValues = Math.min(data.length, dest.remaining());
+            
+            for(int i = 0; i < numValues; i++)
+                dest.put((float) data[i]);
+            
+            return numValues;
+        }
+        
+        if (!ensureDataLocation()) {
+            return 0;
+        }
+        
+        try {
+            return dataLocation.decodeInto(dest);
+        } catch (DataFormatException ex) {
+            LOGGER.log(Level.SEVERE, null, ex);
+        }
+        
+        return 0;
+    }
+    
+    /**
+     * Get the data array as int[], convert and decompress as necessary, without
+     * first converting to double[]. Data stored as 8-bit, 16-bit or 32-bit integers
+     * keeps its full precision.
+     * The data is not kept in memory.
+     *
+     * @return Uncompressed data as int[]
+     * @throws IOException On failure to read from data location
+     * @see #getDataType()
+     */
+    public int[] getDataAsInt() throws IOException {
+        if(data != null) {
+            int[] convertedData = new int[data.length];
+            
+            for(int i = 0; i < data.length; i++)
+                convertedData[i] = (int) data[i];
+            
+            return convertedData;
+        }
+        
+        if (!ensureDataLocation()) {
+            return new int[0];
+        }
+        
+        try {
+            return dataLocation.getDataAsInt();
+        } catch (DataFormatException ex) {
+            LOGGER.log(Level.SEVERE, null, ex);
+        }
+        
+        return new int[0];
+    }
+    
+    /**
+     * Decode the data array into the supplied int[] starting at destOffset, 
+     * as described in {@link #decodeInto(IntBuffer)}.
+     *
+     * @param dest Array to place the data into
+     * @param destOffset Index within dest to place the first value
+     * @return Number of values written to dest
+     * @throws IOException On failure to read from data location
+     */
+    public int decodeInto(int[] dest, int destOffset) throws IOException {
+        return decodeInto(IntBuffer.wrap(dest, destOffset, dest.length - destOffset));
+    }
+    
+    /**
+     * Decode the data array into the supplied IntBuffer starting at its current
+     * position, converting and decompressing as necessary, without converting
+     * to double[] or allocating a new array for the result. If the data is 
+     * already held in memory it is converted into dest.
+     *
+     * @param dest IntBuffer to place the data into
+     * @return Number of values written to dest
+     * @throws IOException On failure to read from data location
+     * @see #getDataAsInt()
+     */
+    public int decodeInto(IntBuffer dest) throws IOException {
+        if(data != null) {
+            int numValues = Math.min(data.length, dest.remaining());
+            
+            for(int i = 0; i < numValues; i++)
+                dest.put((int) data[i]);
+            
+            return numValues;
+        }
+        
+        if (!ensureDataLocation()) {
+            return 0;
+        }
+        
+        try {
+            return dataLocation.decodeInto(dest);
+        } catch (DataFormatException ex) {
+            LOGGER.log(Level.SEVERE, null, ex);
+        }
+        
+        return 0;
+    }
+    
+    /**
+     * Get the data array as long[], convert and decompress as necessary, without
+     * first converting to double[]. Data stored as any integer type keeps its full
+     * precision.
+     * The data is not kept in memory.
+     *
+     * @return Uncompressed data as long[]
+     * @throws IOException On failure to read from data location
+     * @see #getDataType()
+     */
+    public long[] getDataAsLong() throws IOException {
+        if(data != null) {
+            long[] convertedData = new long[data.length];
+            
+            for(int i = 0; i < data.length; i++)
+                convertedData[i] = (long) data[i];
+            
+            return convertedData;
+        }
+        
+        if (!ensureDataLocation()) {
+            return new long[0];
+        }
+        
+        try {
+            return dataLocation.getDataAsLong();
+        } catch (DataFormatException ex) {
+            LOGGER.log(Level.SEVERE, null, ex);
+        }
+        
+        return new long[0];
+    }
+    
+    /**
+     * Decode the data array into the supplied long[] starting at destOffset, 
+     * as described in {@link #decodeInto(LongBuffer)}.
+     *
+     * @param dest Array to place the data into
+     * @param destOffset Index within dest to place the first value
+     * @return Number of values written to dest
+     * @throws IOException On failure to read from data location
+     */
+    public int decodeInto(long[] dest, int destOffset) throws IOException {
+        return decodeInto(LongBuffer.wrap(dest, destOffset, dest.length - destOffset));
+    }
+    
+    /**
+     * Decode the data array into the supplied LongBuffer starting at its current
+     * position, converting and decompressing as necessary, without converting
+     * to double[] or allocating a new array for the result. If the data is 
+     * already held in memory it is converted into dest.
+     *
+     * @param dest LongBuffer to place the data into
+     * @return Number of values written to dest
+     * @throws IOException On failure to read from data location
+     * @see #getDataAsLong()
+     */
+    public int decodeInto(LongBuffer dest) throws IOException {
+        if(data != null) {
+            int numValues = Math.min(data.length, dest.remaining());
+            
+            for(int i = 0; i < numValues; i++)
+                dest.put((long) data[i]);
+            
+            return numValues;
+        }
+        
+        if (!ensureDataLocation()) {
+            return 0;
+        }
+        
+        try {
+            return dataLocation.decodeInto(dest);
+        } catch (DataFormatException ex) {
+            LOGGER.log(Level.SEVERE, null, ex);
+        }
+        
+        return 0;
+    }
+    
+    /**
+     * Ensure that there is a DataLocation from which the data can be loaded. 
+     * If there is no DataLocation stored for the BinaryDataArray then it is 
+     * likely that the data storage is MzMLDataStorage and so needs to be converted 
+     * to Base64Storage prior to being able to load any data.
+     * 
+     * @return true if there is a DataLocation to load data from, false otherwise
+     * @throws IOException On failure to read from data location
+     */
+    private boolean ensureDataLocation() throws IOException {
+        if (dataLocation == null && parent != null) {
+            MzMLTag grandParent = parent.getParent();
+
+            if (grandParent instanceof MzMLDataContainer) {
+                ((MzMLDataContainer) grandParent).convertMzMLDataStorageToBase64();
+            }
+        }
+        
+        return dataLocation != null;
+    }
+    
     /**
      * Set the data internally. This does not update any metadata, and therefore
      * should only be used when metadata is also updated. Alternatively use
@@ -647,6 +1191,32 @@ public class BinaryDataArray extends MzMLContentWithParams {
         return dataLocation.getBytes();
     }
 
+    /**
+     * Get the stored data as byte[] without decoding it, if it is already encoded
+     * in the same way as the specified DataTransformation would encode it. This 
+     * allows data to be copied to a new file without being decompressed and 
+     * compressed again.
+     *
+     * @param transformation DataTransformation the data is to be encoded with
+     * @return Encoded data, or null if the data has been modified in memory or is
+     * stored with a different encoding
+     * @throws IOException On failure to read from data location
+     * @see DataTransformation#hasSameEncoding(DataTransformation)
+     */
+    public byte[] getEncodedData(DataTransformation transformation) throws IOException {
+        if (data != null || !ensureDataLocation()) {
+            return null;
+        }
+
+        DataTransformation storedTransformation = dataLocation.getDataTransformation();
+
+        if (storedTransformation == null || !storedTransformation.hasSameEncoding(transformation)) {
+            return null;
+        }
+
+        return dataLocation.getBytes();
+    }
+
     /**
      * Create a {@link DataTransformation} based on the relevant CVParams 
      * included within this BinaryDataArray. This describes the forward transformation
@@ -655,93 +1225,301 @@ public class BinaryDataArray extends MzMLContentWithParams {
      * @return DataTransformation describing CVParams
      */
     public DataTransformation generateDataTransformation() {
+        return generateDataTransformation(false);
+    }
+
+    /**
+     * Create a {@link DataTransformation} based on the relevant CVParams 
+     * included within this BinaryDataArray, optionally compressing LZ4 data into
+     * self-describing frames rather than raw blocks. Both are decompressed by 
+     * either DataTransformation, but LZ4 frames are described by the same CVParam
+     * as raw blocks, so are only readable by this version onwards.
+     * 
+     * @param lz4Frames true to write LZ4 frames, false to write raw LZ4 blocks 
+     * @return DataTransformation describing CVParams
+     */
+    public DataTransformation generateDataTransformation(boolean lz4Frames) {
+        CVParam compressionCVParam = this.getCVParamOrChild(BinaryDataArray.COMPRESSION_TYPE_ID);
+        CompressionType compression = null;
+        
+        if (compressionCVParam != null) {
+            UserParam filter = getUserParam(DATA_FILTER_NAME);
+            
+            compression = CompressionType.fromID(compressionCVParam.getTerm().getID(), filter == null ? null : filter.getValue());
+            
+            if (compression == null) {
+                LOGGER.log(Level.WARNING, "Unsupported compression {0} with filter {1}", new Object[] {compressionCVParam, filter == null ? null : filter.getValue()});
+            }
+        }
+        
+        // MS-Numpress output size is not known in advance, so only provide the size hint to zlib, LZ4 and zstd alone
+        int arrayLengthInBytes = CompressionType.ZLIB.equals(compression) || CompressionType.BYTE_SHUFFLE_ZLIB.equals(compression)
+                || CompressionType.DELTA_BYTE_SHUFFLE_ZLIB.equals(compression) || CompressionType.LZ4.equals(compression) 
+                || CompressionType.BYTE_SHUFFLE_LZ4.equals(compression) || CompressionType.DELTA_BYTE_SHUFFLE_LZ4.equals(compression) 
+                || CompressionType.ZSTD.equals(compression) || CompressionType.BYTE_SHUFFLE_ZSTD.equals(compression)
+                || CompressionType.DELTA_BYTE_SHUFFLE_ZSTD.equals(compression) ? getArrayLengthInBytes() : 0;
+        
+        return generateDataTransformation(getDataType(), compression, arrayLengthInBytes, getZstdTransform(), 
+                lz4Frames ? LZ4_FRAME_TRANSFORM : getNumpressLZ4Transform(), lz4Frames);
+    }
+    
+    /**
+     * Create a {@link DataTransformation} describing the forward transformation
+     * from a double[] to the specified data type and compression. This does not
+     * require any CVParams, so can be used to try out compression types before 
+     * choosing which to use for a BinaryDataArray.
+     * 
+     * @param dataType Data type to store the data as
+     * @param compression Compression to apply, or null for no compression
+     * @return DataTransformation describing the data type and compression
+     */
+    public static DataTransformation generateDataTransformation(DataType dataType, CompressionType compression) {
+        return generateDataTransformation(dataType, compression, 0, ZSTD_TRANSFORM, LZ4_TRANSFORM, false);
+    }
+    
+    /**
+     * Create a {@link DataTransformation} describing the forward transformation
+     * from a double[] to the specified data type and compression.
+     * 
+     * @param dataType Data type to store the data as
+     * @param compression Compression to apply, or null for no compression
+     * @param sizeHint Expected size in bytes of data decompressed by zlib, LZ4 or zstd, or 0 if unknown
+     * @param zstdTransform Transform to use for zstd compression
+     * @param numpressLZ4Transform Transform to use for LZ4 compression following MS-Numpress
+     * @param lz4Frames true to write LZ4 frames, false to write raw LZ4 blocks
+     * @return DataTransformation describing the data type and compression
+     */
+    private static DataTransformation generateDataTransformation(DataType dataType, CompressionType compression, int sizeHint, 
+            ZstdDataTransform zstdTransform, LZ4DataTransform numpressLZ4Transform, boolean lz4Frames) {
         DataTransformation transformation = new DataTransformation();
 
         // Always add in the conversion to data type first
-        if (!DataType.DOUBLE.equals(getDataType())) {
-            transformation.addTransform(new DataTypeTransform(DataType.DOUBLE, getDataType()));
+        if (!DataType.DOUBLE.equals(dataType)) {
+            transformation.addTransform(new DataTypeTransform(DataType.DOUBLE, dataType));
         }
-
-        CVParam compressionCVParam = this.getCVParamOrChild(BinaryDataArray.COMPRESSION_TYPE_ID);
         
+        if (compression == null) {
+            return transformation;
+        }
+        
+        // Add in any filter prior to compression, which operates on the stored data type
+        String filter = CompressionType.toFilter(compression);
+        DataType storedDataType = (dataType == null) ? DataType.DOUBLE : dataType;
+        
+        if (DELTA_BYTE_SHUFFLE_FILTER.equals(filter)) {
+            transformation.addTransform(new DeltaDataTransform(storedDataType));
+            transformation.addTransform(new ByteShuffleDataTransform(storedDataType));
+        } else if (BYTE_SHUFFLE_FILTER.equals(filter)) {
+            transformation.addTransform(new ByteShuffleDataTransform(storedDataType));
+        }
+
         // Add in any compression
-        if (BinaryDataArray.ZLIB_COMPRESSION_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new ZlibDataTransform());
-        } else if(BinaryDataArray.XZ_COMPRESSION_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new XZDataTransform());
-        } else if(BinaryDataArray.LZ4_COMPRESSION_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new LZ4DataTransform((int)(this.getExternalArrayLength() * getDataTypeInBytes(getCVParamOrChild(BINARY_DATA_TYPE_ID)))));
-        } else if(BinaryDataArray.ZSTD_COMPRESSION_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new ZstdDataTransform((int)(this.getExternalArrayLength() * getDataTypeInBytes(getCVParamOrChild(BINARY_DATA_TYPE_ID)))));
-        } else if(BinaryDataArray.MSNUMPRESS_LINEAR_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new MSNumpressDataTransform(NumpressAlgorithm.LINEAR));
-        } else if(BinaryDataArray.MSNUMPRESS_POSITIVE_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new MSNumpressDataTransform(NumpressAlgorithm.PIC));
-        } else if(BinaryDataArray.MSNUMPRESS_SLOF_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new MSNumpressDataTransform(NumpressAlgorithm.SLOF));
-        } else if(BinaryDataArray.MSNUMPRESS_LINEAR_LZ4_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new MSNumpressDataTransform(NumpressAlgorithm.LINEAR));
-            
-            int decompressedSize = (int)(this.getExternalArrayLength() * getDataTypeInBytes(getCVParamOrChild(BINARY_DATA_TYPE_ID)));
-            UserParam userParam = this.getUserParam("LZ4 decompression size");
-            
-            if(userParam != null) {
-                decompressedSize = Integer.parseInt(this.getUserParam("LZ4 decompression size").getValue());
+        switch (compression) {
+            case ZLIB:
+            case BYTE_SHUFFLE_ZLIB:
+            case DELTA_BYTE_SHUFFLE_ZLIB:
+                transformation.addTransform(new ZlibDataTransform(sizeHint));
+                break;
+            case XZ:
+                transformation.addTransform(XZ_TRANSFORM);
+                break;
+            case LZ4:
+            case BYTE_SHUFFLE_LZ4:
+            case DELTA_BYTE_SHUFFLE_LZ4:
+                // Raw LZ4 blocks require the size to decompress efficiently
+                if (lz4Frames) {
+                    transformation.addTransform(LZ4_FRAME_TRANSFORM);
+                } else {
+                    transformation.addTransform(sizeHint > 0 ? new LZ4DataTransform(sizeHint) : LZ4_TRANSFORM);
+                }
+                break;
+            case ZSTD:
+            case BYTE_SHUFFLE_ZSTD:
+            case DELTA_BYTE_SHUFFLE_ZSTD:
+                // Frames written in streaming mode by other writers do not record their size
+                transformation.addTransform(sizeHint > 0 ? new ZstdDataTransform(sizeHint, zstdTransform.getCompressionLevel(), zstdTransform.getDictionary()) : zstdTransform);
+                break;
+            case MSNUMPRESS_LINEAR:
+                transformation.addTransform(NUMPRESS_LINEAR_TRANSFORM);
+                break;
+            case MSNUMPRESS_POSITIVE:
+                transformation.addTransform(NUMPRESS_PIC_TRANSFORM);
+                break;
+            case MSNUMPRESS_SLOF:
+                transformation.addTransform(NUMPRESS_SLOF_TRANSFORM);
+                break;
+            case MSNUMPRESS_LINEAR_LZ4:
+                transformation.addTransform(NUMPRESS_LINEAR_TRANSFORM);
+                transformation.addTransform(numpressLZ4Transform);
+                break;
+            case MSNUMPRESS_LINEAR_XZ:
+                transformation.addTransform(NUMPRESS_LINEAR_TRANSFORM);
+                transformation.addTransform(XZ_TRANSFORM);
+                break;
+            case MSNUMPRESS_LINEAR_ZLIB:
+                transformation.addTransform(NUMPRESS_LINEAR_TRANSFORM);
+                transformation.addTransform(new ZlibDataTransform(sizeHint));
+                break;
+            case MSNUMPRESS_LINEAR_ZSTD:
+                transformation.addTransform(NUMPRESS_LINEAR_TRANSFORM);
+                transformation.addTransform(zstdTransform);
+                break;
+            case MSNUMPRESS_POSITIVE_LZ4:
+                transformation.addTransform(NUMPRESS_PIC_TRANSFORM);
+                transformation.addTransform(numpressLZ4Transform);
+                break;
+            case MSNUMPRESS_POSITIVE_XZ:
+                transformation.addTransform(NUMPRESS_PIC_TRANSFORM);
+                transformation.addTransform(XZ_TRANSFORM);
+                break;
+            case MSNUMPRESS_POSITIVE_ZLIB:
+                transformation.addTransform(NUMPRESS_PIC_TRANSFORM);
+                transformation.addTransform(new ZlibDataTransform(sizeHint));
+                break;
+            case MSNUMPRESS_POSITIVE_ZSTD:
+                transformation.addTransform(NUMPRESS_PIC_TRANSFORM);
+                transformation.addTransform(zstdTransform);
+                break;
+            case MSNUMPRESS_SLOF_LZ4:
+                transformation.addTransform(NUMPRESS_SLOF_TRANSFORM);
+                transformation.addTransform(numpressLZ4Transform);
+                break;
+            case MSNUMPRESS_SLOF_XZ:
+                transformation.addTransform(NUMPRESS_SLOF_TRANSFORM);
+                transformation.addTransform(XZ_TRANSFORM);
+                break;
+            case MSNUMPRESS_SLOF_ZLIB:
+                transformation.addTransform(NUMPRESS_SLOF_TRANSFORM);
+                transformation.addTransform(new ZlibDataTransform(sizeHint));
+                break;
+            case MSNUMPRESS_SLOF_ZSTD:
+                transformation.addTransform(NUMPRESS_SLOF_TRANSFORM);
+                transformation.addTransform(zstdTransform);
+                break;
+            case NONE:
+            default:
+                break;
+        }
+        
+        return transformation;
+    }
+
+    /**
+     * Get the zstd DataTransform for this array, shared with all other arrays
+     * using the same dictionary.
+     *
+     * @return Shared ZstdDataTransform
+     */
+    private ZstdDataTransform getZstdTransform() {
+        ZstdDictionary dictionary = getZstdDictionary();
+
+        if (dictionary != null) {
+            return dictionary.getDataTransform();
+        }
+
+        return ZSTD_TRANSFORM;
+    }
+
+    /**
+     * Get the LZ4 DataTransform to follow MS-Numpress compression. LZ4 frames
+     * record their own size, but raw LZ4 blocks require the size stored in the 
+     * {@link #LZ4_DECOMPRESSION_SIZE_NAME} UserParam.
+     *
+     * @return LZ4DataTransform
+     */
+    private LZ4DataTransform getNumpressLZ4Transform() {
+        UserParam userParam = getUserParam(LZ4_DECOMPRESSION_SIZE_NAME);
+
+        if (userParam != null) {
+            try {
+                return new LZ4DataTransform(Integer.parseInt(userParam.getValue()));
+            } catch (NumberFormatException ex) {
+                LOGGER.log(Level.WARNING, "Invalid " + LZ4_DECOMPRESSION_SIZE_NAME + " " + userParam.getValue(), ex);
             }
+        }
+
+        return LZ4_TRANSFORM;
+    }
+
+    /**
+     * Get the expected length in bytes of the uncompressed data array, based on
+     * the external array length, array length or default array length of the 
+     * parent spectrum or chromatogram (in that order of preference) and the 
+     * data type.
+     * 
+     * @return Expected length in bytes, or 0 if unknown
+     */
+    private int getArrayLengthInBytes() {
+        long length = getExternalArrayLength();
+        
+        if (length <= 0) {
+            length = arrayLength;
+        }
+        
+        if (length <= 0 && parent != null && parent.getParent() instanceof MzMLDataContainer) {
+            length = ((MzMLDataContainer) parent.getParent()).defaultArrayLength;
+        }
+        
+        CVParam dataType = getCVParamOrChild(BINARY_DATA_TYPE_ID);
+        
+        if (length <= 0 || dataType == null) {
+            return 0;
+        }
+        
+        return (int) Math.min(Integer.MAX_VALUE, length * getDataTypeInBytes(dataType));
+    }
+
+    /**
+     * Set the dictionary to use for zstd compression, and where the dictionary is
+     * stored within the binary data file. This is recorded as UserParams so that 
+     * the dictionary can be loaded when the data is read.
+     * 
+     * @param dictionary Dictionary, or null to compress without a dictionary
+     * @param offset Offset in bytes of the dictionary within the binary data file
+     */
+    public void setZstdDictionary(ZstdDictionary dictionary, long offset) {
+        List<UserParam> userParamList = getUserParamList();
+        
+        for (int i = userParamList.size() - 1; i >= 0; i--) {
+            String name = userParamList.get(i).getName();
             
-            transformation.addTransform(new LZ4DataTransform(decompressedSize));
-        } else if(BinaryDataArray.MSNUMPRESS_LINEAR_XZ_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new MSNumpressDataTransform(NumpressAlgorithm.LINEAR));
-            transformation.addTransform(new XZDataTransform());
-        } else if(BinaryDataArray.MSNUMPRESS_LINEAR_ZLIB_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new MSNumpressDataTransform(NumpressAlgorithm.LINEAR));
-            transformation.addTransform(new ZlibDataTransform());
-        } else if(BinaryDataArray.MSNUMPRESS_LINEAR_ZSTD_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new MSNumpressDataTransform(NumpressAlgorithm.LINEAR));
-            transformation.addTransform(new ZstdDataTransform((int)(this.getExternalArrayLength() * getDataTypeInBytes(getCVParamOrChild(BINARY_DATA_TYPE_ID)))));
-        } else if(BinaryDataArray.MSNUMPRESS_POSITIVE_LZ4_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new MSNumpressDataTransform(NumpressAlgorithm.PIC));
-            
-            int decompressedSize = (int)(this.getExternalArrayLength() * getDataTypeInBytes(getCVParamOrChild(BINARY_DATA_TYPE_ID)));
-            UserParam userParam = this.getUserParam("LZ4 decompression size");
-            
-            if(userParam != null) {
-                decompressedSize = Integer.parseInt(this.getUserParam("LZ4 decompression size").getValue());
+            if (ZSTD_DICTIONARY_OFFSET_NAME.equals(name) || ZSTD_DICTIONARY_LENGTH_NAME.equals(name)) {
+                removeUserParam(i);
             }
+        }
+        
+        if (dictionary != null) {
+            addUserParam(new UserParam(ZSTD_DICTIONARY_OFFSET_NAME, "" + offset));
+            addUserParam(new UserParam(ZSTD_DICTIONARY_LENGTH_NAME, "" + dictionary.getSize()));
+        }
+        
+        this.zstdDictionary = dictionary;
+    }
+    
+    /**
+     * Get the dictionary used for zstd compression. If none has been set, but 
+     * the UserParams describe where one is stored, then the dictionary is loaded
+     * from the DataStorage of the binary data.
+     * 
+     * @return Dictionary, or null if the data is not compressed with a dictionary
+     */
+    public ZstdDictionary getZstdDictionary() {
+        if (zstdDictionary == null && dataLocation != null && dataLocation.getDataStorage() != null) {
+            UserParam offset = getUserParam(ZSTD_DICTIONARY_OFFSET_NAME);
+            UserParam length = getUserParam(ZSTD_DICTIONARY_LENGTH_NAME);
             
-            transformation.addTransform(new LZ4DataTransform(decompressedSize));
-        } else if(BinaryDataArray.MSNUMPRESS_POSITIVE_XZ_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new MSNumpressDataTransform(NumpressAlgorithm.PIC));
-            transformation.addTransform(new XZDataTransform());
-        } else if(BinaryDataArray.MSNUMPRESS_POSITIVE_ZLIB_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new MSNumpressDataTransform(NumpressAlgorithm.PIC));
-            transformation.addTransform(new ZlibDataTransform());
-        } else if(BinaryDataArray.MSNUMPRESS_POSITIVE_ZSTD_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new MSNumpressDataTransform(NumpressAlgorithm.PIC));
-            transformation.addTransform(new ZstdDataTransform((int)(this.getExternalArrayLength() * getDataTypeInBytes(getCVParamOrChild(BINARY_DATA_TYPE_ID)))));
-        } else if(BinaryDataArray.MSNUMPRESS_SLOF_LZ4_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new MSNumpressDataTransform(NumpressAlgorithm.SLOF));
-            
-            int decompressedSize = (int)(this.getExternalArrayLength() * getDataTypeInBytes(getCVParamOrChild(BINARY_DATA_TYPE_ID)));
-            UserParam userParam = this.getUserParam("LZ4 decompression size");
-            
-            if(userParam != null) {
-                decompressedSize = Integer.parseInt(this.getUserParam("LZ4 decompression size").getValue());
+            if (offset != null && length != null) {
+                try {
+                    zstdDictionary = ZstdDictionary.load(dataLocation.getDataStorage(), Long.parseLong(offset.getValue()), Integer.parseInt(length.getValue()));
+                } catch (IOException ex) {
+                    LOGGER.log(Level.SEVERE, "Failed to load zstd dictionary", ex);
+                } catch (NumberFormatException ex) {
+                    LOGGER.log(Level.SEVERE, "Invalid zstd dictionary location", ex);
+                }
             }
-            
-            transformation.addTransform(new LZ4DataTransform(decompressedSize));
-        } else if(BinaryDataArray.MSNUMPRESS_SLOF_XZ_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new MSNumpressDataTransform(NumpressAlgorithm.SLOF));
-            transformation.addTransform(new XZDataTransform());
-        } else if(BinaryDataArray.MSNUMPRESS_SLOF_ZLIB_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new MSNumpressDataTransform(NumpressAlgorithm.SLOF));
-            transformation.addTransform(new ZlibDataTransform());
-        } else if(BinaryDataArray.MSNUMPRESS_SLOF_ZSTD_ID.equals(compressionCVParam.getTerm().getID())) {
-            transformation.addTransform(new MSNumpressDataTransform(NumpressAlgorithm.SLOF));
-            transformation.addTransform(new ZstdDataTransform((int)(this.getExternalArrayLength() * getDataTypeInBytes(getCVParamOrChild(BINARY_DATA_TYPE_ID)))));
         }
         
-        return transformation;
+        return zstdDictionary;
     }
 
     /**
@@ -874,14 +1652,89 @@ public class BinaryDataArray extends MzMLContentWithParams {
         return isIntensityArray;
     }
 
+    /**
+     * Set whether compression types which apply a filter prior to compression 
+     * (such as {@link CompressionType#BYTE_SHUFFLE_ZLIB}) can be set. There are no
+     * ontology terms for these filters, so the data is described by the term for 
+     * the compression alone, with the filter given by the {@link #DATA_FILTER_NAME}
+     * UserParam. Other software (and versions of this library prior to the filters
+     * being added) ignores the UserParam and so reads incorrect values without any
+     * error. These compression types are therefore refused unless explicitly 
+     * allowed, and should only be used for data which will only be read by this
+     * library. Data already written with a filter can always be read.
+     * 
+     * @param allowed true to allow compression types which apply a filter
+     */
+    public static void setFilteredCompressionAllowed(boolean allowed) {
+        filteredCompressionAllowed = allowed;
+    }
+    
+    /**
+     * Check whether compression types which apply a filter prior to compression 
+     * can be set.
+     * 
+     * @return true if compression types which apply a filter are allowed
+     * @see #setFilteredCompressionAllowed(boolean)
+     */
+    public static boolean isFilteredCompressionAllowed() {
+        return filteredCompressionAllowed;
+    }
+    
+    /**
+     * Check that the compression can be set, throwing an IllegalArgumentException
+     * if it applies a filter and filters have not been allowed.
+     * 
+     * @param compression Compression to check
+     * @see #setFilteredCompressionAllowed(boolean)
+     */
+    public static void checkCompressionAllowed(BinaryDataArray.CompressionType compression) {
+        if (!filteredCompressionAllowed && CompressionType.toFilter(compression) != null) {
+            throw new IllegalArgumentException(compression + " can only be read by this library, "
+                    + "so must first be allowed with BinaryDataArray.setFilteredCompressionAllowed(true)");
+        }
+    }
+
     /**
      * Sets the compression (or none).
      * 
      * @param compression Compression
+     * @throws IllegalArgumentException The compression applies a filter which has not been allowed
+     * @see #setFilteredCompressionAllowed(boolean)
      */
     public void setCompression(BinaryDataArray.CompressionType compression) {        
-        this.removeChildrenOfCVParam(BinaryDataArray.COMPRESSION_TYPE_ID, false);
-        this.addCVParam(new EmptyCVParam(BinaryDataArray.CompressionType.toOBOTerm(compression)));
+        setCompression(this, compression);
+    }
+    
+    /**
+     * Sets the compression (or none) described by the params of a BinaryDataArray
+     * or ReferenceableParamGroup. This is the compression CVParam, along with 
+     * the {@link #DATA_FILTER_NAME} UserParam if a filter is applied prior to
+     * compression.
+     * 
+     * @param params BinaryDataArray or ReferenceableParamGroup
+     * @param compression Compression
+     * @throws IllegalArgumentException The compression applies a filter which has not been allowed
+     * @see #setFilteredCompressionAllowed(boolean)
+     */
+    public static void setCompression(HasParams params, BinaryDataArray.CompressionType compression) {
+        checkCompressionAllowed(compression);
+        
+        params.removeChildrenOfCVParam(BinaryDataArray.COMPRESSION_TYPE_ID, false);
+        params.addCVParam(new EmptyCVParam(BinaryDataArray.CompressionType.toOBOTerm(compression)));
+        
+        List<UserParam> userParamList = params.getUserParamList();
+        
+        for (int i = userParamList.size() - 1; i >= 0; i--) {
+            if (DATA_FILTER_NAME.equals(userParamList.get(i).getName())) {
+                params.removeUserParam(i);
+            }
+        }
+        
+        String filter = BinaryDataArray.CompressionType.toFilter(compression);
+        
+        if (filter != null) {
+            params.addUserParam(new UserParam(DATA_FILTER_NAME, filter));
+        }
     }
     
     /**
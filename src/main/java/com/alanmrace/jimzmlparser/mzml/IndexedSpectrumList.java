@@ -0,0 +1,382 @@
+package com.alanmrace.jimzmlparser.mzml;
+
+import com.alanmrace.jimzmlparser.exceptions.FatalParseIssue;
+import com.alanmrace.jimzmlparser.exceptions.FatalRuntimeParseException;
+import com.alanmrace.jimzmlparser.exceptions.InvalidXPathException;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * SpectrumList where the IDs of the spectra are known in advance (for example from
+ * the index of an indexed mzML file), but each Spectrum is only created by the
+ * {@link SpectrumLoader} when it is first accessed. This allows very large files to
+ * be opened without parsing every {@literal <spectrum>} tag.
+ *
+ * <p>Spectra are loaded individually when accessed through {@link #get(int)},
+ * {@link #get(String)} or the iterator. Any operation which modifies the list or
+ * requires all spectra at once (such as adding or removing a spectrum, or searching
+ * with an XPath) first loads all remaining spectra, after which the list behaves
+ * as a standard SpectrumList.
+ *
+ * <p>Spectra can be loaded from multiple threads at once, as the list is only
+ * locked while checking for and storing each spectrum, not while it is loaded.
+ * If two threads load the same spectrum at once, the first one loaded is kept
+ * and returned to both.
+ *
+ * @author Alan Race
+ */
+public class IndexedSpectrumList extends SpectrumList {
+
+    /**
+     * Serialisation version ID.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Loader used to create each spectrum when it is first accessed, or null once
+     * all spectra have been loaded into the list.
+     */
+    private transient SpectrumLoader loader;
+
+    /**
+     * IDs of the spectra in the list, in order.
+     */
+    private transient String[] ids;
+
+    /**
+     * Spectra which have been loaded, or null where the spectrum has not yet been
+     * accessed.
+     */
+    private transient Spectrum[] spectra;
+
+    /**
+     * Indices of the spectra currently being loaded by each thread.
+     */
+    private transient ThreadLocal<Set<Integer>> loading;
+
+    /**
+     * Index of each spectrum within the list, by ID.
+     */
+    private transient Map<String, Integer> indices;
+
+    /**
+     * DataProcessingList to set on each spectrum once loaded.
+     */
+    private transient ReferenceList<DataProcessing> lazyDataProcessingList;
+
+    /**
+     * Create a {@literal <spectrumList>} tag containing spectra with the specified
+     * IDs, each of which will be created by the loader when first accessed.
+     *
+     * @param defaultDataProcessingRef Default description of processing applied to the spectra in the list.
+     * @param ids IDs of the spectra, in order
+     * @param loader Loader to create each spectrum from its index within the list
+     */
+    public IndexedSpectrumList(DataProcessing defaultDataProcessingRef, List<String> ids, SpectrumLoader loader) {
+        super(ids.size(), defaultDataProcessingRef);
+
+        this.loader = loader;
+        this.ids = ids.toArray(new String[ids.size()]);
+        this.spectra = new Spectrum[this.ids.length];
+        this.loading = new ThreadLocal<Set<Integer>>() {
+            @Override
+            protected Set<Integer> initialValue() {
+                return new HashSet<Integer>();
+            }
+        };
+        this.indices = new HashMap<String, Integer>(this.ids.length * 2);
+
+        for (int i = 0; i < this.ids.length; i++) {
+            indices.put(this.ids[i], i);
+        }
+    }
+
+    /**
+     * Check whether the spectrum at the specified index has been loaded.
+     *
+     * @param index Index of the spectrum
+     * @return true if the spectrum has been loaded
+     */
+    public synchronized boolean isLoaded(int index) {
+        return loader == null || spectra[index] != null;
+    }
+
+    /**
+     * Load all spectra which have not yet been accessed, after which the list
+     * behaves as a standard SpectrumList.
+     */
+    public synchronized void loadAll() {
+        if (loader == null) {
+            return;
+        }
+
+        Spectrum[] allSpectra = new Spectrum[ids.length];
+
+        for (int i = 0; i < ids.length; i++) {
+            allSpectra[i] = get(i);
+        }
+
+        ReferenceList<DataProcessing> dataProcessing = lazyDataProcessingList;
+
+        loader = null;
+        ids = null;
+        spectra = null;
+        loading = null;
+        indices = null;
+        lazyDataProcessingList = null;
+
+        for (Spectrum spectrum : allSpectra) {
+            if (spectrum != null) {
+                super.add(spectrum);
+            }
+        }
+
+        if (dataProcessing != null) {
+            super.setDataProcessingList(dataProcessing);
+        }
+    }
+
+    @Override
+    public Spectrum get(int index) {
+        SpectrumLoader currentLoader;
+        Set<Integer> currentlyLoading;
+        String id;
+
+        synchronized (this) {
+            if (loader == null) {
+                return super.get(index);
+            }
+
+            if (index < 0 || index >= ids.length) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + ids.length);
+            }
+
+            if (spectra[index] != null) {
+                return spectra[index];
+            }
+
+            currentLoader = loader;
+            currentlyLoading = loading.get();
+            id = ids[index];
+        }
+
+        // Guard against a spectrum which (indirectly) refers to itself
+        if (!currentlyLoading.add(index)) {
+            return null;
+        }
+
+        Spectrum spectrum;
+
+        try {
+            spectrum = currentLoader.loadSpectrum(index);
+        } catch (IOException ex) {
+            throw new FatalRuntimeParseException(new FatalParseIssue("Failed to load spectrum " + id, ex.getLocalizedMessage()), ex);
+        } finally {
+            currentlyLoading.remove(index);
+        }
+
+        synchronized (this) {
+            // All spectra were loaded by another thread in the meantime
+            if (loader == null) {
+                return super.get(index);
+            }
+
+            if (spectra[index] == null) {
+                spectrum.setParent(this);
+
+                if (lazyDataProcessingList != null) {
+                    spectrum.setDataProcessingList(lazyDataProcessingList);
+                }
+
+                spectra[index] = spectrum;
+            }
+
+            return spectra[index];
+        }
+    }
+
+    @Override
+    public Spectrum get(String id) {
+        Integer index;
+
+        synchronized (this) {
+            if (loader == null) {
+                return super.get(id);
+            }
+
+            index = indices.get(id);
+        }
+
+        if (index == null) {
+            return null;
+        }
+
+        return get(index);
+    }
+
+    @Override
+    public synchronized int size() {
+        if (loader == null) {
+            return super.size();
+        }
+
+        return ids.length;
+    }
+
+    @Override
+    public synchronized boolean containsID(String id) {
+        if (loader == null) {
+            return super.containsID(id);
+        }
+
+        return indices.containsKey(id);
+    }
+
+    @Override
+    public synchronized int indexOf(Spectrum spectrum) {
+        if (loader == null) {
+            return super.indexOf(spectrum);
+        }
+
+        Integer index = indices.get(spectrum.getID());
+
+        if (index == null || spectra[index] != spectrum) {
+            return -1;
+        }
+
+        return index;
+    }
+
+    @Override
+    public boolean contains(Spectrum spectrum) {
+        return indexOf(spectrum) != -1;
+    }
+
+    @Override
+    public Iterator<Spectrum> iterator() {
+        return new Iterator<Spectrum>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < size();
+            }
+
+            @Override
+            public Spectrum next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                return get(index++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("Not supported.");
+            }
+        };
+    }
+
+    /**
+     * Get the spectra which have been loaded so far, without loading any others.
+     *
+     * @return Loaded spectra
+     */
+    @Override
+    synchronized Iterable<Spectrum> getLoadedSpectra() {
+        if (loader == null) {
+            return super.getLoadedSpectra();
+        }
+
+        List<Spectrum> loaded = new ArrayList<Spectrum>();
+
+        for (Spectrum spectrum : spectra) {
+            if (spectrum != null) {
+                loaded.add(spectrum);
+            }
+        }
+
+        return loaded;
+    }
+
+    @Override
+    protected synchronized void setDataProcessingList(ReferenceList<DataProcessing> dataProcessingList) {
+        if (loader == null) {
+            super.setDataProcessingList(dataProcessingList);
+        } else {
+            lazyDataProcessingList = dataProcessingList;
+
+            for (Spectrum spectrum : spectra) {
+                if (spectrum != null) {
+                    spectrum.setDataProcessingList(dataProcessingList);
+                }
+            }
+        }
+    }
+
+    @Override
+    protected List<Spectrum> getList() {
+        loadAll();
+
+        return super.getList();
+    }
+
+    @Override
+    public synchronized void add(Spectrum spectrum) {
+        loadAll();
+
+        super.add(spectrum);
+    }
+
+    @Override
+    public synchronized Spectrum remove(int index) {
+        loadAll();
+
+        return super.remove(index);
+    }
+
+    @Override
+    public synchronized boolean remove(Spectrum spectrum) {
+        loadAll();
+
+        return super.remove(spectrum);
+    }
+
+    @Override
+    public synchronized void clear() {
+        loadAll();
+
+        super.clear();
+    }
+
+    @Override
+    public void addChildrenToCollection(Collection<MzMLTag> children) {
+        loadAll();
+
+        super.addChildrenToCollection(children);
+    }
+
+    @Override
+    protected void addTagSpecificElementsAtXPathToCollection(Collection<MzMLTag> elements, String fullXPath, String currentXPath) throws InvalidXPathException {
+        loadAll();
+
+        super.addTagSpecificElementsAtXPathToCollection(elements, fullXPath, currentXPath);
+    }
+
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        // The loader cannot be serialised, so include every spectrum
+        loadAll();
+
+        out.defaultWriteObject();
+    }
+}
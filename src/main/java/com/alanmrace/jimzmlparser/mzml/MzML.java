@@ -592,8 +592,8 @@ public class MzML extends MzMLContentWithParams implements Serializable {
 
         SpectrumList spectrumList = getRun().getSpectrumList();
 
-        
-        for(Spectrum spectrum : spectrumList) {
+        // Only spectra already loaded can hold a DataStorage
+        for(Spectrum spectrum : spectrumList.getLoadedSpectra()) {
             closeDataStorage(spectrum.getDataLocation());
 
             for(BinaryDataArray bda : spectrum.getBinaryDataArrayList()) {
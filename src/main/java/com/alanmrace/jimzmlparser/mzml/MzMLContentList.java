@@ -170,6 +170,7 @@ public abstract class MzMLContentList<T extends MzMLTag>
     
     @Override
     public void clear() {
-        list.clear();
+        // A list of a single item cannot be cleared
+        list = Collections.emptyList();
     }
 }
@@ -318,6 +318,11 @@ public abstract class MzMLContentWithParams extends MzMLContent implements HasPa
 
     @Override
     public void removeUserParam(int index) {
+        // The list may be immutable when it contains fewer than two UserParams
+        if (!(userParams instanceof ArrayList)) {
+            userParams = new ArrayList<UserParam>(userParams);
+        }
+        
         UserParam removedParam = userParams.remove(index);
         removedParam.setParent(null);
     }
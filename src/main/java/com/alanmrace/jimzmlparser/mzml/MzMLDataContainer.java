@@ -158,10 +158,12 @@ public abstract class MzMLDataContainer extends MzMLIndexedContentWithParams {
     /**
      * Ensure that the data can be loaded. If the DataLocation is a MzMLSpectrumDataStorage
      * then this must be converted to Base64DataStorage before it can actually be used. 
+     * This is synchronized so that the arrays of the same data container can be 
+     * loaded from different threads.
      * 
      * @throws IOException Issue when trying to access DataLocation
      */
-    public void ensureLoadableData() throws IOException {
+    public synchronized void ensureLoadableData() throws IOException {
         if (dataLocation != null && dataLocation.getDataStorage() instanceof MzMLSpectrumDataStorage) {
             convertMzMLDataStorageToBase64();
         }
@@ -174,7 +176,7 @@ public abstract class MzMLDataContainer extends MzMLIndexedContentWithParams {
      * 
      * @throws IOException Issue when trying to access DataLocation
      */
-    protected void convertMzMLDataStorageToBase64() throws IOException {
+    protected synchronized void convertMzMLDataStorageToBase64() throws IOException {
         if (dataLocation != null && dataLocation.getDataStorage() instanceof MzMLSpectrumDataStorage) {
             // Load in the data from the data storage
             byte[] data = dataLocation.getBytes();
@@ -198,8 +200,8 @@ public abstract class MzMLDataContainer extends MzMLIndexedContentWithParams {
                         int binaryEnd = subSpectrumData.indexOf("</binary>") + cvParamLocation;
 
                         DataLocation location = new DataLocation(mzMLDataStorage.getBase64DataStorage(), binaryStart + dataLocation.getOffset(), binaryEnd - binaryStart);
-                        bda.setDataLocation(location);
                         location.setDataTransformation(bda.generateDataTransformation());
+                        bda.setDataLocation(location);
 
                     }
                 }
@@ -237,6 +239,63 @@ public abstract class MzMLDataContainer extends MzMLIndexedContentWithParams {
         return binaryDataArrayList.getIntensityArray().getDataAsDouble(keepInMemory);
     }
         
+    /**
+     * Decode the intensity array into the supplied double[] starting at destOffset,
+     * without allocating a new array for the result.
+     * 
+     * @param dest Array to place the intensity array into
+     * @param destOffset Index within dest to place the first value
+     * @return Number of values written to dest
+     * @throws IOException Issue when trying to access DataLocation
+     * @see BinaryDataArray#decodeInto(double[], int)
+     */
+    public int decodeIntensityArrayInto(double[] dest, int destOffset) throws IOException {
+        if (binaryDataArrayList == null || binaryDataArrayList.getIntensityArray() == null) {
+            return 0;
+        }
+
+        ensureLoadableData();
+
+        return binaryDataArrayList.getIntensityArray().decodeInto(dest, destOffset);
+    }
+    
+    /**
+     * Get the intensity array as a float[], without first converting to double[].
+     * 
+     * @return Intensity array
+     * @throws IOException Issue when trying to access DataLocation
+     * @see BinaryDataArray#getDataAsFloat()
+     */
+    public float[] getIntensityArrayAsFloat() throws IOException {
+        if (binaryDataArrayList == null || binaryDataArrayList.getIntensityArray() == null) {
+            return new float[0];
+        }
+
+        ensureLoadableData();
+
+        return binaryDataArrayList.getIntensityArray().getDataAsFloat();
+    }
+    
+    /**
+     * Decode the intensity array into the supplied float[] starting at destOffset,
+     * without converting to double[] or allocating a new array for the result.
+     * 
+     * @param dest Array to place the intensity array into
+     * @param destOffset Index within dest to place the first value
+     * @return Number of values written to dest
+     * @throws IOException Issue when trying to access DataLocation
+     * @see BinaryDataArray#decodeInto(float[], int)
+     */
+    public int decodeIntensityArrayInto(float[] dest, int destOffset) throws IOException {
+        if (binaryDataArrayList == null || binaryDataArrayList.getIntensityArray() == null) {
+            return 0;
+        }
+
+        ensureLoadableData();
+
+        return binaryDataArrayList.getIntensityArray().decodeInto(dest, destOffset);
+    }
+    
     /**
      * Sets the compression (or none) to all BinaryDataArray within this data 
      * container. This only takes effect when the data is written out.
@@ -429,6 +429,11 @@ public class Spectrum extends MzMLDataContainer {
 
     /**
      * Get the m/z array of the spectrum as a double[].
+     * 
+     * <p>The returned array may be shared and so must not be modified. For 
+     * continuous imzML data the same double[] is returned for every spectrum, 
+     * and arrays retrieved from a {@link com.alanmrace.jimzmlparser.data.DecodedDataCache}
+     * are shared by every caller. Copy the array before modifying it.
      *
      * @return m/z array
      * @throws IOException If an error occurred during file access
@@ -440,7 +445,8 @@ public class Spectrum extends MzMLDataContainer {
 
     /**
      * Get the m/z array of the spectrum as a double[] and optionally keep the
-     * array within memory.
+     * array within memory. As with {@link #getmzArray()}, the returned array may
+     * be shared and so must not be modified.
      *
      * @param keepInMemory true to keep the data within memory, false otherwise
      * @return m/z array
@@ -457,6 +463,27 @@ public class Spectrum extends MzMLDataContainer {
         return binaryDataArrayList.getmzArray().getDataAsDouble(keepInMemory);
     }
 
+    /**
+     * Decode the m/z array of the spectrum into the supplied double[] starting at
+     * destOffset, without allocating a new array for the result.
+     *
+     * @param dest Array to place the m/z array into
+     * @param destOffset Index within dest to place the first value
+     * @return Number of values written to dest
+     * @throws IOException If an error occurred during file access
+     * (DataLocation)
+     * @see BinaryDataArray#decodeInto(double[], int)
+     */
+    public int decodemzArrayInto(double[] dest, int destOffset) throws IOException {
+        if (binaryDataArrayList == null || binaryDataArrayList.getmzArray() == null) {
+            return 0;
+        }
+
+        ensureLoadableData();
+
+        return binaryDataArrayList.getmzArray().decodeInto(dest, destOffset);
+    }
+
     /**
      * Set the m/z array to be equal to the supplied double[]. This does not
      * update any metadata, and therefore should only be used when creating new
@@ -0,0 +1,22 @@
+package com.alanmrace.jimzmlparser.mzml;
+
+import java.io.IOException;
+
+/**
+ * Interface for processing decoded spectra, used by 
+ * {@link SpectrumList#forEachSpectrumParallel(SpectrumConsumer)}.
+ * 
+ * @author Alan Race
+ */
+public interface SpectrumConsumer {
+    
+    /**
+     * Process a spectrum along with its decoded m/z and intensity arrays.
+     * 
+     * @param spectrum Spectrum
+     * @param mzs Decoded m/z array of the spectrum
+     * @param intensities Decoded intensity array of the spectrum
+     * @throws IOException Issue processing the spectrum
+     */
+    void accept(Spectrum spectrum, double[] mzs, double[] intensities) throws IOException;
+}
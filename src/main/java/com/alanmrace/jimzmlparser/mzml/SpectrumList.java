@@ -1,9 +1,20 @@
 package com.alanmrace.jimzmlparser.mzml;
 
+import com.alanmrace.jimzmlparser.util.FutureHelper;
 import com.alanmrace.jimzmlparser.util.XMLHelper;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Class describing the {@literal <spectrumList>} tag in MzML. Stores all Spectrum instances
@@ -195,6 +206,225 @@ public class SpectrumList extends MzMLIDContentList<Spectrum> {
         return remove(spectrum);
     }
     
+    /**
+     * Get the spectra which have been loaded into memory, which for a SpectrumList
+     * is every spectrum in the list.
+     * 
+     * @return Loaded spectra
+     * @see IndexedSpectrumList
+     */
+    Iterable<Spectrum> getLoadedSpectra() {
+        return this;
+    }
+    
+    /**
+     * Decode the m/z and intensity arrays of every spectrum in the list in parallel, 
+     * using one thread per available processor, and pass them to the consumer. 
+     * The consumer is called from multiple threads and in no particular order.
+     * 
+     * @param consumer Consumer to process each spectrum
+     * @throws IOException Issue decoding or processing a spectrum
+     * @see #forEachSpectrumParallel(SpectrumConsumer, int, boolean)
+     */
+    public void forEachSpectrumParallel(SpectrumConsumer consumer) throws IOException {
+        forEachSpectrumParallel(consumer, Runtime.getRuntime().availableProcessors(), false);
+    }
+    
+    /**
+     * Decode the m/z and intensity arrays of every spectrum in the list in parallel, 
+     * using the specified number of threads, and pass them to the consumer. 
+     * 
+     * <p>If ordered is true, the consumer is called on the calling thread with the 
+     * spectra in the order they appear in the list, while the following spectra are
+     * decoded in the background. Otherwise the consumer is called from the decoding 
+     * threads as soon as each spectrum is decoded, and so must be thread safe.
+     * 
+     * <p>If decoding or processing any spectrum fails, no further spectra are
+     * processed and the exception is thrown once the outstanding spectra are complete.
+     * 
+     * @param consumer Consumer to process each spectrum
+     * @param parallelism Number of threads used to decode spectra
+     * @param ordered true if the consumer should process the spectra in order, false otherwise
+     * @throws IOException Issue decoding or processing a spectrum
+     */
+    public void forEachSpectrumParallel(SpectrumConsumer consumer, int parallelism, boolean ordered) throws IOException {
+        if(parallelism <= 0)
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        
+        try {
+            if(ordered)
+                forEachSpectrumOrdered(executor, consumer, parallelism);
+            else
+                forEachSpectrumUnordered(executor, consumer, parallelism);
+        } finally {
+            // Do not interrupt, as interrupting a FileChannel read closes the channel
+            executor.shutdown();
+            
+            // Ensure that no spectra are still being decoded or processed once returned
+            awaitTermination(executor);
+        }
+    }
+    
+    /**
+     * Wait for all tasks submitted to a shut down executor to complete. If the
+     * calling thread is interrupted while waiting, the interrupt is restored once
+     * the tasks are complete.
+     * 
+     * @param executor Executor which has been shut down
+     */
+    private static void awaitTermination(ExecutorService executor) {
+        boolean interrupted = false;
+        
+        while(!executor.isTerminated()) {
+            try {
+                executor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        
+        if(interrupted)
+            Thread.currentThread().interrupt();
+    }
+    
+    /**
+     * Decode and process spectra on each of the executor threads, each taking the
+     * next unprocessed spectrum in the list until none remain. Each spectrum is 
+     * retrieved on the executor thread, so spectra which are loaded on first 
+     * access (see {@link IndexedSpectrumList}) are also loaded in parallel.
+     * 
+     * @param executor Executor to decode and process spectra on
+     * @param consumer Consumer to process each spectrum
+     * @param parallelism Number of threads of the executor
+     * @throws IOException Issue decoding or processing a spectrum
+     */
+    private void forEachSpectrumUnordered(ExecutorService executor, final SpectrumConsumer consumer, int parallelism) throws IOException {
+        final int size = size();
+        final AtomicInteger nextIndex = new AtomicInteger();
+        
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(parallelism);
+        
+        for(int i = 0; i < parallelism; i++) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    int index;
+                    
+                    while((index = nextIndex.getAndIncrement()) < size) {
+                        try {
+                            Spectrum spectrum = get(index);
+                            
+                            consumer.accept(spectrum, spectrum.getmzArray(), spectrum.getIntensityArray());
+                        } catch (IOException ex) {
+                            nextIndex.set(size);
+                            throw ex;
+                        } catch (RuntimeException ex) {
+                            nextIndex.set(size);
+                            throw ex;
+                        }
+                    }
+                    
+                    return null;
+                }
+            }));
+        }
+        
+        // Wait for every thread before rethrowing the first exception, so that none are still running
+        IOException ioException = null;
+        RuntimeException runtimeException = null;
+        
+        for(Future<Void> future : futures) {
+            try {
+                FutureHelper.getResult(future, "decoding spectra");
+            } catch (IOException ex) {
+                if(ioException == null && runtimeException == null)
+                    ioException = ex;
+            } catch (RuntimeException ex) {
+                if(ioException == null && runtimeException == null)
+                    runtimeException = ex;
+            }
+        }
+        
+        if(ioException != null)
+            throw ioException;
+        if(runtimeException != null)
+            throw runtimeException;
+    }
+    
+    /**
+     * Decode spectra on the executor threads, keeping up to twice the parallelism
+     * of spectra decoded ahead, and process them in order on the calling thread.
+     * Each spectrum is retrieved on the executor thread, as described in 
+     * {@link #forEachSpectrumUnordered(ExecutorService, SpectrumConsumer, int)}.
+     * 
+     * @param executor Executor to decode spectra on
+     * @param consumer Consumer to process each spectrum
+     * @param parallelism Number of threads of the executor
+     * @throws IOException Issue decoding or processing a spectrum
+     */
+    private void forEachSpectrumOrdered(ExecutorService executor, SpectrumConsumer consumer, int parallelism) throws IOException {
+        int size = size();
+        Deque<Future<DecodedSpectrum>> pending = new ArrayDeque<Future<DecodedSpectrum>>(parallelism * 2);
+        int submitted = 0;
+        
+        try {
+            for(int i = 0; i < size; i++) {
+                while(submitted < size && pending.size() < parallelism * 2) {
+                    final int toDecode = submitted++;
+                    
+                    pending.add(executor.submit(new Callable<DecodedSpectrum>() {
+                        @Override
+                        public DecodedSpectrum call() throws IOException {
+                            return new DecodedSpectrum(get(toDecode));
+                        }
+                    }));
+                }
+                
+                DecodedSpectrum decoded = FutureHelper.getResult(pending.poll(), "decoding spectra");
+                
+                consumer.accept(decoded.spectrum, decoded.mzs, decoded.intensities);
+            }
+        } finally {
+            for(Future<DecodedSpectrum> future : pending)
+                future.cancel(false);
+        }
+    }
+    
+    /**
+     * Spectrum together with its decoded m/z and intensity arrays.
+     */
+    private static class DecodedSpectrum {
+        
+        /**
+         * Spectrum which was decoded.
+         */
+        private final Spectrum spectrum;
+        
+        /**
+         * Decoded m/z array.
+         */
+        private final double[] mzs;
+        
+        /**
+         * Decoded intensity array.
+         */
+        private final double[] intensities;
+        
+        /**
+         * Decode the m/z and intensity arrays of a spectrum.
+         * 
+         * @param spectrum Spectrum to decode
+         * @throws IOException Issue decoding the spectrum
+         */
+        DecodedSpectrum(Spectrum spectrum) throws IOException {
+            this.spectrum = spectrum;
+            this.mzs = spectrum.getmzArray();
+            this.intensities = spectrum.getIntensityArray();
+        }
+    }
+    
     @Override
     public String getXMLAttributeText() {
         return super.getXMLAttributeText() + " defaultDataProcessingRef=\"" + XMLHelper.ensureSafeXML(defaultDataProcessingRef.getID()) + "\""; 
@@ -0,0 +1,22 @@
+package com.alanmrace.jimzmlparser.mzml;
+
+import java.io.IOException;
+
+/**
+ * Interface for creating the spectra of an {@link IndexedSpectrumList} when they
+ * are first accessed, for example by parsing the {@literal <spectrum>} tag from
+ * the file.
+ * 
+ * @author Alan Race
+ */
+public interface SpectrumLoader {
+    
+    /**
+     * Create the spectrum at the specified index of the list.
+     * 
+     * @param index Index of the spectrum within the list
+     * @return Spectrum
+     * @throws IOException Issue reading the spectrum
+     */
+    Spectrum loadSpectrum(int index) throws IOException;
+}
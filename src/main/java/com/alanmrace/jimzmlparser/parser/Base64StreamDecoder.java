@@ -0,0 +1,194 @@
+package com.alanmrace.jimzmlparser.parser;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Incremental Base64 decoder for the content of a binary element, which is
+ * supplied in arbitrary chunks of characters as reported by SAX. Characters are
+ * decoded as they arrive into a reusable buffer, which is written to the output
+ * stream whenever it is full, so the memory required does not depend on the size
+ * of the array. Any incomplete group of 4 characters is carried over to the next
+ * chunk.
+ *
+ * <p>Decoding follows the same lenient rules as Apache Commons Codec: characters
+ * outside of the Base64 alphabets (such as whitespace) are ignored, decoding
+ * stops at the first padding character and a trailing incomplete group is
+ * decoded as far as possible.
+ *
+ * @author Alan Race
+ */
+public class Base64StreamDecoder {
+
+    /**
+     * Default size in bytes of the buffer.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Padding character.
+     */
+    private static final char PAD = '=';
+
+    /**
+     * Value of each ASCII character in the standard and URL safe Base64
+     * alphabets, or -1 if the character is not part of either.
+     */
+    private static final byte[] DECODE_TABLE = new byte[128];
+
+    static {
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+        for (int i = 0; i < DECODE_TABLE.length; i++) {
+            DECODE_TABLE[i] = -1;
+        }
+
+        for (int i = 0; i < alphabet.length(); i++) {
+            DECODE_TABLE[alphabet.charAt(i)] = (byte) i;
+        }
+
+        DECODE_TABLE['-'] = 62;
+        DECODE_TABLE['_'] = 63;
+    }
+
+    /**
+     * Stream the decoded data is written to.
+     */
+    private final OutputStream out;
+
+    /**
+     * Buffer of decoded bytes not yet written to the stream.
+     */
+    private final byte[] buffer;
+
+    /**
+     * Number of bytes in the buffer.
+     */
+    private int count;
+
+    /**
+     * Bits of the current incomplete group of 4 characters.
+     */
+    private int bits;
+
+    /**
+     * Number of characters in the current incomplete group.
+     */
+    private int groupLength;
+
+    /**
+     * Whether a padding character has been reached, after which any further
+     * characters are ignored.
+     */
+    private boolean finished;
+
+    /**
+     * Number of bytes decoded since the last call to {@link #end()}.
+     */
+    private long length;
+
+    /**
+     * Create a Base64StreamDecoder with the default buffer size.
+     *
+     * @param out Stream to write the decoded data to
+     */
+    public Base64StreamDecoder(OutputStream out) {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create a Base64StreamDecoder.
+     *
+     * @param out Stream to write the decoded data to
+     * @param bufferSize Size in bytes of the buffer, at least 3
+     */
+    public Base64StreamDecoder(OutputStream out, int bufferSize) {
+        if (bufferSize < 3) {
+            throw new IllegalArgumentException("Invalid buffer size: " + bufferSize);
+        }
+
+        this.out = out;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Decode the next chunk of characters.
+     *
+     * @param ch Characters to decode
+     * @param start Index of the first character to decode
+     * @param length Number of characters to decode
+     * @throws IOException Issue writing to the stream
+     */
+    public void decode(char[] ch, int start, int length) throws IOException {
+        int end = start + length;
+
+        for (int i = start; i < end && !finished; i++) {
+            char c = ch[i];
+
+            if (c == PAD) {
+                finished = true;
+            } else if (c < DECODE_TABLE.length && DECODE_TABLE[c] >= 0) {
+                bits = (bits << 6) | DECODE_TABLE[c];
+
+                if (++groupLength == 4) {
+                    if (buffer.length - count < 3) {
+                        flushBuffer();
+                    }
+
+                    buffer[count++] = (byte) (bits >> 16);
+                    buffer[count++] = (byte) (bits >> 8);
+                    buffer[count++] = (byte) bits;
+
+                    this.length += 3;
+                    bits = 0;
+                    groupLength = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Decode any trailing incomplete group and write all decoded data to the
+     * stream, ready to decode the next element.
+     *
+     * @return Number of bytes decoded since the previous call to end()
+     * @throws IOException Issue writing to the stream
+     */
+    public long end() throws IOException {
+        if (buffer.length - count < 2) {
+            flushBuffer();
+        }
+
+        if (groupLength == 2) {
+            buffer[count++] = (byte) (bits >> 4);
+            length += 1;
+        } else if (groupLength == 3) {
+            buffer[count++] = (byte) (bits >> 10);
+            buffer[count++] = (byte) (bits >> 2);
+            length += 2;
+        }
+
+        flushBuffer();
+
+        long decodedLength = length;
+
+        bits = 0;
+        groupLength = 0;
+        finished = false;
+        length = 0;
+
+        return decodedLength;
+    }
+
+    /**
+     * Write the buffer to the stream.
+     *
+     * @throws IOException Issue writing to the stream
+     */
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+}
@@ -2,6 +2,10 @@ package com.alanmrace.jimzmlparser.parser;
 
 import com.alanmrace.jimzmlparser.data.DataLocation;
 import com.alanmrace.jimzmlparser.data.BinaryDataStorage;
+import com.alanmrace.jimzmlparser.data.DataStorage;
+import com.alanmrace.jimzmlparser.data.FileChannelDataStorage;
+import com.alanmrace.jimzmlparser.data.MappedDataStorage;
+import com.alanmrace.jimzmlparser.data.SharedDataLocation;
 import com.alanmrace.jimzmlparser.exceptions.FatalParseIssue;
 import com.alanmrace.jimzmlparser.exceptions.ImzMLParseException;
 import com.alanmrace.jimzmlparser.exceptions.InvalidExternalOffset;
@@ -61,6 +65,12 @@ public class ImzMLHandler extends MzMLHeaderHandler {
      */
     private long currentNumBytes;
 
+    /**
+     * DataLocation of the m/z array shared by every spectrum of continuous data,
+     * or null if none has been found yet.
+     */
+    private SharedDataLocation sharedmzLocation;
+
     /**
      * Boolean indicating whether 3D data exported from SCiLS has been detected.
      * This is determined by detecting a userParam with the name '3DPositionZ';
@@ -127,6 +137,38 @@ public class ImzMLHandler extends MzMLHeaderHandler {
         }
     }
 
+    /**
+     * Set up a SAX parser for imzML with the specified ontology dictionary,
+     * accessing the IBD file using the specified access mode.
+     *
+     * @param obo Ontology database
+     * @param ibdFile IBD file containing the binary data for the imzML file
+     * @param openDataStorage if true, open the binary data file, otherwise just
+     * process metadata
+     * @param accessMode Method used to access the binary data file
+     * @throws IOException If no IBD file could be found or it could not be opened
+     */
+    public ImzMLHandler(OBO obo, File ibdFile, boolean openDataStorage, DataStorage.AccessMode accessMode) throws IOException {
+        super(obo);
+
+        this.ibdFile = ibdFile;
+
+        if (openDataStorage) {
+            switch (accessMode) {
+                case MEMORY_MAPPED:
+                    this.dataStorage = new MappedDataStorage(ibdFile);
+                    break;
+                case POSITIONAL_READ:
+                    this.dataStorage = new FileChannelDataStorage(ibdFile);
+                    break;
+                case RANDOM_ACCESS_FILE:
+                default:
+                    this.dataStorage = new BinaryDataStorage(ibdFile, false);
+                    break;
+            }
+        }
+    }
+
     /**
      * Set up an ImzMLHandler, perform the parsing and return the ImzML
      * representation. Calls parseimzML(filename, true); defaulting to opening
@@ -171,6 +213,39 @@ public class ImzMLHandler extends MzMLHeaderHandler {
      * @throws ImzMLParseException If a fatal parse error occurs
      */
     public static ImzML parseimzML(String filename, boolean openDataStorage, ParserListener listener) throws ImzMLParseException {
+        return parseimzML(filename, openDataStorage, DataStorage.AccessMode.RANDOM_ACCESS_FILE, listener);
+    }
+
+    /**
+     * Set up an ImzMLHandler, perform the parsing and return the ImzML
+     * representation, opening the IBD binary data storage for reading using
+     * the specified access mode.
+     *
+     * @param filename Location of the imzML file
+     * @param accessMode Method used to access the IBD binary data storage
+     * @return ImzML representation of the imzML file
+     * @throws ImzMLParseException If a fatal parse error occurs
+     */
+    public static ImzML parseimzML(String filename, DataStorage.AccessMode accessMode) throws ImzMLParseException {
+        return parseimzML(filename, true, accessMode, null);
+    }
+
+    /**
+     * Set up an ImzMLHandler, perform the parsing and return the ImzML
+     * representation, optionally opening the IBD binary data storage for
+     * reading using the specified access mode. Optional inclusion of a 
+     * ParserListener which will be notified of any non-fatal parsing issues.
+     *
+     * @param filename Location of the imzML file
+     * @param openDataStorage true to open the IBD binary data storage, false to
+     * only parse metadata
+     * @param accessMode Method used to access the IBD binary data storage
+     * @param listener ParserListener which will be notified of any non-fatal
+     * parsing issues
+     * @return ImzML representation of the imzML file
+     * @throws ImzMLParseException If a fatal parse error occurs
+     */
+    public static ImzML parseimzML(String filename, boolean openDataStorage, DataStorage.AccessMode accessMode, ParserListener listener) throws ImzMLParseException {
         ImzMLHandler handler;
         InputStream inputStream = null;
 
@@ -180,7 +255,7 @@ public class ImzMLHandler extends MzMLHeaderHandler {
             File ibdFile = new File(filename.substring(0, filename.toLowerCase().lastIndexOf(".imzml")) + ".ibd");
 
             // Convert mzML header information -> imzML
-            handler = new ImzMLHandler(obo, ibdFile, openDataStorage);
+            handler = new ImzMLHandler(obo, ibdFile, openDataStorage, accessMode);
 
             if (listener != null) {
                 handler.registerParserListener(listener);
@@ -364,9 +439,19 @@ public class ImzMLHandler extends MzMLHeaderHandler {
                 currentBinaryDataArray.getCVParam(BinaryDataArray.EXTERNAL_OFFSET_ID).setValueAsString("" + currentOffset);
             }
 
-            DataLocation location = new DataLocation(this.dataStorage, currentOffset, (int) this.currentNumBytes);
-            currentBinaryDataArray.setDataLocation(location);
-            location.setDataTransformation(currentBinaryDataArray.generateDataTransformation());
+            if (currentBinaryDataArray.ismzArray() && mzML.getFileDescription().getFileContent().getCVParam(FileContent.BINARY_TYPE_CONTINUOUS_ID) != null) {
+                // Every spectrum of continuous data references the same m/z array, so decode it only once
+                if (sharedmzLocation == null || sharedmzLocation.getOffset() != currentOffset || sharedmzLocation.getLength() != (int) this.currentNumBytes) {
+                    sharedmzLocation = new SharedDataLocation(this.dataStorage, currentOffset, (int) this.currentNumBytes);
+                    sharedmzLocation.setDataTransformation(currentBinaryDataArray.generateDataTransformation());
+                }
+
+                currentBinaryDataArray.setDataLocation(sharedmzLocation);
+            } else {
+                DataLocation location = new DataLocation(this.dataStorage, currentOffset, (int) this.currentNumBytes);
+                currentBinaryDataArray.setDataLocation(location);
+                location.setDataTransformation(currentBinaryDataArray.generateDataTransformation());
+            }
         }
 
         if ("scan".equals(qName) && processingSCiLS3DData) {
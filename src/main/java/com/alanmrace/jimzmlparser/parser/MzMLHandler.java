@@ -18,7 +18,6 @@ import com.alanmrace.jimzmlparser.mzml.MzML;
 import com.alanmrace.jimzmlparser.obo.OBO;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.apache.commons.codec.binary.Base64;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
@@ -32,17 +31,19 @@ public class MzMLHandler extends MzMLHeaderHandler {
     protected File temporaryBinaryFile;
 
     protected DataOutputStream temporaryFileStream;
-    protected StringBuilder binaryData;
+    protected Base64StreamDecoder binaryDecoder;
     protected long offset = 0;
 
     public MzMLHandler(OBO obo, File temporaryBinaryFile) throws FileNotFoundException {
         super(obo);
 
-        binaryData = new StringBuilder();
         this.temporaryBinaryFile = temporaryBinaryFile;
         this.dataStorage = new BinaryDataStorage(temporaryBinaryFile, true);
 
         temporaryFileStream = new DataOutputStream(new FileOutputStream(temporaryBinaryFile));
+
+        // Binary data is decoded as it is read, straight to the temporary file
+        binaryDecoder = new Base64StreamDecoder(temporaryFileStream);
     }
 
     public static MzML parsemzML(String filename) throws MzMLParseException {
@@ -110,8 +111,6 @@ public class MzMLHandler extends MzMLHeaderHandler {
     @Override
     public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
         if ("binary".equals(qName)) {
-            binaryData.setLength(0);
-
             processingBinary = true;
         } else {
             super.startElement(uri, localName, qName, attributes);
@@ -121,7 +120,11 @@ public class MzMLHandler extends MzMLHeaderHandler {
     @Override
     public void characters(char[] ch, int start, int length) throws SAXException {
         if (processingBinary) {
-            binaryData.append(ch, start, length);
+            try {
+                binaryDecoder.decode(ch, start, length);
+            } catch (IOException ex) {
+                LOGGER.log(Level.SEVERE, null, ex);
+            }
         } else {
             super.characters(ch, start, length);
         }
@@ -130,13 +133,10 @@ public class MzMLHandler extends MzMLHeaderHandler {
     @Override
     public void endElement(String uri, String localName, String qName) throws SAXException {
         if ("binary".equals(qName)) {
-            // Convert the data from base 64
-            byte[] processedData = Base64.decodeBase64(binaryData.toString().getBytes());
-
-            int lengthToWrite = processedData.length;
+            int lengthToWrite = 0;
 
             try {
-                temporaryFileStream.write(processedData, 0, lengthToWrite);
+                lengthToWrite = (int) binaryDecoder.end();
             } catch (IOException ex) {
                 LOGGER.log(Level.SEVERE, null, ex);
             }
@@ -3,6 +3,7 @@ package com.alanmrace.jimzmlparser.parser;
 import com.alanmrace.jimzmlparser.data.MzMLSpectrumDataStorage;
 import com.alanmrace.jimzmlparser.data.DataLocation;
 import com.alanmrace.jimzmlparser.data.DataStorage;
+import com.alanmrace.jimzmlparser.data.DataStorageInputStream;
 import com.alanmrace.jimzmlparser.exceptions.CVParamAccessionNotFoundIssue;
 import com.alanmrace.jimzmlparser.exceptions.FatalParseIssue;
 import com.alanmrace.jimzmlparser.exceptions.FatalRuntimeParseException;
@@ -77,6 +78,12 @@ public class MzMLHeaderHandler extends DefaultHandler {
      */
     private static final Logger LOGGER = Logger.getLogger(MzMLHeaderHandler.class.getName());
 
+    /**
+     * Number of bytes before the first chromatogram searched for the
+     * {@literal <chromatogramList>} tag when parsing an indexed mzML file.
+     */
+    private static final int CHROMATOGRAM_LIST_SEARCH_LENGTH = 4096;
+
     /**
      * SAX document locator. TODO: Why is it used?
      */
@@ -319,6 +326,23 @@ public class MzMLHeaderHandler extends DefaultHandler {
 
     private List<ParserListener> listeners;
 
+    /**
+     * Index of the mzML file when only the header is parsed and spectra are loaded
+     * when accessed, or null if the whole file is parsed.
+     */
+    private MzMLIndex index;
+
+    /**
+     * True while parsing a single {@literal <spectrum>} tag for an
+     * IndexedSpectrumList, in which case the spectrum is not added to the list.
+     */
+    private boolean loadingSpectrum;
+
+    /**
+     * Name of the tag after which parsing stops, or null to parse to the end.
+     */
+    private String stopElement;
+
     /**
      * Set up a SAX parser for MzML metadata with the specified ontology
      * dictionary.
@@ -339,6 +363,37 @@ public class MzMLHeaderHandler extends DefaultHandler {
         listeners = new LinkedList<ParserListener>();
     }
 
+    /**
+     * Set up a SAX parser which continues from where the supplied parser stopped,
+     * sharing the MzML being built and the state needed to resolve references.
+     * Used to parse individual tags on demand from an indexed mzML file.
+     *
+     * @param header Parser which has parsed the header of the mzML file
+     */
+    MzMLHeaderHandler(MzMLHeaderHandler header) {
+        this(header.obo);
+
+        mzML = header.mzML;
+        cvList = header.cvList;
+        fileDescription = header.fileDescription;
+        sourceFileList = header.sourceFileList;
+        referenceableParamGroupList = header.referenceableParamGroupList;
+        sampleList = header.sampleList;
+        softwareList = header.softwareList;
+        scanSettingsList = header.scanSettingsList;
+        instrumentConfigurationList = header.instrumentConfigurationList;
+        dataProcessingList = header.dataProcessingList;
+        run = header.run;
+        spectrumList = header.spectrumList;
+        chromatogramList = header.chromatogramList;
+        contentStack.addAll(header.contentStack);
+
+        dataStorage = header.dataStorage;
+        openDataStorage = header.openDataStorage;
+        index = header.index;
+        listeners = header.listeners;
+    }
+
     @Override
     public void setDocumentLocator(Locator locator) {
         this.locator = locator;
@@ -365,6 +420,24 @@ public class MzMLHeaderHandler extends DefaultHandler {
         }
     }
 
+    /**
+     * Set up a SAX parser for MzML metadata with the specified ontology dictionary,
+     * accessing the data within the mzML file using the specified access mode.
+     *
+     * @param obo Ontology database
+     * @param mzMLFile mzML file
+     * @param openDataFile true if the data file should be opened
+     * @param accessMode Method used to access the data within the mzML file
+     * @throws IOException Issue opening (or mapping) the mzML file
+     */
+    public MzMLHeaderHandler(OBO obo, File mzMLFile, boolean openDataFile, DataStorage.AccessMode accessMode) throws IOException {
+        this(obo);
+
+        if (openDataFile) {
+            this.dataStorage = new MzMLSpectrumDataStorage(mzMLFile, accessMode);
+        }
+    }
+
     public void registerParserListener(ParserListener listener) {        
         this.listeners.add(listener);
         
@@ -392,6 +465,14 @@ public class MzMLHeaderHandler extends DefaultHandler {
     }
 
     public static MzML parsemzMLHeader(String filename, boolean openDataFile, ParserListener listener) throws MzMLParseException {
+        return parsemzMLHeader(filename, openDataFile, DataStorage.AccessMode.RANDOM_ACCESS_FILE, listener);
+    }
+
+    public static MzML parsemzMLHeader(String filename, DataStorage.AccessMode accessMode) throws MzMLParseException {
+        return parsemzMLHeader(filename, true, accessMode, null);
+    }
+
+    public static MzML parsemzMLHeader(String filename, boolean openDataFile, DataStorage.AccessMode accessMode, ParserListener listener) throws MzMLParseException {
         OBO obo = OBO.getOBO();
 
         RandomAccessFile raf = null;
@@ -400,7 +481,7 @@ public class MzMLHeaderHandler extends DefaultHandler {
 
         try {
             // Parse mzML
-            handler = new MzMLHeaderHandler(obo, new File(filename), openDataFile);
+            handler = new MzMLHeaderHandler(obo, new File(filename), openDataFile, accessMode);
             handler.setOpenDataStorage(openDataFile);
 
             if (listener != null) {
@@ -459,6 +540,121 @@ public class MzMLHeaderHandler extends DefaultHandler {
         return handler.getmzML();
     }
 
+    /**
+     * Open an indexed mzML file by parsing only its index and header. The
+     * {@literal <indexListOffset>} tag at the end of the file is used to parse the
+     * {@literal <indexList>} tag, after which the file is parsed up to the
+     * {@literal <spectrumList>} tag, followed by the {@literal <chromatogramList>}
+     * tag (if present). Each {@literal <spectrum>} tag is only parsed when the
+     * spectrum is first accessed through the {@link IndexedSpectrumList}, so the
+     * time taken to open the file does not depend on the number of spectra.
+     *
+     * <p>If the file is not indexed, or the index cannot be read, the whole file is
+     * parsed as by {@link #parsemzMLHeader(String)}.
+     *
+     * @param filename mzML file to open
+     * @return MzML, with spectra loaded when accessed
+     * @throws MzMLParseException Issue parsing the file
+     */
+    public static MzML parseIndexedmzML(String filename) throws MzMLParseException {
+        return parseIndexedmzML(filename, true, DataStorage.AccessMode.RANDOM_ACCESS_FILE, null);
+    }
+
+    /**
+     * Open an indexed mzML file by parsing only its index and header, as described
+     * in {@link #parseIndexedmzML(String)}. The mzML file remains open while the
+     * MzML is in use, as spectra are read from it when accessed.
+     *
+     * @param filename mzML file to open
+     * @param openDataFile true if the data of each spectrum should be accessible
+     * @param accessMode Method used to access the mzML file
+     * @param listener Listener notified of any issues found, or null
+     * @return MzML, with spectra loaded when accessed
+     * @throws MzMLParseException Issue parsing the file
+     */
+    public static MzML parseIndexedmzML(String filename, boolean openDataFile, DataStorage.AccessMode accessMode, ParserListener listener) throws MzMLParseException {
+        File file = new File(filename);
+        MzMLIndex index;
+
+        try {
+            index = MzMLIndex.read(file);
+        } catch (IOException ex) {
+            Logger.getLogger(MzMLHeaderHandler.class.getName()).log(Level.SEVERE, null, ex);
+
+            throw new MzMLParseException(new FatalParseIssue("IOException: " + ex, ex.getLocalizedMessage()), ex);
+        }
+
+        if (index == null || !index.hasIndex(MzMLIndex.SPECTRUM_INDEX)) {
+            LOGGER.log(Level.FINE, "No index found in {0}, so parsing the whole file", filename);
+
+            return parsemzMLHeader(filename, openDataFile, accessMode, listener);
+        }
+
+        OBO obo = OBO.getOBO();
+
+        RandomAccessFile raf = null;
+        InputStream is = null;
+        MzMLHeaderHandler handler;
+
+        try {
+            // The file is always opened, as the spectra are read from it when accessed
+            handler = new MzMLHeaderHandler(obo, file, true, accessMode);
+            handler.setOpenDataStorage(openDataFile);
+            handler.index = index;
+
+            if (listener != null) {
+                handler.registerParserListener(listener);
+            }
+
+            raf = new RandomAccessFile(filename, "r");
+            is = Channels.newInputStream(raf.getChannel());
+
+            try {
+                SAXParserFactory.newInstance().newSAXParser().parse(is, handler);
+            } catch (StopParsingException ex) {
+                // Reached the spectrumList, so parse the chromatograms which follow it
+                handler.parseChromatogramList();
+            }
+
+            handler.getmzML().setOBO(obo);
+        } catch (FatalRuntimeParseException runtimeException) {
+            throw new MzMLParseException(runtimeException.getIssue(), runtimeException);
+        } catch (SAXException ex) {
+            LOGGER.log(Level.SEVERE, null, ex);
+
+            throw new MzMLParseException(new InvalidMzMLIssue("SAXException: " + ex, ex.getLocalizedMessage()), ex);
+        } catch (FileNotFoundException ex) {
+            Logger.getLogger(MzMLHeaderHandler.class.getName()).log(Level.SEVERE, null, ex);
+
+            throw new MzMLParseException(new FatalParseIssue("File not found: " + filename, ex.getLocalizedMessage()), ex);
+        } catch (IOException ex) {
+            Logger.getLogger(MzMLHeaderHandler.class.getName()).log(Level.SEVERE, null, ex);
+
+            throw new MzMLParseException(new FatalParseIssue("IOException: " + ex, ex.getLocalizedMessage()), ex);
+        } catch (ParserConfigurationException ex) {
+            Logger.getLogger(MzMLHeaderHandler.class.getName()).log(Level.SEVERE, null, ex);
+
+            throw new MzMLParseException(new FatalParseIssue("ParserConfigurationException: " + ex, ex.getLocalizedMessage()), ex);
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException ex) {
+                    Logger.getLogger(MzMLHeaderHandler.class.getName()).log(Level.SEVERE, null, ex);
+                }
+            }
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ex) {
+                    Logger.getLogger(MzMLHeaderHandler.class.getName()).log(Level.SEVERE, null, ex);
+                }
+            }
+        }
+
+        return handler.getmzML();
+    }
+
     protected int getCountAttribute(Attributes attributes) {
         String countString = attributes.getValue(COUNT_ATTRIBUTE_NAME);
         int count;
@@ -978,7 +1174,11 @@ public class MzMLHeaderHandler extends DefaultHandler {
             //spectrumList = new SpectrumList(Integer.parseInt(attributes.getValue("count")), dataProcessingList.getDataProcessing(0));
         }
 
-        spectrumList = new SpectrumList(numberOfSpectra, dataProcessing);
+        if (index != null && index.hasIndex(MzMLIndex.SPECTRUM_INDEX)) {
+            spectrumList = new IndexedSpectrumList(dataProcessing, index.getIDs(MzMLIndex.SPECTRUM_INDEX), new IndexedSpectrumLoader());
+        } else {
+            spectrumList = new SpectrumList(numberOfSpectra, dataProcessing);
+        }
 
         if (run == null) {
             throw new FatalRuntimeParseException(new InvalidMzMLIssue("<run> tag not defined prior to defining <spectrumList> tag."));
@@ -1049,10 +1249,13 @@ public class MzMLHeaderHandler extends DefaultHandler {
 
         processingSpectrum = true;
 
-        try {
-            spectrumList.addSpectrum(currentSpectrum);
-        } catch (NullPointerException ex) {
-            throw new FatalRuntimeParseException(new InvalidMzMLIssue("<spectrumList> tag not defined prior to defining <spectrum> tag.", ex.getLocalizedMessage()), ex);
+        // Spectra loaded on demand are placed in the IndexedSpectrumList by the list itself
+        if (!loadingSpectrum) {
+            try {
+                spectrumList.addSpectrum(currentSpectrum);
+            } catch (NullPointerException ex) {
+                throw new FatalRuntimeParseException(new InvalidMzMLIssue("<spectrumList> tag not defined prior to defining <spectrum> tag.", ex.getLocalizedMessage()), ex);
+            }
         }
 
         contentStack.push(currentSpectrum);
@@ -1553,6 +1756,11 @@ public class MzMLHeaderHandler extends DefaultHandler {
             startRun(attributes);
         } else if ("spectrumList".equals(qName)) {
             startSpectrumList(attributes);
+
+            if (spectrumList instanceof IndexedSpectrumList) {
+                // The spectra are parsed when accessed, so the header is complete
+                throw new StopParsingException();
+            }
         } else if ("spectrum".equals(qName)) {
             startSpectrum(attributes);
         } else if ("scanList".equals(qName)) {
@@ -1775,9 +1983,10 @@ public class MzMLHeaderHandler extends DefaultHandler {
         if ("spectrum".equals(qName)) {
             processingSpectrum = false;
 
-            // Try and tidy up spectrum
+            // Try and tidy up spectrum. Spectra loaded on demand are left as they are,
+            // as the ReferenceableParamGroupList may already have been written out
             CVParam cvParam = currentSpectrum.getCVParamOrChild("MS:1000294");
-            if (currentSpectrum.containsCVParam(cvParam)) {
+            if (!loadingSpectrum && currentSpectrum.containsCVParam(cvParam)) {
                 ReferenceableParamGroup bestGroup = currentSpectrum.findBestFittingRPG(referenceableParamGroupList);
 
                 if (bestGroup == null) {
@@ -1802,7 +2011,7 @@ public class MzMLHeaderHandler extends DefaultHandler {
         } else if ("scan".equals(qName)) {
             // Try and tidy up scan
             CVParam cvParam = currentScan.getCVParamOrChild("MS:1000616");
-            if (currentScan.containsCVParam(cvParam)) {
+            if (!loadingSpectrum && currentScan.containsCVParam(cvParam)) {
                 ReferenceableParamGroup bestGroup = currentScan.findBestFittingRPG(referenceableParamGroupList);
 
                 if (bestGroup == null) {
@@ -1824,7 +2033,7 @@ public class MzMLHeaderHandler extends DefaultHandler {
                 currentScan.replaceCVParamsWithRPG(bestGroup);
             }
         } else if ("scanWindow".equals(qName)) {
-            if (contentStack.peek() instanceof MzMLContentWithParams) {
+            if (!loadingSpectrum && contentStack.peek() instanceof MzMLContentWithParams) {
                 CVParam cvParam = ((MzMLContentWithParams) contentStack.peek()).getCVParamOrChild("MS:1000501");
 
                 if (((MzMLContentWithParams) contentStack.peek()).containsCVParam(cvParam)) {
@@ -1885,6 +2094,148 @@ public class MzMLHeaderHandler extends DefaultHandler {
                 && !qName.equals("index") && !qName.equals("indexList") && !qName.equals("offset") && !qName.equals("indexListOffset")
                 && !qName.equals("fileChecksum"))
             contentStack.pop();
+
+        if (qName.equals(stopElement)) {
+            throw new StopParsingException();
+        }
+    }
+
+    /**
+     * Parse the part of the mzML file between the specified offsets with this
+     * handler, which is expected to start with a single tag and to stop parsing
+     * at the end of it (see {@link #stopElement}).
+     *
+     * @param offset Offset within the file of the start of the tag
+     * @param end Offset within the file beyond which the tag cannot extend
+     * @throws IOException Issue reading or parsing the tag
+     */
+    private void parseFragment(long offset, long end) throws IOException {
+        InputStream is = new DataStorageInputStream(dataStorage, offset, end - offset);
+
+        try {
+            SAXParserFactory.newInstance().newSAXParser().parse(is, this);
+        } catch (StopParsingException ex) {
+            // Reached the end of the tag
+        } catch (SAXException ex) {
+            throw new IOException("Failed to parse mzML at offset " + offset + ": " + ex.getMessage(), ex);
+        } catch (ParserConfigurationException ex) {
+            throw new IOException(ex);
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Parse the {@literal <spectrum>} tag at the specified index of the spectrum
+     * index.
+     *
+     * @param spectrumIndex Index of the spectrum
+     * @return Spectrum
+     * @throws IOException Issue reading or parsing the spectrum
+     */
+    private Spectrum loadSpectrum(int spectrumIndex) throws IOException {
+        long offset = index.getOffset(MzMLIndex.SPECTRUM_INDEX, spectrumIndex);
+        long end = index.getEndOffset(MzMLIndex.SPECTRUM_INDEX, spectrumIndex);
+        String id = index.getIDs(MzMLIndex.SPECTRUM_INDEX).get(spectrumIndex);
+
+        // A new handler is used for each spectrum, as loading one spectrum can 
+        // require another (through a precursor spectrumRef)
+        MzMLHeaderHandler handler = new MzMLHeaderHandler(this);
+        handler.loadingSpectrum = true;
+        handler.stopElement = "spectrum";
+
+        handler.parseFragment(offset, end);
+
+        Spectrum spectrum = handler.currentSpectrum;
+
+        if (spectrum == null || !id.equals(spectrum.getID())) {
+            throw new IOException("Spectrum '" + id + "' not found at offset " + offset);
+        }
+
+        if (openDataStorage) {
+            spectrum.setDataLocation(new DataLocation(dataStorage, offset, (int) (end - offset)));
+            spectrum.ensureLoadableData();
+        }
+
+        return spectrum;
+    }
+
+    /**
+     * Parse the {@literal <chromatogramList>} tag which follows the
+     * {@literal <spectrumList>} tag, locating it from the offset of the first
+     * chromatogram in the index.
+     *
+     * @throws IOException Issue reading or parsing the chromatograms
+     */
+    private void parseChromatogramList() throws IOException {
+        List<String> chromatogramIDs = index.getIDs(MzMLIndex.CHROMATOGRAM_INDEX);
+
+        if (chromatogramIDs.isEmpty()) {
+            return;
+        }
+
+        // The <chromatogramList> tag immediately precedes the first chromatogram
+        long firstOffset = index.getOffset(MzMLIndex.CHROMATOGRAM_INDEX, 0);
+        int searchLength = (int) Math.min(firstOffset, CHROMATOGRAM_LIST_SEARCH_LENGTH);
+        String preceding = new String(dataStorage.getData(firstOffset - searchLength, searchLength), "ISO-8859-1");
+        int tagStart = preceding.lastIndexOf("<chromatogramList");
+
+        if (tagStart == -1) {
+            throw new IOException("<chromatogramList> not found before offset " + firstOffset);
+        }
+
+        // Leave the spectrumList, as the end of the tag was not parsed
+        if (!contentStack.isEmpty() && contentStack.peek() == spectrumList) {
+            contentStack.pop();
+        }
+
+        processingSpectrum = false;
+        stopElement = "chromatogramList";
+
+        parseFragment(firstOffset - searchLength + tagStart, index.getIndexListOffset());
+
+        stopElement = null;
+
+        if (openDataStorage && chromatogramList != null) {
+            for (int i = 0; i < chromatogramIDs.size(); i++) {
+                Chromatogram chromatogram = chromatogramList.getChromatogram(chromatogramIDs.get(i));
+
+                if (chromatogram != null) {
+                    long offset = index.getOffset(MzMLIndex.CHROMATOGRAM_INDEX, i);
+                    long end = index.getEndOffset(MzMLIndex.CHROMATOGRAM_INDEX, i);
+
+                    chromatogram.setDataLocation(new DataLocation(dataStorage, offset, (int) (end - offset)));
+                }
+            }
+        }
+    }
+
+    /**
+     * SpectrumLoader parsing each spectrum from the indexed mzML file when it is
+     * first accessed.
+     */
+    private class IndexedSpectrumLoader implements SpectrumLoader {
+
+        @Override
+        public Spectrum loadSpectrum(int spectrumIndex) throws IOException {
+            return MzMLHeaderHandler.this.loadSpectrum(spectrumIndex);
+        }
+    }
+
+    /**
+     * Thrown to stop parsing once the required part of the mzML file has been
+     * parsed.
+     */
+    private static class StopParsingException extends SAXException {
+
+        /**
+         * Serialisation version ID.
+         */
+        private static final long serialVersionUID = 1L;
+
+        StopParsingException() {
+            super("Parsing stopped");
+        }
     }
 
     public MzML getmzML() {
@@ -0,0 +1,316 @@
+package com.alanmrace.jimzmlparser.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Index of an indexed mzML file, giving the offset within the file of each
+ * {@literal <spectrum>} and {@literal <chromatogram>} tag by ID. The index is read
+ * by locating the {@literal <indexListOffset>} tag at the end of the file and then
+ * parsing only the {@literal <indexList>} tag, so does not require the rest of the
+ * file to be read.
+ *
+ * @author Alan Race
+ */
+public class MzMLIndex {
+
+    /**
+     * Class logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(MzMLIndex.class.getName());
+
+    /**
+     * Name of the index of spectra.
+     */
+    public static final String SPECTRUM_INDEX = "spectrum";
+
+    /**
+     * Name of the index of chromatograms.
+     */
+    public static final String CHROMATOGRAM_INDEX = "chromatogram";
+
+    /**
+     * Number of bytes at the end of the file searched for the {@literal <indexListOffset>}
+     * tag, which only has the {@literal <fileChecksum>} tag after it.
+     */
+    private static final int TAIL_SIZE = 4096;
+
+    /**
+     * Pattern matching the {@literal <indexListOffset>} tag.
+     */
+    private static final Pattern INDEX_LIST_OFFSET_PATTERN = Pattern.compile("<indexListOffset>\\s*(\\d+)\\s*</indexListOffset>");
+
+    /**
+     * Offset within the file of the {@literal <indexList>} tag.
+     */
+    private final long indexListOffset;
+
+    /**
+     * IDs of each entry in each index, by index name.
+     */
+    private final Map<String, List<String>> ids = new HashMap<String, List<String>>();
+
+    /**
+     * Offsets of each entry in each index, by index name.
+     */
+    private final Map<String, long[]> offsets = new HashMap<String, long[]>();
+
+    /**
+     * Create an empty index.
+     *
+     * @param indexListOffset Offset within the file of the {@literal <indexList>} tag
+     */
+    protected MzMLIndex(long indexListOffset) {
+        this.indexListOffset = indexListOffset;
+    }
+
+    /**
+     * Read the index of an indexed mzML file.
+     *
+     * @param file mzML file
+     * @return Index, or null if the file is not indexed or the index could not be read
+     * @throws IOException Issue reading the file
+     */
+    public static MzMLIndex read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        try {
+            long length = raf.length();
+            int tailSize = (int) Math.min(length, TAIL_SIZE);
+            byte[] tail = new byte[tailSize];
+
+            raf.seek(length - tailSize);
+            raf.readFully(tail);
+
+            Matcher matcher = INDEX_LIST_OFFSET_PATTERN.matcher(new String(tail, "ISO-8859-1"));
+            long indexListOffset = -1;
+
+            // Use the last match, in case an earlier one is within a comment
+            while (matcher.find()) {
+                indexListOffset = Long.parseLong(matcher.group(1));
+            }
+
+            if (indexListOffset < 0 || indexListOffset >= length) {
+                return null;
+            }
+
+            MzMLIndex index = new MzMLIndex(indexListOffset);
+
+            raf.seek(indexListOffset);
+            InputStream is = Channels.newInputStream(raf.getChannel());
+
+            try {
+                SAXParserFactory.newInstance().newSAXParser().parse(is, index.new IndexListHandler());
+            } catch (EndOfIndexList ex) {
+                // Parsed the whole of the indexList
+            }
+
+            return index;
+        } catch (NumberFormatException ex) {
+            // Stale or invalid indices are common, and the whole file is parsed instead
+            LOGGER.log(Level.INFO, "Ignoring invalid index of {0}: {1}", new Object[] {file, ex.getMessage()});
+        } catch (SAXException ex) {
+            LOGGER.log(Level.INFO, "Ignoring invalid index of {0}: {1}", new Object[] {file, ex.getMessage()});
+        } catch (ParserConfigurationException ex) {
+            LOGGER.log(Level.WARNING, "Failed to read index of " + file, ex);
+        } finally {
+            raf.close();
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the offset within the file of the {@literal <indexList>} tag, which
+     * follows the last spectrum or chromatogram.
+     *
+     * @return Offset in bytes
+     */
+    public long getIndexListOffset() {
+        return indexListOffset;
+    }
+
+    /**
+     * Check whether the index with the specified name exists.
+     *
+     * @param name Name of the index, such as {@link #SPECTRUM_INDEX}
+     * @return true if the index exists
+     */
+    public boolean hasIndex(String name) {
+        return ids.containsKey(name);
+    }
+
+    /**
+     * Get the IDs of each entry in the index with the specified name, in order.
+     *
+     * @param name Name of the index, such as {@link #SPECTRUM_INDEX}
+     * @return IDs, which are empty if the index does not exist
+     */
+    public List<String> getIDs(String name) {
+        List<String> indexIDs = ids.get(name);
+
+        if (indexIDs == null) {
+            return Collections.emptyList();
+        }
+
+        return Collections.unmodifiableList(indexIDs);
+    }
+
+    /**
+     * Get the offset within the file of an entry in the index with the specified name.
+     *
+     * @param name Name of the index, such as {@link #SPECTRUM_INDEX}
+     * @param entry Index of the entry
+     * @return Offset in bytes
+     */
+    public long getOffset(String name, int entry) {
+        return offsets.get(name)[entry];
+    }
+
+    /**
+     * Get the offset within the file at which an entry in the index with the
+     * specified name ends. This is the offset of the next entry in any index, or
+     * the offset of the {@literal <indexList>} tag for the final entry in the file,
+     * so may include whitespace and closing tags after the entry.
+     *
+     * @param name Name of the index, such as {@link #SPECTRUM_INDEX}
+     * @param entry Index of the entry
+     * @return Offset in bytes
+     */
+    public long getEndOffset(String name, int entry) {
+        long[] indexOffsets = offsets.get(name);
+        long offset = indexOffsets[entry];
+
+        if (entry + 1 < indexOffsets.length && indexOffsets[entry + 1] > offset) {
+            return indexOffsets[entry + 1];
+        }
+
+        // Last entry in this index, so may be followed by the entries of another
+        long end = indexListOffset;
+
+        for (long[] otherOffsets : offsets.values()) {
+            for (long otherOffset : otherOffsets) {
+                if (otherOffset > offset && otherOffset < end) {
+                    end = otherOffset;
+                }
+            }
+        }
+
+        return end;
+    }
+
+    /**
+     * SAX handler for the {@literal <indexList>} tag, which stops parsing once
+     * the end of the tag is reached.
+     */
+    private class IndexListHandler extends DefaultHandler {
+
+        /**
+         * Name of the index currently being parsed.
+         */
+        private String currentName;
+
+        /**
+         * IDs of the index currently being parsed.
+         */
+        private List<String> currentIDs;
+
+        /**
+         * Offsets of the index currently being parsed.
+         */
+        private List<Long> currentOffsets;
+
+        /**
+         * ID of the offset currently being parsed, or null if not within an
+         * {@literal <offset>} tag.
+         */
+        private String currentIDRef;
+
+        /**
+         * Contents of the {@literal <offset>} tag currently being parsed.
+         */
+        private final StringBuilder offsetData = new StringBuilder();
+
+        /**
+         * Whether the {@literal <indexList>} tag has been found.
+         */
+        private boolean processingIndexList;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+            if ("indexList".equals(qName)) {
+                processingIndexList = true;
+            } else if (!processingIndexList) {
+                throw new SAXException("Expected <indexList> at offset " + indexListOffset + " but found <" + qName + ">");
+            } else if ("index".equals(qName)) {
+                currentName = attributes.getValue("name");
+                currentIDs = new ArrayList<String>();
+                currentOffsets = new ArrayList<Long>();
+            } else if ("offset".equals(qName)) {
+                currentIDRef = attributes.getValue("idRef");
+                offsetData.setLength(0);
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            if (currentIDRef != null) {
+                offsetData.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            if ("offset".equals(qName)) {
+                currentIDs.add(currentIDRef);
+                currentOffsets.add(Long.parseLong(offsetData.toString().trim()));
+
+                currentIDRef = null;
+            } else if ("index".equals(qName)) {
+                long[] indexOffsets = new long[currentOffsets.size()];
+
+                for (int i = 0; i < indexOffsets.length; i++) {
+                    indexOffsets[i] = currentOffsets.get(i);
+                }
+
+                ids.put(currentName, currentIDs);
+                offsets.put(currentName, indexOffsets);
+            } else if ("indexList".equals(qName)) {
+                throw new EndOfIndexList();
+            }
+        }
+    }
+
+    /**
+     * Thrown to stop parsing at the end of the {@literal <indexList>} tag, rather
+     * than at the end of the file.
+     */
+    private static class EndOfIndexList extends SAXException {
+
+        /**
+         * Serialisation version ID.
+         */
+        private static final long serialVersionUID = 1L;
+
+        EndOfIndexList() {
+            super("End of indexList");
+        }
+    }
+}
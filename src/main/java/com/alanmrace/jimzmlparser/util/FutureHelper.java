@@ -0,0 +1,54 @@
+package com.alanmrace.jimzmlparser.util;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Helper methods for waiting on tasks submitted to an ExecutorService.
+ *
+ * @author Alan Race
+ */
+public class FutureHelper {
+
+    private FutureHelper() {
+        // No constructor required for this class.
+    }
+
+    /**
+     * Wait for the result of a Future, rethrowing any exception that occurred.
+     * IOException, RuntimeException and Error thrown by the task are rethrown
+     * as they are, any other checked exception is wrapped in an IOException.
+     * If the thread is interrupted while waiting, the interrupt status is
+     * restored and an IOException is thrown.
+     *
+     * @param <T> Type of the result
+     * @param future Future to wait for
+     * @param activity Description of what the task is doing, used in the message when interrupted
+     * @return Result
+     * @throws IOException IOException thrown by the task, or any other checked exception wrapped
+     */
+    public static <T> T getResult(Future<T> future, String activity) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+
+            throw new IOException("Interrupted while " + activity, ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw new IOException(cause);
+        }
+    }
+}
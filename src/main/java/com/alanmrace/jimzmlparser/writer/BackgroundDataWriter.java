@@ -0,0 +1,455 @@
+package com.alanmrace.jimzmlparser.writer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writer of binary data to a file, where the data is written and the checksum
+ * calculated on background threads. Data is copied into one of a small number of
+ * large buffers. Each full buffer is written to the file by a dedicated I/O thread
+ * and then passed to a second thread which updates the checksum, before being
+ * reused. The thread supplying the data only waits if all buffers are in use, so
+ * preparing the data, writing it and calculating the checksum all overlap.
+ *
+ * <p>Every buffer other than the last is written in full, so all writes are of
+ * the same large size and start at a multiple of that size within the file. The
+ * position at which the next data will be written is tracked as data is supplied,
+ * so does not require the buffered data to be written first.
+ *
+ * <p>Any error on a background thread is reported by the next call to
+ * {@link #write(byte[], int, int)}, {@link #flush()} or {@link #close()}. If
+ * writing fails elsewhere, {@link #abort()} stops the background threads and
+ * closes the file without writing any outstanding data.
+ *
+ * @author Alan Race
+ */
+public class BackgroundDataWriter {
+
+    /**
+     * Default size in bytes of each buffer.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Default number of buffers.
+     */
+    public static final int DEFAULT_BUFFER_COUNT = 3;
+
+    /**
+     * Marker passed between the threads to signal that there is no more data.
+     */
+    private static final ByteBuffer END_OF_DATA = ByteBuffer.allocate(0);
+
+    /**
+     * File the data is written to.
+     */
+    private final RandomAccessFile file;
+
+    /**
+     * Channel of the file the data is written to.
+     */
+    private final FileChannel channel;
+
+    /**
+     * Digest updated with all data written, or null if no checksum is calculated.
+     */
+    private final MessageDigest messageDigest;
+
+    /**
+     * Number of buffers.
+     */
+    private final int bufferCount;
+
+    /**
+     * Buffers available to be filled.
+     */
+    private final BlockingQueue<ByteBuffer> freeBuffers;
+
+    /**
+     * Full buffers waiting to be written to the file.
+     */
+    private final BlockingQueue<ByteBuffer> writeQueue;
+
+    /**
+     * Written buffers waiting to be added to the checksum.
+     */
+    private final BlockingQueue<ByteBuffer> digestQueue;
+
+    /**
+     * Thread writing buffers to the file.
+     */
+    private final Thread writeThread;
+
+    /**
+     * Thread adding buffers to the checksum, or null if no checksum is calculated.
+     */
+    private final Thread digestThread;
+
+    /**
+     * Buffer currently being filled, or null if none.
+     */
+    private ByteBuffer currentBuffer;
+
+    /**
+     * Position in the file at which the next data will be written.
+     */
+    private long position;
+
+    /**
+     * First error which occurred on a background thread, or null if none.
+     */
+    private volatile IOException failure;
+
+    /**
+     * Whether the writer has been closed.
+     */
+    private boolean closed;
+
+    /**
+     * Create a BackgroundDataWriter with the default number and size of buffers.
+     * Any existing content of the file is discarded.
+     *
+     * @param file File to write to
+     * @param messageDigest Digest to update with all data written, or null to not calculate a checksum
+     * @throws IOException Issue opening the file
+     */
+    public BackgroundDataWriter(File file, MessageDigest messageDigest) throws IOException {
+        this(file, messageDigest, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT);
+    }
+
+    /**
+     * Create a BackgroundDataWriter. Any existing content of the file is discarded.
+     *
+     * @param file File to write to
+     * @param messageDigest Digest to update with all data written, or null to not calculate a checksum
+     * @param bufferSize Size in bytes of each buffer
+     * @param bufferCount Number of buffers, at least 2
+     * @throws IOException Issue opening the file
+     */
+    public BackgroundDataWriter(File file, MessageDigest messageDigest, int bufferSize, int bufferCount) throws IOException {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Invalid buffer size: " + bufferSize);
+        }
+
+        if (bufferCount < 2) {
+            throw new IllegalArgumentException("Invalid buffer count: " + bufferCount);
+        }
+
+        this.file = new RandomAccessFile(file, "rw");
+        this.file.setLength(0);
+        this.channel = this.file.getChannel();
+        this.messageDigest = messageDigest;
+        this.bufferCount = bufferCount;
+
+        freeBuffers = new ArrayBlockingQueue<ByteBuffer>(bufferCount);
+        writeQueue = new ArrayBlockingQueue<ByteBuffer>(bufferCount + 1);
+        digestQueue = new ArrayBlockingQueue<ByteBuffer>(bufferCount + 1);
+
+        for (int i = 0; i < bufferCount; i++) {
+            freeBuffers.add(ByteBuffer.allocateDirect(bufferSize));
+        }
+
+        writeThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeBuffers();
+            }
+        }, "BackgroundDataWriter I/O " + file.getName());
+        writeThread.setDaemon(true);
+        writeThread.start();
+
+        if (messageDigest != null) {
+            digestThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    digestBuffers();
+                }
+            }, "BackgroundDataWriter checksum " + file.getName());
+            digestThread.setDaemon(true);
+            digestThread.start();
+        } else {
+            digestThread = null;
+        }
+    }
+
+    /**
+     * Write all of the supplied data.
+     *
+     * @param data Data to write
+     * @throws IOException Issue writing earlier data, or the writer is closed
+     */
+    public void write(byte[] data) throws IOException {
+        write(data, 0, data.length);
+    }
+
+    /**
+     * Write length bytes of the supplied data, starting at offset. The data is
+     * copied, so can be modified once this method returns.
+     *
+     * @param data Data to write
+     * @param offset Offset of the first byte to write
+     * @param length Number of bytes to write
+     * @throws IOException Issue writing earlier data, or the writer is closed
+     */
+    public void write(byte[] data, int offset, int length) throws IOException {
+        checkOpen();
+
+        int end = offset + length;
+
+        while (offset < end) {
+            if (currentBuffer == null) {
+                currentBuffer = take(freeBuffers);
+            }
+
+            int toCopy = Math.min(end - offset, currentBuffer.remaining());
+            currentBuffer.put(data, offset, toCopy);
+            offset += toCopy;
+
+            if (!currentBuffer.hasRemaining()) {
+                submitCurrentBuffer();
+            }
+        }
+
+        position += length;
+    }
+
+    /**
+     * Get the position in the file at which the next data will be written, which
+     * is the total number of bytes written so far.
+     *
+     * @return Position in bytes
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Wait until all data written so far has been written to the file and added
+     * to the checksum.
+     *
+     * @throws IOException Issue writing the data
+     */
+    public void flush() throws IOException {
+        checkOpen();
+
+        if (currentBuffer != null && currentBuffer.position() > 0) {
+            submitCurrentBuffer();
+        }
+
+        // Once every buffer is free again, all data has been processed
+        ByteBuffer[] buffers = new ByteBuffer[bufferCount];
+        int held = (currentBuffer != null) ? 1 : 0;
+
+        for (int i = held; i < bufferCount; i++) {
+            buffers[i] = take(freeBuffers);
+        }
+
+        for (int i = held; i < bufferCount; i++) {
+            freeBuffers.add(buffers[i]);
+        }
+
+        checkFailure();
+    }
+
+    /**
+     * Write any remaining data, wait for the background threads to finish and
+     * close the file. The checksum is then complete.
+     *
+     * @throws IOException Issue writing the data or closing the file
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        try {
+            if (currentBuffer != null && currentBuffer.position() > 0) {
+                submitCurrentBuffer();
+            }
+
+            put(writeQueue, END_OF_DATA);
+
+            join(writeThread);
+
+            if (digestThread != null) {
+                join(digestThread);
+            }
+
+            checkFailure();
+
+            channel.truncate(position);
+        } finally {
+            closed = true;
+            currentBuffer = null;
+            freeBuffers.clear();
+
+            file.close();
+        }
+    }
+
+    /**
+     * Stop writing after a failure, discarding any data not yet written, and
+     * close the file. The background threads are stopped before this returns,
+     * and no exception is thrown so that the original failure can be reported.
+     * The content of the file and the checksum are incomplete.
+     */
+    public void abort() {
+        if (closed) {
+            return;
+        }
+
+        // The background threads skip any further buffers once a failure is set
+        if (failure == null) {
+            failure = new IOException("BackgroundDataWriter aborted");
+        }
+
+        try {
+            close();
+        } catch (IOException ex) {
+            // Expected, as the failure set above is reported by close()
+        }
+    }
+
+    /**
+     * Pass the buffer currently being filled to the I/O thread.
+     *
+     * @throws IOException Interrupted while waiting
+     */
+    private void submitCurrentBuffer() throws IOException {
+        currentBuffer.flip();
+        put(writeQueue, currentBuffer);
+        currentBuffer = null;
+    }
+
+    /**
+     * Body of the I/O thread, writing each buffer in turn to the file.
+     */
+    private void writeBuffers() {
+        try {
+            while (true) {
+                ByteBuffer buffer = writeQueue.take();
+
+                if (buffer != END_OF_DATA && failure == null) {
+                    try {
+                        while (buffer.hasRemaining()) {
+                            channel.write(buffer);
+                        }
+                    } catch (IOException ex) {
+                        failure = ex;
+                    } catch (RuntimeException ex) {
+                        failure = new IOException(ex);
+                    }
+
+                    buffer.rewind();
+                }
+
+                if (digestThread != null) {
+                    digestQueue.put(buffer);
+                } else if (buffer != END_OF_DATA) {
+                    buffer.clear();
+                    freeBuffers.put(buffer);
+                }
+
+                if (buffer == END_OF_DATA) {
+                    return;
+                }
+            }
+        } catch (InterruptedException ex) {
+            failure = new InterruptedIOException("Interrupted while writing data");
+        }
+    }
+
+    /**
+     * Body of the checksum thread, adding each written buffer in turn to the
+     * checksum.
+     */
+    private void digestBuffers() {
+        try {
+            while (true) {
+                ByteBuffer buffer = digestQueue.take();
+
+                if (buffer == END_OF_DATA) {
+                    return;
+                }
+
+                if (failure == null) {
+                    try {
+                        messageDigest.update(buffer);
+                    } catch (RuntimeException ex) {
+                        failure = new IOException(ex);
+                    }
+                }
+
+                buffer.clear();
+                freeBuffers.put(buffer);
+            }
+        } catch (InterruptedException ex) {
+            failure = new InterruptedIOException("Interrupted while calculating checksum");
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("BackgroundDataWriter is closed");
+        }
+
+        checkFailure();
+    }
+
+    private void checkFailure() throws IOException {
+        IOException ex = failure;
+
+        if (ex != null) {
+            throw new IOException("Failed to write data: " + ex.getMessage(), ex);
+        }
+    }
+
+    private ByteBuffer take(BlockingQueue<ByteBuffer> queue) throws IOException {
+        try {
+            while (true) {
+                ByteBuffer buffer = queue.poll(100, TimeUnit.MILLISECONDS);
+
+                if (buffer != null) {
+                    return buffer;
+                }
+
+                // Buffers are not returned once the background threads have stopped
+                checkFailure();
+
+                if (!writeThread.isAlive()) {
+                    throw new IOException("BackgroundDataWriter I/O thread has stopped");
+                }
+
+                if (digestThread != null && !digestThread.isAlive()) {
+                    throw new IOException("BackgroundDataWriter checksum thread has stopped");
+                }
+            }
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException("Interrupted while waiting for a buffer");
+        }
+    }
+
+    private static void put(BlockingQueue<ByteBuffer> queue, ByteBuffer buffer) throws IOException {
+        try {
+            queue.put(buffer);
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException("Interrupted while submitting data");
+        }
+    }
+
+    private static void join(Thread thread) throws IOException {
+        try {
+            thread.join();
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException("Interrupted while waiting for data to be written");
+        }
+    }
+}
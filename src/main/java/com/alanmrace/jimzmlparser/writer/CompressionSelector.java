@@ -0,0 +1,275 @@
+package com.alanmrace.jimzmlparser.writer;
+
+import com.alanmrace.jimzmlparser.data.DataTransformation;
+import com.alanmrace.jimzmlparser.data.DataTypeTransform.DataType;
+import com.alanmrace.jimzmlparser.mzml.BinaryDataArray;
+import com.alanmrace.jimzmlparser.mzml.BinaryDataArray.CompressionType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+
+/**
+ * Chooses the compression to use for binary data arrays by compressing a sample
+ * of the data with each of the candidate compression types, and picking the one
+ * which would be quickest to read back. The estimated time to read an array is the
+ * time to read the compressed data from storage at the configured read bandwidth,
+ * plus the time to decompress it. A low read bandwidth therefore favours the best
+ * compression ratio and a high read bandwidth favours the fastest decompression.
+ *
+ * <p>By default only lossless compression types which other software can read
+ * are candidates. MS-Numpress compression types (which are lossy) can be included
+ * by specifying the candidates explicitly. Byte shuffle compression types are
+ * described by the standard compression term plus a UserParam, which other software
+ * ignores and so reads incorrect values. They can only be candidates once allowed
+ * by {@link BinaryDataArray#setFilteredCompressionAllowed(boolean)}.
+ *
+ * <p>As the choice depends on decompression times measured while writing, the
+ * same data written twice is not guaranteed to be byte-for-byte identical when
+ * candidates have similar estimated read times. This is most noticeable when the
+ * compression is chosen per spectrum, as then every array is a separate choice.
+ * Where reproducible output is required, the compression should be set on the
+ * arrays directly, or a CompressionSelector with a single candidate used.
+ *
+ * @author Alan Race
+ * @see ImzMLWriterAbstract#setCompressionSelector(CompressionSelector)
+ */
+public class CompressionSelector {
+
+    /**
+     * Logger for the class.
+     */
+    private static final Logger LOGGER = Logger.getLogger(CompressionSelector.class.getName());
+
+    /**
+     * Default read bandwidth in bytes per second, typical of a hard drive or
+     * network storage.
+     */
+    public static final double DEFAULT_READ_BANDWIDTH = 200e6;
+
+    /**
+     * Default maximum number of arrays of each type sampled to choose the compression.
+     */
+    public static final int DEFAULT_MAX_SAMPLES = 100;
+
+    /**
+     * Number of times the decompression of the sample is timed, of which the
+     * fastest is used.
+     */
+    private static final int TIMING_REPEATS = 3;
+
+    /**
+     * Compression types to choose between.
+     */
+    private final List<CompressionType> candidates;
+
+    /**
+     * Read bandwidth in bytes per second used to weigh compressed size against
+     * decompression time.
+     */
+    private double readBandwidth = DEFAULT_READ_BANDWIDTH;
+
+    /**
+     * Maximum number of arrays of each type sampled to choose the compression.
+     */
+    private int maxSamples = DEFAULT_MAX_SAMPLES;
+
+    /**
+     * Whether the compression is chosen separately for every array, rather than
+     * once for all m/z arrays and once for all intensity arrays.
+     */
+    private boolean perSpectrum;
+
+    /**
+     * Create a CompressionSelector choosing between the lossless compression types
+     * no compression, zlib, LZ4 and zstd.
+     */
+    public CompressionSelector() {
+        this(CompressionType.NONE, CompressionType.ZLIB, CompressionType.LZ4, CompressionType.ZSTD);
+    }
+
+    /**
+     * Create a CompressionSelector choosing between the supplied compression types.
+     *
+     * @param candidates Compression types to choose between
+     * @throws IllegalArgumentException A candidate applies a filter which has not been allowed
+     * @see BinaryDataArray#setFilteredCompressionAllowed(boolean)
+     */
+    public CompressionSelector(CompressionType... candidates) {
+        if (candidates.length == 0) {
+            throw new IllegalArgumentException("No candidate compression types");
+        }
+
+        for (CompressionType candidate : candidates) {
+            BinaryDataArray.checkCompressionAllowed(candidate);
+        }
+
+        this.candidates = Collections.unmodifiableList(new ArrayList<CompressionType>(Arrays.asList(candidates)));
+    }
+
+    /**
+     * Get the compression types to choose between.
+     *
+     * @return Candidate compression types
+     */
+    public List<CompressionType> getCandidates() {
+        return candidates;
+    }
+
+    /**
+     * Set the read bandwidth used to weigh compressed size against decompression
+     * time.
+     *
+     * @param readBandwidth Read bandwidth in bytes per second
+     */
+    public void setReadBandwidth(double readBandwidth) {
+        if (readBandwidth <= 0) {
+            throw new IllegalArgumentException("Invalid read bandwidth: " + readBandwidth);
+        }
+
+        this.readBandwidth = readBandwidth;
+    }
+
+    /**
+     * Get the read bandwidth used to weigh compressed size against decompression
+     * time.
+     *
+     * @return Read bandwidth in bytes per second
+     */
+    public double getReadBandwidth() {
+        return readBandwidth;
+    }
+
+    /**
+     * Set the maximum number of arrays of each type sampled to choose the compression.
+     *
+     * @param maxSamples Maximum number of arrays
+     */
+    public void setMaxSamples(int maxSamples) {
+        this.maxSamples = Math.max(1, maxSamples);
+    }
+
+    /**
+     * Get the maximum number of arrays of each type sampled to choose the compression.
+     *
+     * @return Maximum number of arrays
+     */
+    public int getMaxSamples() {
+        return maxSamples;
+    }
+
+    /**
+     * Set whether the compression is chosen separately for every array, rather
+     * than once for all m/z arrays and once for all intensity arrays. This gives
+     * the best compression for datasets where spectra differ greatly, at the cost
+     * of trying every candidate on every array when writing. As every array is
+     * then chosen from its own timings, the compression of individual arrays can
+     * differ between runs and so the output is not byte-reproducible.
+     *
+     * @param perSpectrum true to choose the compression for every array
+     */
+    public void setPerSpectrum(boolean perSpectrum) {
+        this.perSpectrum = perSpectrum;
+    }
+
+    /**
+     * Check whether the compression is chosen separately for every array.
+     *
+     * @return true if the compression is chosen for every array
+     */
+    public boolean isPerSpectrum() {
+        return perSpectrum;
+    }
+
+    /**
+     * Choose the compression for a single array.
+     *
+     * @param data Data to compress
+     * @param dataType Data type the data will be stored as
+     * @return Chosen compression type
+     */
+    public CompressionType select(double[] data, DataType dataType) {
+        return select(Collections.singletonList(data), dataType);
+    }
+
+    /**
+     * Choose the compression for arrays similar to the supplied samples.
+     *
+     * @param samples Sample of the arrays to compress
+     * @param dataType Data type the data will be stored as
+     * @return Chosen compression type
+     */
+    public CompressionType select(List<double[]> samples, DataType dataType) {
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+
+        CompressionType best = null;
+        double bestTime = Double.MAX_VALUE;
+
+        for (CompressionType candidate : candidates) {
+            double time = estimateReadTime(samples, dataType, candidate);
+
+            LOGGER.log(Level.FINE, "Estimated read time for {0}: {1} s", new Object[] {candidate, time});
+
+            if (time < bestTime) {
+                best = candidate;
+                bestTime = time;
+            }
+        }
+
+        if (best == null) {
+            return candidates.get(0);
+        }
+
+        return best;
+    }
+
+    /**
+     * Estimate the time in seconds to read the samples stored with the specified
+     * compression.
+     *
+     * @param samples Sample of the arrays to compress
+     * @param dataType Data type the data will be stored as
+     * @param compression Compression to estimate the read time of
+     * @return Estimated read time in seconds, or Double.MAX_VALUE if the data
+     * cannot be stored with the compression
+     */
+    protected double estimateReadTime(List<double[]> samples, DataType dataType, CompressionType compression) {
+        DataTransformation transformation = BinaryDataArray.generateDataTransformation(dataType, compression);
+
+        try {
+            List<byte[]> compressed = new ArrayList<byte[]>(samples.size());
+            long compressedSize = 0;
+
+            for (double[] sample : samples) {
+                byte[] data = transformation.performForwardTransform(sample);
+
+                compressed.add(data);
+                compressedSize += data.length;
+            }
+
+            long fastest = Long.MAX_VALUE;
+
+            // The first decompression also warms up the transforms, so take the fastest
+            for (int repeat = 0; repeat < TIMING_REPEATS; repeat++) {
+                long start = System.nanoTime();
+
+                for (byte[] data : compressed) {
+                    transformation.performReverseTransform(data);
+                }
+
+                fastest = Math.min(fastest, System.nanoTime() - start);
+            }
+
+            return compressedSize / readBandwidth + fastest / 1e9;
+        } catch (DataFormatException ex) {
+            LOGGER.log(Level.FINE, "Data cannot be stored with " + compression, ex);
+
+            return Double.MAX_VALUE;
+        }
+    }
+}
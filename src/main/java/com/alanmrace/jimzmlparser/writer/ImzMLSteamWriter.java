@@ -1,34 +1,198 @@
 package com.alanmrace.jimzmlparser.writer;
 
 import com.alanmrace.jimzmlparser.imzml.ImzML;
+import com.alanmrace.jimzmlparser.imzml.PixelLocation;
 import com.alanmrace.jimzmlparser.mzml.*;
 import com.alanmrace.jimzmlparser.obo.OBO;
 import com.alanmrace.jimzmlparser.util.HexHelper;
 import com.alanmrace.jimzmlparser.util.UUIDHelper;
 
-import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.UUID;
 
+/**
+ * Writer for streaming spectra into an imzML and IBD file as they are acquired or
+ * processed. The binary data of each spectrum is written to the IBD file as soon
+ * as it is supplied, and the metadata is written once all spectra have been 
+ * supplied, by {@link #write(ImzML)}.
+ * 
+ * <p>Spectra can be supplied from multiple threads at once. Each spectrum is 
+ * converted and compressed on the thread supplying it, and only copying the 
+ * encoded data into the IBD file happens one spectrum at a time. The binary data
+ * of each spectrum is contiguous within the IBD file, but the order of spectra in
+ * the IBD file depends on the order in which they were supplied. The spectra are
+ * listed in the imzML file in order of y, then x, then z coordinate (and then ID),
+ * so the metadata does not depend on that order.
+ * 
+ * <p>By default every spectrum is kept in memory until the imzML file is written.
+ * Alternatively, the metadata of each spectrum can be streamed to a temporary file
+ * as it is supplied (see {@link #ImzMLSteamWriter(String, ReferenceableParamGroup, ReferenceableParamGroup, boolean)}),
+ * keeping only its coordinates and location in the temporary file, so that the
+ * memory used does not grow with the number of spectra. The streamed metadata is
+ * then copied into the imzML file in order of y, then x, then z coordinate (and 
+ * then the order supplied).
+ * 
+ * <p>For continuous output (see {@link #setOutputType(ImzMLWriter.OutputType)}),
+ * the m/z array of the first spectrum is written once and shared by all spectra,
+ * whose m/z values must then be identical.
+ * 
+ * @author Alan Race
+ */
 public class ImzMLSteamWriter extends ImzMLWriterAbstract {
 
+    /**
+     * Order in which the spectra are listed in the imzML file.
+     */
+    private static final Comparator<Spectrum> SPECTRUM_ORDER = new Comparator<Spectrum>() {
+        @Override
+        public int compare(Spectrum spectrum1, Spectrum spectrum2) {
+            PixelLocation location1 = spectrum1.getPixelLocation();
+            PixelLocation location2 = spectrum2.getPixelLocation();
+
+            if (location1 != null && location2 != null) {
+                if (location1.getY() != location2.getY()) {
+                    return location1.getY() < location2.getY() ? -1 : 1;
+                }
+                if (location1.getX() != location2.getX()) {
+                    return location1.getX() < location2.getX() ? -1 : 1;
+                }
+                if (location1.getZ() != location2.getZ()) {
+                    return location1.getZ() < location2.getZ() ? -1 : 1;
+                }
+            } else if (location1 != null) {
+                return -1;
+            } else if (location2 != null) {
+                return 1;
+            }
+
+            return spectrum1.getID().compareTo(spectrum2.getID());
+        }
+    };
+
+    /**
+     * Order in which streamed spectrum metadata is copied into the imzML file.
+     */
+    private static final Comparator<SpectrumRecord> SPECTRUM_RECORD_ORDER = new Comparator<SpectrumRecord>() {
+        @Override
+        public int compare(SpectrumRecord record1, SpectrumRecord record2) {
+            if (record1.y != record2.y) {
+                return record1.y < record2.y ? -1 : 1;
+            }
+            if (record1.x != record2.x) {
+                return record1.x < record2.x ? -1 : 1;
+            }
+            if (record1.z != record2.z) {
+                return record1.z < record2.z ? -1 : 1;
+            }
+
+            return record1.sequence < record2.sequence ? -1 : (record1.sequence == record2.sequence ? 0 : 1);
+        }
+    };
+
+    /**
+     * Indent of each spectrum within the imzML file, used when streaming the 
+     * metadata of spectra before the rest of the file is written.
+     */
+    private static final int SPECTRUM_INDENT = 3;
+
     String outputLocation;
     UUID uuid;
 
     ReferenceableParamGroup mzRPG;
     ReferenceableParamGroup countsRPG;
 
+    /**
+     * Spectra written so far, in the order they were written. Guarded by dataLock.
+     */
     List<Spectrum> spectrumList = new ArrayList<Spectrum>();
 
+    /**
+     * ReferenceableParamGroups whose compression has already been chosen. Guarded
+     * by itself.
+     */
+    List<ReferenceableParamGroup> selectedRPGs = new ArrayList<ReferenceableParamGroup>();
+
+    /**
+     * For continuous output, the m/z array whose data is shared by every spectrum,
+     * or null if none has been written yet. Guarded by dataLock.
+     */
+    private BinaryDataArray sharedmzArray;
+
+    /**
+     * For continuous output, the m/z values shared by every spectrum, or null if
+     * none have been written yet. Guarded by dataLock.
+     */
+    private double[] sharedmzs;
+
+    /**
+     * Whether the metadata of each spectrum is streamed to a temporary file, 
+     * rather than kept in memory.
+     */
+    private final boolean streamMetadata;
+
+    /**
+     * Temporary file the metadata of each spectrum is streamed to, or null if not
+     * streaming metadata.
+     */
+    private File spectrumMetadataFile;
+
+    /**
+     * Stream to the temporary spectrum metadata file. Guarded by dataLock.
+     */
+    private OutputStream spectrumMetadataOutput;
+
+    /**
+     * Number of bytes written to the temporary spectrum metadata file. Guarded by
+     * dataLock.
+     */
+    private long spectrumMetadataLength;
+
+    /**
+     * Coordinates and location of the streamed metadata of each spectrum. Guarded
+     * by dataLock.
+     */
+    private List<SpectrumRecord> spectrumRecords = new ArrayList<SpectrumRecord>();
+
+    /**
+     * Lock held while the data of a spectrum is written, so that the data of each
+     * spectrum is contiguous and the offsets match where the data is written.
+     */
+    private final Object dataLock = new Object();
+
     public ImzMLSteamWriter(String outputLocation, ReferenceableParamGroup mzRPG, ReferenceableParamGroup countsRPG) throws NoSuchAlgorithmException, IOException {
+        this(outputLocation, mzRPG, countsRPG, false);
+    }
+
+    /**
+     * Create an ImzMLSteamWriter, optionally streaming the metadata of each 
+     * spectrum to a temporary file (in the same directory as the imzML file) 
+     * rather than keeping every spectrum in memory.
+     * 
+     * @param outputLocation Location of the imzML file
+     * @param mzRPG ReferenceableParamGroup referenced by every m/z array
+     * @param countsRPG ReferenceableParamGroup referenced by every intensity array
+     * @param streamMetadata true to stream the metadata of each spectrum to a temporary file
+     * @throws NoSuchAlgorithmException Checksum algorithm is not available
+     * @throws IOException Issue creating the files
+     */
+    public ImzMLSteamWriter(String outputLocation, ReferenceableParamGroup mzRPG, ReferenceableParamGroup countsRPG, boolean streamMetadata) throws NoSuchAlgorithmException, IOException {
         super();
 
+        this.streamMetadata = streamMetadata;
+
         this.outputType = ImzMLWriter.OutputType.PROCESSED;
         checksum = Checksum.SHA1;
 
@@ -52,18 +216,46 @@ public class ImzMLSteamWriter extends ImzMLWriterAbstract {
 
         messageDigest = MessageDigest.getInstance(algorithm);
 
+        // Load the ontology now, as it is not safe to load from multiple threads at once
+        OBO.getOBO();
+
         String ibdLocation = getIBDLocationFromOutput(outputLocation);
 
-        // Open the IBD file ready for writing, using the RandomAccessFile to get
-        // current location
-        dataRAF = new RandomAccessFile(ibdLocation + ".ibd", "rw");
-        dataOutput = new DataOutputStream(new FileOutputStream(dataRAF.getFD()));
+        // Open the IBD file ready for writing, which is written (and the checksum
+        // calculated) in the background
+        openDataOutput(new File(ibdLocation + ".ibd"));
 
-        // Create new UUID and write it to the start of the IBD file
-        uuid = UUID.randomUUID();
-        writeData(UUIDHelper.uuidToByteArray(uuid));
+        boolean opened = false;
+
+        try {
+            // Create new UUID and write it to the start of the IBD file
+            uuid = UUID.randomUUID();
+            writeData(UUIDHelper.uuidToByteArray(uuid));
+
+            if (streamMetadata) {
+                spectrumMetadataFile = File.createTempFile("spectra", ".tmp", new File(outputLocation).getAbsoluteFile().getParentFile());
+                spectrumMetadataOutput = new BufferedOutputStream(new FileOutputStream(spectrumMetadataFile));
+            }
+
+            opened = true;
+        } finally {
+            if (!opened) {
+                abortDataOutput();
+                deleteSpectrumMetadata();
+            }
+        }
     }
 
+    /**
+     * Write the binary data of a spectrum to the IBD file, and keep a copy of the
+     * spectrum (with its pixel location and TIC) to include in the imzML file. 
+     * This can be called from multiple threads at once.
+     * 
+     * @param spectrum Spectrum supplying the ID and pixel location
+     * @param mzs m/z values of the spectrum
+     * @param counts Intensities of the spectrum
+     * @throws IOException Issue encoding or writing the data
+     */
     public void write(Spectrum spectrum, double[] mzs, double[] counts) throws IOException {
         Spectrum newSpectrum = new Spectrum(spectrum.getID(), 0);
         newSpectrum.setPixelLocation(spectrum.getPixelLocation());
@@ -72,15 +264,37 @@ public class ImzMLSteamWriter extends ImzMLWriterAbstract {
         newSpectrum.getBinaryDataArrayList().addBinaryDataArray(mzBDA);
         mzBDA.addReferenceableParamGroupRef(new ReferenceableParamGroupRef(mzRPG));
 
-        byte[] mzData = prepareData(mzs, mzBDA);
-        writeData(mzData);
+        boolean continuous = outputType == ImzMLWriter.OutputType.CONTINUOUS;
+        boolean mzsShared;
+
+        synchronized (dataLock) {
+            mzsShared = continuous && sharedmzArray != null;
+        }
+
+        byte[] mzData = null;
+
+        // For continuous output only the first m/z array needs to be encoded
+        if (!mzsShared) {
+            selectCompression(mzBDA, mzRPG, mzs);
+
+            mzData = encodeData(mzs, mzBDA);
+
+            if (mzData == null) {
+                throw new IOException("Failed to encode data of spectrum " + spectrum.getID());
+            }
+        }
 
         BinaryDataArray countsBDA = new BinaryDataArray(0);
         newSpectrum.getBinaryDataArrayList().addBinaryDataArray(countsBDA);
         countsBDA.addReferenceableParamGroupRef(new ReferenceableParamGroupRef(countsRPG));
 
-        byte[] countsData = prepareData(counts, countsBDA);
-        writeData(countsData);
+        selectCompression(countsBDA, countsRPG, counts);
+
+        byte[] countsData = encodeData(counts, countsBDA);
+
+        if (countsData == null) {
+            throw new IOException("Failed to encode data of spectrum " + spectrum.getID());
+        }
 
         double total = 0;
 
@@ -88,34 +302,167 @@ public class ImzMLSteamWriter extends ImzMLWriterAbstract {
             total += dataPoint;
         }
 
-        CVParam ticParam = newSpectrum.getCVParam(Spectrum.TOTAL_ION_CURRENT_ID);
+        synchronized (dataLock) {
+            if (continuous && sharedmzArray != null) {
+                if (!Arrays.equals(sharedmzs, mzs)) {
+                    throw new IllegalArgumentException("m/z values of spectrum " + spectrum.getID() + " differ from those of the first spectrum, so cannot be written as continuous");
+                }
+
+                shareDataLocation(mzBDA, sharedmzArray);
+            } else {
+                updateDataLocation(mzBDA, mzs.length, mzData.length);
+                writeData(mzData);
+
+                if (continuous) {
+                    sharedmzArray = mzBDA;
+                    sharedmzs = mzs.clone();
+                }
+            }
+
+            updateDataLocation(countsBDA, counts.length, countsData.length);
+            writeData(countsData);
+
+            newSpectrum.addCVParam(new DoubleCVParam(OBO.getOBO().getTerm(Spectrum.TOTAL_ION_CURRENT_ID), total));
+
+            if (streamMetadata) {
+                writeSpectrumMetadata(newSpectrum);
+            } else {
+                spectrumList.add(newSpectrum);
+            }
+        }
+    }
+
+    /**
+     * Write the metadata of a spectrum to the temporary spectrum metadata file,
+     * split either side of where the index attribute is added once the order of
+     * the spectra is known. The caller must hold dataLock.
+     * 
+     * @param spectrum Spectrum to write
+     * @throws IOException Issue writing the metadata
+     */
+    private void writeSpectrumMetadata(Spectrum spectrum) throws IOException {
+        // Write the spectrum through the usual methods, but into memory
+        ByteArrayOutputStream fragment = new ByteArrayOutputStream();
+        MetadataOutputStream previousOutput = output;
+        output = new MetadataOutputStream(fragment, encoding, null);
+
+        int headLength;
+
+        try {
+            MzMLWriter.indent(this, SPECTRUM_INDENT);
+            writeMetadata("<" + spectrum.getTagName());
+
+            String attributeText = spectrum.getXMLAttributeText();
+
+            if (attributeText != null && !attributeText.isEmpty()) {
+                writeMetadata(" " + attributeText);
+            }
+
+            headLength = (int) output.getPosition();
+
+            writeMetadata(">\n");
+            outputXMLContent(spectrum, SPECTRUM_INDENT + 1);
+            MzMLWriter.indent(this, SPECTRUM_INDENT);
+            writeMetadata("</" + spectrum.getTagName() + ">\n");
+            output.flush();
+        } finally {
+            output = previousOutput;
+        }
 
-        if (ticParam == null) {
-            ticParam = new DoubleCVParam(OBO.getOBO().getTerm(Spectrum.TOTAL_ION_CURRENT_ID), total);
-            newSpectrum.addCVParam(ticParam);
+        fragment.writeTo(spectrumMetadataOutput);
+
+        spectrumRecords.add(new SpectrumRecord(spectrum.getPixelLocation(), spectrumRecords.size(), spectrumMetadataLength, headLength, fragment.size() - headLength));
+
+        spectrumMetadataLength += fragment.size();
+    }
+
+    @Override
+    protected void outputXML(MzMLTag tag, int indent) throws IOException {
+        if (streamMetadata && tag instanceof SpectrumList) {
+            outputStreamedSpectrumList((SpectrumList) tag, indent);
         } else {
-            ((DoubleCVParam) ticParam).setValue(total);
-        }
-
-//        // Update the TIC
-//        if (bda.isIntensityArray()) {
-//            double total = 0;
-//
-//            for (double dataPoint : ddata) {
-//                total += dataPoint;
-//            }
-//
-//            CVParam ticParam = spectrum.getCVParam(Spectrum.TOTAL_ION_CURRENT_ID);
-//
-//            if (ticParam == null) {
-//                ticParam = new DoubleCVParam(OBO.getOBO().getTerm(Spectrum.TOTAL_ION_CURRENT_ID), total);
-//                spectrum.addCVParam(ticParam);
-//            } else {
-//                ((DoubleCVParam) ticParam).setValue(total);
-//            }
-//        }
-
-        spectrumList.add(newSpectrum);
+            super.outputXML(tag, indent);
+        }
+    }
+
+    /**
+     * Write out the SpectrumList, copying in the streamed metadata of each 
+     * spectrum in order.
+     * 
+     * @param spectrumList SpectrumList being written, which contains no spectra
+     * @param indent Indent of the SpectrumList
+     * @throws IOException Issue reading or writing the metadata
+     */
+    private void outputStreamedSpectrumList(SpectrumList spectrumList, int indent) throws IOException {
+        // As for any other list, skip it if there are no spectra
+        if (spectrumRecords.isEmpty()) {
+            return;
+        }
+
+        String attributeText = spectrumList.getXMLAttributeText().replace("count=\"" + spectrumList.size() + "\"", "count=\"" + spectrumRecords.size() + "\"");
+
+        MzMLWriter.indent(this, indent);
+        writeMetadata("<" + spectrumList.getTagName() + " " + attributeText + ">\n");
+
+        RandomAccessFile metadataFile = new RandomAccessFile(spectrumMetadataFile, "r");
+
+        try {
+            byte[] buffer = new byte[0];
+            int index = 0;
+
+            for (SpectrumRecord record : spectrumRecords) {
+                int length = record.headLength + record.bodyLength;
+
+                if (buffer.length < length) {
+                    buffer = new byte[length];
+                }
+
+                metadataFile.seek(record.offset);
+                metadataFile.readFully(buffer, 0, length);
+
+                output.write(buffer, 0, record.headLength);
+                writeMetadata(" index=\"" + index++ + "\"");
+                output.write(buffer, record.headLength, record.bodyLength);
+            }
+        } finally {
+            metadataFile.close();
+        }
+
+        MzMLWriter.indent(this, indent);
+        writeMetadata("</" + spectrumList.getTagName() + ">\n");
+    }
+
+    /**
+     * Choose the compression of an array using the CompressionSelector, if one
+     * has been set. Unless the compression is chosen per spectrum, it is chosen
+     * from the first array written with each ReferenceableParamGroup and stored 
+     * in the ReferenceableParamGroup, to be used for all subsequent arrays.
+     * 
+     * @param bda BinaryDataArray to be written
+     * @param rpg ReferenceableParamGroup referenced by the BinaryDataArray
+     * @param data Data to be written
+     */
+    protected void selectCompression(BinaryDataArray bda, ReferenceableParamGroup rpg, double[] data) {
+        if (compressionSelector == null) {
+            return;
+        }
+        
+        // Other threads wait until the ReferenceableParamGroup is updated before encoding
+        synchronized (selectedRPGs) {
+            if (!selectedRPGs.contains(rpg)) {
+                if (compressionSelector.isPerSpectrum()) {
+                    removeCompression(rpg);
+                } else {
+                    BinaryDataArray.setCompression(rpg, compressionSelector.select(data, bda.getDataType()));
+                }
+
+                selectedRPGs.add(rpg);
+            }
+        }
+
+        if (compressionSelector.isPerSpectrum()) {
+            BinaryDataArray.setCompression(bda, compressionSelector.select(data, bda.getDataType()));
+        }
     }
 
     public void write(ImzML imzML) throws IOException {
@@ -124,11 +471,36 @@ public class ImzMLSteamWriter extends ImzMLWriterAbstract {
 
         imzML.getSpectrumList().clear();
 
-        for(Spectrum spectrum : spectrumList)
-            imzML.getSpectrumList().add(spectrum);
+        synchronized (dataLock) {
+            boolean dataComplete = false;
+
+            try {
+                // Update the imzML header information about storage type
+                updateStorageInformation(imzML);
 
-        dataRAF.setLength(dataRAF.getFilePointer());
-        dataOutput.close();
+                List<Spectrum> orderedSpectra = new ArrayList<Spectrum>(spectrumList);
+                Collections.sort(orderedSpectra, SPECTRUM_ORDER);
+
+                for(Spectrum spectrum : orderedSpectra)
+                    imzML.getSpectrumList().add(spectrum);
+
+                if (streamMetadata) {
+                    spectrumMetadataOutput.close();
+
+                    Collections.sort(spectrumRecords, SPECTRUM_RECORD_ORDER);
+                }
+
+                closeDataOutput();
+
+                dataComplete = true;
+            } finally {
+                // Stop the background threads and close the files if anything failed
+                if (!dataComplete) {
+                    abortDataOutput();
+                    deleteSpectrumMetadata();
+                }
+            }
+        }
 
         // Update UUID in the metadata
         FileContent fileContent = imzML.getFileDescription().getFileContent();
@@ -140,9 +512,92 @@ public class ImzMLSteamWriter extends ImzMLWriterAbstract {
         fileContent.addCVParam(new StringCVParam(OBO.getOBO().getTerm(FileContent.SHA1_CHECKSUM_ID), HexHelper.byteArrayToHexString(messageDigest.digest())));
 
         // Update max x and max y coordinates
-        updateMaxCoordinateInformation(imzML);
+        if (streamMetadata) {
+            int maxX = 0;
+            int maxY = 0;
+
+            for (SpectrumRecord record : spectrumRecords) {
+                if (record.hasLocation) {
+                    maxX = Math.max(maxX, record.x);
+                    maxY = Math.max(maxY, record.y);
+                }
+            }
+
+            updateMaxCoordinateInformation(imzML, maxX, maxY);
+        } else {
+            updateMaxCoordinateInformation(imzML);
+        }
 
         // Write out metadata
-        super.write(imzML, outputLocation);
+        try {
+            super.write(imzML, outputLocation);
+        } finally {
+            deleteSpectrumMetadata();
+        }
+    }
+
+    /**
+     * Close and delete the temporary file holding the streamed spectrum metadata,
+     * if there is one.
+     */
+    private void deleteSpectrumMetadata() {
+        if (spectrumMetadataOutput != null) {
+            try {
+                spectrumMetadataOutput.close();
+            } catch (IOException ex) {
+                // The file is no longer needed, so is deleted regardless
+            }
+        }
+
+        if (spectrumMetadataFile != null && !spectrumMetadataFile.delete()) {
+            spectrumMetadataFile.deleteOnExit();
+        }
+    }
+
+    /**
+     * Coordinates of a spectrum and the location of its streamed metadata.
+     */
+    private static class SpectrumRecord {
+
+        /**
+         * Whether the spectrum has a pixel location. Spectra without are listed last.
+         */
+        private final boolean hasLocation;
+
+        /**
+         * Coordinates of the spectrum.
+         */
+        private final int x, y, z;
+
+        /**
+         * Order in which the spectrum was supplied.
+         */
+        private final int sequence;
+
+        /**
+         * Offset of the metadata within the temporary spectrum metadata file.
+         */
+        private final long offset;
+
+        /**
+         * Length in bytes of the metadata before the index attribute.
+         */
+        private final int headLength;
+
+        /**
+         * Length in bytes of the metadata after the index attribute.
+         */
+        private final int bodyLength;
+
+        SpectrumRecord(PixelLocation location, int sequence, long offset, int headLength, int bodyLength) {
+            this.hasLocation = location != null;
+            this.x = hasLocation ? location.getX() : Integer.MAX_VALUE;
+            this.y = hasLocation ? location.getY() : Integer.MAX_VALUE;
+            this.z = hasLocation ? location.getZ() : Integer.MAX_VALUE;
+            this.sequence = sequence;
+            this.offset = offset;
+            this.headLength = headLength;
+            this.bodyLength = bodyLength;
+        }
     }
 }
@@ -1,30 +1,41 @@
 package com.alanmrace.jimzmlparser.writer;
 
+import com.alanmrace.jimzmlparser.data.DataTypeTransform.DataType;
+import com.alanmrace.jimzmlparser.data.ZstdDataTransform;
+import com.alanmrace.jimzmlparser.data.ZstdDictionary;
 import com.alanmrace.jimzmlparser.mzml.BinaryDataArray;
-import com.alanmrace.jimzmlparser.mzml.BooleanCVParam;
 import com.alanmrace.jimzmlparser.mzml.CV;
 import com.alanmrace.jimzmlparser.mzml.CVParam;
 import com.alanmrace.jimzmlparser.mzml.Chromatogram;
 import com.alanmrace.jimzmlparser.mzml.DoubleCVParam;
-import com.alanmrace.jimzmlparser.mzml.EmptyCVParam;
 import com.alanmrace.jimzmlparser.mzml.FileContent;
 import com.alanmrace.jimzmlparser.mzml.MzML;
 import com.alanmrace.jimzmlparser.mzml.ReferenceableParamGroup;
 import com.alanmrace.jimzmlparser.mzml.Spectrum;
+import com.alanmrace.jimzmlparser.mzml.SpectrumList;
 import com.alanmrace.jimzmlparser.mzml.StringCVParam;
 import com.alanmrace.jimzmlparser.obo.OBO;
+import com.alanmrace.jimzmlparser.util.FutureHelper;
 import com.alanmrace.jimzmlparser.util.HexHelper;
 import com.alanmrace.jimzmlparser.util.UUIDHelper;
-import java.io.DataOutputStream;
-import java.io.FileOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
 /**
  * Writer for exporting both the metadata into an imzML file and the binary data
  * to an IBD file.
@@ -38,7 +49,23 @@ public class ImzMLWriter extends ImzMLWriterAbstract {
      */
     private static final Logger LOGGER = Logger.getLogger(ImzMLWriter.class.getName());
 
+    /**
+     * Maximum number of arrays of each type (m/z and intensity) sampled to train
+     * a zstd dictionary.
+     */
+    public static final int ZSTD_DICTIONARY_SAMPLES = 1000;
+
+    /**
+     * Maximum size in bytes of zstd dictionaries to train, or 0 if arrays compressed
+     * with zstd should be compressed without a dictionary.
+     */
+    protected int zstdDictionarySize;
 
+    /**
+     * Number of threads used to read and encode binary data arrays, where 1 
+     * encodes every array on the calling thread.
+     */
+    protected int encodingThreads = 1;
 
     /**
      * Possible means of outputting data, as defined by the ImzML standard.
@@ -70,44 +97,446 @@ public class ImzMLWriter extends ImzMLWriterAbstract {
 
 
 
-    protected void updateOBOList(MzML mzML) {
-        mzML.getCVList().clear();
-        OBO obo = OBO.getOBO();
-        List<OBO> fullOBOList = obo.getFullImportHeirarchy();
+    /**
+     * Set the maximum size of the zstd dictionaries to train. When greater than 0,
+     * a dictionary is trained on a sample of the m/z arrays, and another on a
+     * sample of the intensity arrays, which use zstd compression. Each dictionary 
+     * is stored once in the IBD file, after the UUID, and used to compress every
+     * array of that type. This greatly improves the compression of many small 
+     * arrays, such as centroided spectra.
+     * 
+     * @param zstdDictionarySize Maximum dictionary size in bytes (for example 
+     * {@link ZstdDictionary#DEFAULT_DICTIONARY_SIZE}), or 0 to not use dictionaries
+     */
+    public void setZstdDictionarySize(int zstdDictionarySize) {
+        this.zstdDictionarySize = Math.max(0, zstdDictionarySize);
+    }
 
-        for (OBO currentOBO : fullOBOList) {
-            mzML.getCVList().addCV(new CV(currentOBO));
+    /**
+     * Get the maximum size of the zstd dictionaries to train.
+     * 
+     * @return Maximum dictionary size in bytes, or 0 if dictionaries are not used
+     */
+    public int getZstdDictionarySize() {
+        return zstdDictionarySize;
+    }
+
+    /**
+     * Set the number of threads used to read, convert and compress the binary 
+     * data arrays. When greater than 1, arrays are encoded on a pool of threads
+     * up to twice the number of threads ahead of the array being written. The 
+     * encoded arrays are still written out in order from the calling thread, so 
+     * the output is identical to that produced when encoding on a single thread.
+     * 
+     * @param encodingThreads Number of threads, or 1 to encode every array on the
+     * calling thread
+     */
+    public void setEncodingThreads(int encodingThreads) {
+        if (encodingThreads <= 0) {
+            throw new IllegalArgumentException("Number of encoding threads must be positive: " + encodingThreads);
         }
+
+        this.encodingThreads = encodingThreads;
+    }
+
+    /**
+     * Get the number of threads used to read, convert and compress the binary 
+     * data arrays.
+     * 
+     * @return Number of threads
+     */
+    public int getEncodingThreads() {
+        return encodingThreads;
     }
 
-    protected void updateStorageInformation(MzML mzML) {
-        FileContent fileContent = mzML.getFileDescription().getFileContent();
-        fileContent.removeChildrenOfCVParam(FileContent.BINARY_TYPE_ID, false);
+    /**
+     * Train a zstd dictionary on a sample of either the m/z arrays or the intensity
+     * arrays which use zstd compression, evenly spaced throughout the SpectrumList.
+     * 
+     * @param spectrumList SpectrumList to sample
+     * @param mzArrays true to sample m/z arrays, false to sample intensity arrays
+     * @return Trained dictionary, or null if there were not suitable arrays to train a dictionary on
+     * @throws IOException Issue reading the data
+     */
+    protected ZstdDictionary trainZstdDictionary(SpectrumList spectrumList, boolean mzArrays) throws IOException {
+        List<byte[]> samples = new ArrayList<byte[]>();
+        int step = Math.max(1, spectrumList.size() / ZSTD_DICTIONARY_SAMPLES);
+
+        for (int i = 0; i < spectrumList.size(); i += step) {
+            for (BinaryDataArray bda : spectrumList.getSpectrum(i).getBinaryDataArrayList()) {
+                if (mzArrays ? !bda.ismzArray() : !bda.isIntensityArray()) {
+                    continue;
+                }
+
+                double[] ddata = bda.getDataAsDouble();
+
+                if (ddata != null) {
+                    try {
+                        byte[] sample = bda.generateDataTransformation().performForwardTransformBefore(ddata, ZstdDataTransform.class);
+
+                        if (sample != null) {
+                            samples.add(sample);
+                        }
+                    } catch (DataFormatException ex) {
+                        LOGGER.log(Level.SEVERE, null, ex);
+                    }
+                }
+            }
+        }
+
+        return ZstdDictionary.train(samples, zstdDictionarySize);
+    }
 
-        switch (outputType) {
-            case CONTINUOUS:
-                fileContent.addCVParam(new EmptyCVParam(OBO.getOBO().getTerm(FileContent.BINARY_TYPE_CONTINUOUS_ID)));
-                break;
-            case PROCESSED:
+    /**
+     * Choose the compression of the m/z and intensity arrays using the 
+     * CompressionSelector. As the compression can then differ between arrays
+     * which reference the same ReferenceableParamGroup, the compression of every
+     * array is first recorded on the array itself and removed from the 
+     * ReferenceableParamGroups. Unless the compression is chosen per spectrum 
+     * (which happens as each array is written), the compression of all m/z arrays
+     * and of all intensity arrays is chosen from an evenly spaced sample.
+     * 
+     * @param mzML MzML to choose the compression of
+     * @throws IOException Issue reading the data
+     */
+    protected void selectCompression(MzML mzML) throws IOException {
+        List<BinaryDataArray> binaryDataArrays = new ArrayList<BinaryDataArray>();
+        
+        if (mzML.getRun().getSpectrumList() != null) {
+            for (Spectrum spectrum : mzML.getRun().getSpectrumList()) {
+                for (BinaryDataArray bda : spectrum.getBinaryDataArrayList()) {
+                    binaryDataArrays.add(bda);
+                }
+            }
+        }
+        
+        if (mzML.getRun().getChromatogramList() != null) {
+            for (Chromatogram chromatogram : mzML.getRun().getChromatogramList()) {
+                for (BinaryDataArray bda : chromatogram.getBinaryDataArrayList()) {
+                    binaryDataArrays.add(bda);
+                }
+            }
+        }
+        
+        for (BinaryDataArray bda : binaryDataArrays) {
+            bda.setCompression(getCompression(bda));
+        }
+        
+        if (mzML.getReferenceableParamGroupList() != null) {
+            for (ReferenceableParamGroup rpg : mzML.getReferenceableParamGroupList()) {
+                removeCompression(rpg);
+            }
+        }
+        
+        if (compressionSelector.isPerSpectrum() || mzML.getRun().getSpectrumList() == null) {
+            return;
+        }
+        
+        BinaryDataArray.CompressionType mzCompression = selectCompression(mzML.getRun().getSpectrumList(), true);
+        BinaryDataArray.CompressionType intensityCompression = selectCompression(mzML.getRun().getSpectrumList(), false);
+        
+        LOGGER.log(Level.INFO, "Selected {0} compression for m/z arrays and {1} compression for intensity arrays", new Object[] {mzCompression, intensityCompression});
+        
+        for (Spectrum spectrum : mzML.getRun().getSpectrumList()) {
+            for (BinaryDataArray bda : spectrum.getBinaryDataArrayList()) {
+                if (bda.ismzArray() && mzCompression != null) {
+                    bda.setCompression(mzCompression);
+                } else if (bda.isIntensityArray() && intensityCompression != null) {
+                    bda.setCompression(intensityCompression);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Choose the compression of either the m/z arrays or the intensity arrays,
+     * from a sample evenly spaced throughout the SpectrumList.
+     * 
+     * @param spectrumList SpectrumList to sample
+     * @param mzArrays true to sample m/z arrays, false to sample intensity arrays
+     * @return Chosen compression, or null if there were no arrays to sample
+     * @throws IOException Issue reading the data
+     */
+    protected BinaryDataArray.CompressionType selectCompression(SpectrumList spectrumList, boolean mzArrays) throws IOException {
+        List<double[]> samples = new ArrayList<double[]>();
+        DataType dataType = null;
+        int step = Math.max(1, spectrumList.size() / compressionSelector.getMaxSamples());
+
+        for (int i = 0; i < spectrumList.size(); i += step) {
+            for (BinaryDataArray bda : spectrumList.getSpectrum(i).getBinaryDataArrayList()) {
+                if (mzArrays ? !bda.ismzArray() : !bda.isIntensityArray()) {
+                    continue;
+                }
+
+                double[] ddata = bda.getDataAsDouble();
+
+                if (ddata != null) {
+                    samples.add(ddata);
+                    
+                    if (dataType == null) {
+                        dataType = bda.getDataType();
+                    }
+                }
+            }
+        }
+        
+        if (samples.isEmpty()) {
+            return null;
+        }
+
+        return compressionSelector.select(samples, dataType);
+    }
+    
+    /**
+     * Check whether data stored with the specified compression is compressed
+     * with zstd.
+     * 
+     * @param compression Compression
+     * @return true if zstd is used
+     */
+    private static boolean isZstdCompression(BinaryDataArray.CompressionType compression) {
+        switch (compression) {
+            case ZSTD:
+            case MSNUMPRESS_LINEAR_ZSTD:
+            case MSNUMPRESS_POSITIVE_ZSTD:
+            case MSNUMPRESS_SLOF_ZSTD:
+            case BYTE_SHUFFLE_ZSTD:
+            case DELTA_BYTE_SHUFFLE_ZSTD:
+                return true;
             default:
-                fileContent.addCVParam(new EmptyCVParam(OBO.getOBO().getTerm(FileContent.BINARY_TYPE_PROCESSED_ID)));
-                break;
+                return false;
+        }
+    }
+
+    /**
+     * Encode each array, using the pool of encoding threads if there is more than
+     * one, and write them out in order.
+     * 
+     * @param tasks Arrays to encode, in the order they are written
+     * @throws IOException Issue reading, encoding or writing the data
+     */
+    protected void encodeAndWrite(List<EncodeTask> tasks) throws IOException {
+        if (encodingThreads == 1) {
+            for (EncodeTask task : tasks) {
+                writeEncodedArray(task, task.call());
+            }
+
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(encodingThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ImzMLWriter encoder");
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+
+        Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>(encodingThreads * 2);
+        int submitted = 0;
+
+        try {
+            for (EncodeTask task : tasks) {
+                while (submitted < tasks.size() && pending.size() < encodingThreads * 2) {
+                    pending.add(executor.submit(tasks.get(submitted++)));
+                }
+
+                writeEncodedArray(task, FutureHelper.getResult(pending.poll(), "encoding data"));
+            }
+        } finally {
+            for (Future<byte[]> future : pending) {
+                future.cancel(false);
+            }
+
+            // Do not interrupt, as interrupting a FileChannel read closes the channel
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Write out an encoded array at the current data pointer, updating the 
+     * CVParams of the array and the total ion current of the spectrum.
+     * 
+     * @param task Task which encoded the array
+     * @param bdata Encoded data, or null if there was no data
+     * @throws IOException Issue writing the data
+     */
+    private void writeEncodedArray(EncodeTask task, byte[] bdata) throws IOException {
+        if (task.source != null) {
+            if (!Arrays.equals(task.source.mzs, task.mzs)) {
+                throw new IllegalArgumentException("m/z values of spectrum " + task.spectrum.getID() + " differ from those of the first spectrum, so cannot be written as continuous");
+            }
+
+            task.mzs = null;
+
+            shareDataLocation(task.binaryDataArray, task.source.binaryDataArray);
+
+            return;
         }
 
-        // Make sure that any referanceableParamGroup for the data arrays state that the data is external
-        ReferenceableParamGroup rpgmzArray = mzML.getReferenceableParamGroupList().getReferenceableParamGroup("mzArray");
-        if (rpgmzArray != null) {
-            rpgmzArray.removeCVParam(BinaryDataArray.EXTERNAL_DATA_ID);
-            rpgmzArray.addCVParam(new BooleanCVParam(OBO.getOBO().getTerm(BinaryDataArray.EXTERNAL_DATA_ID), true));
+        if (bdata == null) {
+            LOGGER.log(Level.SEVERE, "Null data in BinaryDataArray {0}", task.binaryDataArray);
+
+            return;
         }
-        ReferenceableParamGroup rpgintensityArray = mzML.getReferenceableParamGroupList().getReferenceableParamGroup("intensityArray");
-        if (rpgintensityArray != null) {
-            rpgintensityArray.removeCVParam(BinaryDataArray.EXTERNAL_DATA_ID);
-            rpgintensityArray.addCVParam(new BooleanCVParam(OBO.getOBO().getTerm(BinaryDataArray.EXTERNAL_DATA_ID), true));
+
+        updateDataLocation(task.binaryDataArray, task.arrayLength, bdata.length);
+
+        writeData(bdata);
+
+        // Update the TIC
+        if (task.spectrum != null && task.binaryDataArray.isIntensityArray()) {
+            CVParam ticParam = task.spectrum.getCVParam(Spectrum.TOTAL_ION_CURRENT_ID);
+
+            if (ticParam == null) {
+                ticParam = new DoubleCVParam(OBO.getOBO().getTerm(Spectrum.TOTAL_ION_CURRENT_ID), task.totalIonCurrent);
+                task.spectrum.addCVParam(ticParam);
+            } else {
+                ((DoubleCVParam) ticParam).setValue(task.totalIonCurrent);
+            }
         }
     }
 
+    /**
+     * Task to read, convert and compress a single BinaryDataArray, which only 
+     * modifies that array. The compression is chosen first if it is chosen per 
+     * spectrum, and the total ion current is calculated for intensity arrays of
+     * spectra. Updating the location of the data and the total ion current of the
+     * spectrum is left until the array is written, as it must happen in order.
+     */
+    protected class EncodeTask implements Callable<byte[]> {
+
+        /**
+         * Spectrum the array belongs to, or null for chromatograms.
+         */
+        private final Spectrum spectrum;
+
+        /**
+         * BinaryDataArray to encode.
+         */
+        private final BinaryDataArray binaryDataArray;
+
+        /**
+         * Dictionary to use if the array is compressed with zstd, or null.
+         */
+        private final ZstdDictionary dictionary;
+
+        /**
+         * Offset of the dictionary in the IBD file.
+         */
+        private final long dictionaryOffset;
+
+        /**
+         * Task writing the data which this array shares, rather than writing its
+         * own, or null.
+         */
+        private final EncodeTask source;
+
+        /**
+         * Number of values in the array, once encoded.
+         */
+        private int arrayLength;
+
+        /**
+         * Total ion current of the array, once encoded.
+         */
+        private double totalIonCurrent;
+
+        /**
+         * For continuous output, the m/z values of the array, once read, so that
+         * every spectrum can be checked against the shared m/z array.
+         */
+        private double[] mzs;
+
+        /**
+         * Create a task to encode a BinaryDataArray.
+         * 
+         * @param spectrum Spectrum the array belongs to, or null for chromatograms
+         * @param binaryDataArray BinaryDataArray to encode
+         * @param dictionary Dictionary to use if the array is compressed with zstd, or null
+         * @param dictionaryOffset Offset of the dictionary in the IBD file
+         */
+        public EncodeTask(Spectrum spectrum, BinaryDataArray binaryDataArray, ZstdDictionary dictionary, long dictionaryOffset) {
+            this.spectrum = spectrum;
+            this.binaryDataArray = binaryDataArray;
+            this.dictionary = dictionary;
+            this.dictionaryOffset = dictionaryOffset;
+            this.source = null;
+        }
+
+        /**
+         * Create a task for a BinaryDataArray which shares the data written by
+         * another task, so is only read to check that it matches, and not encoded.
+         * 
+         * @param spectrum Spectrum the array belongs to
+         * @param binaryDataArray BinaryDataArray sharing the data
+         * @param source Task writing the shared data
+         */
+        public EncodeTask(Spectrum spectrum, BinaryDataArray binaryDataArray, EncodeTask source) {
+            this.spectrum = spectrum;
+            this.binaryDataArray = binaryDataArray;
+            this.dictionary = null;
+            this.dictionaryOffset = 0;
+            this.source = source;
+        }
+
+        @Override
+        public byte[] call() throws IOException {
+            if (source != null) {
+                // The data is not written, but must match the shared data
+                mzs = binaryDataArray.getDataAsDouble();
+
+                return new byte[0];
+            }
+
+            double[] ddata = binaryDataArray.getDataAsDouble();
 
+            if (ddata == null) {
+                return null;
+            }
+
+            if (outputType == OutputType.CONTINUOUS && spectrum != null && binaryDataArray.ismzArray()) {
+                mzs = ddata;
+            }
+
+            if (spectrum != null && compressionSelector != null && compressionSelector.isPerSpectrum() 
+                    && (binaryDataArray.ismzArray() || binaryDataArray.isIntensityArray())) {
+                binaryDataArray.setCompression(compressionSelector.select(ddata, binaryDataArray.getDataType()));
+            }
+
+            if (dictionary != null && isZstdCompression(getCompression(binaryDataArray))) {
+                binaryDataArray.setZstdDictionary(dictionary, dictionaryOffset);
+            } else {
+                binaryDataArray.setZstdDictionary(null, 0);
+            }
+
+            arrayLength = ddata.length;
+
+            if (spectrum != null && binaryDataArray.isIntensityArray()) {
+                double total = 0;
+
+                for (double dataPoint : ddata) {
+                    total += dataPoint;
+                }
+
+                totalIonCurrent = total;
+            }
+
+            return encodeData(ddata, binaryDataArray);
+        }
+    }
+
+    protected void updateOBOList(MzML mzML) {
+        mzML.getCVList().clear();
+        OBO obo = OBO.getOBO();
+        List<OBO> fullOBOList = obo.getFullImportHeirarchy();
+
+        for (OBO currentOBO : fullOBOList) {
+            mzML.getCVList().addCV(new CV(currentOBO));
+        }
+    }
 
     @Override
     public void write(MzML mzML, String outputLocation) throws IOException {
@@ -136,65 +565,107 @@ public class ImzMLWriter extends ImzMLWriterAbstract {
 
             messageDigest = MessageDigest.getInstance(algorithm);
 
-            // Open the IBD file ready for writing, using the RandomAccessFile to get
-            // current location
-            dataRAF = new RandomAccessFile(ibdLocation + ".ibd", "rw");
-            dataOutput = new DataOutputStream(new FileOutputStream(dataRAF.getFD()));
+            // Open the IBD file ready for writing, which is written (and the checksum
+            // calculated) in the background
+            openDataOutput(new File(ibdLocation + ".ibd"));
 
             // Create new UUID and write it to the start of the IBD file
             UUID uuid = UUID.randomUUID();
-            writeData(UUIDHelper.uuidToByteArray(uuid));
+            boolean dataComplete = false;
+
+            try {
+                writeData(UUIDHelper.uuidToByteArray(uuid));
 
-            if (mzML.getRun().getSpectrumList() != null) {
-                // TODO: For continuous data only write the m/z list once
-                for (Spectrum spectrum : mzML.getRun().getSpectrumList()) {
+                // Choose the compression before training dictionaries, so that the arrays using zstd are known
+                if (compressionSelector != null) {
+                    selectCompression(mzML);
+                }
 
-                    for (BinaryDataArray bda : spectrum.getBinaryDataArrayList()) {
-                        double[] ddata = bda.getDataAsDouble();
+                // Train and write out the zstd dictionaries after the UUID
+                ZstdDictionary mzDictionary = null;
+                ZstdDictionary intensityDictionary = null;
+                long mzDictionaryOffset = 0;
+                long intensityDictionaryOffset = 0;
 
-                        if (ddata != null) {
-                            byte[] bdata = prepareData(ddata, bda);
+                if (zstdDictionarySize > 0 && mzML.getRun().getSpectrumList() != null) {
+                    mzDictionary = trainZstdDictionary(mzML.getRun().getSpectrumList(), true);
 
-                            writeData(bdata);
+                    if (mzDictionary != null) {
+                        mzDictionaryOffset = getDataPointer();
+                        writeData(mzDictionary.getBytes());
+                    }
 
-                            // Update the TIC
-                            if (bda.isIntensityArray()) {
-                                double total = 0;
+                    intensityDictionary = trainZstdDictionary(mzML.getRun().getSpectrumList(), false);
 
-                                for (double dataPoint : ddata) {
-                                    total += dataPoint;
-                                }
+                    if (intensityDictionary != null) {
+                        intensityDictionaryOffset = getDataPointer();
+                        writeData(intensityDictionary.getBytes());
+                    }
+                }
+
+                // Read and encode every array, then write them out in order
+                List<EncodeTask> tasks = new ArrayList<EncodeTask>();
+
+                if (mzML.getRun().getSpectrumList() != null) {
+                    // For continuous data only the first m/z array is written, and shared by all spectra
+                    EncodeTask sharedmzTask = null;
 
-                                CVParam ticParam = spectrum.getCVParam(Spectrum.TOTAL_ION_CURRENT_ID);
+                    for (Spectrum spectrum : mzML.getRun().getSpectrumList()) {
+                        // Locate the arrays here rather than on the encoding threads, which share the spectrum
+                        spectrum.ensureLoadableData();
 
-                                if (ticParam == null) {
-                                    ticParam = new DoubleCVParam(OBO.getOBO().getTerm(Spectrum.TOTAL_ION_CURRENT_ID), total);
-                                    spectrum.addCVParam(ticParam);
-                                } else {
-                                    ((DoubleCVParam) ticParam).setValue(total);
+                        for (BinaryDataArray bda : spectrum.getBinaryDataArrayList()) {
+                            if (outputType == OutputType.CONTINUOUS && bda.ismzArray()) {
+                                if (sharedmzTask != null) {
+                                    tasks.add(new EncodeTask(spectrum, bda, sharedmzTask));
+
+                                    continue;
                                 }
                             }
-                        } else {
-                            LOGGER.log(Level.SEVERE, "Null data in BinaryDataArray {0}", bda);
+
+                            ZstdDictionary dictionary = null;
+                            long dictionaryOffset = 0;
+
+                            if (bda.ismzArray()) {
+                                dictionary = mzDictionary;
+                                dictionaryOffset = mzDictionaryOffset;
+                            } else if (bda.isIntensityArray()) {
+                                dictionary = intensityDictionary;
+                                dictionaryOffset = intensityDictionaryOffset;
+                            }
+
+                            EncodeTask task = new EncodeTask(spectrum, bda, dictionary, dictionaryOffset);
+                            tasks.add(task);
+
+                            if (outputType == OutputType.CONTINUOUS && bda.ismzArray()) {
+                                sharedmzTask = task;
+                            }
                         }
                     }
                 }
-            }
 
-            // Write out all chromatograms
-            if (mzML.getRun().getChromatogramList() != null) {
-                for (Chromatogram chromatogram : mzML.getRun().getChromatogramList()) {
-                    for (BinaryDataArray bda : chromatogram.getBinaryDataArrayList()) {
-                        double[] ddata = bda.getDataAsDouble();
-                        byte[] bdata = prepareData(ddata, bda);
+                // Write out all chromatograms
+                if (mzML.getRun().getChromatogramList() != null) {
+                    for (Chromatogram chromatogram : mzML.getRun().getChromatogramList()) {
+                        chromatogram.ensureLoadableData();
 
-                        writeData(bdata);
+                        for (BinaryDataArray bda : chromatogram.getBinaryDataArrayList()) {
+                            tasks.add(new EncodeTask(null, bda, null, 0));
+                        }
                     }
                 }
-            }
 
-            dataRAF.setLength(dataRAF.getFilePointer());
-            dataOutput.close();
+                encodeAndWrite(tasks);
+
+                closeDataOutput();
+
+                dataComplete = true;
+            } finally {
+                // Stop the background threads and close the file if anything failed
+                if (!dataComplete) {
+                    abortDataOutput();
+                }
+            }
 
             // Update UUID in the metadata
             FileContent fileContent = mzML.getFileDescription().getFileContent();
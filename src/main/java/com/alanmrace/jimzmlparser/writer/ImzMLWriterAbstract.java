@@ -5,10 +5,10 @@ import com.alanmrace.jimzmlparser.imzml.PixelLocation;
 import com.alanmrace.jimzmlparser.mzml.*;
 import com.alanmrace.jimzmlparser.obo.OBO;
 
-import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.security.MessageDigest;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.DataFormatException;
@@ -21,14 +21,10 @@ public abstract class ImzMLWriterAbstract extends ImzMLHeaderWriter {
     private static final Logger LOGGER = Logger.getLogger(ImzMLWriterAbstract.class.getName());
 
     /**
-     * RandomAccessFile for the file containing the binary data.
+     * Writer of the file containing the binary data, which also updates the 
+     * checksum.
      */
-    protected RandomAccessFile dataRAF;
-
-    /**
-     * BufferedWriter created from the data RandomAccessFile for writing out to.
-     */
-    protected DataOutputStream dataOutput;
+    protected BackgroundDataWriter dataWriter;
 
     /**
      * Possible algorithms to use when generating a checksum of the IBD file.
@@ -60,6 +56,179 @@ public abstract class ImzMLWriterAbstract extends ImzMLHeaderWriter {
      */
     protected MessageDigest messageDigest;
 
+    /**
+     * Set how to write the ImzML file. When continuous, every spectrum is expected
+     * to have the same m/z values, so the m/z array is only written once and 
+     * referenced by every spectrum.
+     *
+     * @param outputType Continuous or processed
+     */
+    public void setOutputType(ImzMLWriter.OutputType outputType) {
+        this.outputType = outputType;
+    }
+
+    /**
+     * Get how the ImzML file is written.
+     *
+     * @return Continuous or processed
+     */
+    public ImzMLWriter.OutputType getOutputType() {
+        return outputType;
+    }
+
+    /**
+     * Chooses the compression of each m/z and intensity array, or null to use the
+     * compression described by the CVParams of each array.
+     */
+    protected CompressionSelector compressionSelector;
+
+    /**
+     * Set how the compression of each m/z and intensity array is chosen. When set,
+     * the compression is chosen by trying each of the candidate compression types
+     * on a sample of the data, rather than using the compression described by the
+     * CVParams of each array. The choice depends on measured decompression times,
+     * so the output is not guaranteed to be byte-reproducible.
+     *
+     * @param compressionSelector CompressionSelector, or null to use the compression
+     * described by the CVParams of each array
+     */
+    public void setCompressionSelector(CompressionSelector compressionSelector) {
+        this.compressionSelector = compressionSelector;
+    }
+
+    /**
+     * Get how the compression of each m/z and intensity array is chosen.
+     *
+     * @return CompressionSelector, or null if the compression described by the
+     * CVParams of each array is used
+     */
+    public CompressionSelector getCompressionSelector() {
+        return compressionSelector;
+    }
+
+    /**
+     * Whether LZ4 data is written as self-describing frames rather than raw blocks.
+     */
+    protected boolean lz4Frames;
+
+    /**
+     * Set whether LZ4 data is written as self-describing LZ4 frames rather than
+     * raw LZ4 blocks. Frames do not require the size of data compressed following
+     * MS-Numpress to be recorded, but are described by the same CVParams as raw 
+     * blocks, so are only readable by this version onwards. Raw blocks are 
+     * written by default.
+     *
+     * @param lz4Frames true to write LZ4 frames, false to write raw LZ4 blocks
+     */
+    public void setLZ4Frames(boolean lz4Frames) {
+        this.lz4Frames = lz4Frames;
+    }
+
+    /**
+     * Get whether LZ4 data is written as self-describing frames rather than raw blocks.
+     *
+     * @return true if LZ4 frames are written, false if raw LZ4 blocks are written
+     */
+    public boolean isLZ4Frames() {
+        return lz4Frames;
+    }
+
+    /**
+     * Set the compression of a BinaryDataArray, which takes precedence over any
+     * compression described by the ReferenceableParamGroups it references. The
+     * compression is removed from those ReferenceableParamGroups, so any other
+     * BinaryDataArray referencing them must also have its compression set.
+     *
+     * @param binaryDataArray BinaryDataArray to set the compression of
+     * @param compression Compression
+     */
+    protected void setCompression(BinaryDataArray binaryDataArray, BinaryDataArray.CompressionType compression) {
+        for (int i = 0; i < binaryDataArray.getReferenceableParamGroupRefCount(); i++) {
+            ReferenceableParamGroupRef ref = binaryDataArray.getReferenceableParamGroupRef(i);
+
+            if (ref != null && ref.getReference() != null) {
+                removeCompression(ref.getReference());
+            }
+        }
+
+        binaryDataArray.setCompression(compression);
+    }
+
+    /**
+     * Remove the compression CVParam, and any filter applied prior to compression,
+     * from the params of a BinaryDataArray or ReferenceableParamGroup.
+     *
+     * @param params BinaryDataArray or ReferenceableParamGroup
+     */
+    protected void removeCompression(HasParams params) {
+        params.removeChildrenOfCVParam(BinaryDataArray.COMPRESSION_TYPE_ID, false);
+
+        List<UserParam> userParamList = params.getUserParamList();
+
+        for (int i = userParamList.size() - 1; i >= 0; i--) {
+            if (BinaryDataArray.DATA_FILTER_NAME.equals(userParamList.get(i).getName())) {
+                params.removeUserParam(i);
+            }
+        }
+    }
+
+    /**
+     * Get the compression currently described by the CVParams of a BinaryDataArray.
+     *
+     * @param binaryDataArray BinaryDataArray
+     * @return Compression, which is NONE if no compression is described
+     */
+    protected BinaryDataArray.CompressionType getCompression(BinaryDataArray binaryDataArray) {
+        CVParam compressionCVParam = binaryDataArray.getCVParamOrChild(BinaryDataArray.COMPRESSION_TYPE_ID);
+        BinaryDataArray.CompressionType compression = null;
+
+        if (compressionCVParam != null) {
+            UserParam filter = binaryDataArray.getUserParam(BinaryDataArray.DATA_FILTER_NAME);
+
+            compression = BinaryDataArray.CompressionType.fromID(compressionCVParam.getTerm().getID(), filter == null ? null : filter.getValue());
+        }
+
+        if (compression == null) {
+            return BinaryDataArray.CompressionType.NONE;
+        }
+
+        return compression;
+    }
+
+    /**
+     * Check whether data stored with the specified compression is compressed
+     * with LZ4 following MS-Numpress.
+     *
+     * @param compression Compression
+     * @return true if LZ4 follows MS-Numpress
+     */
+    private static boolean isNumpressLZ4Compression(BinaryDataArray.CompressionType compression) {
+        switch (compression) {
+            case MSNUMPRESS_LINEAR_LZ4:
+            case MSNUMPRESS_POSITIVE_LZ4:
+            case MSNUMPRESS_SLOF_LZ4:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Remove any {@link BinaryDataArray#LZ4_DECOMPRESSION_SIZE_NAME} UserParam
+     * from a BinaryDataArray, as it only applies to the data it was written with.
+     *
+     * @param binaryDataArray BinaryDataArray to update
+     */
+    private static void removeLZ4DecompressionSize(BinaryDataArray binaryDataArray) {
+        List<UserParam> userParamList = binaryDataArray.getUserParamList();
+
+        for (int i = userParamList.size() - 1; i >= 0; i--) {
+            if (BinaryDataArray.LZ4_DECOMPRESSION_SIZE_NAME.equals(userParamList.get(i).getName())) {
+                binaryDataArray.removeUserParam(i);
+            }
+        }
+    }
+
     protected String getIBDLocationFromOutput(String outputLocation) {
         String ibdLocation = outputLocation;
 
@@ -72,6 +241,33 @@ public abstract class ImzMLWriterAbstract extends ImzMLHeaderWriter {
         return ibdLocation;
     }
 
+    protected void updateStorageInformation(MzML mzML) {
+        FileContent fileContent = mzML.getFileDescription().getFileContent();
+        fileContent.removeChildrenOfCVParam(FileContent.BINARY_TYPE_ID, false);
+
+        switch (outputType) {
+            case CONTINUOUS:
+                fileContent.addCVParam(new EmptyCVParam(OBO.getOBO().getTerm(FileContent.BINARY_TYPE_CONTINUOUS_ID)));
+                break;
+            case PROCESSED:
+            default:
+                fileContent.addCVParam(new EmptyCVParam(OBO.getOBO().getTerm(FileContent.BINARY_TYPE_PROCESSED_ID)));
+                break;
+        }
+
+        // Make sure that any referanceableParamGroup for the data arrays state that the data is external
+        ReferenceableParamGroup rpgmzArray = mzML.getReferenceableParamGroupList().getReferenceableParamGroup("mzArray");
+        if (rpgmzArray != null) {
+            rpgmzArray.removeCVParam(BinaryDataArray.EXTERNAL_DATA_ID);
+            rpgmzArray.addCVParam(new BooleanCVParam(OBO.getOBO().getTerm(BinaryDataArray.EXTERNAL_DATA_ID), true));
+        }
+        ReferenceableParamGroup rpgintensityArray = mzML.getReferenceableParamGroupList().getReferenceableParamGroup("intensityArray");
+        if (rpgintensityArray != null) {
+            rpgintensityArray.removeCVParam(BinaryDataArray.EXTERNAL_DATA_ID);
+            rpgintensityArray.addCVParam(new BooleanCVParam(OBO.getOBO().getTerm(BinaryDataArray.EXTERNAL_DATA_ID), true));
+        }
+    }
+
     protected void updateMaxCoordinateInformation(MzML mzML) {
         int maxX = 0;
         int maxY = 0;
@@ -89,6 +285,18 @@ public abstract class ImzMLWriterAbstract extends ImzMLHeaderWriter {
             }
         }
 
+        updateMaxCoordinateInformation(mzML, maxX, maxY);
+    }
+
+    /**
+     * Record the maximum x and y pixel coordinates in the ScanSettings, adding
+     * ScanSettings if there are none.
+     *
+     * @param mzML MzML to update
+     * @param maxX Maximum x coordinate
+     * @param maxY Maximum y coordinate
+     */
+    protected void updateMaxCoordinateInformation(MzML mzML, int maxX, int maxY) {
         // If the scan settings does not currently exist, make sure to add one
         ScanSettings scanSettings;
 
@@ -113,55 +321,160 @@ public abstract class ImzMLWriterAbstract extends ImzMLHeaderWriter {
 
     @Override
     public byte[] prepareData(double[] data, BinaryDataArray binaryDataArray) throws IOException {
-        byte[] byteData = null;
+        byte[] byteData = encodeData(data, binaryDataArray);
+
+        if (byteData != null) {
+            updateDataLocation(binaryDataArray, data.length, byteData.length);
+        }
+
+        return byteData;
+    }
 
+    /**
+     * Convert and compress data as described by the CVParams of a BinaryDataArray.
+     * Only the {@link BinaryDataArray#LZ4_DECOMPRESSION_SIZE_NAME} UserParam of 
+     * the BinaryDataArray is updated, so different arrays can be encoded 
+     * concurrently.
+     *
+     * @param data Data to encode
+     * @param binaryDataArray BinaryDataArray describing the data type and compression
+     * @return Encoded data, or null if the data could not be encoded
+     */
+    protected byte[] encodeData(double[] data, BinaryDataArray binaryDataArray) {
         try {
-            DataTransformation transformation = binaryDataArray.generateDataTransformation();
+            DataTransformation transformation = binaryDataArray.generateDataTransformation(lz4Frames);
             byte[] transformedData = transformation.performForwardTransform(data);
 
-            // If using LZ4, the size of the decompressed data is required before decompression, so add this in as a UserParam that can be used later
-            if (binaryDataArray.getCVParam(BinaryDataArray.MSNUMPRESS_LINEAR_LZ4_ID) != null
-                    || binaryDataArray.getCVParam(BinaryDataArray.MSNUMPRESS_POSITIVE_LZ4_ID) != null
-                    || binaryDataArray.getCVParam(BinaryDataArray.MSNUMPRESS_SLOF_LZ4_ID) != null) {
+            removeLZ4DecompressionSize(binaryDataArray);
+
+            // If using raw LZ4 blocks, the size of the decompressed data is required before decompression, so add this in as a UserParam that can be used later
+            if (!lz4Frames && isNumpressLZ4Compression(getCompression(binaryDataArray))) {
                 int[] dataSizeAtEachStage = transformation.getDataSizeAtEachStage();
 
-                binaryDataArray.addUserParam(new UserParam("LZ4 decompression size", "" + dataSizeAtEachStage[dataSizeAtEachStage.length - 2]));
+                binaryDataArray.addUserParam(new UserParam(BinaryDataArray.LZ4_DECOMPRESSION_SIZE_NAME, "" + dataSizeAtEachStage[dataSizeAtEachStage.length - 2]));
             }
 
             //System.out.println(binaryDataArray.getCVParamOrChild(BinaryDataArray.compressionTypeID));
             //System.out.println(Arrays.toString(transformation.getDataSizeAtEachStage()));
-            binaryDataArray.removeCVParam(BinaryDataArray.EXTERNAL_DATA_ID);
+            return transformedData;
+        } catch (DataFormatException ex) {
+            LOGGER.log(Level.SEVERE, null, ex);
+        }
 
-            binaryDataArray.removeCVParam(BinaryDataArray.EXTERNAL_OFFSET_ID);
-            binaryDataArray.addCVParam(new LongCVParam(OBO.getOBO().getTerm(BinaryDataArray.EXTERNAL_OFFSET_ID), getDataPointer()));
+        return null;
+    }
 
-            binaryDataArray.removeCVParam(BinaryDataArray.EXTERNAL_ARRAY_LENGTH_ID);
-            binaryDataArray.addCVParam(new IntegerCVParam(OBO.getOBO().getTerm(BinaryDataArray.EXTERNAL_ARRAY_LENGTH_ID), data.length));
+    /**
+     * Update the CVParams of a BinaryDataArray to describe encoded data which is
+     * about to be written at the current data pointer.
+     *
+     * @param binaryDataArray BinaryDataArray to update
+     * @param arrayLength Number of values in the array
+     * @param encodedLength Length in bytes of the encoded data
+     * @throws IOException Issue getting the data pointer
+     */
+    protected void updateDataLocation(BinaryDataArray binaryDataArray, int arrayLength, int encodedLength) throws IOException {
+        updateDataLocation(binaryDataArray, getDataPointer(), arrayLength, encodedLength);
+    }
 
-            binaryDataArray.removeCVParam(BinaryDataArray.EXTERNAL_ENCODED_LENGTH_ID);
-            binaryDataArray.addCVParam(new IntegerCVParam(OBO.getOBO().getTerm(BinaryDataArray.EXTERNAL_ENCODED_LENGTH_ID), transformedData.length));
+    /**
+     * Update the CVParams of a BinaryDataArray to describe encoded data which has
+     * been, or is about to be, written at the specified offset.
+     *
+     * @param binaryDataArray BinaryDataArray to update
+     * @param offset Offset in bytes of the encoded data
+     * @param arrayLength Number of values in the array
+     * @param encodedLength Length in bytes of the encoded data
+     */
+    protected void updateDataLocation(BinaryDataArray binaryDataArray, long offset, int arrayLength, int encodedLength) {
+        binaryDataArray.removeCVParam(BinaryDataArray.EXTERNAL_DATA_ID);
 
-            byteData = transformedData;
-        } catch (DataFormatException ex) {
-            LOGGER.log(Level.SEVERE, null, ex);
+        binaryDataArray.removeCVParam(BinaryDataArray.EXTERNAL_OFFSET_ID);
+        binaryDataArray.addCVParam(new LongCVParam(OBO.getOBO().getTerm(BinaryDataArray.EXTERNAL_OFFSET_ID), offset));
+
+        binaryDataArray.removeCVParam(BinaryDataArray.EXTERNAL_ARRAY_LENGTH_ID);
+        binaryDataArray.addCVParam(new IntegerCVParam(OBO.getOBO().getTerm(BinaryDataArray.EXTERNAL_ARRAY_LENGTH_ID), arrayLength));
+
+        binaryDataArray.removeCVParam(BinaryDataArray.EXTERNAL_ENCODED_LENGTH_ID);
+        binaryDataArray.addCVParam(new IntegerCVParam(OBO.getOBO().getTerm(BinaryDataArray.EXTERNAL_ENCODED_LENGTH_ID), encodedLength));
+    }
+
+    /**
+     * Point a BinaryDataArray at the data already written for another, as used 
+     * for the m/z arrays of continuous output. The compression and any zstd
+     * dictionary of the source array are copied, so that the data is decoded
+     * in the same way.
+     *
+     * @param binaryDataArray BinaryDataArray to update
+     * @param source BinaryDataArray whose data has already been written
+     */
+    protected void shareDataLocation(BinaryDataArray binaryDataArray, BinaryDataArray source) {
+        BinaryDataArray.CompressionType compression = getCompression(source);
+
+        if (getCompression(binaryDataArray) != compression) {
+            BinaryDataArray.setCompression(binaryDataArray, compression);
         }
 
-        return byteData;
+        binaryDataArray.setZstdDictionary(null, 0);
+        removeLZ4DecompressionSize(binaryDataArray);
+
+        for (UserParam userParam : source.getUserParamList()) {
+            if (BinaryDataArray.ZSTD_DICTIONARY_OFFSET_NAME.equals(userParam.getName()) 
+                    || BinaryDataArray.ZSTD_DICTIONARY_LENGTH_NAME.equals(userParam.getName())
+                    || BinaryDataArray.LZ4_DECOMPRESSION_SIZE_NAME.equals(userParam.getName())) {
+                binaryDataArray.addUserParam(new UserParam(userParam.getName(), userParam.getValue()));
+            }
+        }
+
+        updateDataLocation(binaryDataArray, 
+                source.getCVParam(BinaryDataArray.EXTERNAL_OFFSET_ID).getValueAsLong(),
+                source.getCVParam(BinaryDataArray.EXTERNAL_ARRAY_LENGTH_ID).getValueAsInteger(),
+                source.getCVParam(BinaryDataArray.EXTERNAL_ENCODED_LENGTH_ID).getValueAsInteger());
+    }
+
+    /**
+     * Open the file to write the binary data to, discarding any existing content.
+     * The data is written, and the checksum updated using {@link #messageDigest}, 
+     * on background threads.
+     *
+     * @param ibdFile File to write the binary data to
+     * @throws IOException Issue opening the file
+     */
+    protected void openDataOutput(File ibdFile) throws IOException {
+        dataWriter = new BackgroundDataWriter(ibdFile, messageDigest);
+    }
+
+    /**
+     * Finish writing the binary data and close the file. The checksum in 
+     * {@link #messageDigest} is complete once this returns.
+     *
+     * @throws IOException Issue writing the data
+     */
+    protected void closeDataOutput() throws IOException {
+        dataWriter.close();
+    }
+
+    /**
+     * Stop writing the binary data after a failure and close the file, without
+     * waiting for any outstanding data to be written. This releases the background
+     * threads and buffers, and does not throw so that the original failure is
+     * reported.
+     */
+    protected void abortDataOutput() {
+        if (dataWriter != null) {
+            dataWriter.abort();
+        }
     }
 
     @Override
     public void writeData(byte[] data) throws IOException {
         if (data.length > 0) {
-            dataOutput.write(data);
-
-            messageDigest.update(data, 0, data.length);
+            dataWriter.write(data);
         }
     }
 
     @Override
     public long getDataPointer() throws IOException {
-        dataOutput.flush();
-
-        return dataRAF.getFilePointer();
+        return dataWriter.getPosition();
     }
 }
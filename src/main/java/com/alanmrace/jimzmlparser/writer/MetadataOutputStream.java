@@ -0,0 +1,333 @@
+package com.alanmrace.jimzmlparser.writer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+
+/**
+ * Buffered output of XML metadata, which encodes strings directly into its buffer
+ * and keeps track of the number of bytes written. The position is therefore
+ * available at any time without flushing, and is the offset within the document
+ * itself even when the underlying stream compresses it. If a MessageDigest is
+ * supplied, it is updated with every byte written, as each buffer is emitted.
+ *
+ * <p>Strings made up only of ASCII characters (which is almost all of the XML
+ * written) are encoded without any intermediate objects when the encoding is
+ * UTF-8, ISO-8859-1 or US-ASCII. Any other string is encoded using the Charset.
+ * Binary data can be written Base64 encoded, which in those encodings is encoded
+ * straight into the buffer.
+ *
+ * @author Alan Race
+ */
+public class MetadataOutputStream extends OutputStream {
+
+    /**
+     * Default size in bytes of the buffer.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Characters used for Base64 encoding, as ASCII.
+     */
+    private static final byte[] BASE64_ALPHABET = {
+        'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'J', 'K', 'L', 'M', 'N', 'O', 'P',
+        'Q', 'R', 'S', 'T', 'U', 'V', 'W', 'X', 'Y', 'Z', 'a', 'b', 'c', 'd', 'e', 'f',
+        'g', 'h', 'i', 'j', 'k', 'l', 'm', 'n', 'o', 'p', 'q', 'r', 's', 't', 'u', 'v',
+        'w', 'x', 'y', 'z', '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', '+', '/'
+    };
+
+    /**
+     * Padding character used for Base64 encoding, as ASCII.
+     */
+    private static final byte BASE64_PAD = '=';
+
+    /**
+     * Stream the metadata is written to.
+     */
+    private final OutputStream out;
+
+    /**
+     * Encoding of the metadata.
+     */
+    private final Charset charset;
+
+    /**
+     * Whether ASCII characters are encoded as a single byte of the same value.
+     */
+    private final boolean asciiCompatible;
+
+    /**
+     * Digest updated with every byte written, or null.
+     */
+    private final MessageDigest digest;
+
+    /**
+     * Buffer of bytes not yet written to the stream.
+     */
+    private final byte[] buffer;
+
+    /**
+     * Number of bytes in the buffer.
+     */
+    private int count;
+
+    /**
+     * Number of bytes at the start of the buffer already added to the digest.
+     */
+    private int digested;
+
+    /**
+     * Total number of bytes written.
+     */
+    private long position;
+
+    /**
+     * Create a MetadataOutputStream with the default buffer size.
+     *
+     * @param out Stream to write the metadata to
+     * @param encoding Encoding of the metadata
+     * @param digest Digest to update with every byte written, or null
+     */
+    public MetadataOutputStream(OutputStream out, String encoding, MessageDigest digest) {
+        this(out, encoding, digest, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create a MetadataOutputStream.
+     *
+     * @param out Stream to write the metadata to
+     * @param encoding Encoding of the metadata
+     * @param digest Digest to update with every byte written, or null
+     * @param bufferSize Size in bytes of the buffer, at least 4
+     */
+    public MetadataOutputStream(OutputStream out, String encoding, MessageDigest digest, int bufferSize) {
+        if (bufferSize < 4) {
+            throw new IllegalArgumentException("Invalid buffer size: " + bufferSize);
+        }
+
+        this.out = out;
+        this.charset = Charset.forName(encoding);
+        this.digest = digest;
+        this.buffer = new byte[bufferSize];
+
+        String name = charset.name();
+        this.asciiCompatible = "UTF-8".equals(name) || "ISO-8859-1".equals(name) || "US-ASCII".equals(name);
+    }
+
+    /**
+     * Get the total number of bytes written so far, which is the offset at which
+     * the next byte will appear in the (uncompressed) document.
+     *
+     * @return Number of bytes written
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Write a string in the encoding of the metadata.
+     *
+     * @param str String to write
+     * @throws IOException Issue writing to the stream
+     */
+    public void write(String str) throws IOException {
+        int length = str.length();
+
+        if (asciiCompatible) {
+            int i = 0;
+
+            while (i < length) {
+                if (count == buffer.length) {
+                    flushBuffer();
+                }
+
+                int start = i;
+                int end = Math.min(length, i + buffer.length - count);
+                char c;
+
+                while (i < end && (c = str.charAt(i)) < 0x80) {
+                    buffer[count++] = (byte) c;
+                    i++;
+                }
+
+                position += i - start;
+
+                if (i < end) {
+                    // Non-ASCII character, so encode the remainder of the string using the Charset
+                    byte[] bytes = str.substring(i).getBytes(charset);
+                    write(bytes, 0, bytes.length);
+
+                    return;
+                }
+            }
+        } else {
+            byte[] bytes = str.getBytes(charset);
+            write(bytes, 0, bytes.length);
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+
+        buffer[count++] = (byte) b;
+        position++;
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        if (length >= buffer.length) {
+            flushBuffer();
+
+            if (digest != null) {
+                digest.update(data, offset, length);
+            }
+
+            out.write(data, offset, length);
+        } else {
+            if (length > buffer.length - count) {
+                flushBuffer();
+            }
+
+            System.arraycopy(data, offset, buffer, count, length);
+            count += length;
+        }
+
+        position += length;
+    }
+
+    /**
+     * Write binary data Base64 encoded (without line breaks), in the encoding of
+     * the metadata.
+     *
+     * @param data Data to encode
+     * @param offset Offset of the first byte to encode
+     * @param length Number of bytes to encode
+     * @throws IOException Issue writing to the stream
+     */
+    public void writeBase64(byte[] data, int offset, int length) throws IOException {
+        if (!asciiCompatible) {
+            byte[] encoded = new byte[(length + 2) / 3 * 4];
+            encodeBase64(data, offset, length, encoded, 0);
+
+            write(new String(encoded, "US-ASCII"));
+
+            return;
+        }
+
+        int end = offset + length;
+
+        while (offset < end) {
+            if (buffer.length - count < 4) {
+                flushBuffer();
+            }
+
+            // Encode as many whole groups of 3 bytes as fit in the buffer
+            int toEncode = Math.min(end - offset, (buffer.length - count) / 4 * 3);
+            int encodedLength = encodeBase64(data, offset, toEncode, buffer, count);
+
+            offset += toEncode;
+            count += encodedLength;
+            position += encodedLength;
+        }
+    }
+
+    /**
+     * Base64 encode data into the destination array, padding the final group if
+     * length is not a multiple of 3.
+     *
+     * @param src Data to encode
+     * @param srcOffset Offset of the first byte to encode
+     * @param length Number of bytes to encode
+     * @param dest Array to place the encoded data in
+     * @param destOffset Index within dest to place the first encoded byte
+     * @return Number of encoded bytes
+     */
+    private static int encodeBase64(byte[] src, int srcOffset, int length, byte[] dest, int destOffset) {
+        int start = destOffset;
+        int end = srcOffset + length;
+        int wholeEnd = srcOffset + length / 3 * 3;
+
+        while (srcOffset < wholeEnd) {
+            int bits = (src[srcOffset++] & 0xff) << 16 | (src[srcOffset++] & 0xff) << 8 | (src[srcOffset++] & 0xff);
+
+            dest[destOffset++] = BASE64_ALPHABET[(bits >>> 18) & 0x3f];
+            dest[destOffset++] = BASE64_ALPHABET[(bits >>> 12) & 0x3f];
+            dest[destOffset++] = BASE64_ALPHABET[(bits >>> 6) & 0x3f];
+            dest[destOffset++] = BASE64_ALPHABET[bits & 0x3f];
+        }
+
+        int remaining = end - srcOffset;
+
+        if (remaining > 0) {
+            int bits = (src[srcOffset] & 0xff) << 16 | (remaining == 2 ? (src[srcOffset + 1] & 0xff) << 8 : 0);
+
+            dest[destOffset++] = BASE64_ALPHABET[(bits >>> 18) & 0x3f];
+            dest[destOffset++] = BASE64_ALPHABET[(bits >>> 12) & 0x3f];
+            dest[destOffset++] = remaining == 2 ? BASE64_ALPHABET[(bits >>> 6) & 0x3f] : BASE64_PAD;
+            dest[destOffset++] = BASE64_PAD;
+        }
+
+        return destOffset - start;
+    }
+
+    /**
+     * Complete the digest of all bytes written so far.
+     *
+     * @return Digest, or null if no MessageDigest was supplied
+     */
+    public byte[] digest() {
+        if (digest == null) {
+            return null;
+        }
+
+        updateDigest();
+
+        return digest.digest();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Add any bytes in the buffer not yet added to the digest.
+     */
+    private void updateDigest() {
+        if (digest != null && digested < count) {
+            digest.update(buffer, digested, count - digested);
+        }
+
+        digested = count;
+    }
+
+    /**
+     * Write the buffer to the stream.
+     *
+     * @throws IOException Issue writing to the stream
+     */
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            updateDigest();
+
+            out.write(buffer, 0, count);
+
+            count = 0;
+            digested = 0;
+        }
+    }
+}
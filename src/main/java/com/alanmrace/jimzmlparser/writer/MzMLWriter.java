@@ -13,12 +13,10 @@ import com.alanmrace.jimzmlparser.mzml.MzMLTag;
 import com.alanmrace.jimzmlparser.mzml.MzMLTagList;
 import com.alanmrace.jimzmlparser.mzml.Spectrum;
 import com.alanmrace.jimzmlparser.util.HexHelper;
-import java.io.BufferedWriter;
 import java.io.FileDescriptor;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.RandomAccessFile;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -34,7 +32,6 @@ import java.util.logging.Logger;
 import java.util.zip.DataFormatException;
 import java.util.zip.GZIPOutputStream;
 import net.jpountz.lz4.LZ4BlockOutputStream;
-import org.apache.commons.codec.binary.Base64;
 import org.tukaani.xz.LZMA2Options;
 import org.tukaani.xz.XZOutputStream;
 
@@ -63,10 +60,10 @@ public class MzMLWriter implements MzMLWritable {
     protected RandomAccessFile metadataRAF;
 
     /**
-     * BufferedWriter created from the metadata RandomAccessFile for writing out
-     * to.
+     * Output created from the metadata RandomAccessFile for writing out to, which
+     * keeps track of the offset within the document and the SHA-1 hash.
      */
-    protected BufferedWriter output;
+    protected MetadataOutputStream output;
 
     /**
      * Whether the mzML index should be written out.
@@ -91,11 +88,6 @@ public class MzMLWriter implements MzMLWritable {
      * of different MzML tag elements.
      */
     private Deque<AtomicInteger> indexStack = new ArrayDeque<AtomicInteger>();
-    
-    /**
-     * Current SHA-1 hash of the metadata file, for use when writing out the index.
-     */
-    private MessageDigest sha1HashDigest;
 
     /**
      * Set up default MzMLWriter. Default encoding is ISO-8859-1 and will output
@@ -174,9 +166,9 @@ public class MzMLWriter implements MzMLWritable {
 
         metadataRAF = new RandomAccessFile(metadataLocation, "rw");
         OutputStream outputStream = getAppropriateOutputStream(outputLocation, metadataRAF.getFD());
-        OutputStreamWriter out = new OutputStreamWriter(outputStream, encoding);
 
-        output = new BufferedWriter(out);
+        // SHA-1 hash of the metadata file, for use when writing out the index
+        MessageDigest sha1HashDigest = null;
 
         if (shouldOutputIndex()) {
             try {
@@ -185,6 +177,8 @@ public class MzMLWriter implements MzMLWritable {
                 Logger.getLogger(MzMLWriter.class.getName()).log(Level.SEVERE, null, ex);
             }
         }
+
+        output = new MetadataOutputStream(outputStream, encoding, sha1HashDigest);
         
         writeMetadata("<?xml version=\"1.0\" encoding=\"" + encoding + "\"?>\n");
 
@@ -205,7 +199,6 @@ public class MzMLWriter implements MzMLWritable {
         if (shouldOutputIndex()) {
             indent--;
 
-            output.flush();
             long indexListOffset = getMetadataPointer();
 
             MzMLWriter.indent(this, indent + 1);
@@ -243,7 +236,7 @@ public class MzMLWriter implements MzMLWritable {
             MzMLWriter.indent(this, indent + 1);
             writeMetadata("<fileChecksum>");
             // Write out directly
-            writeMetadata(HexHelper.byteArrayToHexString(sha1HashDigest.digest()));
+            writeMetadata(HexHelper.byteArrayToHexString(output.digest()));
             writeMetadata("</fileChecksum>\n");
             MzMLWriter.indent(this, indent + 1);
             
@@ -341,22 +334,29 @@ public class MzMLWriter implements MzMLWritable {
     }
 
     protected void writeBinaryTag(BinaryDataArray bda) throws IOException {
-        double[] data = bda.getDataAsDouble();
+        // Copy the data without decoding it if it is already stored as it should be written
+        byte[] byteData = bda.getEncodedData(bda.generateDataTransformation());
 
-        if (data == null) {
-            writeMetadata("<binary />\n");
-        } else {
-            byte[] byteData = prepareData(data, bda);
-//            System.out.println(byteData);
-            writeMetadata("<binary>");
-            writeData(byteData);
-            writeMetadata("</binary>\n");
+        if (byteData == null) {
+            double[] data = bda.getDataAsDouble();
+
+            if (data == null) {
+                writeMetadata("<binary />\n");
+
+                return;
+            }
+
+            byteData = prepareData(data, bda);
         }
+
+        writeMetadata("<binary>");
+        writeData(byteData);
+        writeMetadata("</binary>\n");
     }
 
     @Override
     public void writeData(byte[] data) throws IOException {
-        writeMetadata(new String(Base64.encodeBase64(data)));
+        output.writeBase64(data, 0, data.length);
     }
 
     @Override
@@ -377,11 +377,6 @@ public class MzMLWriter implements MzMLWritable {
 
     @Override
     public void writeMetadata(String str) throws IOException {
-        if (shouldOutputIndex() && sha1HashDigest != null) {
-            // TODO: pass str to SHA1 checksum
-            sha1HashDigest.update(str.getBytes(encoding));
-        }
-        
         output.write(str);
     }
 
@@ -400,9 +395,7 @@ public class MzMLWriter implements MzMLWritable {
 
     @Override
     public long getMetadataPointer() throws IOException {
-        output.flush();
-
-        return metadataRAF.getFilePointer();
+        return output.getPosition();
     }
 
     @Override
@@ -0,0 +1,93 @@
+package com.alanmrace.jimzmlparser.data;
+
+import com.alanmrace.jimzmlparser.mzml.BinaryDataArray;
+import com.alanmrace.jimzmlparser.mzml.BinaryDataArray.CompressionType;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for ByteShuffleDataTransform.
+ *
+ * @author Alan Race
+ */
+public class ByteShuffleDataTransformTest {
+
+    /**
+     * Test of forwardTransform method, of class ByteShuffleDataTransform.
+     */
+    @Test
+    public void testForwardTransform() throws Exception {
+        byte[] data = new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9};
+        byte[] shuffled = new ByteShuffleDataTransform(4).forwardTransform(data);
+
+        assertArrayEquals(new byte[] {1, 5, 2, 6, 3, 7, 4, 8, 9}, shuffled);
+    }
+
+    /**
+     * Test of reverseTransform method, of class ByteShuffleDataTransform.
+     */
+    @Test
+    public void testReverseTransform() throws Exception {
+        Random random = new Random(0);
+
+        for (int elementSize : new int[] {1, 2, 4, 8}) {
+            for (int length : new int[] {0, 3, 64, 1001}) {
+                byte[] data = new byte[length];
+                random.nextBytes(data);
+
+                ByteShuffleDataTransform transform = new ByteShuffleDataTransform(elementSize);
+
+                assertArrayEquals(data, transform.reverseTransform(transform.forwardTransform(data)));
+            }
+        }
+    }
+
+    /**
+     * Test that shuffling sorted m/z values improves their compression, of class
+     * ByteShuffleDataTransform and DeltaDataTransform.
+     */
+    @Test
+    public void testCompressionOfSortedData() throws Exception {
+        Random random = new Random(0);
+        double[] mzs = new double[20000];
+        double mz = 100;
+
+        for (int i = 0; i < mzs.length; i++) {
+            mz += 0.01 + random.nextDouble() * 0.0001;
+            mzs[i] = mz;
+        }
+
+        for (DataTypeTransform.DataType dataType : new DataTypeTransform.DataType[] {DataTypeTransform.DataType.DOUBLE, DataTypeTransform.DataType.FLOAT}) {
+            int lz4Size = BinaryDataArray.generateDataTransformation(dataType, CompressionType.LZ4).performForwardTransform(mzs).length;
+
+            for (CompressionType compression : new CompressionType[] {CompressionType.BYTE_SHUFFLE_LZ4, CompressionType.DELTA_BYTE_SHUFFLE_LZ4,
+                    CompressionType.BYTE_SHUFFLE_ZSTD, CompressionType.DELTA_BYTE_SHUFFLE_ZSTD, CompressionType.DELTA_BYTE_SHUFFLE_ZLIB}) {
+                DataTransformation transformation = BinaryDataArray.generateDataTransformation(dataType, compression);
+                byte[] compressed = transformation.performForwardTransform(mzs);
+                double[] decompressed = transformation.performReverseTransform(compressed);
+
+                assertTrue(compression + " " + dataType, compressed.length < lz4Size);
+                assertEquals(mzs.length, decompressed.length);
+
+                for (int i = 0; i < mzs.length; i++) {
+                    assertEquals(dataType == DataTypeTransform.DataType.DOUBLE ? mzs[i] : (float) mzs[i], decompressed[i], 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Test that filtered compression types are described by the compression
+     * accession and filter, of class CompressionType.
+     */
+    @Test
+    public void testCompressionTypeFilter() {
+        for (CompressionType compression : CompressionType.values()) {
+            assertEquals(compression, CompressionType.fromID(CompressionType.toID(compression), CompressionType.toFilter(compression)));
+        }
+
+        assertEquals(CompressionType.LZ4, CompressionType.fromID(BinaryDataArray.LZ4_COMPRESSION_ID));
+        assertEquals(BinaryDataArray.LZ4_COMPRESSION_ID, CompressionType.toID(CompressionType.DELTA_BYTE_SHUFFLE_LZ4));
+    }
+}
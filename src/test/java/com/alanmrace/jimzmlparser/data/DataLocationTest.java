@@ -0,0 +1,172 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for DataLocation.
+ *
+ * @author Alan Race
+ */
+public class DataLocationTest {
+
+    private File dataFile;
+
+    private double[] data;
+
+    private DataTransformation floatTransformation;
+
+    private DataTransformation compressedTransformation;
+
+    private long compressedOffset;
+
+    private int floatLength;
+
+    private int compressedLength;
+
+    @Before
+    public void setUp() throws Exception {
+        data = new double[1000];
+        Random random = new Random(0);
+
+        for(int i = 0; i < data.length; i++)
+            data[i] = random.nextInt(100000);
+
+        floatTransformation = new DataTransformation();
+        floatTransformation.addTransform(new DataTypeTransform(DataTypeTransform.DataType.DOUBLE, DataTypeTransform.DataType.FLOAT));
+
+        compressedTransformation = new DataTransformation();
+        compressedTransformation.addTransform(new DataTypeTransform(DataTypeTransform.DataType.DOUBLE, DataTypeTransform.DataType.INTEGER_32BIT));
+        compressedTransformation.addTransform(new ZlibDataTransform());
+
+        byte[] floatData = floatTransformation.performForwardTransform(data);
+        byte[] compressedData = compressedTransformation.performForwardTransform(data);
+
+        floatLength = floatData.length;
+        compressedOffset = floatData.length;
+        compressedLength = compressedData.length;
+
+        dataFile = File.createTempFile("DataLocationTest", ".ibd");
+        dataFile.deleteOnExit();
+
+        FileOutputStream outputStream = new FileOutputStream(dataFile);
+
+        try {
+            outputStream.write(floatData);
+            outputStream.write(compressedData);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        dataFile.delete();
+    }
+
+    /**
+     * Test of decodeInto method, of class DataLocation.
+     */
+    @Test
+    public void testDecodeInto() throws Exception {
+        DataStorage storage = new BinaryDataStorage(dataFile, false);
+
+        DataLocation floatLocation = new DataLocation(storage, 0, floatLength);
+        floatLocation.setDataTransformation(floatTransformation);
+
+        DataLocation compressedLocation = new DataLocation(storage, compressedOffset, compressedLength);
+        compressedLocation.setDataTransformation(compressedTransformation);
+
+        double[] dest = new double[data.length * 2 + 1];
+
+        assertEquals(data.length, floatLocation.decodeInto(dest, 1));
+        assertEquals(data.length, compressedLocation.decodeInto(dest, data.length + 1));
+
+        for(int i = 0; i < data.length; i++) {
+            assertEquals(data[i], dest[i + 1], 0);
+            assertEquals(data[i], dest[i + data.length + 1], 0);
+        }
+
+        assertArrayEquals(floatLocation.getData(), compressedLocation.getData(), 0);
+
+        storage.close();
+    }
+
+    /**
+     * Test of decodeInto method when the destination is too small, of class DataLocation.
+     */
+    @Test
+    public void testDecodeIntoPartial() throws Exception {
+        DataStorage storage = new BinaryDataStorage(dataFile, false);
+
+        DataLocation floatLocation = new DataLocation(storage, 0, floatLength);
+        floatLocation.setDataTransformation(floatTransformation);
+
+        DoubleBuffer dest = DoubleBuffer.allocate(10);
+
+        assertEquals(10, floatLocation.decodeInto(dest));
+        assertFalse(dest.hasRemaining());
+
+        for(int i = 0; i < 10; i++)
+            assertEquals(data[i], dest.get(i), 0);
+
+        storage.close();
+    }
+
+    /**
+     * Test of getDataAsFloat, getDataAsInt and typed decodeInto methods, of class DataLocation.
+     */
+    @Test
+    public void testTypedData() throws Exception {
+        DataStorage storage = new BinaryDataStorage(dataFile, false);
+
+        DataLocation floatLocation = new DataLocation(storage, 0, floatLength);
+        floatLocation.setDataTransformation(floatTransformation);
+
+        DataLocation compressedLocation = new DataLocation(storage, compressedOffset, compressedLength);
+        compressedLocation.setDataTransformation(compressedTransformation);
+
+        assertEquals(DataTypeTransform.DataType.FLOAT, floatTransformation.getStoredDataType());
+        assertEquals(DataTypeTransform.DataType.INTEGER_32BIT, compressedTransformation.getStoredDataType());
+
+        float[] floatData = floatLocation.getDataAsFloat();
+        int[] intData = new int[data.length];
+        long[] longData = compressedLocation.getDataAsLong();
+
+        assertEquals(data.length, floatData.length);
+        assertEquals(data.length, compressedLocation.decodeInto(intData, 0));
+        assertEquals(data.length, longData.length);
+
+        for(int i = 0; i < data.length; i++) {
+            assertEquals((float) data[i], floatData[i], 0);
+            assertEquals((int) data[i], intData[i]);
+            assertEquals((long) data[i], longData[i]);
+        }
+
+        storage.close();
+    }
+
+    /**
+     * Test that an offset which has overflowed a 32-bit signed integer is 
+     * corrected when the DataLocation is created, of class DataLocation.
+     */
+    @Test
+    public void testOffsetOverflow() throws Exception {
+        DataStorage storage = new BinaryDataStorage(dataFile, false);
+
+        DataLocation location = new DataLocation(storage, compressedOffset - DataLocation.EXTENDED_OFFSET, compressedLength);
+        location.setDataTransformation(compressedTransformation);
+
+        assertEquals(compressedOffset, location.getOffset());
+        assertArrayEquals(data, location.getData(), 0);
+
+        storage.close();
+    }
+}
@@ -0,0 +1,198 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.apache.commons.codec.binary.Base64;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for DataStorage.
+ *
+ * @author Alan Race
+ */
+public class DataStorageTest {
+
+    private File dataFile;
+
+    private byte[] fileData;
+
+    @Before
+    public void setUp() throws IOException {
+        fileData = new byte[100000];
+        new Random(0).nextBytes(fileData);
+
+        dataFile = File.createTempFile("DataStorageTest", ".ibd");
+        dataFile.deleteOnExit();
+
+        FileOutputStream outputStream = new FileOutputStream(dataFile);
+
+        try {
+            outputStream.write(fileData);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        dataFile.delete();
+    }
+
+    /**
+     * Test of getData method with multiple DataLocations, of class DataStorage.
+     */
+    @Test
+    public void testGetDataBatch() throws Exception {
+        DataStorage storage = new BinaryDataStorage(dataFile, false);
+        DataStorage otherStorage = new BinaryDataStorage(dataFile, false);
+        Random random = new Random(1);
+
+        List<DataLocation> locations = new ArrayList<DataLocation>();
+
+        // Adjacent, overlapping, separated and out of order locations
+        for(int i = 0; i < 200; i++) {
+            int offset = random.nextInt(fileData.length - 1000);
+            locations.add(new DataLocation(storage, offset, random.nextInt(1000)));
+        }
+
+        locations.add(new DataLocation(storage, 0, 100));
+        locations.add(new DataLocation(storage, 100, 100));
+        locations.add(new DataLocation(otherStorage, 50, 100));
+        locations.add(new DataLocation(storage, fileData.length - 10, 10));
+
+        List<byte[]> data = storage.getData(locations);
+
+        assertEquals(locations.size(), data.size());
+
+        for(int i = 0; i < locations.size(); i++) {
+            DataLocation location = locations.get(i);
+            int offset = (int) location.getOffset();
+
+            assertArrayEquals(Arrays.copyOfRange(fileData, offset, offset + location.getLength()), data.get(i));
+        }
+
+        storage.close();
+        otherStorage.close();
+    }
+
+    /**
+     * Test of getData method with multiple DataLocations, of class Base64DataStorage.
+     */
+    @Test
+    public void testGetDataBatchBase64() throws Exception {
+        byte[] first = Base64.encodeBase64(Arrays.copyOfRange(fileData, 0, 30));
+        byte[] second = Base64.encodeBase64(Arrays.copyOfRange(fileData, 30, 90));
+
+        File base64File = File.createTempFile("DataStorageTest", ".b64");
+        base64File.deleteOnExit();
+
+        FileOutputStream outputStream = new FileOutputStream(base64File);
+
+        try {
+            outputStream.write(first);
+            outputStream.write(second);
+        } finally {
+            outputStream.close();
+        }
+
+        DataStorage storage = new Base64DataStorage(base64File);
+
+        List<byte[]> data = storage.getData(Arrays.asList(
+                new DataLocation(storage, first.length, second.length),
+                new DataLocation(storage, 0, first.length)));
+
+        assertArrayEquals(Arrays.copyOfRange(fileData, 30, 90), data.get(0));
+        assertArrayEquals(Arrays.copyOfRange(fileData, 0, 30), data.get(1));
+
+        storage.close();
+        base64File.delete();
+    }
+
+    /**
+     * Test of sequential reads with readahead enabled, of class DataStorage.
+     */
+    @Test
+    public void testReadahead() throws Exception {
+        DataStorage[] storages = {new BinaryDataStorage(dataFile, false), new FileChannelDataStorage(dataFile), new MappedDataStorage(dataFile)};
+
+        for(DataStorage storage : storages) {
+            storage.setReadaheadSize(4096);
+
+            assertEquals(4096, storage.getReadaheadSize());
+
+            for(int offset = 0; offset < fileData.length; offset += 1000) {
+                int length = Math.min(1000, fileData.length - offset);
+
+                assertArrayEquals(Arrays.copyOfRange(fileData, offset, offset + length), storage.getData(offset, length));
+            }
+
+            storage.close();
+        }
+    }
+
+    /**
+     * Test of prefetch method, of class DataStorage.
+     */
+    @Test
+    public void testPrefetch() throws Exception {
+        DataStorage storage = new BinaryDataStorage(dataFile, false);
+        DataStorage otherStorage = new BinaryDataStorage(dataFile, false);
+
+        List<DataLocation> locations = new ArrayList<DataLocation>();
+
+        for(int offset = fileData.length - 1000; offset >= 0; offset -= 1000)
+            locations.add(new DataLocation(storage, offset, 1000));
+
+        locations.add(new DataLocation(otherStorage, 0, 1000));
+
+        storage.prefetch(locations);
+
+        for(DataLocation location : locations) {
+            int offset = (int) location.getOffset();
+
+            assertArrayEquals(Arrays.copyOfRange(fileData, offset, offset + location.getLength()), location.getBytes());
+        }
+
+        // Closing with prefetching potentially outstanding should not fail
+        storage.prefetch(locations);
+        storage.close();
+        otherStorage.close();
+
+        storage.prefetch(locations);
+    }
+
+    /**
+     * Test of reading a region of a DataStorage, of class DataStorageInputStream.
+     */
+    @Test
+    public void testInputStream() throws Exception {
+        DataStorage storage = new BinaryDataStorage(dataFile, false);
+        DataStorageInputStream inputStream = new DataStorageInputStream(storage, 1000, 5000, 300);
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+
+        assertEquals(fileData[1000] & 0xff, inputStream.read());
+        read.write(fileData[1000]);
+
+        byte[] buffer = new byte[700];
+        int length;
+
+        while ((length = inputStream.read(buffer, 0, buffer.length)) != -1) {
+            read.write(buffer, 0, length);
+        }
+
+        assertArrayEquals(Arrays.copyOfRange(fileData, 1000, 6000), read.toByteArray());
+        assertEquals(-1, inputStream.read());
+
+        inputStream.close();
+        storage.close();
+    }
+}
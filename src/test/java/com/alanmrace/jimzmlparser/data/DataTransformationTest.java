@@ -0,0 +1,159 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for DataTransformation.
+ *
+ * @author Alan Race
+ */
+public class DataTransformationTest {
+
+    private double[] data;
+
+    @Before
+    public void setUp() {
+        // Large enough to require multiple chunks when streaming
+        data = new double[50000];
+        Random random = new Random(0);
+
+        for(int i = 0; i < data.length; i++)
+            data[i] = random.nextInt(100000) / 4.0;
+    }
+
+    private DataTransformation createTransformation(DataTransform compression) {
+        DataTransformation transformation = new DataTransformation();
+        transformation.addTransform(new DataTypeTransform(DataTypeTransform.DataType.DOUBLE, DataTypeTransform.DataType.FLOAT));
+        transformation.addTransform(compression);
+
+        return transformation;
+    }
+
+    /**
+     * Test of performReverseTransform method with streamed transforms using correct,
+     * too small and too large size hints, of class DataTransformation.
+     */
+    @Test
+    public void testPerformReverseTransformStreamed() throws Exception {
+        byte[] compressedData = createTransformation(new ZlibDataTransform()).performForwardTransform(data);
+
+        for(int hint : new int[] {0, data.length * 4, data.length * 2 + 3, data.length * 8}) {
+            DataTransformation transformation = createTransformation(new ZlibDataTransform(hint));
+
+            assertArrayEquals(data, transformation.performReverseTransform(compressedData), 0);
+
+            double[] dest = new double[data.length];
+
+            assertEquals(data.length, transformation.performReverseTransform(compressedData, compressedData.length, DoubleBuffer.wrap(dest)));
+            assertArrayEquals(data, dest, 0);
+        }
+    }
+
+    /**
+     * Test of performReverseTransform method streaming into a partial buffer,
+     * of class DataTransformation.
+     */
+    @Test
+    public void testPerformReverseTransformStreamedPartial() throws Exception {
+        DataTransformation transformation = createTransformation(new XZDataTransform());
+        byte[] compressedData = transformation.performForwardTransform(data);
+
+        // Pass in extra bytes which should be ignored
+        byte[] paddedData = new byte[compressedData.length + 100];
+        System.arraycopy(compressedData, 0, paddedData, 0, compressedData.length);
+
+        FloatBuffer dest = FloatBuffer.allocate(20000);
+
+        assertEquals(20000, transformation.performReverseTransform(paddedData, compressedData.length, dest));
+
+        for(int i = 0; i < 20000; i++)
+            assertEquals(data[i], dest.get(i), 0);
+    }
+
+    /**
+     * Test of performReverseTransform method with non-streamed transforms on data
+     * followed by extra bytes, of class DataTransformation.
+     */
+    @Test
+    public void testPerformReverseTransformPadded() throws Exception {
+        DataTransformation shuffled = createTransformation(new ByteShuffleDataTransform(4));
+        shuffled.addTransform(new ZstdDataTransform());
+
+        DataTransformation numpress = new DataTransformation();
+        numpress.addTransform(new MSNumpressDataTransform(MSNumpressDataTransform.NumpressAlgorithm.LINEAR));
+        numpress.addTransform(new LZ4DataTransform());
+
+        DataTransformation[] transformations = {createTransformation(new LZ4DataTransform()), createTransformation(new ZstdDataTransform()), shuffled, numpress, 
+            createTransformation(new ReversingDataTransform())};
+
+        for(DataTransformation transformation : transformations) {
+            byte[] compressedData = transformation.performForwardTransform(data);
+
+            // Pass in extra bytes which should be ignored
+            byte[] paddedData = new byte[compressedData.length + 100];
+            System.arraycopy(compressedData, 0, paddedData, 0, compressedData.length);
+
+            double[] dest = new double[data.length];
+
+            assertEquals(data.length, transformation.performReverseTransform(paddedData, compressedData.length, DoubleBuffer.wrap(dest)));
+            assertArrayEquals(transformation.toString(), data, dest, 1e-4);
+        }
+    }
+
+    /**
+     * Test of hasSameEncoding method, of class DataTransformation.
+     */
+    @Test
+    public void testHasSameEncoding() {
+        assertTrue(createTransformation(new ZlibDataTransform()).hasSameEncoding(createTransformation(new ZlibDataTransform())));
+        assertTrue(new DataTransformation().hasSameEncoding(new DataTransformation()));
+
+        assertFalse(createTransformation(new ZlibDataTransform()).hasSameEncoding(createTransformation(new ZlibDataTransform(1000, 1))));
+        assertFalse(createTransformation(new ZlibDataTransform()).hasSameEncoding(createTransformation(new XZDataTransform())));
+        assertFalse(createTransformation(new ZlibDataTransform()).hasSameEncoding(new DataTransformation()));
+        assertFalse(new DataTransformation().hasSameEncoding(null));
+
+        // LZ4 writes the same data, whatever size is supplied for reading raw blocks
+        assertTrue(createTransformation(new LZ4DataTransform()).hasSameEncoding(createTransformation(new LZ4DataTransform(1000))));
+        assertTrue(createTransformation(new LZ4DataTransform(0, true)).hasSameEncoding(createTransformation(new LZ4DataTransform(1000, true))));
+        assertFalse(createTransformation(new LZ4DataTransform()).hasSameEncoding(createTransformation(new LZ4DataTransform(0, true))));
+
+        // zstd writes the same frames, whatever size is supplied for frames without a content size
+        assertTrue(createTransformation(new ZstdDataTransform()).hasSameEncoding(createTransformation(new ZstdDataTransform(1000))));
+        assertFalse(createTransformation(new ZstdDataTransform()).hasSameEncoding(createTransformation(new ZstdDataTransform(1000, 1, null))));
+
+        // Steps which do not describe their parameters must be the same instance
+        DataTransform reversing = new ReversingDataTransform();
+
+        assertTrue(createTransformation(reversing).hasSameEncoding(createTransformation(reversing)));
+        assertFalse(createTransformation(reversing).hasSameEncoding(createTransformation(new ReversingDataTransform())));
+    }
+
+    /**
+     * DataTransform which only supports reversing whole arrays, as any 
+     * implementation outside the library may, and reverses the order of the bytes.
+     */
+    private static class ReversingDataTransform implements DataTransform {
+
+        @Override
+        public byte[] forwardTransform(byte[] data) {
+            byte[] reversed = new byte[data.length];
+
+            for (int i = 0; i < data.length; i++) {
+                reversed[i] = data[data.length - 1 - i];
+            }
+
+            return reversed;
+        }
+
+        @Override
+        public byte[] reverseTransform(byte[] data) {
+            return forwardTransform(data);
+        }
+    }
+}
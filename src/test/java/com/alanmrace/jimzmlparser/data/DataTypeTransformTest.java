@@ -0,0 +1,137 @@
+package com.alanmrace.jimzmlparser.data;
+
+import com.alanmrace.jimzmlparser.data.DataTypeTransform.DataType;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for DataTypeTransform.
+ *
+ * @author Alan Race
+ */
+public class DataTypeTransformTest {
+
+    private double[] data;
+
+    @Before
+    public void setUp() {
+        // Values which are exactly representable by every data type
+        data = new double[256 + 17];
+
+        for(int i = 0; i < 256; i++)
+            data[i] = i - 128;
+
+        for(int i = 256; i < data.length; i++)
+            data[i] = (i * 37) % 256 - 128;
+    }
+
+    private byte[] getData(DataType dataType) {
+        return DataTypeTransform.convertData(DataTypeTransform.convertDoublesToBytes(data), DataType.DOUBLE, dataType);
+    }
+
+    /**
+     * Test of convertData method for every pair of data types, converting there
+     * and back, of class DataTypeTransform.
+     */
+    @Test
+    public void testConvertDataRoundTrip() {
+        for(DataType from : DataType.values()) {
+            byte[] fromData = getData(from);
+
+            assertEquals(data.length * DataTypeTransform.getDataTypeInBytes(from), fromData.length);
+            assertArrayEquals(from.toString(), data, DataTypeTransform.convertDataToDouble(fromData, from), 0);
+
+            for(DataType to : DataType.values()) {
+                byte[] toData = DataTypeTransform.convertData(fromData, from, to);
+
+                assertArrayEquals(from + " -> " + to, getData(to), toData);
+                assertArrayEquals(to + " -> " + from, fromData, DataTypeTransform.convertData(toData, to, from));
+            }
+        }
+    }
+
+    /**
+     * Test of typed conversion methods for every data type, into arrays and heap,
+     * direct and offset buffers, of class DataTypeTransform.
+     */
+    @Test
+    public void testConvertDataTyped() {
+        for(DataType dataType : DataType.values()) {
+            byte[] typeData = getData(dataType);
+            int bytesPerValue = DataTypeTransform.getDataTypeInBytes(dataType);
+
+            double[] doubleData = DataTypeTransform.convertDataToDouble(typeData, dataType);
+            float[] floatData = DataTypeTransform.convertDataToFloat(typeData, dataType);
+            int[] intData = DataTypeTransform.convertDataToInt(typeData, dataType);
+            long[] longData = DataTypeTransform.convertDataToLong(typeData, dataType);
+
+            for(int i = 0; i < data.length; i++) {
+                assertEquals(data[i], doubleData[i], 0);
+                assertEquals(data[i], floatData[i], 0);
+                assertEquals(data[i], intData[i], 0);
+                assertEquals(data[i], longData[i], 0);
+            }
+
+            // Skip the first value and write after the first position of a sliced buffer
+            int offset = bytesPerValue;
+            int length = typeData.length - offset;
+            int numValues = data.length - 1;
+
+            DoubleBuffer doubleBuffer = DoubleBuffer.wrap(new double[data.length + 2], 1, data.length + 1).slice();
+            doubleBuffer.position(1);
+            DoubleBuffer directDoubleBuffer = ByteBuffer.allocateDirect(data.length * 8).asDoubleBuffer();
+            FloatBuffer floatBuffer = FloatBuffer.allocate(data.length);
+            IntBuffer intBuffer = IntBuffer.allocate(data.length);
+            LongBuffer longBuffer = LongBuffer.allocate(data.length);
+
+            assertEquals(numValues, DataTypeTransform.convertDataToDouble(typeData, offset, length, dataType, doubleBuffer));
+            assertEquals(numValues, DataTypeTransform.convertDataToDouble(typeData, offset, length, dataType, directDoubleBuffer));
+            assertEquals(numValues, DataTypeTransform.convertDataToFloat(typeData, offset, length, dataType, floatBuffer));
+            assertEquals(numValues, DataTypeTransform.convertDataToInt(typeData, offset, length, dataType, intBuffer));
+            assertEquals(numValues, DataTypeTransform.convertDataToLong(typeData, offset, length, dataType, longBuffer));
+
+            assertEquals(numValues + 1, doubleBuffer.position());
+            assertEquals(numValues, directDoubleBuffer.position());
+            assertEquals(numValues, floatBuffer.position());
+
+            for(int i = 0; i < numValues; i++) {
+                assertEquals(data[i + 1], doubleBuffer.get(i + 1), 0);
+                assertEquals(data[i + 1], directDoubleBuffer.get(i), 0);
+                assertEquals(data[i + 1], floatBuffer.get(i), 0);
+                assertEquals(data[i + 1], intBuffer.get(i), 0);
+                assertEquals(data[i + 1], longBuffer.get(i), 0);
+            }
+
+            // Only as many values as there is space for should be converted
+            assertEquals(10, DataTypeTransform.convertDataToDouble(typeData, 0, typeData.length, dataType, DoubleBuffer.allocate(10)));
+        }
+    }
+
+    /**
+     * Test of narrowing conversions, which should match Java casts, of class
+     * DataTypeTransform.
+     */
+    @Test
+    public void testConvertDataNarrowing() {
+        double[] values = {1.5, -1.5, 0.1, 1e10, -1e10, 300, -300};
+        byte[] doubleData = DataTypeTransform.convertDoublesToBytes(values);
+
+        float[] floatData = DataTypeTransform.convertDataToFloat(DataTypeTransform.convertData(doubleData, DataType.DOUBLE, DataType.FLOAT), DataType.FLOAT);
+        int[] intData = DataTypeTransform.convertDataToInt(DataTypeTransform.convertData(doubleData, DataType.DOUBLE, DataType.INTEGER_32BIT), DataType.INTEGER_32BIT);
+        byte[] byteData = DataTypeTransform.convertData(doubleData, DataType.DOUBLE, DataType.INTEGER_8BIT);
+        int[] shortData = DataTypeTransform.convertDataToInt(DataTypeTransform.convertData(doubleData, DataType.DOUBLE, DataType.INTEGER_16BIT), DataType.INTEGER_16BIT);
+
+        for(int i = 0; i < values.length; i++) {
+            assertEquals((float) values[i], floatData[i], 0);
+            assertEquals((int) values[i], intData[i]);
+            assertEquals((byte) values[i], byteData[i]);
+            assertEquals((short) values[i], shortData[i]);
+        }
+    }
+}
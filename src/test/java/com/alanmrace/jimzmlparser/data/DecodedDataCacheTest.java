@@ -0,0 +1,151 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for DecodedDataCache.
+ *
+ * @author Alan Race
+ */
+public class DecodedDataCacheTest {
+
+    private static final int ARRAY_LENGTH = 100;
+
+    private File dataFile;
+
+    private DataStorage storage;
+
+    @Before
+    public void setUp() throws IOException {
+        double[] data = new double[ARRAY_LENGTH * 10];
+
+        for(int i = 0; i < data.length; i++)
+            data[i] = i;
+
+        dataFile = File.createTempFile("DecodedDataCacheTest", ".ibd");
+        dataFile.deleteOnExit();
+
+        FileOutputStream outputStream = new FileOutputStream(dataFile);
+
+        try {
+            outputStream.write(DataTypeTransform.convertDoublesToBytes(data));
+        } finally {
+            outputStream.close();
+        }
+
+        storage = new BinaryDataStorage(dataFile, false);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        storage.close();
+        dataFile.delete();
+    }
+
+    private DataLocation getLocation(int index) {
+        return new DataLocation(storage, index * ARRAY_LENGTH * 8L, ARRAY_LENGTH * 8);
+    }
+
+    /**
+     * Test of getData method, of class DecodedDataCache.
+     */
+    @Test
+    public void testGetData() throws Exception {
+        DecodedDataCache cache = new DecodedDataCache(1024 * 1024);
+
+        double[] first = cache.getData(getLocation(3));
+
+        assertEquals(3 * ARRAY_LENGTH, first[0], 0);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // A different DataLocation instance describing the same data should hit
+        assertSame(first, cache.getData(getLocation(3)));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(DecodedDataCache.sizeOf(first), cache.getSize());
+
+        cache.clear();
+
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0, cache.getSize());
+        assertNull(cache.get(getLocation(3)));
+    }
+
+    /**
+     * Test that least recently used data is evicted, of class DecodedDataCache.
+     */
+    @Test
+    public void testEviction() throws Exception {
+        long entrySize = DecodedDataCache.sizeOf(new double[ARRAY_LENGTH]);
+        DecodedDataCache cache = new DecodedDataCache(entrySize * 3, 1);
+
+        cache.getData(getLocation(0));
+        cache.getData(getLocation(1));
+        cache.getData(getLocation(2));
+
+        // Access 0 so that 1 becomes the least recently used
+        assertNotNull(cache.get(getLocation(0)));
+
+        cache.getData(getLocation(3));
+
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(3, cache.getEntryCount());
+        assertTrue(cache.getSize() <= entrySize * 3);
+        assertNull(cache.get(getLocation(1)));
+        assertNotNull(cache.get(getLocation(0)));
+        assertNotNull(cache.get(getLocation(2)));
+        assertNotNull(cache.get(getLocation(3)));
+    }
+
+    /**
+     * Test that data larger than the cache is not cached, of class DecodedDataCache.
+     */
+    @Test
+    public void testDataLargerThanCache() throws Exception {
+        DecodedDataCache cache = new DecodedDataCache(ARRAY_LENGTH, 1);
+
+        assertEquals(ARRAY_LENGTH, cache.getData(getLocation(0)).length);
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    /**
+     * Test that the data of a DataStorage is removed when it is closed, of class DecodedDataCache.
+     */
+    @Test
+    public void testRemoveOnClose() throws Exception {
+        DecodedDataCache cache = new DecodedDataCache(1024 * 1024);
+        DataStorage otherStorage = new BinaryDataStorage(dataFile, false);
+
+        try {
+            DataLocation otherLocation = new DataLocation(otherStorage, 0, ARRAY_LENGTH * 8);
+
+            cache.getData(getLocation(0));
+            cache.getData(otherLocation);
+
+            // The same data read through a different DataStorage is a separate entry
+            assertEquals(2, cache.getEntryCount());
+
+            otherStorage.close();
+
+            assertEquals(1, cache.getEntryCount());
+            assertEquals(DecodedDataCache.sizeOf(new double[ARRAY_LENGTH]), cache.getSize());
+            assertNotNull(cache.get(getLocation(0)));
+            assertNull(cache.get(otherLocation));
+
+            cache.remove(storage);
+
+            assertEquals(0, cache.getEntryCount());
+            assertEquals(0, cache.getSize());
+        } finally {
+            otherStorage.close();
+        }
+    }
+}
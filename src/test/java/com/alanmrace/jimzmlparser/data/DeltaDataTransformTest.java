@@ -0,0 +1,52 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for DeltaDataTransform.
+ *
+ * @author Alan Race
+ */
+public class DeltaDataTransformTest {
+
+    /**
+     * Test of forwardTransform method, of class DeltaDataTransform.
+     */
+    @Test
+    public void testForwardTransform() throws Exception {
+        byte[] data = new byte[] {10, 0, 12, 0, 11, 0, 7};
+        byte[] encoded = new DeltaDataTransform(2).forwardTransform(data);
+
+        assertArrayEquals(new byte[] {10, 0, 2, 0, -1, -1, 7}, encoded);
+    }
+
+    /**
+     * Test of reverseTransform method, of class DeltaDataTransform.
+     */
+    @Test
+    public void testReverseTransform() throws Exception {
+        Random random = new Random(0);
+
+        for (int elementSize : new int[] {1, 2, 4, 8}) {
+            for (int length : new int[] {0, 3, 64, 1001}) {
+                byte[] data = new byte[length];
+                random.nextBytes(data);
+
+                DeltaDataTransform transform = new DeltaDataTransform(elementSize);
+                byte[] encoded = transform.forwardTransform(data);
+
+                assertArrayEquals(data, transform.reverseTransform(encoded));
+            }
+        }
+    }
+
+    /**
+     * Test of an invalid element size, of class DeltaDataTransform.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidElementSize() {
+        new DeltaDataTransform(3);
+    }
+}
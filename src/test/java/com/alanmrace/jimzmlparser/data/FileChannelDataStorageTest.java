@@ -0,0 +1,106 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for FileChannelDataStorage.
+ *
+ * @author Alan Race
+ */
+public class FileChannelDataStorageTest {
+    
+    private File dataFile;
+    
+    private byte[] fileData;
+    
+    @Before
+    public void setUp() throws IOException {
+        fileData = new byte[100000];
+        new Random(0).nextBytes(fileData);
+        
+        dataFile = File.createTempFile("FileChannelDataStorageTest", ".ibd");
+        dataFile.deleteOnExit();
+        
+        FileOutputStream outputStream = new FileOutputStream(dataFile);
+        
+        try {
+            outputStream.write(fileData);
+        } finally {
+            outputStream.close();
+        }
+    }
+    
+    @After
+    public void tearDown() {
+        dataFile.delete();
+    }
+
+    /**
+     * Test of getData method from multiple threads, of class FileChannelDataStorage.
+     */
+    @Test
+    public void testConcurrentGetData() throws Exception {
+        final DataStorage storage = new FileChannelDataStorage(dataFile);
+        
+        assertEquals(DataStorage.AccessMode.POSITIONAL_READ, storage.getAccessMode());
+        
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        
+        for(int i = 0; i < 8; i++) {
+            final long seed = i;
+            
+            results.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    Random random = new Random(seed);
+                    
+                    for(int j = 0; j < 200; j++) {
+                        int offset = random.nextInt(fileData.length);
+                        int length = random.nextInt(fileData.length - offset);
+                        
+                        if(!Arrays.equals(Arrays.copyOfRange(fileData, offset, offset + length), storage.getData(offset, length)))
+                            return false;
+                    }
+                    
+                    return true;
+                }
+            }));
+        }
+        
+        for(Future<Boolean> result : results)
+            assertTrue(result.get());
+        
+        executor.shutdown();
+        storage.close();
+    }
+    
+    /**
+     * Test reading beyond the end of the file, of class FileChannelDataStorage.
+     */
+    @Test
+    public void testGetDataBeyondEndOfFile() throws Exception {
+        DataStorage storage = new FileChannelDataStorage(dataFile);
+        
+        byte[] data = storage.getData(fileData.length - 10, 20);
+        
+        assertEquals(20, data.length);
+        assertArrayEquals(Arrays.copyOfRange(fileData, fileData.length - 10, fileData.length), Arrays.copyOf(data, 10));
+        
+        storage.close();
+    }
+}
@@ -0,0 +1,166 @@
+package com.alanmrace.jimzmlparser.data;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for LZ4DataTransform and ZstdDataTransform.
+ *
+ * @author Alan Race
+ */
+public class LZ4DataTransformTest {
+
+    private static byte[] createData(int length, boolean compressible) {
+        Random random = new Random(length);
+        byte[] data = new byte[length];
+
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (compressible ? (i / 16) % 7 : random.nextInt());
+        }
+
+        return data;
+    }
+
+    /**
+     * Test of compressing to a self-describing frame, of class LZ4DataTransform.
+     */
+    @Test
+    public void testFramedTransform() throws Exception {
+        LZ4DataTransform transform = new LZ4DataTransform(0, true);
+
+        for (int length : new int[] {0, 1, 1000, 5 * 1024 * 1024}) {
+            for (boolean compressible : new boolean[] {true, false}) {
+                byte[] data = createData(length, compressible);
+                byte[] compressed = transform.forwardTransform(data);
+
+                assertArrayEquals(data, transform.reverseTransform(compressed));
+
+                // Incompressible data is stored, so should barely grow
+                assertTrue(compressed.length <= data.length + 27);
+            }
+        }
+    }
+
+    /**
+     * Test that the frames are readable by the standard LZ4 frame reader, of
+     * class LZ4DataTransform.
+     */
+    @Test
+    public void testStandardFrame() throws Exception {
+        byte[] data = createData(5 * 1024 * 1024, true);
+        byte[] compressed = new LZ4DataTransform(0, true).forwardTransform(data);
+
+        LZ4FrameInputStream inputStream = new LZ4FrameInputStream(new ByteArrayInputStream(compressed));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+
+            while ((read = inputStream.read(buffer, 0, buffer.length)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+        } finally {
+            inputStream.close();
+        }
+
+        assertArrayEquals(data, outputStream.toByteArray());
+    }
+
+    /**
+     * Test of decompressing raw LZ4 blocks written by earlier versions, of class
+     * LZ4DataTransform.
+     */
+    @Test
+    public void testRawBlock() throws Exception {
+        byte[] data = createData(10000, true);
+        byte[] compressed = LZ4Factory.fastestInstance().fastCompressor().compress(data);
+
+        assertArrayEquals(data, new LZ4DataTransform(data.length).reverseTransform(compressed));
+        assertArrayEquals(data, new LZ4DataTransform().reverseTransform(compressed));
+    }
+
+    /**
+     * Test that raw LZ4 blocks are written by default, so remain readable by 
+     * earlier versions, of class LZ4DataTransform.
+     */
+    @Test
+    public void testRawBlockTransform() throws Exception {
+        for (int length : new int[] {0, 1, 1000, 100000}) {
+            for (boolean compressible : new boolean[] {true, false}) {
+                byte[] data = createData(length, compressible);
+                byte[] compressed = new LZ4DataTransform(length).forwardTransform(data);
+
+                assertFalse(new LZ4DataTransform(length).isFrame());
+                assertArrayEquals(data, LZ4Factory.fastestInstance().fastDecompressor().decompress(compressed, length));
+                assertArrayEquals(data, new LZ4DataTransform(length).reverseTransform(compressed));
+                assertArrayEquals(data, new LZ4DataTransform().reverseTransform(compressed));
+            }
+        }
+    }
+
+    /**
+     * Test of decompressing corrupt data, of class LZ4DataTransform.
+     */
+    @Test(expected = DataFormatException.class)
+    public void testTruncatedFrame() throws Exception {
+        LZ4DataTransform transform = new LZ4DataTransform(0, true);
+        byte[] compressed = transform.forwardTransform(createData(1000, true));
+
+        byte[] truncated = new byte[compressed.length - 8];
+        System.arraycopy(compressed, 0, truncated, 0, truncated.length);
+
+        transform.reverseTransform(truncated);
+    }
+
+    /**
+     * Test of decompressing using the size recorded in the frame, of class
+     * ZstdDataTransform.
+     */
+    @Test
+    public void testZstdFrameSize() throws Exception {
+        ZstdDataTransform transform = new ZstdDataTransform();
+
+        for (int length : new int[] {0, 1, 1000, 100000}) {
+            byte[] data = createData(length, true);
+
+            assertArrayEquals(data, transform.reverseTransform(transform.forwardTransform(data)));
+            assertArrayEquals(data, new ZstdDataTransform(length).reverseTransform(transform.forwardTransform(data)));
+        }
+    }
+
+    /**
+     * Test of decompressing frames written by a streaming writer, which do not 
+     * record their size, of class ZstdDataTransform.
+     */
+    @Test
+    public void testZstdStreamedFrame() throws Exception {
+        for (int length : new int[] {1, 1000, 100000}) {
+            byte[] data = createData(length, true);
+
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            ZstdOutputStream zstdStream = new ZstdOutputStream(outputStream);
+
+            try {
+                // Write in pieces so that the frame is not written as a single block
+                for (int offset = 0; offset < length; offset += 4096) {
+                    zstdStream.write(data, offset, Math.min(4096, length - offset));
+                }
+            } finally {
+                zstdStream.close();
+            }
+
+            byte[] compressed = outputStream.toByteArray();
+
+            assertArrayEquals(data, new ZstdDataTransform(length).reverseTransform(compressed));
+            assertArrayEquals(data, new ZstdDataTransform().reverseTransform(compressed));
+        }
+    }
+}
@@ -5,6 +5,12 @@
  */
 package com.alanmrace.jimzmlparser.data;
 
+import com.alanmrace.jimzmlparser.data.MSNumpressDataTransform.NumpressAlgorithm;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import ms.numpress.MSNumpress;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -114,4 +120,151 @@ public class MSNumpressDataTransformTest {
         }
     }
     
+    private static double[] createData(NumpressAlgorithm algorithm, int length) {
+        double[] data = new double[length];
+        Random random = new Random(length);
+        double mz = 100;
+        
+        for(int i = 0; i < data.length; i++) {
+            switch(algorithm) {
+                case LINEAR:
+                    mz += random.nextDouble() * 0.1;
+                    data[i] = mz;
+                    break;
+                case PIC:
+                    data[i] = random.nextInt(100000);
+                    break;
+                default:
+                    data[i] = random.nextDouble() * 100000;
+            }
+        }
+        
+        return data;
+    }
+    
+    private static byte[] encodeReference(NumpressAlgorithm algorithm, double[] data) {
+        byte[] encoded = new byte[data.length * 5 + 16];
+        int numBytes;
+        
+        switch(algorithm) {
+            case LINEAR:
+                numBytes = MSNumpress.encodeLinear(data, data.length, encoded, MSNumpress.optimalLinearFixedPoint(data, data.length));
+                break;
+            case PIC:
+                numBytes = MSNumpress.encodePic(data, data.length, encoded);
+                break;
+            default:
+                numBytes = MSNumpress.encodeSlof(data, data.length, encoded, MSNumpress.optimalSlofFixedPoint(data, data.length));
+        }
+        
+        return Arrays.copyOf(encoded, numBytes);
+    }
+    
+    private static String getAccession(NumpressAlgorithm algorithm) {
+        switch(algorithm) {
+            case LINEAR:
+                return MSNumpress.ACC_NUMPRESS_LINEAR;
+            case PIC:
+                return MSNumpress.ACC_NUMPRESS_PIC;
+            default:
+                return MSNumpress.ACC_NUMPRESS_SLOF;
+        }
+    }
+    
+    /**
+     * Test that encoding (with the optimal fixed point) and decoding is compatible 
+     * with the reference implementation, of class MSNumpressDataTransform.
+     */
+    @Test
+    public void testReferenceCompatibility() throws Exception {
+        for(NumpressAlgorithm algorithm : NumpressAlgorithm.values()) {
+            for(int length : new int[] {0, 1, 2, 3, 4, 1001}) {
+                double[] data = createData(algorithm, length);
+                MSNumpressDataTransform transform = new MSNumpressDataTransform(algorithm);
+                
+                byte[] referenceEncoded = encodeReference(algorithm, data);
+                byte[] encoded = transform.encode(data);
+                
+                assertArrayEquals(algorithm + " " + length, referenceEncoded, encoded);
+                assertArrayEquals(algorithm + " " + length, encoded, transform.forwardTransform(DataTypeTransform.convertDoublesToBytes(data)));
+                
+                assertEquals(length, transform.getDecodedLength(encoded, encoded.length));
+                
+                // The reference implementation rejects any data shorter than a fixed point
+                if(encoded.length >= 8)
+                    assertArrayEquals(algorithm + " " + length, MSNumpress.decode(getAccession(algorithm), encoded, encoded.length), transform.decode(encoded, encoded.length), 0);
+                
+                assertArrayEquals(algorithm + " " + length, transform.decode(encoded, encoded.length), 
+                        DataTypeTransform.convertDataToDouble(transform.reverseTransform(encoded), DataTypeTransform.DataType.DOUBLE), 0);
+            }
+        }
+    }
+    
+    /**
+     * Test of decode method into a DoubleBuffer with limited space and into a 
+     * DataTransformation with compression, of class MSNumpressDataTransform.
+     */
+    @Test
+    public void testDecodeIntoBuffer() throws Exception {
+        for(NumpressAlgorithm algorithm : NumpressAlgorithm.values()) {
+            double[] data = createData(algorithm, 500);
+            MSNumpressDataTransform transform = new MSNumpressDataTransform(algorithm);
+            byte[] encoded = transform.encode(data);
+            double[] decoded = transform.decode(encoded, encoded.length);
+            
+            DataTransformation transformation = new DataTransformation();
+            transformation.addTransform(transform);
+            transformation.addTransform(new ZlibDataTransform());
+            
+            byte[] compressed = transformation.performForwardTransform(data);
+            
+            assertArrayEquals(decoded, transformation.performReverseTransform(compressed), 0);
+            
+            DoubleBuffer buffer = DoubleBuffer.allocate(300);
+            buffer.position(1);
+            
+            assertEquals(299, transformation.performReverseTransform(compressed, compressed.length, buffer));
+            assertEquals(300, buffer.position());
+            
+            for(int i = 0; i < 299; i++)
+                assertEquals(decoded[i], buffer.get(i + 1), 0);
+        }
+    }
+    
+    /**
+     * Test that a specified fixed point is used, of class MSNumpressDataTransform.
+     */
+    @Test
+    public void testFixedPoint() throws Exception {
+        double[] data = createData(NumpressAlgorithm.LINEAR, 1000);
+        
+        byte[] optimal = new MSNumpressDataTransform(NumpressAlgorithm.LINEAR).encode(data);
+        byte[] fixed = new MSNumpressDataTransform(NumpressAlgorithm.LINEAR, 1e5).encode(data);
+        
+        assertTrue(fixed.length < optimal.length);
+        
+        double[] decoded = new MSNumpressDataTransform(NumpressAlgorithm.LINEAR).decode(fixed, fixed.length);
+        
+        for(int i = 0; i < data.length; i++)
+            assertEquals(data[i], decoded[i], 1e-5);
+    }
+    
+    /**
+     * Test of decoding truncated data, of class MSNumpressDataTransform.
+     */
+    @Test(expected = DataFormatException.class)
+    public void testCorruptData() throws Exception {
+        MSNumpressDataTransform transform = new MSNumpressDataTransform(NumpressAlgorithm.LINEAR);
+        
+        transform.decode(new byte[10], 10);
+    }
+    
+    /**
+     * Test that negative values cannot be encoded using positive integer compression,
+     * of class MSNumpressDataTransform.
+     */
+    @Test(expected = DataFormatException.class)
+    public void testNegativePic() throws Exception {
+        new MSNumpressDataTransform(NumpressAlgorithm.PIC).encode(new double[] {1, -5});
+    }
 }
@@ -0,0 +1,88 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for MappedDataStorage.
+ *
+ * @author Alan Race
+ */
+public class MappedDataStorageTest {
+    
+    private File dataFile;
+    
+    private byte[] fileData;
+    
+    @Before
+    public void setUp() throws IOException {
+        fileData = new byte[100000];
+        new Random(0).nextBytes(fileData);
+        
+        dataFile = File.createTempFile("MappedDataStorageTest", ".ibd");
+        dataFile.deleteOnExit();
+        
+        FileOutputStream outputStream = new FileOutputStream(dataFile);
+        
+        try {
+            outputStream.write(fileData);
+        } finally {
+            outputStream.close();
+        }
+    }
+    
+    @After
+    public void tearDown() {
+        dataFile.delete();
+    }
+
+    /**
+     * Test of getData method, of class MappedDataStorage.
+     */
+    @Test
+    public void testGetData() throws Exception {
+        DataStorage mapped = new MappedDataStorage(dataFile);
+        DataStorage binary = new BinaryDataStorage(dataFile, false);
+        
+        assertEquals(DataStorage.AccessMode.MEMORY_MAPPED, mapped.getAccessMode());
+        
+        Random random = new Random(1);
+        
+        for(int i = 0; i < 100; i++) {
+            int offset = random.nextInt(fileData.length);
+            int length = random.nextInt(fileData.length - offset);
+            
+            assertArrayEquals(binary.getData(offset, length), mapped.getData(offset, length));
+        }
+        
+        mapped.close();
+        binary.close();
+        
+        assertEquals(0, mapped.getData(0, 10).length);
+    }
+    
+    /**
+     * Test reading beyond the end of the file, of class MappedDataStorage.
+     */
+    @Test
+    public void testGetDataBeyondEndOfFile() throws Exception {
+        DataStorage mapped = new MappedDataStorage(dataFile);
+        
+        byte[] data = mapped.getData(fileData.length - 10, 20);
+        
+        assertEquals(20, data.length);
+        
+        for(int i = 0; i < 10; i++) {
+            assertEquals(fileData[fileData.length - 10 + i], data[i]);
+            assertEquals(0, data[10 + i]);
+        }
+        
+        mapped.close();
+    }
+}
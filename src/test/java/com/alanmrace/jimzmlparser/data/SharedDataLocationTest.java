@@ -0,0 +1,84 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for SharedDataLocation.
+ *
+ * @author Alan Race
+ */
+public class SharedDataLocationTest {
+
+    private File dataFile;
+
+    private double[] data;
+
+    private DataTransformation transformation;
+
+    private int length;
+
+    @Before
+    public void setUp() throws Exception {
+        data = new double[1000];
+
+        for(int i = 0; i < data.length; i++)
+            data[i] = 100 + i * 0.01;
+
+        transformation = new DataTransformation();
+        transformation.addTransform(new DataTypeTransform(DataTypeTransform.DataType.DOUBLE, DataTypeTransform.DataType.FLOAT));
+        transformation.addTransform(new ZlibDataTransform());
+
+        byte[] encoded = transformation.performForwardTransform(data);
+        length = encoded.length;
+
+        dataFile = File.createTempFile("SharedDataLocationTest", ".ibd");
+        dataFile.deleteOnExit();
+
+        FileOutputStream outputStream = new FileOutputStream(dataFile);
+
+        try {
+            outputStream.write(encoded);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        dataFile.delete();
+    }
+
+    /**
+     * Test of getData method, of class SharedDataLocation.
+     */
+    @Test
+    public void testGetData() throws Exception {
+        DataStorage storage = new BinaryDataStorage(dataFile, false);
+
+        try {
+            SharedDataLocation location = new SharedDataLocation(storage, 0, length);
+            location.setDataTransformation(transformation);
+
+            double[] first = location.getData();
+
+            assertEquals(data.length, first.length);
+
+            for(int i = 0; i < data.length; i++)
+                assertEquals(data[i], first[i], 1e-4);
+
+            assertSame(first, location.getData());
+
+            location.setDataTransformation(transformation);
+
+            assertNotSame(first, location.getData());
+            assertArrayEquals(first, location.getData(), 0);
+        } finally {
+            storage.close();
+        }
+    }
+}
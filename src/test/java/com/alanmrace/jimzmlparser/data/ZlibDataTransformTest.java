@@ -0,0 +1,183 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for ZlibDataTransform.
+ *
+ * @author Alan Race
+ */
+public class ZlibDataTransformTest {
+
+    private static byte[] createData(int length) {
+        double[] data = new double[length / 8];
+        Random random = new Random(0);
+
+        for(int i = 0; i < data.length; i++)
+            data[i] = random.nextInt(1000);
+
+        return DataTypeTransform.convertDoublesToBytes(data);
+    }
+
+    /**
+     * Test of forwardTransform method, of class ZlibDataTransform. The output
+     * must be readable by a standard Inflater.
+     */
+    @Test
+    public void testForwardTransform() throws Exception {
+        byte[] data = createData(80000);
+
+        byte[] compressedData = new ZlibDataTransform().forwardTransform(data);
+
+        Inflater inflater = new Inflater();
+        inflater.setInput(compressedData);
+
+        byte[] uncompressedData = new byte[data.length];
+
+        assertEquals(data.length, inflater.inflate(uncompressedData));
+        assertTrue(inflater.finished());
+        assertArrayEquals(data, uncompressedData);
+
+        inflater.end();
+    }
+
+    /**
+     * Test of reverseTransform method with correct, small, large and no size hints,
+     * of class ZlibDataTransform.
+     */
+    @Test
+    public void testReverseTransform() throws Exception {
+        for(int length : new int[] {0, 8, 8000, 3000000}) {
+            byte[] data = createData(length);
+            byte[] compressedData = new ZlibDataTransform().forwardTransform(data);
+
+            for(int hint : new int[] {0, data.length, data.length / 3, data.length * 2 + 1}) {
+                assertArrayEquals(data, new ZlibDataTransform(hint).reverseTransform(compressedData));
+            }
+        }
+    }
+
+    /**
+     * Test of compression levels, of class ZlibDataTransform.
+     */
+    @Test
+    public void testCompressionLevel() throws Exception {
+        byte[] data = createData(80000);
+
+        byte[] storedData = new ZlibDataTransform(data.length, Deflater.NO_COMPRESSION).forwardTransform(data);
+        byte[] compressedData = new ZlibDataTransform(data.length, Deflater.BEST_COMPRESSION).forwardTransform(data);
+
+        assertTrue(storedData.length > data.length);
+        assertTrue(compressedData.length < data.length);
+        assertArrayEquals(data, new ZlibDataTransform(data.length).reverseTransform(storedData));
+        assertArrayEquals(data, new ZlibDataTransform(data.length).reverseTransform(compressedData));
+
+        int defaultLevel = ZlibDataTransform.getDefaultCompressionLevel();
+
+        try {
+            ZlibDataTransform.setDefaultCompressionLevel(Deflater.BEST_SPEED);
+
+            assertEquals(Deflater.BEST_SPEED, new ZlibDataTransform().getCompressionLevel());
+        } finally {
+            ZlibDataTransform.setDefaultCompressionLevel(defaultLevel);
+        }
+    }
+
+    /**
+     * Test of invalid compression level, of class ZlibDataTransform.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCompressionLevel() {
+        new ZlibDataTransform(0, 10);
+    }
+
+    /**
+     * Test of reverseTransform method with truncated data, of class ZlibDataTransform.
+     */
+    @Test(expected = DataFormatException.class)
+    public void testReverseTransformTruncated() throws Exception {
+        byte[] data = createData(8000);
+        byte[] compressedData = new ZlibDataTransform().forwardTransform(data);
+
+        new ZlibDataTransform().reverseTransform(Arrays.copyOf(compressedData, compressedData.length / 2));
+    }
+
+    /**
+     * Test of reverseTransformStream method, interleaved with other transforms 
+     * on the same thread, of class ZlibDataTransform.
+     */
+    @Test
+    public void testReverseTransformStream() throws Exception {
+        byte[] data = createData(80000);
+        ZlibDataTransform transform = new ZlibDataTransform();
+        byte[] compressedData = transform.forwardTransform(data);
+
+        InputStream stream = transform.reverseTransformStream(compressedData, compressedData.length);
+        byte[] uncompressedData = new byte[data.length];
+
+        try {
+            int position = 0;
+
+            while (position < data.length) {
+                int read = stream.read(uncompressedData, position, Math.min(1000, data.length - position));
+
+                assertTrue(read > 0);
+                position += read;
+
+                // The stream does not share the Inflater used by the other transforms of this thread
+                assertArrayEquals(data, transform.reverseTransform(compressedData));
+            }
+
+            assertEquals(-1, stream.read());
+        } finally {
+            stream.close();
+        }
+
+        assertArrayEquals(data, uncompressedData);
+        assertEquals(-1, transform.reverseTransformStream(new byte[0], 0).read());
+    }
+
+    /**
+     * Test of reverseTransformStream method with truncated data, of class ZlibDataTransform.
+     */
+    @Test(expected = IOException.class)
+    public void testReverseTransformStreamTruncated() throws Exception {
+        byte[] data = createData(8000);
+        byte[] compressedData = new ZlibDataTransform().forwardTransform(data);
+
+        InputStream stream = new ZlibDataTransform().reverseTransformStream(compressedData, compressedData.length / 2);
+        byte[] buffer = new byte[1000];
+
+        try {
+            while (stream.read(buffer) != -1) {
+                // Read until the data runs out
+            }
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Test of releaseThreadResources method, of class ZlibDataTransform.
+     */
+    @Test
+    public void testReleaseThreadResources() throws Exception {
+        byte[] data = createData(8000);
+        ZlibDataTransform transform = new ZlibDataTransform(data.length);
+
+        byte[] compressedData = transform.forwardTransform(data);
+
+        ZlibDataTransform.releaseThreadResources();
+
+        assertArrayEquals(data, transform.reverseTransform(compressedData));
+        assertArrayEquals(compressedData, transform.forwardTransform(data));
+    }
+}
@@ -0,0 +1,123 @@
+package com.alanmrace.jimzmlparser.data;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for ZstdDictionary.
+ *
+ * @author Alan Race
+ */
+public class ZstdDictionaryTest {
+
+    private List<byte[]> samples;
+
+    private Random random;
+
+    @Before
+    public void setUp() {
+        random = new Random(0);
+        samples = new ArrayList<byte[]>();
+
+        for(int i = 0; i < 1000; i++)
+            samples.add(createSpectrum());
+    }
+
+    /**
+     * Create a small centroided spectrum, stored as float.
+     */
+    private byte[] createSpectrum() {
+        double[] data = new double[50 + random.nextInt(50)];
+        double mz = 100;
+
+        for(int i = 0; i < data.length; i++) {
+            mz += random.nextInt(20) + 0.5;
+            data[i] = mz;
+        }
+
+        return DataTypeTransform.convertData(DataTypeTransform.convertDoublesToBytes(data), DataTypeTransform.DataType.DOUBLE, DataTypeTransform.DataType.FLOAT);
+    }
+
+    /**
+     * Test of compressing with a trained dictionary, of class ZstdDictionary and
+     * ZstdDataTransform.
+     */
+    @Test
+    public void testTrainedCompression() throws Exception {
+        ZstdDictionary dictionary = ZstdDictionary.train(samples, 16 * 1024);
+
+        assertNotNull(dictionary);
+        assertTrue(dictionary.getSize() <= 16 * 1024);
+
+        long plainSize = 0;
+        long dictionarySize = 0;
+
+        for(int i = 0; i < 100; i++) {
+            byte[] data = createSpectrum();
+
+            ZstdDataTransform plainTransform = new ZstdDataTransform(data.length);
+            ZstdDataTransform dictionaryTransform = new ZstdDataTransform(data.length, 3, dictionary);
+
+            byte[] plain = plainTransform.forwardTransform(data);
+            byte[] compressed = dictionaryTransform.forwardTransform(data);
+
+            plainSize += plain.length;
+            dictionarySize += compressed.length;
+
+            assertArrayEquals(data, plainTransform.reverseTransform(plain));
+            assertArrayEquals(data, dictionaryTransform.reverseTransform(compressed));
+            assertArrayEquals(data, new ZstdDataTransform(data.length, 3, new ZstdDictionary(dictionary.getBytes())).reverseTransform(compressed));
+        }
+
+        assertTrue(dictionarySize < plainSize);
+    }
+
+    /**
+     * Test that a dictionary cannot be trained without samples, of class ZstdDictionary.
+     */
+    @Test
+    public void testTrainNoSamples() {
+        assertNull(ZstdDictionary.train(new ArrayList<byte[]>(), 16 * 1024));
+    }
+
+    /**
+     * Test of load method, of class ZstdDictionary.
+     */
+    @Test
+    public void testLoad() throws Exception {
+        ZstdDictionary dictionary = ZstdDictionary.train(samples, 16 * 1024);
+        byte[] header = new byte[16];
+
+        File dataFile = File.createTempFile("ZstdDictionaryTest", ".ibd");
+        dataFile.deleteOnExit();
+
+        FileOutputStream outputStream = new FileOutputStream(dataFile);
+
+        try {
+            outputStream.write(header);
+            outputStream.write(dictionary.getBytes());
+        } finally {
+            outputStream.close();
+        }
+
+        DataStorage storage = new BinaryDataStorage(dataFile, false);
+
+        try {
+            ZstdDictionary loaded = ZstdDictionary.load(storage, header.length, dictionary.getSize());
+
+            assertTrue(Arrays.equals(dictionary.getBytes(), loaded.getBytes()));
+            assertEquals(dictionary.getID(), loaded.getID());
+            assertSame(loaded, ZstdDictionary.load(storage, header.length, dictionary.getSize()));
+        } finally {
+            storage.close();
+            dataFile.delete();
+        }
+    }
+}
@@ -5,28 +5,62 @@
  */
 package com.alanmrace.jimzmlparser.imzml;
 
+import com.alanmrace.jimzmlparser.data.DataLocation;
+import com.alanmrace.jimzmlparser.data.MzMLSpectrumDataStorage;
 import com.alanmrace.jimzmlparser.exceptions.ImzMLParseException;
 import com.alanmrace.jimzmlparser.exceptions.MzMLParseException;
 import com.alanmrace.jimzmlparser.mzml.*;
 import com.alanmrace.jimzmlparser.obo.OBO;
 import com.alanmrace.jimzmlparser.parser.ImzMLHandler;
 import com.alanmrace.jimzmlparser.parser.MzMLHeaderHandler;
+import com.alanmrace.jimzmlparser.parser.MzMLIndex;
+import com.alanmrace.jimzmlparser.util.HexHelper;
 import com.alanmrace.jimzmlparser.writer.ImzMLSteamWriter;
 import com.alanmrace.jimzmlparser.writer.ImzMLWriter;
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import org.junit.Ignore;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 /**
  *
  * @author Alan
  */
 public class ImzMLWriterTest {
+
+    private static final String MZML_RESOURCE = "/small_miape.pwiz.1.1.mzML";
+
+    private static final int STREAM_WIDTH = 6;
+
+    private static final int STREAM_HEIGHT = 5;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     @Ignore
     public void testMzMLToImzMLWriter() throws IOException, MzMLParseException {
@@ -108,4 +142,443 @@ public class ImzMLWriterTest {
 
         streamer.write(imzML);
     }
+
+    /**
+     * Test writing spectra from multiple threads at once and parsing the result
+     * back, of class ImzMLSteamWriter.
+     */
+    @Test
+    public void testImzMLStreamWriterThreads() throws Exception {
+        ImzML imzML = writeStreamed("threads", false, ImzMLWriter.OutputType.PROCESSED);
+
+        assertStreamedImzML("threads", imzML, false);
+    }
+
+    /**
+     * Test writing continuous data from multiple threads and parsing the result 
+     * back, of class ImzMLSteamWriter.
+     */
+    @Test
+    public void testImzMLStreamWriterContinuous() throws Exception {
+        ImzML imzML = writeStreamed("continuous", false, ImzMLWriter.OutputType.CONTINUOUS);
+
+        assertStreamedImzML("continuous", imzML, true);
+    }
+
+    /**
+     * Test writing spectra from multiple threads while streaming their metadata 
+     * to a temporary file, and parsing the result back, of class ImzMLSteamWriter.
+     */
+    @Test
+    public void testImzMLStreamWriterStreamedMetadata() throws Exception {
+        ImzML imzML = writeStreamed("streamed", true, ImzMLWriter.OutputType.PROCESSED);
+
+        assertStreamedImzML("streamed", imzML, false);
+
+        imzML = writeStreamed("streamedContinuous", true, ImzMLWriter.OutputType.CONTINUOUS);
+
+        assertStreamedImzML("streamedContinuous", imzML, true);
+
+        // Only the imzML and IBD files remain, as the temporary metadata file is deleted
+        assertEquals(4, folder.getRoot().list().length);
+    }
+
+    /**
+     * Test that a spectrum whose m/z values differ from the first spectrum is 
+     * rejected when writing continuous data, of class ImzMLSteamWriter.
+     */
+    @Test
+    public void testImzMLStreamWriterContinuousDifferentmzs() throws Exception {
+        ReferenceableParamGroup mzRPG = new ReferenceableParamGroup("mzArray");
+        mzRPG.addCVParam(new EmptyCVParam(OBO.getOBO().getTerm(BinaryDataArray.MZ_ARRAY_ID)));
+        mzRPG.addCVParam(new EmptyCVParam(OBO.getOBO().getTerm(BinaryDataArray.DOUBLE_PRECISION_ID)));
+        mzRPG.addCVParam(new EmptyCVParam(OBO.getOBO().getTerm(BinaryDataArray.NO_COMPRESSION_ID)));
+
+        ReferenceableParamGroup countRPG = new ReferenceableParamGroup("intensityArray");
+        countRPG.addCVParam(new EmptyCVParam(OBO.getOBO().getTerm(BinaryDataArray.INTENSITY_ARRAY_ID)));
+        countRPG.addCVParam(new EmptyCVParam(OBO.getOBO().getTerm(BinaryDataArray.DOUBLE_PRECISION_ID)));
+        countRPG.addCVParam(new EmptyCVParam(OBO.getOBO().getTerm(BinaryDataArray.NO_COMPRESSION_ID)));
+
+        ImzMLSteamWriter streamer = new ImzMLSteamWriter(new File(folder.getRoot(), "different.imzML").getPath(), mzRPG, countRPG);
+        streamer.setOutputType(ImzMLWriter.OutputType.CONTINUOUS);
+
+        Spectrum spectrum1 = new Spectrum(getSpectrumID(1, 1), 0);
+        spectrum1.setPixelLocation(1, 1);
+        streamer.write(spectrum1, new double[]{100.5, 200.6}, new double[]{1, 2});
+
+        Spectrum spectrum2 = new Spectrum(getSpectrumID(2, 1), 0);
+        spectrum2.setPixelLocation(2, 1);
+
+        try {
+            streamer.write(spectrum2, new double[]{100.5, 200.7}, new double[]{3, 4});
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // Expected
+        } finally {
+            streamer.write(ImzML.create());
+        }
+
+        // Only the first spectrum is written
+        ImzML imzML = ImzMLHandler.parseimzML(new File(folder.getRoot(), "different.imzML").getPath());
+
+        assertEquals(1, imzML.getRun().getSpectrumList().size());
+        assertArrayEquals(new double[]{100.5, 200.6}, imzML.getSpectrum(1, 1).getmzArray(), 0);
+    }
+
+    /**
+     * Test writing continuous data, encoding the arrays on multiple threads, and 
+     * parsing the result back, of class ImzMLWriter.
+     */
+    @Test
+    public void testImzMLWriterContinuous() throws Exception {
+        ImzML imzML = ImzML.create();
+
+        for (int y = 1; y <= STREAM_HEIGHT; y++) {
+            for (int x = 1; x <= STREAM_WIDTH; x++) {
+                double[] mzs = getExpectedmzs(x, y, true);
+                Spectrum spectrum = Spectrum.createSpectrum(mzs, getExpectedIntensities(x, y, mzs.length), x, y);
+                spectrum.setID(getSpectrumID(x, y));
+
+                imzML.getRun().getSpectrumList().add(spectrum);
+            }
+        }
+
+        ImzMLWriter writer = new ImzMLWriter();
+        writer.setOutputType(ImzMLWriter.OutputType.CONTINUOUS);
+        writer.setEncodingThreads(4);
+        writer.write(imzML, new File(folder.getRoot(), "writerContinuous.imzML").getPath());
+
+        assertStreamedImzML("writerContinuous", ImzMLHandler.parseimzML(new File(folder.getRoot(), "writerContinuous.imzML").getPath()), true);
+    }
+
+    /**
+     * Test that a spectrum whose m/z values differ from the first spectrum is 
+     * rejected when writing continuous data, of class ImzMLWriter.
+     */
+    @Test
+    public void testImzMLWriterContinuousDifferentmzs() throws Exception {
+        ImzML imzML = ImzML.create();
+        imzML.getRun().getSpectrumList().add(Spectrum.createSpectrum(new double[]{100.5, 200.6}, new double[]{1, 2}, 1, 1));
+        imzML.getRun().getSpectrumList().add(Spectrum.createSpectrum(new double[]{100.5, 200.7}, new double[]{3, 4}, 2, 1));
+
+        ImzMLWriter writer = new ImzMLWriter();
+        writer.setOutputType(ImzMLWriter.OutputType.CONTINUOUS);
+
+        try {
+            writer.write(imzML, new File(folder.getRoot(), "writerDifferent.imzML").getPath());
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // Expected
+        }
+
+        // The IBD file is closed, so can be removed
+        assertTrue(new File(folder.getRoot(), "writerDifferent.ibd").delete());
+    }
+
+    /**
+     * Test writing MS-Numpress followed by LZ4 as raw LZ4 blocks, with the size
+     * required by earlier versions, and as LZ4 frames, of class ImzMLWriter.
+     */
+    @Test
+    public void testImzMLWriterNumpressLZ4() throws Exception {
+        double[] mzs = new double[]{100.5, 200.25, 300.125, 400.0625};
+        double[] intensities = new double[]{10, 0, 3000, 45};
+
+        for (boolean lz4Frames : new boolean[]{false, true}) {
+            ImzML imzML = ImzML.create();
+            Spectrum spectrum = Spectrum.createSpectrum(mzs, intensities, 1, 1);
+            spectrum.getBinaryDataArrayList().getmzArray().setCompression(BinaryDataArray.CompressionType.MSNUMPRESS_LINEAR_LZ4);
+            spectrum.getBinaryDataArrayList().getIntensityArray().setCompression(BinaryDataArray.CompressionType.MSNUMPRESS_POSITIVE_LZ4);
+            imzML.getRun().getSpectrumList().add(spectrum);
+
+            ImzMLWriter writer = new ImzMLWriter();
+            writer.setLZ4Frames(lz4Frames);
+
+            String outputLocation = new File(folder.getRoot(), "numpressLZ4" + lz4Frames + ".imzML").getPath();
+            writer.write(imzML, outputLocation);
+
+            ImzML parsed = ImzMLHandler.parseimzML(outputLocation);
+
+            try {
+                for (BinaryDataArray bda : parsed.getSpectrum(1, 1).getBinaryDataArrayList()) {
+                    assertEquals(lz4Frames, bda.getUserParam(BinaryDataArray.LZ4_DECOMPRESSION_SIZE_NAME) == null);
+                }
+
+                assertArrayEquals(mzs, parsed.getSpectrum(1, 1).getmzArray(), 1e-4);
+                assertArrayEquals(intensities, parsed.getSpectrum(1, 1).getIntensityArray(), 0);
+            } finally {
+                parsed.close();
+            }
+        }
+    }
+
+    /**
+     * Test that encoding the arrays on multiple threads writes the same IBD and 
+     * imzML files as encoding them on the calling thread, when the data of each 
+     * spectrum still has to be located within the mzML file, of class ImzMLWriter.
+     */
+    @Test
+    public void testImzMLWriterEncodingThreads() throws IOException, MzMLParseException {
+        String[] single = writeMzMLAsImzML("single", 1);
+        String[] parallel = writeMzMLAsImzML("parallel", 4);
+
+        assertEquals(single[0], parallel[0]);
+        assertEquals(single[1], parallel[1]);
+    }
+
+    /**
+     * Parse the test mzML file, point each spectrum back at its location within 
+     * the mzML file and write it out as an imzML file.
+     * 
+     * @param name Name of the imzML file
+     * @param encodingThreads Number of threads to encode the arrays on
+     * @return IBD data after the UUID (as hex) and the imzML metadata, with the UUID and checksum removed
+     */
+    private String[] writeMzMLAsImzML(String name, int encodingThreads) throws IOException, MzMLParseException {
+        assertNotNull("Test file missing", ImzMLWriterTest.class.getResource(MZML_RESOURCE));
+
+        File mzMLFile = new File(ImzMLWriterTest.class.getResource(MZML_RESOURCE).getPath());
+        MzML mzML = MzMLHeaderHandler.parsemzMLHeader(mzMLFile.getPath());
+        MzMLIndex index = MzMLIndex.read(mzMLFile);
+        MzMLSpectrumDataStorage dataStorage = new MzMLSpectrumDataStorage(mzMLFile);
+
+        try {
+            SpectrumList spectrumList = mzML.getRun().getSpectrumList();
+
+            // Only the spectra are of interest
+            mzML.getRun().setChromatogramList(null);
+
+            for (int i = 0; i < spectrumList.size(); i++) {
+                Spectrum spectrum = spectrumList.get(i);
+                long offset = index.getOffset(MzMLIndex.SPECTRUM_INDEX, i);
+
+                // Leave the arrays to be located when they are first read, which happens on the encoding threads
+                spectrum.setDataLocation(new DataLocation(dataStorage, offset, (int) (index.getEndOffset(MzMLIndex.SPECTRUM_INDEX, i) - offset)));
+
+                for (BinaryDataArray bda : spectrum.getBinaryDataArrayList()) {
+                    bda.setDataLocation(null);
+                }
+
+                spectrum.setPixelLocation(i % 8 + 1, i / 8 + 1);
+            }
+
+            ImzMLWriter writer = new ImzMLWriter();
+            writer.setEncodingThreads(encodingThreads);
+
+            String outputLocation = new File(folder.getRoot(), name + ".imzML").getPath();
+            writer.write(mzML, outputLocation);
+
+            FileContent fileContent = mzML.getFileDescription().getFileContent();
+            String uuid = fileContent.getCVParam(FileContent.UUID_IDENTIFICATION_ID).getValueAsString();
+            String checksum = fileContent.getCVParam(FileContent.SHA1_CHECKSUM_ID).getValueAsString();
+
+            byte[] ibd = readFile(new File(folder.getRoot(), name + ".ibd"));
+            String metadata = new String(readFile(new File(outputLocation)), "UTF-8");
+
+            return new String[]{HexHelper.byteArrayToHexString(Arrays.copyOfRange(ibd, 16, ibd.length)),
+                metadata.replace(uuid, "").replace(checksum, "")};
+        } finally {
+            dataStorage.close();
+            mzML.close();
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        try {
+            byte[] data = new byte[(int) raf.length()];
+            raf.readFully(data);
+
+            return data;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Write a STREAM_WIDTH x STREAM_HEIGHT image with an ImzMLSteamWriter, 
+     * supplying the spectra from multiple threads in the reverse of the order 
+     * they are listed in, and parse the imzML file back.
+     * 
+     * @param name Name of the imzML file
+     * @param streamMetadata true to stream the metadata of each spectrum to a temporary file
+     * @param outputType Whether to write continuous or processed data
+     * @return Parsed imzML
+     */
+    private ImzML writeStreamed(String name, boolean streamMetadata, ImzMLWriter.OutputType outputType) throws Exception {
+        ReferenceableParamGroup mzRPG = new ReferenceableParamGroup("mzArray");
+        mzRPG.addCVParam(new EmptyCVParam(OBO.getOBO().getTerm(BinaryDataArray.MZ_ARRAY_ID)));
+        mzRPG.addCVParam(new EmptyCVParam(OBO.getOBO().getTerm(BinaryDataArray.DOUBLE_PRECISION_ID)));
+        mzRPG.addCVParam(new EmptyCVParam(OBO.getOBO().getTerm(BinaryDataArray.NO_COMPRESSION_ID)));
+
+        ReferenceableParamGroup countRPG = new ReferenceableParamGroup("intensityArray");
+        countRPG.addCVParam(new EmptyCVParam(OBO.getOBO().getTerm(BinaryDataArray.INTENSITY_ARRAY_ID)));
+        countRPG.addCVParam(new EmptyCVParam(OBO.getOBO().getTerm(BinaryDataArray.DOUBLE_PRECISION_ID)));
+        countRPG.addCVParam(new EmptyCVParam(OBO.getOBO().getTerm(BinaryDataArray.ZLIB_COMPRESSION_ID)));
+
+        String outputLocation = new File(folder.getRoot(), name + ".imzML").getPath();
+        final ImzMLSteamWriter streamer = new ImzMLSteamWriter(outputLocation, mzRPG, countRPG, streamMetadata);
+        streamer.setOutputType(outputType);
+
+        final boolean continuous = outputType == ImzMLWriter.OutputType.CONTINUOUS;
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+        try {
+            for (int y = STREAM_HEIGHT; y >= 1; y--) {
+                for (int x = STREAM_WIDTH; x >= 1; x--) {
+                    final Spectrum spectrum = new Spectrum(getSpectrumID(x, y), 0);
+                    spectrum.setPixelLocation(x, y);
+
+                    final double[] mzs = getExpectedmzs(x, y, continuous);
+                    final double[] intensities = getExpectedIntensities(x, y, mzs.length);
+
+                    futures.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws IOException {
+                            streamer.write(spectrum, mzs, intensities);
+
+                            return null;
+                        }
+                    }));
+                }
+            }
+
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        streamer.write(ImzML.create());
+
+        return ImzMLHandler.parseimzML(outputLocation);
+    }
+
+    /**
+     * Check an imzML file holding the image written by writeStreamed: the spectra
+     * are listed in order of y then x coordinate with consecutive indices, each 
+     * array decodes to the values written, and the arrays are laid out one after
+     * another in the IBD file, with continuous data sharing the first m/z array.
+     * 
+     * @param name Name of the imzML file
+     * @param imzML Parsed imzML
+     * @param continuous Whether the data was written as continuous
+     */
+    private void assertStreamedImzML(String name, ImzML imzML, boolean continuous) throws IOException {
+        int numSpectra = STREAM_WIDTH * STREAM_HEIGHT;
+
+        // Check the attributes as written, rather than as interpreted by the parser
+        String metadata = new String(readFile(new File(folder.getRoot(), name + ".imzML")), "UTF-8");
+        Matcher countMatcher = Pattern.compile("<spectrumList [^>]*count=\"(\\d+)\"").matcher(metadata);
+
+        assertTrue(countMatcher.find());
+        assertEquals(numSpectra, Integer.parseInt(countMatcher.group(1)));
+
+        Matcher spectrumMatcher = Pattern.compile("<spectrum [^>]*>").matcher(metadata);
+        Pattern idPattern = Pattern.compile(" id=\"([^\"]*)\"");
+        Pattern indexPattern = Pattern.compile(" index=\"(\\d+)\"");
+        int index = 0;
+
+        while (spectrumMatcher.find()) {
+            Matcher idMatcher = idPattern.matcher(spectrumMatcher.group());
+            Matcher indexMatcher = indexPattern.matcher(spectrumMatcher.group());
+
+            assertTrue(idMatcher.find());
+            assertTrue(indexMatcher.find());
+            assertEquals(getSpectrumID(index % STREAM_WIDTH + 1, index / STREAM_WIDTH + 1), idMatcher.group(1));
+            assertEquals(index, Integer.parseInt(indexMatcher.group(1)));
+
+            index++;
+        }
+
+        assertEquals(numSpectra, index);
+
+        // Check the spectra as parsed, and that the arrays fill the IBD file after the UUID without overlapping
+        SpectrumList spectrumList = imzML.getRun().getSpectrumList();
+        List<DataLocation> locations = new ArrayList<DataLocation>();
+        DataLocation sharedmzLocation = null;
+
+        assertEquals(numSpectra, spectrumList.size());
+
+        for (int i = 0; i < numSpectra; i++) {
+            int x = i % STREAM_WIDTH + 1;
+            int y = i / STREAM_WIDTH + 1;
+            Spectrum spectrum = spectrumList.get(i);
+
+            assertEquals(getSpectrumID(x, y), spectrum.getID());
+            assertEquals(x, spectrum.getPixelLocation().getX());
+            assertEquals(y, spectrum.getPixelLocation().getY());
+            assertSame(spectrum, imzML.getSpectrum(x, y));
+
+            double[] mzs = getExpectedmzs(x, y, continuous);
+
+            assertArrayEquals(mzs, spectrum.getmzArray(), 0);
+            assertArrayEquals(getExpectedIntensities(x, y, mzs.length), spectrum.getIntensityArray(), 0);
+
+            DataLocation mzLocation = spectrum.getBinaryDataArrayList().getmzArray().getDataLocation();
+            DataLocation intensityLocation = spectrum.getBinaryDataArrayList().getIntensityArray().getDataLocation();
+
+            if (continuous && sharedmzLocation != null) {
+                assertEquals(sharedmzLocation.getOffset(), mzLocation.getOffset());
+                assertEquals(sharedmzLocation.getLength(), mzLocation.getLength());
+            } else {
+                sharedmzLocation = mzLocation;
+                locations.add(mzLocation);
+            }
+
+            locations.add(intensityLocation);
+        }
+
+        Collections.sort(locations, new Comparator<DataLocation>() {
+            @Override
+            public int compare(DataLocation location1, DataLocation location2) {
+                return location1.getOffset() < location2.getOffset() ? -1 : (location1.getOffset() == location2.getOffset() ? 0 : 1);
+            }
+        });
+
+        long offset = 16;
+
+        for (DataLocation location : locations) {
+            assertEquals(offset, location.getOffset());
+
+            offset += location.getLength();
+        }
+
+        assertEquals(new File(folder.getRoot(), name + ".ibd").length(), offset);
+    }
+
+    private static String getSpectrumID(int x, int y) {
+        return "x=" + x + " y=" + y;
+    }
+
+    /**
+     * m/z values of the spectrum at (x, y), which are the same for every 
+     * spectrum if continuous, or otherwise differ in length and value.
+     */
+    private static double[] getExpectedmzs(int x, int y, boolean continuous) {
+        if (continuous) {
+            return new double[]{100.5, 200.25, 300.125, 400.0625};
+        }
+
+        double[] mzs = new double[3 + (x + y) % 4];
+
+        for (int i = 0; i < mzs.length; i++) {
+            mzs[i] = 100 + i * 50 + x * 0.1 + y * 0.01;
+        }
+
+        return mzs;
+    }
+
+    private static double[] getExpectedIntensities(int x, int y, int length) {
+        double[] intensities = new double[length];
+
+        for (int i = 0; i < length; i++) {
+            intensities[i] = x * 100 + y + i * 0.5;
+        }
+
+        return intensities;
+    }
 }
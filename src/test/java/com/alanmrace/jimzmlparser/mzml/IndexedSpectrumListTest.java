@@ -0,0 +1,85 @@
+package com.alanmrace.jimzmlparser.mzml;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for IndexedSpectrumList.
+ *
+ * @author Alan Race
+ */
+public class IndexedSpectrumListTest {
+
+    private List<String> ids;
+
+    private List<Integer> loaded;
+
+    private IndexedSpectrumList spectrumList;
+
+    @Before
+    public void setUp() {
+        ids = Arrays.asList("scan=1", "scan=2", "scan=3", "scan=4");
+        loaded = new ArrayList<Integer>();
+
+        spectrumList = new IndexedSpectrumList(null, ids, new SpectrumLoader() {
+            @Override
+            public Spectrum loadSpectrum(int index) throws IOException {
+                loaded.add(index);
+
+                return new Spectrum(ids.get(index), index);
+            }
+        });
+    }
+
+    /**
+     * Test that spectra are only loaded when accessed, of class IndexedSpectrumList.
+     */
+    @Test
+    public void testGet() {
+        assertEquals(4, spectrumList.size());
+        assertTrue(spectrumList.containsID("scan=3"));
+        assertTrue(loaded.isEmpty());
+
+        Spectrum spectrum = spectrumList.getSpectrum("scan=3");
+
+        assertEquals("scan=3", spectrum.getID());
+        assertSame(spectrumList, spectrum.getParent());
+        assertSame(spectrum, spectrumList.get(2));
+        assertEquals(2, spectrumList.indexOf(spectrum));
+        assertNull(spectrumList.get("scan=5"));
+
+        assertEquals(Arrays.asList(2), loaded);
+        assertTrue(spectrumList.isLoaded(2));
+        assertFalse(spectrumList.isLoaded(0));
+
+        int index = 0;
+
+        for (Spectrum current : spectrumList) {
+            assertEquals(ids.get(index++), current.getID());
+        }
+
+        assertEquals(Arrays.asList(2, 0, 1, 3), loaded);
+    }
+
+    /**
+     * Test that modifying the list loads all spectra, of class IndexedSpectrumList.
+     */
+    @Test
+    public void testAdd() {
+        Spectrum first = spectrumList.get(0);
+
+        spectrumList.add(new Spectrum("scan=5", 0));
+
+        assertEquals(Arrays.asList(0, 1, 2, 3), loaded);
+        assertEquals(5, spectrumList.size());
+        assertSame(first, spectrumList.get(0));
+        assertEquals("scan=5", spectrumList.get(4).getID());
+        assertNotNull(spectrumList.get("scan=4"));
+        assertTrue(spectrumList.isLoaded(4));
+    }
+}
@@ -0,0 +1,204 @@
+package com.alanmrace.jimzmlparser.mzml;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for SpectrumList.
+ *
+ * @author Alan Race
+ */
+public class SpectrumListTest {
+
+    private static final int NUM_SPECTRA = 200;
+
+    private SpectrumList spectrumList;
+
+    @Before
+    public void setUp() {
+        spectrumList = new SpectrumList(NUM_SPECTRA, null);
+
+        for (int i = 0; i < NUM_SPECTRA; i++) {
+            spectrumList.add(new DecodedSpectrum(i));
+        }
+    }
+
+    /**
+     * Test of forEachSpectrumParallel method processing spectra in order, of
+     * class SpectrumList.
+     */
+    @Test
+    public void testForEachSpectrumParallelOrdered() throws IOException {
+        final List<Spectrum> processed = new ArrayList<Spectrum>();
+        final Thread callingThread = Thread.currentThread();
+
+        spectrumList.forEachSpectrumParallel(new SpectrumConsumer() {
+            @Override
+            public void accept(Spectrum spectrum, double[] mzs, double[] intensities) throws IOException {
+                assertSame(callingThread, Thread.currentThread());
+                assertDecoded(spectrum, mzs, intensities);
+
+                processed.add(spectrum);
+            }
+        }, 4, true);
+
+        assertEquals(spectrumList.getList(), processed);
+    }
+
+    /**
+     * Test of forEachSpectrumParallel method processing spectra in any order, of
+     * class SpectrumList.
+     */
+    @Test
+    public void testForEachSpectrumParallelUnordered() throws IOException {
+        final AtomicIntegerArray counts = new AtomicIntegerArray(NUM_SPECTRA);
+
+        spectrumList.forEachSpectrumParallel(new SpectrumConsumer() {
+            @Override
+            public void accept(Spectrum spectrum, double[] mzs, double[] intensities) throws IOException {
+                assertDecoded(spectrum, mzs, intensities);
+
+                counts.incrementAndGet(((DecodedSpectrum) spectrum).index);
+            }
+        }, 4, false);
+
+        for (int i = 0; i < NUM_SPECTRA; i++) {
+            assertEquals("Spectrum " + i, 1, counts.get(i));
+        }
+    }
+
+    /**
+     * Test that an exception thrown by the consumer is rethrown, and that no
+     * spectra are still being processed once forEachSpectrumParallel returns, of
+     * class SpectrumList.
+     */
+    @Test
+    public void testForEachSpectrumParallelConsumerException() {
+        for (boolean ordered : new boolean[]{true, false}) {
+            FailingConsumer ioConsumer = new FailingConsumer(new IOException("Failed"));
+
+            try {
+                spectrumList.forEachSpectrumParallel(ioConsumer, 4, ordered);
+                fail("Expected IOException");
+            } catch (IOException ex) {
+                assertSame(ioConsumer.exception, ex);
+            }
+
+            assertEquals(0, ioConsumer.inProgress.get());
+            assertTrue(ioConsumer.processed.get() < NUM_SPECTRA);
+
+            FailingConsumer runtimeConsumer = new FailingConsumer(new IllegalStateException("Failed"));
+
+            try {
+                spectrumList.forEachSpectrumParallel(runtimeConsumer, 4, ordered);
+                fail("Expected IllegalStateException");
+            } catch (IllegalStateException ex) {
+                assertSame(runtimeConsumer.exception, ex);
+            } catch (IOException ex) {
+                fail("Unexpected IOException: " + ex);
+            }
+
+            assertEquals(0, runtimeConsumer.inProgress.get());
+        }
+    }
+
+    /**
+     * Test that an exception thrown while decoding a spectrum is rethrown, of
+     * class SpectrumList.
+     */
+    @Test
+    public void testForEachSpectrumParallelDecodeException() {
+        spectrumList.add(new DecodedSpectrum(-1));
+
+        for (boolean ordered : new boolean[]{true, false}) {
+            try {
+                spectrumList.forEachSpectrumParallel(new FailingConsumer(null), 4, ordered);
+                fail("Expected IOException");
+            } catch (IOException ex) {
+                assertEquals("Failed to decode", ex.getMessage());
+            }
+        }
+    }
+
+    private static void assertDecoded(Spectrum spectrum, double[] mzs, double[] intensities) {
+        int index = ((DecodedSpectrum) spectrum).index;
+
+        assertEquals(index, mzs[0], 0);
+        assertEquals(index * 2, intensities[0], 0);
+    }
+
+    /**
+     * Spectrum with a known index which decodes its arrays from the index, or
+     * fails to decode if the index is negative.
+     */
+    private static class DecodedSpectrum extends Spectrum {
+
+        private final int index;
+
+        DecodedSpectrum(int index) {
+            super("scan=" + index, 1);
+
+            this.index = index;
+        }
+
+        @Override
+        public double[] getmzArray() throws IOException {
+            if (index < 0) {
+                throw new IOException("Failed to decode");
+            }
+
+            return new double[]{index};
+        }
+
+        @Override
+        public double[] getIntensityArray() throws IOException {
+            return new double[]{index * 2};
+        }
+    }
+
+    /**
+     * Consumer which throws the exception when processing spectrum 50, after
+     * briefly processing each spectrum.
+     */
+    private static class FailingConsumer implements SpectrumConsumer {
+
+        private final Exception exception;
+
+        private final AtomicInteger inProgress = new AtomicInteger();
+
+        private final AtomicInteger processed = new AtomicInteger();
+
+        FailingConsumer(Exception exception) {
+            this.exception = exception;
+        }
+
+        @Override
+        public void accept(Spectrum spectrum, double[] mzs, double[] intensities) throws IOException {
+            inProgress.incrementAndGet();
+
+            try {
+                Thread.sleep(1);
+
+                if (exception != null && ((DecodedSpectrum) spectrum).index == 50) {
+                    if (exception instanceof IOException) {
+                        throw (IOException) exception;
+                    }
+
+                    throw (RuntimeException) exception;
+                }
+
+                processed.incrementAndGet();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inProgress.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.alanmrace.jimzmlparser.parser;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for Base64StreamDecoder.
+ *
+ * @author Alan Race
+ */
+public class Base64StreamDecoderTest {
+
+    /**
+     * Test of decoding data supplied in chunks of varying size, of class
+     * Base64StreamDecoder.
+     */
+    @Test
+    public void testDecode() throws Exception {
+        Random random = new Random(0);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Base64StreamDecoder decoder = new Base64StreamDecoder(output, 5);
+
+        for (int length = 0; length < 100; length++) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+
+            // Line breaks and surrounding whitespace should be ignored
+            char[] encoded = ("\n  " + Base64.encodeBase64String(data) + "\n").toCharArray();
+
+            for (int start = 0; start < encoded.length;) {
+                int chunk = Math.min(encoded.length - start, random.nextInt(10));
+
+                decoder.decode(encoded, start, chunk);
+                start += chunk;
+            }
+
+            assertEquals(length, decoder.end());
+            assertArrayEquals(data, output.toByteArray());
+
+            output.reset();
+        }
+    }
+
+    /**
+     * Test of decoding data which is not correctly padded, of class
+     * Base64StreamDecoder.
+     */
+    @Test
+    public void testDecodeUnpadded() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Base64StreamDecoder decoder = new Base64StreamDecoder(output);
+
+        for (String encoded : new String[] {"QUJD", "QUI", "QQ", "QUI=QUJD", "Q"}) {
+            decoder.decode(encoded.toCharArray(), 0, encoded.length());
+
+            byte[] expected = Base64.decodeBase64(encoded);
+
+            assertEquals(encoded, expected.length, decoder.end());
+            assertArrayEquals(encoded, expected, output.toByteArray());
+
+            output.reset();
+        }
+    }
+}
@@ -5,10 +5,17 @@ import com.alanmrace.jimzmlparser.exceptions.FatalParseException;
 import com.alanmrace.jimzmlparser.exceptions.InvalidFormatIssue;
 import com.alanmrace.jimzmlparser.exceptions.Issue;
 import com.alanmrace.jimzmlparser.exceptions.MzMLParseException;
+import com.alanmrace.jimzmlparser.mzml.IndexedSpectrumList;
 import com.alanmrace.jimzmlparser.mzml.MzML;
+import com.alanmrace.jimzmlparser.mzml.Spectrum;
+import com.alanmrace.jimzmlparser.mzml.SpectrumConsumer;
+import com.alanmrace.jimzmlparser.mzml.SpectrumList;
 import com.alanmrace.jimzmlparser.writer.MzMLWriter;
+import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 import org.junit.Ignore;
@@ -188,6 +195,120 @@ public class MzMLHeaderHandlerTest {
         validateMzML(resourcePath);
     }
 
+    /**
+     * Test that opening an indexed mzML file from its index gives the same spectra,
+     * loaded when accessed, as parsing the whole file, of class MzMLHeaderHandler.
+     * 
+     * @throws Exception ParseException thrown if invalid mzML or file missing
+     */
+    @Test
+    public void testParseIndexedmzML() throws Exception {
+        String resourcePath = MzMLHeaderHandlerTest.class.getResource(TINY_PWIZ_RESOURCE).getPath();
+        
+        assertNotNull(MzMLIndex.read(new File(resourcePath)));
+        
+        MzML expected = MzMLHeaderHandler.parsemzMLHeader(resourcePath);
+        MzML indexed = MzMLHeaderHandler.parseIndexedmzML(resourcePath);
+        
+        try {
+            assertTrue(indexed.getRun().getSpectrumList() instanceof IndexedSpectrumList);
+            
+            IndexedSpectrumList spectrumList = (IndexedSpectrumList) indexed.getRun().getSpectrumList();
+            
+            assertFalse(spectrumList.isLoaded(0));
+            
+            assertSameSpectra(expected.getRun().getSpectrumList(), spectrumList);
+            assertEquals(expected.getRun().getChromatogramList().size(), indexed.getRun().getChromatogramList().size());
+        } finally {
+            expected.close();
+            indexed.close();
+        }
+    }
+    
+    /**
+     * Test that the spectra of an indexed mzML file are loaded in parallel by 
+     * forEachSpectrumParallel, of class MzMLHeaderHandler and IndexedSpectrumList.
+     * 
+     * @throws Exception ParseException thrown if invalid mzML or file missing
+     */
+    @Test
+    public void testParseIndexedmzMLParallel() throws Exception {
+        String resourcePath = MzMLHeaderHandlerTest.class.getResource(TINY_PWIZ_RESOURCE).getPath();
+        
+        MzML expected = MzMLHeaderHandler.parsemzMLHeader(resourcePath);
+        MzML indexed = MzMLHeaderHandler.parseIndexedmzML(resourcePath);
+        
+        try {
+            final Map<String, double[]> intensities = new ConcurrentHashMap<String, double[]>();
+            IndexedSpectrumList spectrumList = (IndexedSpectrumList) indexed.getRun().getSpectrumList();
+            
+            spectrumList.forEachSpectrumParallel(new SpectrumConsumer() {
+                @Override
+                public void accept(Spectrum spectrum, double[] mzs, double[] spectrumIntensities) {
+                    intensities.put(spectrum.getID(), spectrumIntensities);
+                }
+            }, 4, false);
+            
+            assertEquals(expected.getRun().getSpectrumList().size(), intensities.size());
+            
+            for (Spectrum spectrum : expected.getRun().getSpectrumList()) {
+                assertArrayEquals(spectrum.getIntensityArray(), intensities.get(spectrum.getID()), 0);
+                assertTrue(spectrumList.isLoaded(spectrumList.indexOf(spectrumList.get(spectrum.getID()))));
+            }
+        } finally {
+            expected.close();
+            indexed.close();
+        }
+    }
+    
+    /**
+     * Test that a file whose index is out of date is parsed in full, of class
+     * MzMLHeaderHandler.
+     * 
+     * @throws Exception ParseException thrown if invalid mzML or file missing
+     */
+    @Test
+    public void testParseIndexedmzMLStaleIndex() throws Exception {
+        String resourcePath = MzMLHeaderHandlerTest.class.getResource(FULL_PWIZ_RESOURCE).getPath();
+        
+        // The indexListOffset is that of tiny.pwiz.1.1.mzML, rather than the true offset
+        assertNull(MzMLIndex.read(new File(resourcePath)));
+        
+        MzML expected = MzMLHeaderHandler.parsemzMLHeader(resourcePath);
+        MzML indexed = MzMLHeaderHandler.parseIndexedmzML(resourcePath);
+        
+        try {
+            assertFalse(indexed.getRun().getSpectrumList() instanceof IndexedSpectrumList);
+            
+            assertSameSpectra(expected.getRun().getSpectrumList(), indexed.getRun().getSpectrumList());
+        } finally {
+            expected.close();
+            indexed.close();
+        }
+    }
+    
+    /**
+     * Check that two SpectrumLists contain the same spectra, with the same data.
+     * 
+     * @param expected Expected spectra
+     * @param actual Spectra to check
+     * @throws IOException Issue reading the data
+     */
+    private static void assertSameSpectra(SpectrumList expected, SpectrumList actual) throws IOException {
+        assertEquals(expected.size(), actual.size());
+        
+        for (int i = 0; i < expected.size(); i++) {
+            Spectrum expectedSpectrum = expected.get(i);
+            Spectrum actualSpectrum = actual.get(i);
+            
+            assertEquals(expectedSpectrum.getID(), actualSpectrum.getID());
+            assertSame(actualSpectrum, actual.get(expectedSpectrum.getID()));
+            assertEquals(expectedSpectrum.getCVParamList().size(), actualSpectrum.getCVParamList().size());
+            assertArrayEquals(expectedSpectrum.getmzArray(), actualSpectrum.getmzArray(), 0);
+            assertArrayEquals(expectedSpectrum.getIntensityArray(), actualSpectrum.getIntensityArray(), 0);
+        }
+    }
+
     @Test
     @Ignore
     public void testIncorrectValue() throws MzMLParseException {
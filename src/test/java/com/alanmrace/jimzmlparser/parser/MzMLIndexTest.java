@@ -0,0 +1,91 @@
+package com.alanmrace.jimzmlparser.parser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for MzMLIndex.
+ *
+ * @author Alan Race
+ */
+public class MzMLIndexTest {
+
+    private static final String TINY_PWIZ_RESOURCE = "/tiny.pwiz.1.1.mzML";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test of read method, of class MzMLIndex.
+     */
+    @Test
+    public void testRead() throws Exception {
+        assertNotNull("Test file missing", MzMLIndexTest.class.getResource(TINY_PWIZ_RESOURCE));
+
+        File file = new File(MzMLIndexTest.class.getResource(TINY_PWIZ_RESOURCE).getPath());
+        MzMLIndex index = MzMLIndex.read(file);
+
+        assertNotNull(index);
+        assertEquals(24498, index.getIndexListOffset());
+        assertEquals(Arrays.asList("scan=19", "scan=20", "scan=21", "sample=1 period=1 cycle=22 experiment=1"), index.getIDs(MzMLIndex.SPECTRUM_INDEX));
+        assertEquals(Arrays.asList("tic", "sic"), index.getIDs(MzMLIndex.CHROMATOGRAM_INDEX));
+        assertTrue(index.getIDs("other").isEmpty());
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals("<spectrum", readString(file, index.getOffset(MzMLIndex.SPECTRUM_INDEX, i), 9));
+        }
+
+        // The last spectrum is followed by the chromatograms, and the last chromatogram by the indexList
+        assertEquals(index.getOffset(MzMLIndex.SPECTRUM_INDEX, 1), index.getEndOffset(MzMLIndex.SPECTRUM_INDEX, 0));
+        assertEquals(index.getOffset(MzMLIndex.CHROMATOGRAM_INDEX, 0), index.getEndOffset(MzMLIndex.SPECTRUM_INDEX, 3));
+        assertEquals(index.getIndexListOffset(), index.getEndOffset(MzMLIndex.CHROMATOGRAM_INDEX, 1));
+    }
+
+    /**
+     * Test of read method with files which are not correctly indexed, of class 
+     * MzMLIndex.
+     */
+    @Test
+    public void testReadNotIndexed() throws Exception {
+        File notIndexed = folder.newFile("notIndexed.mzML");
+        writeString(notIndexed, "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<mzML></mzML>\n");
+
+        assertNull(MzMLIndex.read(notIndexed));
+
+        File wrongOffset = folder.newFile("wrongOffset.mzML");
+        writeString(wrongOffset, "<indexedmzML><mzML></mzML>\n<indexList count=\"0\"></indexList>\n<indexListOffset>2</indexListOffset>\n</indexedmzML>\n");
+
+        assertNull(MzMLIndex.read(wrongOffset));
+    }
+
+    private static String readString(File file, long offset, int length) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        try {
+            byte[] data = new byte[length];
+
+            raf.seek(offset);
+            raf.readFully(data);
+
+            return new String(data, "UTF-8");
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void writeString(File file, String content) throws Exception {
+        FileOutputStream outputStream = new FileOutputStream(file);
+
+        try {
+            outputStream.write(content.getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+    }
+}
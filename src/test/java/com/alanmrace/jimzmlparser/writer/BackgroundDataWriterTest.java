@@ -0,0 +1,182 @@
+package com.alanmrace.jimzmlparser.writer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for BackgroundDataWriter.
+ *
+ * @author Alan Race
+ */
+public class BackgroundDataWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test of writing data larger and smaller than the buffers, of class
+     * BackgroundDataWriter.
+     */
+    @Test
+    public void testWrite() throws Exception {
+        File file = folder.newFile("test.ibd");
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        Random random = new Random(0);
+
+        BackgroundDataWriter writer = new BackgroundDataWriter(file, digest, 1000, 2);
+
+        for (int i = 0; i < 200; i++) {
+            byte[] data = new byte[random.nextInt(2500)];
+            random.nextBytes(data);
+
+            assertEquals(expected.size(), writer.getPosition());
+
+            writer.write(data);
+            expected.write(data);
+
+            if (i % 50 == 0) {
+                writer.flush();
+            }
+        }
+
+        assertEquals(expected.size(), writer.getPosition());
+
+        writer.close();
+
+        byte[] expectedData = expected.toByteArray();
+
+        assertArrayEquals(expectedData, readFile(file));
+        assertArrayEquals(MessageDigest.getInstance("SHA-1").digest(expectedData), digest.digest());
+    }
+
+    /**
+     * Test that existing content is discarded and that the writer cannot be
+     * used once closed, of class BackgroundDataWriter.
+     */
+    @Test
+    public void testClose() throws Exception {
+        File file = folder.newFile("test.ibd");
+
+        BackgroundDataWriter writer = new BackgroundDataWriter(file, null, 16, 2);
+        writer.write(new byte[100]);
+        writer.close();
+
+        writer = new BackgroundDataWriter(file, null, 16, 2);
+        writer.write(new byte[] {1, 2, 3});
+        writer.close();
+        writer.close();
+
+        assertArrayEquals(new byte[] {1, 2, 3}, readFile(file));
+
+        try {
+            writer.write(new byte[1]);
+            fail("Expected IOException");
+        } catch (IOException ex) {
+            // Expected
+        }
+    }
+
+    /**
+     * Test that aborting stops the background threads and closes the file, of
+     * class BackgroundDataWriter.
+     */
+    @Test(timeout = 10000)
+    public void testAbort() throws Exception {
+        File file = folder.newFile("test.ibd");
+
+        BackgroundDataWriter writer = new BackgroundDataWriter(file, MessageDigest.getInstance("SHA-1"), 16, 2);
+        writer.write(new byte[100]);
+        writer.abort();
+        writer.abort();
+
+        assertFalse(isThreadAlive("BackgroundDataWriter I/O test.ibd"));
+        assertFalse(isThreadAlive("BackgroundDataWriter checksum test.ibd"));
+
+        // The file is closed, so can be deleted
+        assertTrue(file.delete());
+
+        try {
+            writer.write(new byte[1]);
+            fail("Expected IOException");
+        } catch (IOException ex) {
+            // Expected
+        }
+    }
+
+    /**
+     * Test that a failure calculating the checksum is reported rather than
+     * waiting forever for a buffer, of class BackgroundDataWriter.
+     */
+    @Test(timeout = 10000)
+    public void testChecksumFailure() throws Exception {
+        File file = folder.newFile("test.ibd");
+
+        MessageDigest failingDigest = new MessageDigest("failing") {
+            @Override
+            protected void engineUpdate(byte input) {
+                throw new IllegalStateException("Failed");
+            }
+
+            @Override
+            protected void engineUpdate(byte[] input, int offset, int len) {
+                throw new IllegalStateException("Failed");
+            }
+
+            @Override
+            protected byte[] engineDigest() {
+                return new byte[0];
+            }
+
+            @Override
+            protected void engineReset() {
+            }
+        };
+
+        BackgroundDataWriter writer = new BackgroundDataWriter(file, failingDigest, 16, 2);
+
+        try {
+            for (int i = 0; i < 100; i++) {
+                writer.write(new byte[16]);
+            }
+
+            writer.close();
+            fail("Expected IOException");
+        } catch (IOException ex) {
+            // Expected
+        } finally {
+            writer.abort();
+        }
+    }
+
+    private static boolean isThreadAlive(String name) {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (name.equals(thread.getName()) && thread.isAlive()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        try {
+            byte[] data = new byte[(int) raf.length()];
+            raf.readFully(data);
+
+            return data;
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.alanmrace.jimzmlparser.writer;
+
+import com.alanmrace.jimzmlparser.data.DataTransformation;
+import com.alanmrace.jimzmlparser.data.DataTypeTransform.DataType;
+import com.alanmrace.jimzmlparser.mzml.BinaryDataArray;
+import com.alanmrace.jimzmlparser.mzml.BinaryDataArray.CompressionType;
+import com.alanmrace.jimzmlparser.mzml.ReferenceableParamGroup;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for CompressionSelector.
+ *
+ * @author Alan Race
+ */
+public class CompressionSelectorTest {
+
+    /**
+     * Test that the smallest compression is chosen when the read bandwidth is
+     * low, of class CompressionSelector.
+     */
+    @Test
+    public void testSelectSmallest() throws Exception {
+        List<double[]> samples = new ArrayList<double[]>();
+
+        for (int i = 0; i < 10; i++) {
+            double[] data = new double[1000];
+
+            for (int j = 0; j < data.length; j++) {
+                data[j] = (j % 10) * 100;
+            }
+
+            samples.add(data);
+        }
+
+        CompressionSelector selector = new CompressionSelector();
+        selector.setReadBandwidth(1);
+
+        CompressionType selected = selector.select(samples, DataType.FLOAT);
+
+        int selectedSize = compressedSize(samples, DataType.FLOAT, selected);
+
+        for (CompressionType candidate : selector.getCandidates()) {
+            assertTrue(selectedSize <= compressedSize(samples, DataType.FLOAT, candidate));
+        }
+
+        assertNotEquals(CompressionType.NONE, selected);
+    }
+
+    /**
+     * Test that incompressible data is not compressed when the read bandwidth
+     * is low, of class CompressionSelector.
+     */
+    @Test
+    public void testSelectIncompressible() throws Exception {
+        Random random = new Random(0);
+        double[] data = new double[10000];
+
+        for (int i = 0; i < data.length; i++) {
+            data[i] = Double.longBitsToDouble(random.nextLong());
+        }
+
+        CompressionSelector selector = new CompressionSelector();
+        selector.setReadBandwidth(1);
+
+        assertEquals(CompressionType.NONE, selector.select(data, DataType.DOUBLE));
+    }
+
+    /**
+     * Test of choosing from a single candidate, of class CompressionSelector.
+     */
+    @Test
+    public void testSingleCandidate() {
+        CompressionSelector selector = new CompressionSelector(CompressionType.MSNUMPRESS_LINEAR_ZSTD);
+
+        assertEquals(CompressionType.MSNUMPRESS_LINEAR_ZSTD, selector.select(new double[] {1, 2, 3}, DataType.DOUBLE));
+    }
+
+    /**
+     * Test that filtered compression types, which only this library can read,
+     * are refused unless allowed, of class CompressionSelector.
+     */
+    @Test
+    public void testFilteredCandidate() {
+        assertFalse(BinaryDataArray.isFilteredCompressionAllowed());
+
+        try {
+            new CompressionSelector(CompressionType.ZLIB, CompressionType.BYTE_SHUFFLE_ZLIB);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // Expected
+        }
+
+        try {
+            BinaryDataArray.setCompression(new ReferenceableParamGroup("test"), CompressionType.DELTA_BYTE_SHUFFLE_LZ4);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // Expected
+        }
+
+        BinaryDataArray.setFilteredCompressionAllowed(true);
+
+        try {
+            CompressionSelector selector = new CompressionSelector(CompressionType.BYTE_SHUFFLE_ZLIB);
+
+            assertEquals(CompressionType.BYTE_SHUFFLE_ZLIB, selector.select(new double[] {1, 2, 3}, DataType.DOUBLE));
+        } finally {
+            BinaryDataArray.setFilteredCompressionAllowed(false);
+        }
+    }
+
+    private static int compressedSize(List<double[]> samples, DataType dataType, CompressionType compression) throws Exception {
+        DataTransformation transformation = BinaryDataArray.generateDataTransformation(dataType, compression);
+        int size = 0;
+
+        for (double[] sample : samples) {
+            size += transformation.performForwardTransform(sample).length;
+        }
+
+        return size;
+    }
+}
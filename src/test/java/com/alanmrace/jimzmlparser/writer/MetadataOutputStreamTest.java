@@ -0,0 +1,83 @@
+package com.alanmrace.jimzmlparser.writer;
+
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.util.Random;
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for MetadataOutputStream.
+ *
+ * @author Alan Race
+ */
+public class MetadataOutputStreamTest {
+
+    /**
+     * Test of writing strings and bytes across the buffer boundary, of class
+     * MetadataOutputStream.
+     */
+    @Test
+    public void testWrite() throws Exception {
+        for (String encoding : new String[] {"ISO-8859-1", "UTF-8", "UTF-16"}) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+
+            MetadataOutputStream output = new MetadataOutputStream(bytes, encoding, digest, 16);
+
+            String[] strings = {"<spectrum id=\"scan=1\">\n", "", "m/z \u00e5 \u00b5", "  <cvParam accession=\"MS:1000511\" value=\"1\"/>\n"};
+
+            for (int i = 0; i < 20; i++) {
+                String str = strings[i % strings.length];
+
+                output.write(str);
+                expected.write(str.getBytes(encoding));
+
+                assertEquals(expected.size(), output.getPosition());
+
+                byte[] data = new byte[i * 3];
+                output.write(data, 0, data.length);
+                expected.write(data);
+            }
+
+            assertEquals(expected.size(), output.getPosition());
+            assertArrayEquals(MessageDigest.getInstance("SHA-1").digest(expected.toByteArray()), output.digest());
+
+            output.close();
+
+            assertArrayEquals(encoding, expected.toByteArray(), bytes.toByteArray());
+        }
+    }
+
+    /**
+     * Test of writeBase64 method, of class MetadataOutputStream.
+     */
+    @Test
+    public void testWriteBase64() throws Exception {
+        Random random = new Random(0);
+
+        for (String encoding : new String[] {"ISO-8859-1", "UTF-16BE"}) {
+            for (int length = 0; length < 100; length++) {
+                byte[] data = new byte[length];
+                random.nextBytes(data);
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                MetadataOutputStream output = new MetadataOutputStream(bytes, encoding, null, 10);
+
+                output.write("<binary>");
+                output.writeBase64(data, 0, data.length);
+                output.write("</binary>");
+
+                String expected = "<binary>" + new String(Base64.encodeBase64(data), "US-ASCII") + "</binary>";
+
+                assertEquals(expected.getBytes(encoding).length, output.getPosition());
+
+                output.close();
+
+                assertEquals(expected, new String(bytes.toByteArray(), encoding));
+            }
+        }
+    }
+}